@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avro.generic;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.io.DatumReader;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+import org.apache.avro.util.Utf8Interner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link DatumReader} that compiles its schema once into a tree of readers, one per schema
+ * node. It only reads data that was written with the same schema, so it reads directly from
+ * the decoder instead of resolving the schema with a
+ * {@link org.apache.avro.io.ResolvingDecoder}. Use {@link GenericDatumReader} to read data
+ * that was written with another schema.
+ */
+public class CompiledDatumReader<D> implements DatumReader<D> {
+  private final GenericData data;
+  private final Schema schema;
+  private final ValueReader rootReader;
+  private boolean utf8Strings = false;
+  private Utf8Interner stringInterner = null;
+
+  public CompiledDatumReader(Schema schema) {
+    this(schema, GenericData.get());
+  }
+
+  public CompiledDatumReader(Schema schema, GenericData data) {
+    this.data = data;
+    this.schema = schema;
+    this.rootReader = compile(schema, new IdentityHashMap<>());
+  }
+
+  /** Return the {@link GenericData} implementation. */
+  public GenericData getData() {
+    return data;
+  }
+
+  /** Return the writer's and reader's schema. */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /** Whether strings are read as {@link Utf8}. */
+  public boolean isUtf8Strings() {
+    return utf8Strings;
+  }
+
+  /**
+   * Read strings as {@link Utf8} instead of {@link String}.
+   *
+   * @see GenericDatumReader#setUtf8Strings(boolean)
+   */
+  public void setUtf8Strings(boolean utf8Strings) {
+    this.utf8Strings = utf8Strings;
+  }
+
+  /** Return the interner of strings that are read, or null if there is none. */
+  public Utf8Interner getStringInterner() {
+    return stringInterner;
+  }
+
+  /**
+   * Intern the strings that are read. While an interner is set, this reader must
+   * be used by one thread at a time.
+   *
+   * @see GenericDatumReader#setStringInterner(Utf8Interner)
+   */
+  public void setStringInterner(Utf8Interner stringInterner) {
+    this.stringInterner = stringInterner;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public D read(D reuse, Decoder in) throws IOException {
+    return (D) rootReader.read(reuse, in);
+  }
+
+  private Object readString(Object old, Decoder in) throws IOException {
+    if (stringInterner != null) {
+      Utf8 value = stringInterner.read(in);
+      return utf8Strings ? value : value.toString();
+    } else if (utf8Strings) {
+      return in.readString(old instanceof Utf8 ? (Utf8) old : null);
+    } else {
+      return in.readString();
+    }
+  }
+
+  /** Reads a datum of a single schema node. */
+  private interface ValueReader {
+    Object read(Object old, Decoder in) throws IOException;
+  }
+
+  private ValueReader compile(Schema schema, Map<Schema, RecordReader> records) {
+    switch (schema.getType()) {
+    case RECORD: {
+      RecordReader reader = records.get(schema);
+      if (reader == null) {
+        // register before compiling the fields, to support recursive schemas
+        reader = new RecordReader(schema);
+        records.put(schema, reader);
+        reader.compileFields(records);
+      }
+      return reader;
+    }
+    case ENUM:
+      return new EnumReader(schema);
+    case ARRAY:
+      return new ArrayReader(schema, compile(schema.getElementType(), records));
+    case MAP:
+      return new MapReader(compile(schema.getValueType(), records));
+    case UNION: {
+      List<Schema> types = schema.getTypes();
+      ValueReader[] readers = new ValueReader[types.size()];
+      for (int i = 0; i < readers.length; i++) {
+        readers[i] = compile(types.get(i), records);
+      }
+      return (old, in) -> readers[in.readIndex()].read(old, in);
+    }
+    case FIXED: {
+      int size = schema.getFixedSize();
+      return (old, in) -> {
+        GenericFixed fixed = (GenericFixed) data.createFixed(old, schema);
+        in.readFixed(fixed.bytes(), 0, size);
+        return fixed;
+      };
+    }
+    case STRING:
+      return this::readString;
+    case BYTES:
+      return (old, in) -> in.readBytes(old instanceof ByteBuffer ? (ByteBuffer) old : null);
+    case INT:
+      return (old, in) -> in.readInt();
+    case LONG:
+      return (old, in) -> in.readLong();
+    case FLOAT:
+      return (old, in) -> in.readFloat();
+    case DOUBLE:
+      return (old, in) -> in.readDouble();
+    case BOOLEAN:
+      return (old, in) -> in.readBoolean();
+    case NULL:
+      return (old, in) -> {
+        in.readNull();
+        return null;
+      };
+    default:
+      throw new AvroRuntimeException("Unknown type: " + schema);
+    }
+  }
+
+  private final class RecordReader implements ValueReader {
+    private final Schema schema;
+    private final GenericData.InstanceSupplier supplier;
+    private Field[] fields;
+    private ValueReader[] readers;
+
+    RecordReader(Schema schema) {
+      this.schema = schema;
+      this.supplier = data.getNewRecordSupplier(schema);
+    }
+
+    void compileFields(Map<Schema, RecordReader> records) {
+      List<Field> schemaFields = schema.getFields();
+      Field[] compiledFields = new Field[schemaFields.size()];
+      ValueReader[] compiledReaders = new ValueReader[compiledFields.length];
+      for (int i = 0; i < compiledFields.length; i++) {
+        Field field = schemaFields.get(i);
+        compiledFields[i] = field;
+        compiledReaders[i] = compile(field.schema(), records);
+      }
+      fields = compiledFields;
+      readers = compiledReaders;
+    }
+
+    @Override
+    public Object read(Object old, Decoder in) throws IOException {
+      Object record = supplier.newInstance(old, schema);
+      for (int i = 0; i < fields.length; i++) {
+        Field f = fields[i];
+        Object oldDatum = old != null ? data.getField(record, f.name(), f.pos()) : null;
+        data.setField(record, f.name(), f.pos(), readers[i].read(oldDatum, in));
+      }
+      return record;
+    }
+  }
+
+  private final class EnumReader implements ValueReader {
+    private final Schema schema;
+    /** Enum values by ordinal, created on first use. */
+    private final Object[] values;
+
+    EnumReader(Schema schema) {
+      this.schema = schema;
+      this.values = new Object[schema.getEnumSymbols().size()];
+    }
+
+    @Override
+    public Object read(Object old, Decoder in) throws IOException {
+      int ordinal = in.readEnum();
+      Object value = values[ordinal];
+      if (value == null) {
+        value = data.createEnum(schema.getEnumSymbols().get(ordinal), schema);
+        values[ordinal] = value;
+      }
+      return value;
+    }
+  }
+
+  private final class ArrayReader implements ValueReader {
+    private final Schema schema;
+    private final ValueReader elementReader;
+
+    ArrayReader(Schema schema, ValueReader elementReader) {
+      this.schema = schema;
+      this.elementReader = elementReader;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object read(Object old, Decoder in) throws IOException {
+      long l = in.readArrayStart();
+      Object array = data.newArray(old, (int) l, schema);
+      if (l > 0) {
+        Collection<Object> collection = (Collection<Object>) array;
+        GenericArray<?> genericArray = array instanceof GenericArray ? (GenericArray<?>) array : null;
+        do {
+          for (long i = 0; i < l; i++) {
+            Object reuse = genericArray != null ? genericArray.peek() : null;
+            collection.add(elementReader.read(reuse, in));
+          }
+        } while ((l = in.arrayNext()) > 0);
+      }
+      if (array instanceof GenericArray) {
+        ((GenericArray<?>) array).prune();
+      }
+      return array;
+    }
+  }
+
+  private final class MapReader implements ValueReader {
+    private final ValueReader valueReader;
+
+    MapReader(ValueReader valueReader) {
+      this.valueReader = valueReader;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object read(Object old, Decoder in) throws IOException {
+      long l = in.readMapStart();
+      Map<Object, Object> map = (Map<Object, Object>) data.newMap(old, (int) l);
+      if (l > 0) {
+        do {
+          for (int i = 0; i < l; i++) {
+            map.put(readString(null, in), valueReader.read(null, in));
+          }
+        } while ((l = in.mapNext()) > 0);
+      }
+      return map;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avro.generic;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.specific.SpecificRecord;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates data like {@link GenericData#validate(Schema, Object)}, with a plan that is
+ * compiled once per schema. Fields of a {@link SpecificRecord} that has the exact schema
+ * instance that is validated already have the right Java type, so for those only the checks
+ * that the type system cannot guarantee are done: whether required values are set, whether
+ * floating point values are accepted by {@link GenericData#isFloat(Object)} and
+ * {@link GenericData#isDouble(Object)}, and whether generic enum symbols exist. Other data is
+ * validated by {@link GenericData#validate(Schema, Object)}.
+ */
+public class CompiledDatumValidator {
+  private final GenericData data;
+  private final Schema schema;
+  private final Check rootCheck;
+
+  public CompiledDatumValidator(Schema schema) {
+    this(schema, GenericData.get());
+  }
+
+  public CompiledDatumValidator(Schema schema, GenericData data) {
+    this.data = data;
+    this.schema = schema;
+    Check check = compile(schema, new IdentityHashMap<>());
+    if (schema.getType() != Schema.Type.RECORD) {
+      // only records guarantee the types of their values
+      check = datum -> data.validate(schema, datum);
+    }
+    this.rootCheck = check;
+  }
+
+  /** Return the {@link GenericData} implementation. */
+  public GenericData getData() {
+    return data;
+  }
+
+  /** Return the schema that this validator was compiled for. */
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /** Returns true if a Java datum matches the schema. */
+  public boolean validate(Object datum) {
+    return rootCheck.check(datum);
+  }
+
+  /**
+   * Checks a datum that is either null or has the Java type that the schema node is mapped to.
+   */
+  private interface Check {
+    boolean check(Object datum);
+  }
+
+  private Check compile(Schema schema, Map<Schema, RecordCheck> records) {
+    switch (schema.getType()) {
+    case RECORD: {
+      RecordCheck check = records.get(schema);
+      if (check == null) {
+        // register before compiling the fields, to support recursive schemas
+        check = new RecordCheck(schema);
+        records.put(schema, check);
+        check.compileFields(records);
+      }
+      return check;
+    }
+    case ENUM:
+      return datum -> datum instanceof Enum || data.validate(schema, datum);
+    case ARRAY: {
+      Check elementCheck = compile(schema.getElementType(), records);
+      return datum -> {
+        if (!(datum instanceof Collection)) {
+          return data.validate(schema, datum);
+        }
+        for (Object element : (Collection<?>) datum) {
+          if (!elementCheck.check(element))
+            return false;
+        }
+        return true;
+      };
+    }
+    case MAP: {
+      Check valueCheck = compile(schema.getValueType(), records);
+      return datum -> {
+        if (!(datum instanceof Map)) {
+          return data.validate(schema, datum);
+        }
+        for (Object value : ((Map<?, ?>) datum).values()) {
+          if (!valueCheck.check(value))
+            return false;
+        }
+        return true;
+      };
+    }
+    case UNION: {
+      List<Schema> types = schema.getTypes();
+      if (types.size() == 2) {
+        int nullIndex = types.get(0).getType() == Schema.Type.NULL ? 0
+            : types.get(1).getType() == Schema.Type.NULL ? 1 : -1;
+        if (nullIndex != -1) {
+          Check valueCheck = compile(types.get(1 - nullIndex), records);
+          return datum -> datum == null || valueCheck.check(datum);
+        }
+      }
+      return datum -> data.validate(schema, datum);
+    }
+    case FLOAT:
+      return data::isFloat;
+    case DOUBLE:
+      return data::isDouble;
+    case NULL:
+      return datum -> datum == null;
+    case FIXED:
+      return datum -> data.validate(schema, datum);
+    default:
+      // the Java type already matches the schema
+      return datum -> datum != null;
+    }
+  }
+
+  private final class RecordCheck implements Check {
+    private final Schema schema;
+    private Field[] fields;
+    private Check[] checks;
+
+    RecordCheck(Schema schema) {
+      this.schema = schema;
+    }
+
+    void compileFields(Map<Schema, RecordCheck> records) {
+      List<Field> schemaFields = schema.getFields();
+      Field[] compiledFields = new Field[schemaFields.size()];
+      Check[] compiledChecks = new Check[compiledFields.length];
+      for (int i = 0; i < compiledFields.length; i++) {
+        Field field = schemaFields.get(i);
+        compiledFields[i] = field;
+        compiledChecks[i] = compile(field.schema(), records);
+      }
+      fields = compiledFields;
+      checks = compiledChecks;
+    }
+
+    @Override
+    public boolean check(Object datum) {
+      if (!(datum instanceof SpecificRecord) || ((SpecificRecord) datum).getSchema() != schema) {
+        // field types are not known
+        return data.validate(schema, datum);
+      }
+      for (int i = 0; i < fields.length; i++) {
+        Field f = fields[i];
+        if (!checks[i].check(data.getField(datum, f.name(), f.pos())))
+          return false;
+      }
+      return true;
+    }
+  }
+}
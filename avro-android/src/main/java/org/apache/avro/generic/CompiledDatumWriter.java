@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avro.generic;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.JsonProperties;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.UnresolvedUnionException;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * {@link DatumWriter} that compiles its schema once into a tree of writers, one per schema
+ * node. It writes the same binary data as {@link GenericDatumWriter}, but it does not switch
+ * on the schema type for every datum. Unions of null and a single other type are written
+ * without resolving the datum type, so a datum of the wrong type in such a union is not
+ * detected. Use {@link GenericData#validate(Schema, Object)} to check data in advance.
+ */
+public class CompiledDatumWriter<D> implements DatumWriter<D> {
+  private final GenericData data;
+  private final Schema root;
+  private final ValueWriter rootWriter;
+
+  public CompiledDatumWriter(Schema root) {
+    this(root, GenericData.get());
+  }
+
+  public CompiledDatumWriter(Schema root, GenericData data) {
+    this.data = data;
+    this.root = root;
+    this.rootWriter = compile(root, new IdentityHashMap<>());
+  }
+
+  /** Return the {@link GenericData} implementation. */
+  public GenericData getData() {
+    return data;
+  }
+
+  /** Return the schema that this writer was compiled for. */
+  public Schema getSchema() {
+    return root;
+  }
+
+  @Override
+  public void write(D datum, Encoder out) throws IOException {
+    Objects.requireNonNull(out, "Encoder cannot be null");
+    try {
+      rootWriter.write(datum, out);
+    } catch (NullPointerException e) {
+      throw npe(e, " of " + root.getFullName());
+    }
+  }
+
+  /** Writes a datum of a single schema node. */
+  private interface ValueWriter {
+    void write(Object datum, Encoder out) throws IOException;
+  }
+
+  private ValueWriter compile(Schema schema, Map<Schema, RecordWriter> records) {
+    switch (schema.getType()) {
+    case RECORD: {
+      RecordWriter writer = records.get(schema);
+      if (writer == null) {
+        // register before compiling the fields, to support recursive schemas
+        writer = new RecordWriter();
+        records.put(schema, writer);
+        writer.compileFields(schema, records);
+      }
+      return writer;
+    }
+    case ENUM:
+      return (datum, out) -> {
+        if (!data.isEnum(datum))
+          throw new AvroTypeException("Not an enum: " + datum + " for schema: " + schema);
+        out.writeEnum(datum instanceof Enum ? ((Enum<?>) datum).ordinal() : schema.getEnumOrdinal(datum.toString()));
+      };
+    case ARRAY:
+      return new ArrayWriter(compile(schema.getElementType(), records));
+    case MAP:
+      return new MapWriter(compile(schema.getValueType(), records));
+    case UNION:
+      return compileUnion(schema, records);
+    case FIXED: {
+      int size = schema.getFixedSize();
+      return (datum, out) -> out.writeFixed(((GenericFixed) datum).bytes(), 0, size);
+    }
+    case STRING:
+      return (datum, out) -> out.writeString((CharSequence) datum);
+    case BYTES:
+      return (datum, out) -> out.writeBytes((ByteBuffer) datum);
+    case INT:
+      return (datum, out) -> out.writeInt(((Number) datum).intValue());
+    case LONG:
+      return (datum, out) -> out.writeLong(((Number) datum).longValue());
+    case FLOAT:
+      return (datum, out) -> out.writeFloat(((Number) datum).floatValue());
+    case DOUBLE:
+      return (datum, out) -> out.writeDouble(((Number) datum).doubleValue());
+    case BOOLEAN:
+      return (datum, out) -> out.writeBoolean((Boolean) datum);
+    case NULL:
+      return (datum, out) -> out.writeNull();
+    default:
+      throw new AvroRuntimeException("Unknown type: " + schema);
+    }
+  }
+
+  private ValueWriter compileUnion(Schema union, Map<Schema, RecordWriter> records) {
+    List<Schema> types = union.getTypes();
+    ValueWriter[] writers = new ValueWriter[types.size()];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = compile(types.get(i), records);
+    }
+    if (types.size() == 2) {
+      int nullIndex = types.get(0).getType() == Schema.Type.NULL ? 0
+          : types.get(1).getType() == Schema.Type.NULL ? 1 : -1;
+      if (nullIndex != -1) {
+        int valueIndex = 1 - nullIndex;
+        ValueWriter valueWriter = writers[valueIndex];
+        return (datum, out) -> {
+          if (datum == null || datum == JsonProperties.NULL_VALUE) {
+            out.writeIndex(nullIndex);
+            out.writeNull();
+          } else {
+            out.writeIndex(valueIndex);
+            valueWriter.write(datum, out);
+          }
+        };
+      }
+    }
+    return (datum, out) -> {
+      int index = data.resolveUnion(union, datum);
+      out.writeIndex(index);
+      writers[index].write(datum, out);
+    };
+  }
+
+  private final class RecordWriter implements ValueWriter {
+    private Field[] fields;
+    private ValueWriter[] writers;
+
+    void compileFields(Schema schema, Map<Schema, RecordWriter> records) {
+      List<Field> schemaFields = schema.getFields();
+      Field[] compiledFields = new Field[schemaFields.size()];
+      ValueWriter[] compiledWriters = new ValueWriter[compiledFields.length];
+      for (int i = 0; i < compiledFields.length; i++) {
+        Field field = schemaFields.get(i);
+        compiledFields[i] = field;
+        compiledWriters[i] = compile(field.schema(), records);
+      }
+      fields = compiledFields;
+      writers = compiledWriters;
+    }
+
+    @Override
+    public void write(Object datum, Encoder out) throws IOException {
+      for (int i = 0; i < fields.length; i++) {
+        Field f = fields[i];
+        Object value = data.getField(datum, f.name(), f.pos());
+        try {
+          writers[i].write(value, out);
+        } catch (final UnresolvedUnionException uue) { // recreate it with the right field info
+          final UnresolvedUnionException unresolvedUnionException = new UnresolvedUnionException(f.schema(), f, value);
+          unresolvedUnionException.addSuppressed(uue);
+          throw unresolvedUnionException;
+        } catch (NullPointerException e) {
+          throw npe(e, " in field " + f.name());
+        } catch (ClassCastException cce) {
+          throw addClassCastMsg(cce, " in field " + f.name());
+        } catch (AvroTypeException ate) {
+          throw addAvroTypeMsg(ate, " in field " + f.name());
+        }
+      }
+    }
+  }
+
+  private static final class ArrayWriter implements ValueWriter {
+    private final ValueWriter elementWriter;
+
+    ArrayWriter(ValueWriter elementWriter) {
+      this.elementWriter = elementWriter;
+    }
+
+    @Override
+    public void write(Object datum, Encoder out) throws IOException {
+      Collection<?> array = (Collection<?>) datum;
+      int size = array.size();
+      long actualSize = 0;
+      out.writeArrayStart();
+      out.setItemCount(size);
+      if (array instanceof List && array instanceof RandomAccess) {
+        // avoid allocating an iterator
+        List<?> list = (List<?>) array;
+        for (int i = 0; i < list.size(); i++) {
+          out.startItem();
+          elementWriter.write(list.get(i), out);
+          actualSize++;
+        }
+      } else {
+        for (Object element : array) {
+          out.startItem();
+          elementWriter.write(element, out);
+          actualSize++;
+        }
+      }
+      out.writeArrayEnd();
+      if (actualSize != size) {
+        throw new ConcurrentModificationException(
+            "Size of array written was " + size + ", but number of elements written was " + actualSize + ". ");
+      }
+    }
+  }
+
+  private static final class MapWriter implements ValueWriter {
+    private final ValueWriter valueWriter;
+
+    MapWriter(ValueWriter valueWriter) {
+      this.valueWriter = valueWriter;
+    }
+
+    @Override
+    public void write(Object datum, Encoder out) throws IOException {
+      Map<?, ?> map = (Map<?, ?>) datum;
+      int size = map.size();
+      int actualSize = 0;
+      out.writeMapStart();
+      out.setItemCount(size);
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        out.startItem();
+        out.writeString(entry.getKey().toString());
+        valueWriter.write(entry.getValue(), out);
+        actualSize++;
+      }
+      out.writeMapEnd();
+      if (actualSize != size) {
+        throw new ConcurrentModificationException(
+            "Size of map written was " + size + ", but number of entries written was " + actualSize + ". ");
+      }
+    }
+  }
+
+  /** Helper method for adding a message to an NPE . */
+  private static NullPointerException npe(NullPointerException e, String s) {
+    NullPointerException result = new NullPointerException(e.getMessage() + s);
+    result.initCause(e.getCause() == null ? e : e.getCause());
+    return result;
+  }
+
+  /** Helper method for adding a message to an Class Cast Exception . */
+  private static ClassCastException addClassCastMsg(ClassCastException e, String s) {
+    ClassCastException result = new ClassCastException(e.getMessage() + s);
+    result.initCause(e.getCause() == null ? e : e.getCause());
+    return result;
+  }
+
+  /** Helper method for adding a message to an Avro Type Exception . */
+  private static AvroTypeException addAvroTypeMsg(AvroTypeException e, String s) {
+    return new AvroTypeException(e.getMessage() + s, e.getCause() == null ? e : e.getCause());
+  }
+}
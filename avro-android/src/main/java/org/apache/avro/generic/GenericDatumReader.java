@@ -24,6 +24,8 @@ import org.apache.avro.io.DatumReader;
 import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.ResolvingDecoder;
+import org.apache.avro.util.Utf8;
+import org.apache.avro.util.Utf8Interner;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -37,8 +39,11 @@ public class GenericDatumReader<D> implements DatumReader<D> {
   private Schema actual;
   private Schema expected;
 
-  private ResolvingDecoder creatorResolver = null;
-  private final Thread creator;
+  /** Resolver of the thread that last read with this reader. */
+  private volatile ThreadResolver threadResolver = null;
+
+  private boolean utf8Strings = false;
+  private Utf8Interner stringInterner = null;
 
   /** Construct where the writer's and reader's schemas are the same. */
   public GenericDatumReader(Schema schema) {
@@ -58,7 +63,6 @@ public class GenericDatumReader<D> implements DatumReader<D> {
 
   protected GenericDatumReader(GenericData data) {
     this.data = data;
-    this.creator = Thread.currentThread();
   }
 
   /** Return the {@link GenericData} implementation. */
@@ -79,31 +83,77 @@ public class GenericDatumReader<D> implements DatumReader<D> {
   /** Set the reader's schema. */
   public void setExpected(Schema reader) {
     this.expected = reader;
-    creatorResolver = null;
+    threadResolver = null;
+  }
+
+  /** Whether strings are read as {@link Utf8}. */
+  public boolean isUtf8Strings() {
+    return utf8Strings;
+  }
+
+  /**
+   * Read strings as {@link Utf8} instead of {@link String}. A Utf8 only decodes
+   * its characters when they are first accessed, and the Utf8 of a reused datum
+   * is filled again instead of allocating a new one. By default, strings are read
+   * as {@link String}.
+   */
+  public void setUtf8Strings(boolean utf8Strings) {
+    this.utf8Strings = utf8Strings;
+  }
+
+  /** Return the interner of strings that are read, or null if there is none. */
+  public Utf8Interner getStringInterner() {
+    return stringInterner;
+  }
+
+  /**
+   * Intern the strings that are read, so that strings that repeat are decoded
+   * only once. The same {@link String}, or with {@link #setUtf8Strings(boolean)}
+   * the same shared {@link Utf8}, is then returned for each repetition. Because
+   * the interner is not thread-safe, this reader must be used by one thread at
+   * a time while it is set. Set to null to stop interning.
+   */
+  public void setStringInterner(Utf8Interner stringInterner) {
+    this.stringInterner = stringInterner;
   }
 
   /**
    * Gets a resolving decoder for use by this GenericDatumReader. Unstable API.
-   * Currently uses a thread local cache to prevent constructing the resolvers too
-   * often, because that is very expensive.
+   * The resolving decoder of the thread that last used this reader is kept, so a
+   * reader that is used by a single thread reuses its decoder, regardless of the
+   * thread that created it. Other threads create a new decoder, but the
+   * expensive resolving grammar is shared through
+   * {@link ResolvingDecoder#resolveCached(Schema, Schema)}.
    */
   protected final ResolvingDecoder getResolver(Schema actual, Schema expected) throws IOException {
     Thread currThread = Thread.currentThread();
-    ResolvingDecoder resolver;
-    if (currThread == creator && creatorResolver != null) {
-      return creatorResolver;
+    ThreadResolver current = threadResolver;
+    if (current != null && current.thread == currThread && current.actual == actual && current.expected == expected) {
+      return current.resolver;
     }
 
-    resolver = DecoderFactory.get()
+    ResolvingDecoder resolver = DecoderFactory.get()
             .resolvingDecoder(Schema.applyAliases(actual, expected), expected, null);
 
-    if (currThread == creator) {
-      creatorResolver = resolver;
-    }
-
+    threadResolver = new ThreadResolver(currThread, actual, expected, resolver);
     return resolver;
   }
 
+  /** Resolving decoder that is only used by a single thread. */
+  private static final class ThreadResolver {
+    private final Thread thread;
+    private final Schema actual;
+    private final Schema expected;
+    private final ResolvingDecoder resolver;
+
+    ThreadResolver(Thread thread, Schema actual, Schema expected, ResolvingDecoder resolver) {
+      this.thread = thread;
+      this.actual = actual;
+      this.expected = expected;
+      this.resolver = resolver;
+    }
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public D read(D reuse, Decoder in) throws IOException {
@@ -134,7 +184,7 @@ public class GenericDatumReader<D> implements DatumReader<D> {
     case FIXED:
       return readFixed(old, expected, in);
     case STRING:
-      return readString(in);
+      return readString(old, in);
     case BYTES:
       return readBytes(old, in);
     case INT:
@@ -273,7 +323,7 @@ public class GenericDatumReader<D> implements DatumReader<D> {
    * {@link #readString(Object, org.apache.avro.io.Decoder)}.
    */
   protected Object readMapKey(Decoder in) throws IOException {
-    return readString(in);
+    return readString(null, in);
   }
 
   /**
@@ -354,6 +404,21 @@ public class GenericDatumReader<D> implements DatumReader<D> {
     return data.newMap(old, size);
   }
 
+  /**
+   * Called to read strings. This reads {@link Utf8} values or interned values if
+   * configured, and otherwise calls {@link #readString(Decoder)}.
+   */
+  protected Object readString(Object old, Decoder in) throws IOException {
+    if (stringInterner != null) {
+      Utf8 value = stringInterner.read(in);
+      return utf8Strings ? value : value.toString();
+    } else if (utf8Strings) {
+      return in.readString(old instanceof Utf8 ? (Utf8) old : null);
+    } else {
+      return readString(in);
+    }
+  }
+
   /**
    * Called to read strings. Subclasses may override to use a different string
    * representation. By default, this calls {@link Decoder#readString()}.
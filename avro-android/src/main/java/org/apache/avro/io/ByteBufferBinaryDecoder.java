@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avro.io;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.InvalidNumberEncodingException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link BinaryDecoder} that reads directly from a {@link ByteBuffer}. Heap,
+ * direct and memory-mapped buffers are all read in place, without copying their
+ * contents into an intermediate buffer.
+ * <p/>
+ * The decoder reads the bytes between the position and the limit of the buffer
+ * at the time it is configured. It reads from a duplicate, so the position of
+ * the given buffer is not changed.
+ *
+ * @see DecoderFactory#binaryDecoder(ByteBuffer, BinaryDecoder)
+ */
+class ByteBufferBinaryDecoder extends BinaryDecoder {
+  private ByteBuffer buf;
+
+  ByteBufferBinaryDecoder(ByteBuffer data) {
+    super();
+    configure(data);
+  }
+
+  ByteBufferBinaryDecoder configure(ByteBuffer data) {
+    buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    return this;
+  }
+
+  private int readByte() throws EOFException {
+    if (!buf.hasRemaining()) {
+      throw new EOFException();
+    }
+    return buf.get() & 0xff;
+  }
+
+  private void ensureRemaining(int num) throws EOFException {
+    if (buf.remaining() < num) {
+      throw new EOFException();
+    }
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException {
+    return readByte() == 1;
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    int n = 0;
+    int shift = 0;
+    do {
+      int b = readByte();
+      n |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (n >>> 1) ^ -(n & 1); // back to two's-complement
+      }
+      shift += 7;
+    } while (shift < 32);
+    throw new InvalidNumberEncodingException("Invalid int encoding");
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    long n = 0;
+    int shift = 0;
+    do {
+      int b = readByte();
+      n |= (b & 0x7FL) << shift;
+      if ((b & 0x80) == 0) {
+        return (n >>> 1) ^ -(n & 1); // back to two's-complement
+      }
+      shift += 7;
+    } while (shift < 64);
+    throw new InvalidNumberEncodingException("Invalid long encoding");
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    ensureRemaining(4);
+    return buf.getFloat();
+  }
+
+  @Override
+  public double readDouble() throws IOException {
+    ensureRemaining(8);
+    return buf.getDouble();
+  }
+
+  @Override
+  protected void doSkipBytes(long length) throws IOException {
+    if (length < 0)
+      throw new AvroRuntimeException("Malformed data. Length is negative: " + length);
+    if (length > buf.remaining()) {
+      throw new EOFException();
+    }
+    buf.position(buf.position() + (int) length);
+  }
+
+  @Override
+  protected void doReadBytes(byte[] bytes, int start, int length) throws IOException {
+    if (length < 0)
+      throw new AvroRuntimeException("Malformed data. Length is negative: " + length);
+    ensureRemaining(length);
+    buf.get(bytes, start, length);
+  }
+}
@@ -21,6 +21,7 @@ import org.apache.avro.Schema;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A factory for creating and configuring {@link Decoder}s.
@@ -204,6 +205,29 @@ public class DecoderFactory {
     return binaryDecoder(bytes, 0, bytes.length, reuse);
   }
 
+  /**
+   * Creates or reinitializes a {@link BinaryDecoder} that reads directly from the
+   * remaining bytes of a ByteBuffer. Heap, direct and memory-mapped buffers are
+   * read in place, without copying their contents into a separate buffer. The
+   * position of <i>data</i> is not changed.
+   *
+   * @param data  The ByteBuffer to read from
+   * @param reuse The BinaryDecoder to attempt to reinitialize. if null a new
+   *              BinaryDecoder is created.
+   * @return A BinaryDecoder that uses <i>data</i> as its source of data. If
+   *         <i>reuse</i> is null, this will be a new instance. <i>reuse</i> may
+   *         be reinitialized if appropriate, otherwise a new instance is
+   *         returned. Clients must not assume that <i>reuse</i> is reinitialized
+   *         and returned.
+   */
+  public BinaryDecoder binaryDecoder(ByteBuffer data, BinaryDecoder reuse) {
+    if (null == reuse || !reuse.getClass().equals(ByteBufferBinaryDecoder.class)) {
+      return new ByteBufferBinaryDecoder(data);
+    } else {
+      return ((ByteBufferBinaryDecoder) reuse).configure(data);
+    }
+  }
+
   /**
    * Creates a {@link JsonDecoder} using the InputStream provided for reading data
    * that conforms to the Schema provided.
@@ -221,7 +245,9 @@ public class DecoderFactory {
   /**
    * Creates a {@link ResolvingDecoder} wrapping the Decoder provided. This
    * ResolvingDecoder will resolve input conforming to the <i>writer</i> schema
-   * from the wrapped Decoder, and present it as the <i>reader</i> schema.
+   * from the wrapped Decoder, and present it as the <i>reader</i> schema. The
+   * resolving grammar is shared with other decoders of the same schemas, see
+   * {@link ResolvingDecoder#resolveCached(Schema, Schema)}.
    *
    * @param writer  The Schema that the source data is in. Cannot be null.
    * @param reader  The Schema that the reader wishes to read the data as. Cannot
@@ -27,7 +27,9 @@ import org.apache.avro.util.Utf8;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * {@link Decoder} that performs type-resolution between the reader's and
@@ -45,11 +47,16 @@ import java.util.Objects;
  * information on how this works.
  */
 public class ResolvingDecoder extends ValidatingDecoder {
+  /** Maximum number of resolvers kept by {@link #resolveCached(Schema, Schema)}. */
+  static final int MAX_CACHED_RESOLVERS = 128;
+
+  /** Resolvers by writer's and reader's schema, shared by all threads. */
+  private static final ConcurrentHashMap<SchemaPair, Object> RESOLVERS = new ConcurrentHashMap<>();
 
   private Decoder backup;
 
   ResolvingDecoder(Schema writer, Schema reader, Decoder in) throws IOException {
-    this(resolve(writer, reader), in);
+    this(resolveCached(writer, reader), in);
   }
 
   /**
@@ -85,6 +92,71 @@ public class ResolvingDecoder extends ValidatingDecoder {
     return new ResolvingGrammarGenerator().generate(writer, reader);
   }
 
+  /**
+   * Returns the same resolver as {@link #resolve(Schema, Schema)}, from a cache that is shared
+   * by all threads. Resolvers are looked up by schema equality, which is cheap for schemas that
+   * are reused or that have already computed their hash code. If the cache holds more than
+   * {@value #MAX_CACHED_RESOLVERS} resolvers, arbitrary other resolvers are evicted.
+   *
+   * @param writer The writer's schema. Cannot be null.
+   * @param reader The reader's schema. Cannot be null.
+   * @return The opaque resolver.
+   * @throws IOException
+   * @throws NullPointerException if {@code writer} or {@code reader} is
+   *                              {@code null}
+   */
+  public static Object resolveCached(Schema writer, Schema reader) throws IOException {
+    SchemaPair key = new SchemaPair(writer, reader);
+    Object resolver = RESOLVERS.get(key);
+    if (resolver != null) {
+      return resolver;
+    }
+    resolver = resolve(writer, reader);
+    Object existing = RESOLVERS.putIfAbsent(key, resolver);
+    if (existing != null) {
+      return existing;
+    }
+    if (RESOLVERS.size() > MAX_CACHED_RESOLVERS) {
+      Iterator<SchemaPair> iterator = RESOLVERS.keySet().iterator();
+      while (RESOLVERS.size() > MAX_CACHED_RESOLVERS && iterator.hasNext()) {
+        if (!iterator.next().equals(key)) {
+          iterator.remove();
+        }
+      }
+    }
+    return resolver;
+  }
+
+  /** Cache key of a writer's and reader's schema. */
+  private static final class SchemaPair {
+    private final Schema writer;
+    private final Schema reader;
+    private final int hashCode;
+
+    SchemaPair(Schema writer, Schema reader) {
+      this.writer = Objects.requireNonNull(writer, "Writer schema cannot be null");
+      this.reader = Objects.requireNonNull(reader, "Reader schema cannot be null");
+      this.hashCode = 31 * writer.hashCode() + reader.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof SchemaPair))
+        return false;
+      SchemaPair other = (SchemaPair) o;
+      return hashCode == other.hashCode
+          && (writer == other.writer || writer.equals(other.writer))
+          && (reader == other.reader || reader.equals(other.reader));
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
   /**
    * Returns the actual order in which the reader's fields will be returned to the
    * reader.
@@ -42,7 +42,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -218,19 +217,19 @@ public class SpecificData extends GenericData {
     return namespace + dot + name;
   }
 
-  // for non-class objects, use a WeakHashMap, but this needs a sync block around
-  // it
-  private final Map<java.lang.reflect.Type, Schema> schemaTypeCache = new WeakHashMap<>();
+  // read without locking; a schema is created at most a few times if several
+  // threads look up the same type concurrently
+  private final ConcurrentMap<java.lang.reflect.Type, Schema> schemaTypeCache = new ConcurrentHashMap<>();
 
   /** Find the schema for a Java type. */
   public Schema getSchema(java.lang.reflect.Type type) {
     try {
-      Schema schema;
-      synchronized (schemaTypeCache) {
-        schema = schemaTypeCache.get(type);
-        if (schema == null) {
-          schema = createSchema(type, new HashMap<>());
-          schemaTypeCache.put(type, schema);
+      Schema schema = schemaTypeCache.get(type);
+      if (schema == null) {
+        schema = createSchema(type, new HashMap<>());
+        Schema previousSchema = schemaTypeCache.putIfAbsent(type, schema);
+        if (previousSchema != null) {
+          schema = previousSchema;
         }
       }
       return schema;
@@ -322,7 +321,14 @@ public class SpecificData extends GenericData {
     return super.compare(o1, o2, s, eq);
   }
 
-  private static final Map<Class<?>, Constructor<?>> constructorCache = new WeakHashMap<>();
+  /*
+   * Constructors and instance suppliers of specific classes. These are read
+   * without locking whenever a record is created, so that decoding on several
+   * threads does not contend on them. Application classes are not unloaded on
+   * Android, so the classes are not weakly referenced.
+   */
+  private static final ConcurrentMap<Class<?>, Constructor<?>> constructorCache = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<Class<?>, InstanceSupplier> noArgSupplierCache = new ConcurrentHashMap<>();
 
   /**
    * Create an instance of a class. If the class implements
@@ -343,13 +349,13 @@ public class SpecificData extends GenericData {
   }
 
   static Constructor newConstructor(Class c, boolean useSchema) throws NoSuchMethodException {
-    Constructor meth;
-    synchronized (constructorCache) {
-      meth = constructorCache.get(c);
-      if (meth == null) {
-        meth = c.getDeclaredConstructor(useSchema ? SCHEMA_ARG : NO_ARG);
-        meth.setAccessible(true);
-        constructorCache.put(c, meth);
+    Constructor meth = constructorCache.get(c);
+    if (meth == null) {
+      meth = c.getDeclaredConstructor(useSchema ? SCHEMA_ARG : NO_ARG);
+      meth.setAccessible(true);
+      Constructor<?> previousMeth = constructorCache.putIfAbsent(c, meth);
+      if (previousMeth != null) {
+        meth = previousMeth;
       }
     }
     return meth;
@@ -385,13 +391,34 @@ public class SpecificData extends GenericData {
     }
 
     boolean useSchema = SchemaConstructable.class.isAssignableFrom(c);
+    if (!useSchema) {
+      // the supplier does not depend on the schema, so it can be shared
+      InstanceSupplier supplier = noArgSupplierCache.get(c);
+      if (supplier == null) {
+        supplier = createInstanceSupplier(c, null);
+        InstanceSupplier previousSupplier = noArgSupplierCache.putIfAbsent(c, supplier);
+        if (previousSupplier != null) {
+          supplier = previousSupplier;
+        }
+      }
+      return supplier;
+    }
+    return createInstanceSupplier(c, schema);
+  }
+
+  /**
+   * Create an InstanceSupplier for a class. If a schema is given, it is passed to
+   * the constructor of the class.
+   */
+  @SuppressWarnings("rawtypes")
+  private static InstanceSupplier createInstanceSupplier(Class c, Schema schema) {
     Constructor meth;
     try {
-      meth = newConstructor(c, useSchema);
+      meth = newConstructor(c, schema != null);
     } catch (NoSuchMethodException e) {
       throw new RuntimeException(e);
     }
-    Object[] params = useSchema ? new Object[] { schema } : null;
+    Object[] params = schema != null ? new Object[] { schema } : null;
 
     return (old, sch) -> {
       try {
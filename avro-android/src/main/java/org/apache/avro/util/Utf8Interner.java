@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.avro.util;
+
+import org.apache.avro.io.Decoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A bounded table of recently read strings, looked up by their UTF-8 bytes.
+ * Strings that repeat across data, like the keys of a batch of records, are
+ * then allocated and decoded only once: the interned {@link Utf8} caches its
+ * {@link String} value. A string can be stored in one of two slots of the
+ * table, so a newly read string replaces the least recently used string of
+ * those two. Strings longer than the maximum byte length are not interned.
+ * <p/>
+ * Interned instances are shared, and must not be modified. This class is not
+ * thread-safe.
+ */
+public class Utf8Interner {
+  public static final int DEFAULT_CAPACITY = 256;
+  public static final int DEFAULT_MAX_BYTE_LENGTH = 64;
+
+  private final Utf8[] table;
+  private final int shift;
+  private final int maxByteLength;
+  private Utf8 scratch = new Utf8();
+
+  public Utf8Interner() {
+    this(DEFAULT_CAPACITY, DEFAULT_MAX_BYTE_LENGTH);
+  }
+
+  /**
+   * @param capacity      number of strings that can be interned, rounded up to a
+   *                      power of two of at least two.
+   * @param maxByteLength maximum length in bytes of a string to intern.
+   */
+  public Utf8Interner(int capacity, int maxByteLength) {
+    if (capacity <= 0 || capacity > 1 << 30)
+      throw new IllegalArgumentException("Capacity " + capacity + " out of range");
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.table = new Utf8[size];
+    this.shift = Integer.numberOfLeadingZeros(size) + 1;
+    this.maxByteLength = maxByteLength;
+  }
+
+  /**
+   * Read a string from a decoder.
+   *
+   * @return the interned string equal to the string that was read, or a new
+   *         string if it is too long to intern.
+   */
+  public Utf8 read(Decoder in) throws IOException {
+    scratch = in.readString(scratch);
+    if (scratch.getByteLength() > maxByteLength) {
+      return new Utf8(scratch);
+    }
+    return intern(scratch);
+  }
+
+  /**
+   * Get the interned string equal to a given string. If there is none, a copy of
+   * the given string is interned and returned.
+   */
+  public Utf8 intern(Utf8 value) {
+    int hash = value.hashCode();
+    // Fibonacci hashing spreads similar strings, then use the even slot of a pair
+    int index = ((hash * 0x9E3779B9) >>> shift) & ~1;
+    Utf8 recent = table[index];
+    if (matches(recent, value, hash)) {
+      return recent;
+    }
+    Utf8 previous = table[index + 1];
+    if (matches(previous, value, hash)) {
+      table[index] = previous;
+      table[index + 1] = recent;
+      return previous;
+    }
+    Utf8 entry = new Utf8(value);
+    table[index] = entry;
+    table[index + 1] = recent;
+    return entry;
+  }
+
+  private static boolean matches(Utf8 entry, Utf8 value, int hash) {
+    return entry != null && entry.hashCode() == hash && entry.equals(value);
+  }
+
+  /** Remove all interned strings. */
+  public void clear() {
+    Arrays.fill(table, null);
+  }
+}
@@ -0,0 +1,150 @@
+package org.apache.avro.generic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.util.Utf8;
+import org.apache.avro.util.Utf8Interner;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompiledDatumTest {
+    private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Test\",\"namespace\":\"org.radarbase.test\",\"fields\":["
+            + "{\"name\":\"time\",\"type\":\"double\"},"
+            + "{\"name\":\"count\",\"type\":\"int\"},"
+            + "{\"name\":\"total\",\"type\":\"long\"},"
+            + "{\"name\":\"value\",\"type\":\"float\"},"
+            + "{\"name\":\"isValid\",\"type\":\"boolean\"},"
+            + "{\"name\":\"name\",\"type\":[\"null\",\"string\"],\"default\":null},"
+            + "{\"name\":\"choice\",\"type\":[\"int\",\"string\",\"null\"]},"
+            + "{\"name\":\"status\",\"type\":{\"type\":\"enum\",\"name\":\"Status\",\"symbols\":[\"ON\",\"OFF\",\"UNKNOWN\"]}},"
+            + "{\"name\":\"values\",\"type\":{\"type\":\"array\",\"items\":\"float\"}},"
+            + "{\"name\":\"properties\",\"type\":{\"type\":\"map\",\"values\":\"string\"}},"
+            + "{\"name\":\"hash\",\"type\":{\"type\":\"fixed\",\"name\":\"Hash\",\"size\":4}},"
+            + "{\"name\":\"data\",\"type\":\"bytes\"},"
+            + "{\"name\":\"next\",\"type\":[\"null\",\"Test\"],\"default\":null}"
+            + "]}");
+
+    private GenericData.Record record;
+
+    @Before
+    public void setUp() {
+        GenericData.Record next = createRecord(2);
+        next.put("choice", null);
+        record = createRecord(1);
+        record.put("name", "first");
+        record.put("next", next);
+    }
+
+    private static GenericData.Record createRecord(int i) {
+        GenericData.Record result = new GenericData.Record(SCHEMA);
+        result.put("time", 1.5d * i);
+        result.put("count", i);
+        result.put("total", 1000L * i);
+        result.put("value", 0.5f * i);
+        result.put("isValid", i % 2 == 0);
+        result.put("choice", "choice" + i);
+        result.put("status", new GenericData.EnumSymbol(SCHEMA.getField("status").schema(), "OFF"));
+        GenericData.Array<Float> values = new GenericData.Array<>(3, SCHEMA.getField("values").schema());
+        values.addAll(Arrays.asList(1f, 2f, 0.5f * i));
+        result.put("values", values);
+        Map<String, String> properties = new HashMap<>();
+        properties.put("a", "b");
+        result.put("properties", properties);
+        result.put("hash", new GenericData.Fixed(SCHEMA.getField("hash").schema(), new byte[] {1, 2, 3, (byte) i}));
+        result.put("data", ByteBuffer.wrap(new byte[] {4, 5}));
+        return result;
+    }
+
+    private static <T> byte[] write(DatumWriter<T> writer, T datum) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        writer.write(datum, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writesSameBinary() throws IOException {
+        byte[] expected = write(new GenericDatumWriter<>(SCHEMA), record);
+        assertArrayEquals(expected, write(new CompiledDatumWriter<>(SCHEMA), record));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        byte[] bytes = write(new CompiledDatumWriter<>(SCHEMA), record);
+        CompiledDatumReader<GenericRecord> reader = new CompiledDatumReader<>(SCHEMA);
+        GenericRecord actual = reader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        assertEquals(record, actual);
+        assertEquals(new GenericDatumReader<GenericRecord>(SCHEMA).read(null, DecoderFactory.get().binaryDecoder(bytes, null)), actual);
+    }
+
+    @Test
+    public void reuse() throws IOException {
+        CompiledDatumWriter<GenericRecord> writer = new CompiledDatumWriter<>(SCHEMA);
+        CompiledDatumReader<GenericRecord> reader = new CompiledDatumReader<>(SCHEMA);
+        GenericRecord first = reader.read(null, DecoderFactory.get().binaryDecoder(write(writer, record), null));
+        GenericRecord other = createRecord(3);
+        GenericRecord second = reader.read(first, DecoderFactory.get().binaryDecoder(write(writer, other), null));
+        assertSame(first, second);
+        assertEquals(other, second);
+    }
+
+    @Test
+    public void utf8Strings() throws IOException {
+        byte[] bytes = write(new CompiledDatumWriter<>(SCHEMA), record);
+        CompiledDatumReader<GenericRecord> reader = new CompiledDatumReader<>(SCHEMA);
+        reader.setUtf8Strings(true);
+        GenericRecord first = reader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        assertEquals(new Utf8("first"), first.get("name"));
+        assertTrue(((Map<?, ?>) first.get("properties")).containsKey(new Utf8("a")));
+        assertArrayEquals(bytes, write(new CompiledDatumWriter<>(SCHEMA), first));
+
+        GenericDatumReader<GenericRecord> genericReader = new GenericDatumReader<>(SCHEMA);
+        genericReader.setUtf8Strings(true);
+        assertEquals(first, genericReader.read(null, DecoderFactory.get().binaryDecoder(bytes, null)));
+        assertTrue(genericReader.read(null, DecoderFactory.get().binaryDecoder(bytes, null)).get("name") instanceof Utf8);
+    }
+
+    @Test
+    public void internedStrings() throws IOException {
+        byte[] bytes = write(new CompiledDatumWriter<>(SCHEMA), record);
+        CompiledDatumReader<GenericRecord> reader = new CompiledDatumReader<>(SCHEMA);
+        reader.setStringInterner(new Utf8Interner());
+        GenericRecord first = reader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        GenericRecord second = reader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        assertEquals("first", first.get("name"));
+        assertSame(first.get("name"), second.get("name"));
+        assertEquals(record, second);
+
+        GenericDatumReader<GenericRecord> genericReader = new GenericDatumReader<>(SCHEMA);
+        genericReader.setStringInterner(new Utf8Interner());
+        genericReader.setUtf8Strings(true);
+        first = genericReader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        second = genericReader.read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+        assertTrue(first.get("name") instanceof Utf8);
+        assertSame(first.get("name"), second.get("name"));
+    }
+
+    @Test
+    public void fieldErrors() {
+        record.put("count", null);
+        NullPointerException ex = assertThrows(NullPointerException.class, () -> write(new CompiledDatumWriter<>(SCHEMA), record));
+        assertTrue(ex.getMessage().contains(" in field count"));
+    }
+}
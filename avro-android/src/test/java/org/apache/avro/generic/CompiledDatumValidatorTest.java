@@ -0,0 +1,132 @@
+package org.apache.avro.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.avro.Schema;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class CompiledDatumValidatorTest {
+    private static final Schema SCHEMA = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Measurement\",\"namespace\":\"org.radarbase.test\",\"fields\":["
+            + "{\"name\":\"time\",\"type\":\"double\"},"
+            + "{\"name\":\"value\",\"type\":\"float\"},"
+            + "{\"name\":\"name\",\"type\":[\"null\",\"string\"],\"default\":null},"
+            + "{\"name\":\"status\",\"type\":{\"type\":\"enum\",\"name\":\"Status\",\"symbols\":[\"ON\",\"OFF\"]}},"
+            + "{\"name\":\"values\",\"type\":{\"type\":\"array\",\"items\":\"float\"}}"
+            + "]}");
+
+    /** Finite floating point values only, like the tape serialization. */
+    private static final GenericData DATA = new SpecificData() {
+        @Override
+        protected boolean isFloat(Object datum) {
+            return datum instanceof Float && Float.isFinite((Float) datum);
+        }
+
+        @Override
+        protected boolean isDouble(Object datum) {
+            return datum instanceof Double && Double.isFinite((Double) datum);
+        }
+    };
+
+    public enum Status { ON, OFF }
+
+    /** Minimal specific record, like the ones generated from the schema. */
+    public static class Measurement extends SpecificRecordBase {
+        private Double time;
+        private Float value;
+        private CharSequence name;
+        private Status status;
+        private List<Float> values;
+
+        Measurement(Double time, Float value, CharSequence name, Status status, List<Float> values) {
+            this.time = time;
+            this.value = value;
+            this.name = name;
+            this.status = status;
+            this.values = values;
+        }
+
+        @Override
+        public Schema getSchema() {
+            return SCHEMA;
+        }
+
+        @Override
+        public Object get(int field) {
+            switch (field) {
+            case 0: return time;
+            case 1: return value;
+            case 2: return name;
+            case 3: return status;
+            case 4: return values;
+            default: throw new IndexOutOfBoundsException();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void put(int field, Object value) {
+            switch (field) {
+            case 0: time = (Double) value; break;
+            case 1: this.value = (Float) value; break;
+            case 2: name = (CharSequence) value; break;
+            case 3: status = (Status) value; break;
+            case 4: values = (List<Float>) value; break;
+            default: throw new IndexOutOfBoundsException();
+            }
+        }
+    }
+
+    private final CompiledDatumValidator validator = new CompiledDatumValidator(SCHEMA, DATA);
+
+    @Test
+    public void validateSpecific() {
+        assertTrue(validator.validate(new Measurement(1.0, 2f, null, Status.ON, Arrays.asList(1f, 2f))));
+        assertTrue(validator.validate(new Measurement(1.0, 2f, "a", Status.OFF, Arrays.asList())));
+        assertFalse(validator.validate(new Measurement(null, 2f, null, Status.ON, Arrays.asList())));
+        assertFalse(validator.validate(new Measurement(Double.NaN, 2f, null, Status.ON, Arrays.asList())));
+        assertFalse(validator.validate(new Measurement(1.0, Float.POSITIVE_INFINITY, null, Status.ON, Arrays.asList())));
+        assertFalse(validator.validate(new Measurement(1.0, 2f, null, null, Arrays.asList())));
+        assertFalse(validator.validate(new Measurement(1.0, 2f, null, Status.ON, null)));
+        assertFalse(validator.validate(new Measurement(1.0, 2f, null, Status.ON, Arrays.asList(1f, Float.NaN))));
+        assertFalse(validator.validate(null));
+    }
+
+    @Test
+    public void validateGeneric() {
+        GenericData.Record record = new GenericData.Record(SCHEMA);
+        record.put("time", 1.0);
+        record.put("value", 2f);
+        record.put("status", new GenericData.EnumSymbol(SCHEMA.getField("status").schema(), "ON"));
+        record.put("values", Arrays.asList(1f, 2f));
+        assertValidates(record, true);
+
+        record.put("status", new GenericData.EnumSymbol(SCHEMA.getField("status").schema(), "UNKNOWN"));
+        assertValidates(record, false);
+        record.put("status", new GenericData.EnumSymbol(SCHEMA.getField("status").schema(), "OFF"));
+        record.put("time", 1);
+        assertValidates(record, false);
+        record.put("time", Double.NEGATIVE_INFINITY);
+        assertValidates(record, false);
+    }
+
+    @Test
+    public void validatePrimitive() {
+        CompiledDatumValidator floatValidator = new CompiledDatumValidator(Schema.create(Schema.Type.FLOAT), DATA);
+        assertTrue(floatValidator.validate(1f));
+        assertFalse(floatValidator.validate(Float.NaN));
+        assertFalse(floatValidator.validate(1.0));
+        assertFalse(new CompiledDatumValidator(Schema.create(Schema.Type.STRING), DATA).validate(1));
+    }
+
+    private void assertValidates(Object datum, boolean expected) {
+        assertEquals(expected, DATA.validate(SCHEMA, datum));
+        assertEquals(expected, validator.validate(datum));
+    }
+}
@@ -0,0 +1,89 @@
+package org.apache.avro.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class ByteBufferBinaryDecoderTest {
+    private static byte[] encode() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        encoder.writeBoolean(true);
+        encoder.writeInt(-123456);
+        encoder.writeLong(Long.MIN_VALUE);
+        encoder.writeFloat(1.5f);
+        encoder.writeDouble(-2.25);
+        encoder.writeString("radar");
+        encoder.writeBytes(new byte[] {1, 2, 3});
+        encoder.writeFixed(new byte[] {4, 5});
+        encoder.writeArrayStart();
+        encoder.setItemCount(2);
+        encoder.startItem();
+        encoder.writeInt(7);
+        encoder.startItem();
+        encoder.writeInt(8);
+        encoder.writeArrayEnd();
+        encoder.writeLong(42L);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static void assertDecodes(ByteBuffer buffer) throws IOException {
+        int position = buffer.position();
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(buffer, null);
+        assertTrue(decoder.readBoolean());
+        assertEquals(-123456, decoder.readInt());
+        assertEquals(Long.MIN_VALUE, decoder.readLong());
+        assertEquals(1.5f, decoder.readFloat(), 0f);
+        assertEquals(-2.25, decoder.readDouble(), 0.0);
+        assertEquals(new Utf8("radar"), decoder.readString(null));
+        assertEquals(ByteBuffer.wrap(new byte[] {1, 2, 3}), decoder.readBytes(null));
+        byte[] fixed = new byte[2];
+        decoder.readFixed(fixed);
+        assertArrayEquals(new byte[] {4, 5}, fixed);
+        assertEquals(2L, decoder.skipArray());
+        decoder.skipFixed(2);
+        assertEquals(0L, decoder.arrayNext());
+        assertEquals(42L, decoder.readLong());
+        assertThrows(EOFException.class, decoder::readInt);
+        assertEquals(position, buffer.position());
+    }
+
+    @Test
+    public void readHeap() throws IOException {
+        byte[] bytes = encode();
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 4);
+        buffer.position(4);
+        buffer.put(bytes);
+        buffer.position(4);
+        assertDecodes(buffer);
+    }
+
+    @Test
+    public void readDirect() throws IOException {
+        byte[] bytes = encode();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        assertDecodes(buffer.asReadOnlyBuffer());
+    }
+
+    @Test
+    public void reuse() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(encode());
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(buffer, null);
+        assertTrue(decoder.readBoolean());
+        assertSame(decoder, DecoderFactory.get().binaryDecoder(buffer, decoder));
+        assertTrue(decoder.readBoolean());
+    }
+}
@@ -0,0 +1,81 @@
+package org.apache.avro.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ResolvingDecoderTest {
+    private static final String WRITER = "{\"type\":\"record\",\"name\":\"Test\",\"fields\":["
+            + "{\"name\":\"time\",\"type\":\"double\"},"
+            + "{\"name\":\"removed\",\"type\":\"string\"},"
+            + "{\"name\":\"value\",\"type\":\"float\"}"
+            + "]}";
+    private static final String READER = "{\"type\":\"record\",\"name\":\"Test\",\"fields\":["
+            + "{\"name\":\"time\",\"type\":\"double\"},"
+            + "{\"name\":\"value\",\"type\":\"float\"},"
+            + "{\"name\":\"added\",\"type\":[\"null\",\"int\"],\"default\":null}"
+            + "]}";
+
+    @Test
+    public void resolveCachedByEquality() throws IOException {
+        Schema writer = new Schema.Parser().parse(WRITER);
+        Schema reader = new Schema.Parser().parse(READER);
+        Object resolver = ResolvingDecoder.resolveCached(writer, reader);
+        assertSame(resolver, ResolvingDecoder.resolveCached(writer, reader));
+        assertSame(resolver, ResolvingDecoder.resolveCached(
+                new Schema.Parser().parse(WRITER), new Schema.Parser().parse(READER)));
+    }
+
+    @Test
+    public void resolveCachedBounded() throws IOException {
+        for (int i = 0; i < 2 * ResolvingDecoder.MAX_CACHED_RESOLVERS; i++) {
+            Schema schema = Schema.createFixed("Fixed" + i, null, null, 4);
+            Object resolver = ResolvingDecoder.resolveCached(schema, schema);
+            assertSame(resolver, ResolvingDecoder.resolveCached(schema, Schema.createFixed("Fixed" + i, null, null, 4)));
+        }
+    }
+
+    @Test
+    public void readOnOtherThreads() throws Exception {
+        Schema writer = new Schema.Parser().parse(WRITER);
+        Schema reader = new Schema.Parser().parse(READER);
+        GenericData.Record record = new GenericData.Record(writer);
+        record.put("time", 1.5d);
+        record.put("removed", "a");
+        record.put("value", 2.5f);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(writer).write(record, encoder);
+        encoder.flush();
+        byte[] bytes = out.toByteArray();
+
+        GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<>(writer, reader);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 10; i++) {
+                Future<GenericRecord> future = executor.submit(
+                        () -> datumReader.read(null, DecoderFactory.get().binaryDecoder(bytes, null)));
+                GenericRecord result = future.get();
+                assertEquals(1.5d, result.get("time"));
+                assertEquals(2.5f, result.get("value"));
+                assertNull(result.get("added"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.apache.avro.specific;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SpecificDataTest {
+    public static class Measurement extends SpecificRecordBase {
+        public static final Schema SCHEMA$ = new Schema.Parser().parse("{\"type\":\"record\",\"name\":\"Measurement\",\"namespace\":\"org.apache.avro.specific.SpecificDataTest$\",\"fields\":["
+                + "{\"name\":\"time\",\"type\":\"double\"}"
+                + "]}");
+
+        private Double time;
+
+        @Override
+        public Schema getSchema() {
+            return SCHEMA$;
+        }
+
+        @Override
+        public Object get(int field) {
+            if (field != 0) throw new IndexOutOfBoundsException();
+            return time;
+        }
+
+        @Override
+        public void put(int field, Object value) {
+            if (field != 0) throw new IndexOutOfBoundsException();
+            time = (Double) value;
+        }
+    }
+
+    private final SpecificData data = new SpecificData(SpecificDataTest.class.getClassLoader());
+
+    @Test
+    public void newRecord() {
+        Object record = data.newRecord(null, Measurement.SCHEMA$);
+        assertTrue(record instanceof Measurement);
+        assertSame(record, data.newRecord(record, Measurement.SCHEMA$));
+        assertNotSame(record, data.newRecord(new GenericData.Record(Measurement.SCHEMA$), Measurement.SCHEMA$));
+    }
+
+    @Test
+    public void sharedNoArgSupplier() {
+        GenericData.InstanceSupplier supplier = data.getNewRecordSupplier(Measurement.SCHEMA$);
+        assertSame(supplier, new SpecificData(SpecificDataTest.class.getClassLoader()).getNewRecordSupplier(Measurement.SCHEMA$));
+        assertTrue(supplier.newInstance(null, Measurement.SCHEMA$) instanceof Measurement);
+    }
+
+    @Test
+    public void getSchema() {
+        assertSame(Measurement.SCHEMA$, data.getSchema(Measurement.class));
+        assertSame(data.getSchema(Measurement.class), data.getSchema(Measurement.class));
+    }
+
+    @Test
+    public void newRecordOnOtherThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            Callable<Integer> task = () -> {
+                int count = 0;
+                for (int i = 0; i < 1000; i++) {
+                    if (data.newRecord(null, Measurement.SCHEMA$) instanceof Measurement
+                            && data.getSchema(Measurement.class) == Measurement.SCHEMA$) {
+                        count++;
+                    }
+                }
+                return count;
+            };
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(1000, (int) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
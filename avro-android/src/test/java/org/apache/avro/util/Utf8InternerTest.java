@@ -0,0 +1,53 @@
+package org.apache.avro.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class Utf8InternerTest {
+    @Test
+    public void intern() {
+        Utf8Interner interner = new Utf8Interner();
+        Utf8 value = new Utf8("projectId");
+        Utf8 interned = interner.intern(value);
+        assertNotSame(value, interned);
+        assertEquals(value, interned);
+        assertSame(interned, interner.intern(new Utf8("projectId")));
+        assertSame(interned.toString(), interner.intern(new Utf8("projectId")).toString());
+
+        interner.clear();
+        assertNotSame(interned, interner.intern(value));
+    }
+
+    @Test
+    public void read() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        encoder.writeString("user");
+        encoder.writeString("0123456789");
+        encoder.writeString("user");
+        encoder.writeString("0123456789");
+        encoder.flush();
+
+        Utf8Interner interner = new Utf8Interner(4, 8);
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(out.toByteArray(), null);
+        Utf8 user = interner.read(decoder);
+        Utf8 longValue = interner.read(decoder);
+        assertEquals(new Utf8("user"), user);
+        assertEquals(new Utf8("0123456789"), longValue);
+        assertSame(user, interner.read(decoder));
+        // too long to intern
+        Utf8 otherLongValue = interner.read(decoder);
+        assertEquals(longValue, otherLongValue);
+        assertNotSame(longValue, otherLongValue);
+    }
+}
@@ -0,0 +1,87 @@
+package org.radarbase.benchmark
+
+import org.apache.avro.Schema
+import org.apache.avro.generic.CompiledDatumReader
+import org.apache.avro.generic.CompiledDatumWriter
+import org.apache.avro.generic.GenericData
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.BinaryEncoder
+import org.apache.avro.io.DatumReader
+import org.apache.avro.io.DatumWriter
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.io.EncoderFactory
+import org.apache.avro.specific.SpecificData
+import org.apache.avro.specific.SpecificRecord
+import org.openjdk.jmh.annotations.*
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of encoding and decoding single radar-schemas values with the interpreting generic
+ * datum writer and reader, compared to the schema-compiled ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class AvroCodecBenchmark {
+    @Param("ACCELERATION", "BATTERY_LEVEL")
+    lateinit var sample: SampleType
+
+    @Param("GENERIC", "COMPILED")
+    lateinit var codec: CodecType
+
+    private lateinit var writer: DatumWriter<SpecificRecord>
+    private lateinit var reader: DatumReader<Any>
+    private lateinit var value: SpecificRecord
+    private lateinit var serialized: ByteArray
+    private val output = ByteArrayOutputStream(1024)
+    private var encoder: BinaryEncoder? = null
+    private var decoder: BinaryDecoder? = null
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val schema = sample.topic.valueSchema
+        writer = codec.writer(schema, SpecificData.get())
+        reader = codec.reader(schema, GenericData.get())
+        value = sample.createValue(0)
+        encodeValue()
+        serialized = output.toByteArray()
+    }
+
+    @Benchmark
+    fun encodeValue(): Int {
+        output.reset()
+        EncoderFactory.get().binaryEncoder(output, encoder)
+            .also { encoder = it }
+            .run {
+                writer.write(value, this)
+                flush()
+            }
+        return output.size()
+    }
+
+    @Benchmark
+    fun decodeValue(): Any = DecoderFactory.get().binaryDecoder(serialized, decoder)
+        .also { decoder = it }
+        .let { reader.read(null, it) }
+
+    /** Avro datum writer and reader implementations. */
+    enum class CodecType {
+        GENERIC {
+            @Suppress("UNCHECKED_CAST")
+            override fun writer(schema: Schema, data: GenericData) = data.createDatumWriter(schema) as DatumWriter<SpecificRecord>
+            @Suppress("UNCHECKED_CAST")
+            override fun reader(schema: Schema, data: GenericData) = data.createDatumReader(schema) as DatumReader<Any>
+        },
+        COMPILED {
+            override fun writer(schema: Schema, data: GenericData): DatumWriter<SpecificRecord> = CompiledDatumWriter(schema, data)
+            override fun reader(schema: Schema, data: GenericData): DatumReader<Any> = CompiledDatumReader(schema, data)
+        };
+
+        abstract fun writer(schema: Schema, data: GenericData): DatumWriter<SpecificRecord>
+        abstract fun reader(schema: Schema, data: GenericData): DatumReader<Any>
+    }
+}
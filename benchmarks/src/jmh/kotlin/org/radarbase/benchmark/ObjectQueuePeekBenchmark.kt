@@ -0,0 +1,76 @@
+package org.radarbase.benchmark
+
+import org.apache.avro.specific.SpecificRecord
+import org.openjdk.jmh.annotations.*
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.ObjectQueue
+import org.radarbase.util.QueueFile
+import org.radarcns.kafka.ObservationKey
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of reading record batches from a cache queue with [ObjectQueue.peek], as done for
+ * each upload. The `amountLimit` and `sizeLimit` parameters correspond to the submitter settings
+ * of the same name. Throughput is given in peeked batches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class ObjectQueuePeekBenchmark {
+    @Param("ACCELERATION", "BATTERY_LEVEL")
+    lateinit var sample: SampleType
+
+    @Param("TAPE", "KEYED_TAPE", "KEYED_TAPE_DEFLATE")
+    lateinit var serialization: SerializationType
+
+    @Param("10", "1000")
+    @JvmField
+    var amountLimit: Int = 0
+
+    @Param("10000", "5000000")
+    @JvmField
+    var sizeLimit: Long = 0L
+
+    private lateinit var directory: File
+    private lateinit var queue: ObjectQueue<Record<ObservationKey, SpecificRecord>, Record<Any, Any>>
+
+    @Setup(Level.Trial)
+    @Suppress("UNCHECKED_CAST")
+    fun setUp() {
+        directory = Files.createTempDirectory("peek-benchmark").toFile()
+        val factory = serialization.factory
+        val file = File(directory, "cache" + factory.fileExtension)
+        val topic = sample.topic
+        queue = factory.createQueue(
+            QueueFile.newMapped(file, MAX_SIZE),
+            factory.createSerializer(topic, file),
+            factory.createDeserializer(topic as AvroTopic<Any, Any>, file),
+            file,
+        )
+        // add records in batches, as TapeCache does
+        (0 until NUM_RECORDS).chunked(WRITE_BATCH_SIZE) { indexes ->
+            queue.addAll(indexes.map { sample.createRecord(it) })
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        queue.close()
+        directory.deleteRecursively()
+    }
+
+    @Benchmark
+    fun peek(): List<Record<Any, Any>?> = queue.peek(amountLimit, sizeLimit)
+
+    companion object {
+        const val NUM_RECORDS = 5000
+        const val WRITE_BATCH_SIZE = 500
+        const val MAX_SIZE = 64L * 1024 * 1024
+    }
+}
@@ -0,0 +1,116 @@
+package org.radarbase.benchmark
+
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import org.radarbase.util.DirectQueueFileStorage
+import org.radarbase.util.QueueFile
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of appending, peeking and removing elements of a [QueueFile], for different element
+ * sizes, storage backends and group commit settings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class QueueFileBenchmark {
+    @Param("16", "256", "4096")
+    @JvmField
+    var elementSize: Int = 0
+
+    @Param("DIRECT", "BUFFERED", "MAPPED")
+    lateinit var storage: StorageType
+
+    /** QueueFile.syncDelay in milliseconds. Zero synchronizes every commit. */
+    @Param("0", "1000")
+    @JvmField
+    var syncDelay: Long = 0L
+
+    private lateinit var directory: File
+    private lateinit var queueFile: QueueFile
+    private lateinit var element: ByteArray
+    private lateinit var readBuffer: ByteArray
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        directory = Files.createTempDirectory("queue-benchmark").toFile()
+        queueFile = storage.create(File(directory, "queue"), DirectQueueFileStorage.MINIMUM_LENGTH, MAX_SIZE)
+        queueFile.syncDelay = syncDelay
+        element = ByteArray(elementSize).also { ThreadLocalRandom.current().nextBytes(it) }
+        readBuffer = ByteArray(elementSize)
+
+        // keep a backlog of elements, so that the queue wraps around during the benchmark
+        queueFile.elementOutputStream().use { out ->
+            repeat(BACKLOG_SIZE) {
+                out.write(element)
+                out.next()
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        queueFile.close()
+        directory.deleteRecursively()
+    }
+
+    /** Append a single element and remove the head element. */
+    @Benchmark
+    fun appendAndRemove() {
+        queueFile.elementOutputStream().use { out ->
+            out.write(element)
+        }
+        queueFile.remove(1)
+    }
+
+    /** Append [BATCH_SIZE] elements in a single commit and remove as many head elements. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun appendBatchAndRemove() {
+        queueFile.elementOutputStream().use { out ->
+            repeat(BATCH_SIZE) {
+                out.write(element)
+                out.next()
+            }
+        }
+        queueFile.remove(BATCH_SIZE)
+    }
+
+    /** Read the head element. */
+    @Benchmark
+    fun peek(blackhole: Blackhole) {
+        queueFile.peek()!!.use { input ->
+            var numRead = 0
+            while (numRead < readBuffer.size) {
+                val n = input.read(readBuffer, numRead, readBuffer.size - numRead)
+                if (n < 0) break
+                numRead += n
+            }
+            blackhole.consume(numRead)
+        }
+    }
+
+    /** Iterate over [BATCH_SIZE] elements, as done when reading records to upload. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    fun iterate(blackhole: Blackhole) {
+        val iter = queueFile.iterator()
+        repeat(BATCH_SIZE) {
+            iter.next().use { input ->
+                blackhole.consume(input.read(readBuffer))
+            }
+        }
+    }
+
+    companion object {
+        const val BATCH_SIZE = 100
+        const val BACKLOG_SIZE = 1000
+        const val MAX_SIZE = 64L * 1024 * 1024
+    }
+}
@@ -0,0 +1,83 @@
+package org.radarbase.benchmark
+
+import org.openjdk.jmh.annotations.*
+import org.radarbase.util.DirectQueueFileStorage
+import org.radarbase.util.QueueFile
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Time to fill a new [QueueFile] from its minimum size, while removing elements along the way.
+ * The queue wraps around before it needs to grow, so this exercises [QueueFile.growStorage] with
+ * compaction of the wrapped elements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class QueueFileGrowthBenchmark {
+    @Param("64", "1024")
+    @JvmField
+    var elementSize: Int = 0
+
+    @Param("BUFFERED", "MAPPED")
+    lateinit var storage: StorageType
+
+    private lateinit var directory: File
+    private lateinit var element: ByteArray
+    private var queueFile: QueueFile? = null
+
+    @Setup(Level.Trial)
+    fun setUpTrial() {
+        directory = Files.createTempDirectory("queue-growth-benchmark").toFile()
+        element = ByteArray(elementSize).also { ThreadLocalRandom.current().nextBytes(it) }
+    }
+
+    @Setup(Level.Invocation)
+    fun setUpInvocation() {
+        val file = File(directory, "queue")
+        file.delete()
+        queueFile = storage.create(file, DirectQueueFileStorage.MINIMUM_LENGTH, MAX_SIZE)
+            .apply { syncDelay = 1000L }
+    }
+
+    @TearDown(Level.Invocation)
+    fun tearDownInvocation() {
+        queueFile?.close()
+        queueFile = null
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDownTrial() {
+        directory.deleteRecursively()
+    }
+
+    /** Write [TOTAL_BYTES] in batches, removing half of each batch after writing it. */
+    @Benchmark
+    fun wrapAndGrow(): Long {
+        val queueFile = checkNotNull(queueFile)
+        val batchSize = (BATCH_BYTES / elementSize).coerceAtLeast(1)
+        var written = 0L
+        while (written < TOTAL_BYTES) {
+            queueFile.elementOutputStream().use { out ->
+                repeat(batchSize) {
+                    out.write(element)
+                    out.next()
+                }
+            }
+            written += batchSize.toLong() * elementSize
+            queueFile.remove(batchSize / 2)
+        }
+        return queueFile.fileSize
+    }
+
+    companion object {
+        const val BATCH_BYTES = 16 * 1024
+        const val TOTAL_BYTES = 4L * 1024 * 1024
+        const val MAX_SIZE = 16L * 1024 * 1024
+    }
+}
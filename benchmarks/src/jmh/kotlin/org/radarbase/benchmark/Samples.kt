@@ -0,0 +1,64 @@
+package org.radarbase.benchmark
+
+import org.radarbase.android.data.serialization.DeflateSerializationFactory
+import org.radarbase.android.data.serialization.KeyedTapeSerializationFactory
+import org.radarbase.android.data.serialization.SerializationFactory
+import org.radarbase.android.data.serialization.TapeAvroSerializationFactory
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarcns.kafka.ObservationKey
+import org.radarcns.passive.phone.BatteryStatus
+import org.radarcns.passive.phone.PhoneAcceleration
+import org.radarcns.passive.phone.PhoneBatteryLevel
+import org.apache.avro.specific.SpecificRecord
+
+/** Record types from radar-schemas to benchmark with. */
+enum class SampleType {
+    /** High-frequency record with only numeric fields. */
+    ACCELERATION {
+        override val topic = topic("android_phone_acceleration", PhoneAcceleration())
+
+        override fun createValue(i: Int): SpecificRecord {
+            val time = START_TIME + i * 0.02
+            return PhoneAcceleration(time, time, i * 0.01f, -i * 0.02f, 9.81f)
+        }
+    },
+    /** Low-frequency record that includes a boolean and an enum. */
+    BATTERY_LEVEL {
+        override val topic = topic("android_phone_battery_level", PhoneBatteryLevel())
+
+        override fun createValue(i: Int): SpecificRecord {
+            val time = START_TIME + i * 60.0
+            return PhoneBatteryLevel(time, time, (i % 100) / 100f, i % 2 == 0, BatteryStatus.DISCHARGING)
+        }
+    };
+
+    abstract val topic: AvroTopic<ObservationKey, SpecificRecord>
+
+    abstract fun createValue(i: Int): SpecificRecord
+
+    fun createRecord(i: Int) = Record(KEY, createValue(i))
+
+    companion object {
+        val KEY = ObservationKey("benchmark", "a3ed3b25-5d08-4ab9-9d4d-2c21f0e0b31d", "3a9fd7b9-7ae6-4e40-9c4e-7e1f3ba0a9bb")
+    }
+}
+
+private const val START_TIME = 1_700_000_000.0
+
+// Top-level instead of in the companion object, since enum entries are initialized before it.
+@Suppress("UNCHECKED_CAST")
+private fun topic(name: String, value: SpecificRecord) = AvroTopic(
+    name,
+    ObservationKey.getClassSchema(),
+    value.schema,
+    ObservationKey::class.java,
+    value::class.java as Class<SpecificRecord>,
+)
+
+/** Cache serialization formats to benchmark. */
+enum class SerializationType(val factory: SerializationFactory) {
+    TAPE(TapeAvroSerializationFactory()),
+    KEYED_TAPE(KeyedTapeSerializationFactory()),
+    KEYED_TAPE_DEFLATE(DeflateSerializationFactory(KeyedTapeSerializationFactory())),
+}
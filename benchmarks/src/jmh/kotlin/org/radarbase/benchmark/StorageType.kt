@@ -0,0 +1,31 @@
+package org.radarbase.benchmark
+
+import org.radarbase.util.BufferedQueueStorage
+import org.radarbase.util.DirectQueueFileStorage
+import org.radarbase.util.MappedQueueFileStorage
+import org.radarbase.util.QueueFile
+import java.io.File
+
+/** Storage backend of a [QueueFile] to benchmark. */
+enum class StorageType {
+    /** Unbuffered [DirectQueueFileStorage]. */
+    DIRECT {
+        override fun create(file: File, initialLength: Long, maxSize: Long) = QueueFile(
+            DirectQueueFileStorage(file, initialLength, maxSize)
+        )
+    },
+    /** [DirectQueueFileStorage] wrapped in a [BufferedQueueStorage], as used by [QueueFile.newDirect]. */
+    BUFFERED {
+        override fun create(file: File, initialLength: Long, maxSize: Long) = QueueFile(
+            BufferedQueueStorage(DirectQueueFileStorage(file, initialLength, maxSize))
+        )
+    },
+    /** [MappedQueueFileStorage], as used by [QueueFile.newMapped]. */
+    MAPPED {
+        override fun create(file: File, initialLength: Long, maxSize: Long) = QueueFile(
+            MappedQueueFileStorage(file, initialLength, maxSize)
+        )
+    };
+
+    abstract fun create(file: File, initialLength: Long, maxSize: Long): QueueFile
+}
@@ -0,0 +1,75 @@
+package org.radarbase.benchmark
+
+import org.apache.avro.specific.SpecificRecord
+import org.openjdk.jmh.annotations.*
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.BackedObjectQueue
+import org.radarcns.kafka.ObservationKey
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of serializing and deserializing single radar-schemas records with the cache
+ * serializers. The Deflate variant is excluded, since it compresses per batch and not per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class TapeSerializationBenchmark {
+    @Param("ACCELERATION", "BATTERY_LEVEL")
+    lateinit var sample: SampleType
+
+    @Param("TAPE", "KEYED_TAPE")
+    lateinit var serialization: SerializationType
+
+    private lateinit var directory: File
+    private lateinit var serializer: BackedObjectQueue.Serializer<Record<ObservationKey, SpecificRecord>>
+    private lateinit var deserializer: BackedObjectQueue.Deserializer<Record<Any, Any>>
+    private lateinit var record: Record<ObservationKey, SpecificRecord>
+    private lateinit var serialized: ByteArray
+    private val output = ByteArrayOutputStream(1024)
+
+    @Setup(Level.Trial)
+    @Suppress("UNCHECKED_CAST")
+    fun setUp() {
+        directory = Files.createTempDirectory("serialization-benchmark").toFile()
+        val file = File(directory, "cache" + serialization.factory.fileExtension)
+        val topic = sample.topic
+        serializer = serialization.factory.createSerializer(topic, file)
+        deserializer = serialization.factory.createDeserializer(topic as AvroTopic<Any, Any>, file)
+        record = sample.createRecord(0)
+        serialized = ByteArrayOutputStream().use {
+            serializer.serialize(record, it)
+            it.toByteArray()
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    @Benchmark
+    fun serialize(): Int {
+        output.reset()
+        serializer.serialize(record, output)
+        return output.size()
+    }
+
+    @Benchmark
+    fun deserialize(): Record<Any, Any> = deserializer.deserialize(ByteArrayInputStream(serialized))
+
+    @Benchmark
+    fun roundTrip(): Record<Any, Any> {
+        output.reset()
+        serializer.serialize(record, output)
+        return deserializer.deserialize(ByteArrayInputStream(output.toByteArray()))
+    }
+}
@@ -86,6 +86,9 @@ interface RadarConfiguration {
         const val DATABASE_COMMIT_RATE_KEY = "database_commit_rate"
         const val KAFKA_RECORDS_SEND_LIMIT_KEY = "kafka_records_send_limit"
         const val KAFKA_RECORDS_SIZE_LIMIT_KEY = "kafka_records_size_limit"
+        const val KAFKA_UPLOAD_CONCURRENCY_KEY = "kafka_upload_concurrency"
+        const val KAFKA_UPLOAD_MULTI_TOPIC_KEY = "kafka_upload_multi_topic"
+        const val KAFKA_UPLOAD_TARGET_DURATION_KEY = "kafka_upload_target_duration_ms"
         const val SENDER_CONNECTION_TIMEOUT_KEY = "sender_connection_timeout"
         const val FIREBASE_FETCH_TIMEOUT_MS_KEY = "firebase_fetch_timeout_ms"
         const val FETCH_TIMEOUT_MS_KEY = "fetch_timeout_ms"
@@ -96,6 +99,13 @@ interface RadarConfiguration {
         const val KAFKA_UPLOAD_MINIMUM_BATTERY_LEVEL = "kafka_upload_minimum_battery_level"
         const val KAFKA_UPLOAD_REDUCED_BATTERY_LEVEL = "kafka_upload_reduced_battery_level"
         const val MAX_CACHE_SIZE = "cache_max_size_bytes"
+        const val CACHE_QUEUE_FILE_TYPE = "cache_queue_file_type"
+        const val CACHE_SYNC_DELAY_KEY = "cache_sync_delay_millis"
+        const val CACHE_SYNC_BYTES_KEY = "cache_sync_bytes"
+        const val CACHE_COMPRESSION_KEY = "cache_compression"
+        const val CACHE_INDEX_INTERVAL_KEY = "cache_index_interval"
+        const val CACHE_IO_THREADS_KEY = "cache_io_threads"
+        const val CACHE_DEDICATED_THREAD_TOPICS_KEY = "cache_dedicated_thread_topics"
         const val SEND_ONLY_WITH_WIFI = "send_only_with_wifi"
         const val SEND_BINARY_CONTENT = "send_binary_content"
         const val SEND_WITH_COMPRESSION = "send_with_compression"
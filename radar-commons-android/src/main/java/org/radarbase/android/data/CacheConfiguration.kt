@@ -2,7 +2,10 @@ package org.radarbase.android.data
 
 import org.radarbase.android.RadarConfiguration
 import org.radarbase.android.config.SingleRadarConfiguration
+import org.radarbase.android.util.takeTrimmedIfNotEmpty
+import org.radarbase.util.ElementQueue
 import org.radarbase.util.QueueFile
+import org.radarbase.util.SegmentedQueueFile
 import java.io.File
 
 data class CacheConfiguration(
@@ -12,15 +15,88 @@ data class CacheConfiguration(
         var maximumSize: Long = 450_000_000,
         /** Type of queue file implementation to use. */
         var queueFileType: QueueFileFactory = QueueFileFactory.DIRECT,
+        /**
+         * Maximum time in milliseconds that committed data may remain unsynchronized to disk.
+         * If 0, data is synchronized on every commit.
+         */
+        var syncDelay: Long = 0L,
+        /**
+         * Maximum number of bytes that may remain unsynchronized to disk if [syncDelay] is set.
+         * If 0, only [syncDelay] is used.
+         */
+        var syncBytes: Long = 0L,
+        /**
+         * Compression of newly created caches. Compressed caches store each committed batch of
+         * records as a single compressed block. Existing caches keep their compression.
+         */
+        var compression: CacheCompression = CacheCompression.NONE,
+        /**
+         * Number of queue elements between entries of the sparse element index, which speeds
+         * up removing and skipping many elements. If 0, no index is kept. Only applies to caches
+         * that are opened after setting it.
+         */
+        var indexInterval: Int = 0,
+        /**
+         * Number of threads that cache I/O is spread over, so that a slow flush or resize of one
+         * topic does not block reads and writes of topics on other threads. Only applies to
+         * caches that are opened after setting it.
+         */
+        var ioThreads: Int = 1,
+        /**
+         * Topics that get a cache I/O thread of their own, for example topics with a high data
+         * rate. Only applies to caches that are opened after setting it.
+         */
+        var dedicatedThreadTopics: Set<String> = emptySet(),
 ) {
     fun configure(config: SingleRadarConfiguration) {
         maximumSize = config.getLong(RadarConfiguration.MAX_CACHE_SIZE, maximumSize)
         commitRate = config.getLong(RadarConfiguration.DATABASE_COMMIT_RATE_KEY, commitRate)
+        queueFileType = config.optString(RadarConfiguration.CACHE_QUEUE_FILE_TYPE) { type ->
+            QueueFileFactory.values().find { it.name.equals(type, ignoreCase = true) }
+        } ?: queueFileType
+        syncDelay = config.getLong(RadarConfiguration.CACHE_SYNC_DELAY_KEY, syncDelay)
+        syncBytes = config.getLong(RadarConfiguration.CACHE_SYNC_BYTES_KEY, syncBytes)
+        compression = config.optString(RadarConfiguration.CACHE_COMPRESSION_KEY) { type ->
+            CacheCompression.values().find { it.name.equals(type, ignoreCase = true) }
+        } ?: compression
+        indexInterval = config.getInt(RadarConfiguration.CACHE_INDEX_INTERVAL_KEY, indexInterval)
+            .coerceAtLeast(0)
+        ioThreads = config.getInt(RadarConfiguration.CACHE_IO_THREADS_KEY, ioThreads)
+            .coerceIn(1, MAX_IO_THREADS)
+        dedicatedThreadTopics = config.optString(RadarConfiguration.CACHE_DEDICATED_THREAD_TOPICS_KEY) { topics ->
+            topics.split(',').mapNotNullTo(HashSet(), String::takeTrimmedIfNotEmpty)
+        } ?: dedicatedThreadTopics
     }
 
-    enum class QueueFileFactory(val generator: (File, Long) -> QueueFile) {
-        DIRECT(QueueFile::newDirect);
+    /**
+     * Type of queue file. [DIRECT] and [MAPPED] store the queue in a single ring buffer file of
+     * at most 2 GB, that is doubled in size when it is full. [SEGMENTED] stores the queue in
+     * fixed-size segment files, that are deleted once all their elements are removed. Existing
+     * queue files keep their type.
+     */
+    enum class QueueFileFactory(val generator: (File, Long, Int) -> ElementQueue) {
+        DIRECT(QueueFile::newDirect),
+        MAPPED(QueueFile::newMapped),
+        // segments are skipped as a whole, so they do not use an element index
+        SEGMENTED({ file, size, _ -> SegmentedQueueFile.newSegmented(file, size) });
 
-        fun generate(file: File, size: Long) = generator(file, size)
+        fun generate(file: File, size: Long, indexInterval: Int = 0): ElementQueue {
+            val type = when {
+                SegmentedQueueFile.isSegmented(file) -> SEGMENTED
+                this == SEGMENTED && file.length() > 0L -> DIRECT
+                else -> this
+            }
+            return type.generator(file, size, indexInterval)
+        }
+    }
+
+    enum class CacheCompression {
+        NONE,
+        DEFLATE,
+    }
+
+    companion object {
+        /** Upper bound for [ioThreads]. */
+        const val MAX_IO_THREADS = 8
     }
 }
@@ -21,6 +21,8 @@ import android.os.Process.THREAD_PRIORITY_BACKGROUND
 import org.apache.avro.Schema
 import org.apache.avro.specific.SpecificRecord
 import org.radarbase.android.BuildConfig
+import org.radarbase.android.data.serialization.DeflateSerializationFactory
+import org.radarbase.android.data.serialization.KeyedTapeSerializationFactory
 import org.radarbase.android.data.serialization.SerializationFactory
 import org.radarbase.android.data.serialization.TapeAvroSerializationFactory
 import org.radarbase.android.util.SafeHandler
@@ -37,11 +39,23 @@ import java.util.*
 import kotlin.collections.ArrayList
 
 class CacheStore(
-        private val serializationFactories: List<SerializationFactory> = listOf(TapeAvroSerializationFactory())
+        private val serializationFactories: List<SerializationFactory> = listOf(
+            KeyedTapeSerializationFactory(),
+            TapeAvroSerializationFactory(),
+        ),
 ) {
+    /** Serialization types that can be read, including compressed variants. */
+    private val readableSerializationFactories: List<SerializationFactory> = serializationFactories +
+            serializationFactories.map { DeflateSerializationFactory(it) }
+
     private val tables: MutableMap<String, SynchronizedReference<DataCacheGroup<*, *>>> = HashMap()
     private val handler = SafeHandler.getInstance("DataCache", THREAD_PRIORITY_BACKGROUND)
 
+    /** Cache I/O threads that topics are spread over, starting with [handler]. */
+    private val ioHandlers = mutableListOf(handler)
+    /** Index in [ioHandlers] that each topic was assigned to. */
+    private val topicIoHandlers: MutableMap<String, Int> = HashMap()
+
     init {
 //        logger.debug("Serialization factories" + serializationFactories)
         require(serializationFactories.isNotEmpty()) { "Need to specify at least one serialization method" }
@@ -73,12 +87,12 @@ class CacheStore(
             config: CacheConfiguration,
             handler: SafeHandler? = null,
     ): DataCacheGroup<K, V> {
-        val useHandler = if (handler != null) {
+        if (handler != null) {
             require(handler.isStarted) { "Cannot load a cache from a stopped handler" }
-            handler
-        } else this.handler
+        }
         val ref = tables[topic.name] as SynchronizedReference<DataCacheGroup<K, V>>?
                 ?: SynchronizedReference {
+                    val useHandler = handler ?: ioHandler(topic.name, config)
                     val cacheBase = context.cacheDir.absolutePath + "/" + topic.name
                     val oldCache = loadExistingCaches(
                         cacheBase,
@@ -105,6 +119,37 @@ class CacheStore(
 
         return ref.get()
     }
+
+    /**
+     * Get the cache I/O thread for a topic. Topics are assigned to the thread with the fewest
+     * topics among the first [CacheConfiguration.ioThreads] threads, unless they have a
+     * dedicated thread. A topic that is loaded again keeps its thread if it is still in use.
+     * Threads are shared instances like [handler], so that they are reused by later cache stores
+     * instead of being started again. They are started as needed.
+     */
+    private fun ioHandler(topicName: String, config: CacheConfiguration): SafeHandler {
+        if (topicName in config.dedicatedThreadTopics) {
+            return sharedHandler("DataCache-$topicName")
+        }
+        val numThreads = config.ioThreads.coerceIn(1, CacheConfiguration.MAX_IO_THREADS)
+        while (ioHandlers.size < numThreads) {
+            ioHandlers += sharedHandler("DataCache-${ioHandlers.size}")
+        }
+        val index = topicIoHandlers[topicName]?.takeIf { it < numThreads }
+            ?: (0 until numThreads)
+                .minBy { i -> topicIoHandlers.values.count { it == i } }
+                .also { topicIoHandlers[topicName] = it }
+        return ioHandlers[index]
+    }
+
+    /** Get a shared handler, starting it if it is not running yet. */
+    private fun sharedHandler(name: String): SafeHandler =
+        SafeHandler.getInstance(name, THREAD_PRIORITY_BACKGROUND).apply {
+            synchronized(this) {
+                if (!isStarted) start()
+            }
+        }
+
     @Throws(IOException::class)
     private fun <K: Any, V: Any> loadExistingCaches(
         base: String,
@@ -117,6 +162,7 @@ class CacheStore(
 
         var activeDataCache: DataCache<K, V>? = null
         val deprecatedDataCaches = ArrayList<ReadableDataCache>()
+        val activeSerialization = activeSerialization(config)
 
         for ((fileBase, serialization) in fileBases) {
             val tapeFile = File(fileBase + serialization.fileExtension)
@@ -129,7 +175,7 @@ class CacheStore(
 
             if (keySchema == topic.keySchema
                 && valueSchema == topic.valueSchema
-                && serialization == serializationFactories.first()) {
+                && serialization == activeSerialization) {
                 if (activeDataCache != null) {
                     logger.error("Cannot have more than one active cache")
                 }
@@ -163,7 +209,7 @@ class CacheStore(
         if (!baseDir.exists() && !baseDir.mkdirs()) {
             throw IOException("Cannot make data cache directory")
         }
-        val serialization = serializationFactories.first()
+        val serialization = activeSerialization(config)
         return IntRange(0, 99)
                 .map { "$base/cache-$it" }
                 .find { fileBase -> fileBases.none { it.first == fileBase } }
@@ -182,6 +228,15 @@ class CacheStore(
                 } ?: throw IOException("No empty slot to store active data cache in.")
     }
 
+    /** Serialization type to write new data with. */
+    private fun activeSerialization(config: CacheConfiguration): SerializationFactory {
+        val serialization = serializationFactories.first()
+        return when (config.compression) {
+            CacheConfiguration.CacheCompression.NONE -> serialization
+            CacheConfiguration.CacheCompression.DEFLATE -> DeflateSerializationFactory(serialization)
+        }
+    }
+
     private fun loadSchemas(topic: AvroTopic<*, *>, base: String): Pair<Schema, Schema>? {
         val parser = Schema.Parser()
 
@@ -203,16 +258,16 @@ class CacheStore(
     }
 
     private fun getFileBases(base: String): List<Pair<String, SerializationFactory>> {
-        val regularFiles = serializationFactories
+        val regularFiles = readableSerializationFactories
                 .filter { sf -> File(base + sf.fileExtension).isFile }
                 .map { sf -> Pair(base + sf.fileExtension, sf) }
 
         val dirFiles = File(base)
                 .takeIf { it.isDirectory }
-                ?.listFiles { _, fileName -> serializationFactories.any { sf -> fileName.endsWith(sf.fileExtension) } }
+                ?.listFiles { _, fileName -> readableSerializationFactories.any { sf -> fileName.endsWith(sf.fileExtension) } }
                 ?.map { f ->
                     val fileName = f.name
-                    val sf = serializationFactories.first { fileName.endsWith(it.fileExtension) }
+                    val sf = readableSerializationFactories.first { fileName.endsWith(it.fileExtension) }
                     Pair(base + "/" + fileName.substring(0, fileName.length - sf.fileExtension.length), sf)
                 }
 
@@ -16,9 +16,13 @@
 
 package org.radarbase.android.data
 
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.specific.SpecificDatumReader
 import org.radarbase.topic.AvroTopic
 
 import java.io.Flushable
+import java.io.IOException
 
 interface DataCache<K, V> : Flushable, ReadableDataCache {
     /** Get the topic the cache stores.  */
@@ -27,6 +31,28 @@ interface DataCache<K, V> : Flushable, ReadableDataCache {
     /** Add a new measurement to the cache.  */
     fun addMeasurement(key: K, value: V)
 
+    /**
+     * Add a batch of measurements with the same key, of which the values are already encoded in
+     * binary Avro form with the value schema of [topic]. See [SampleBatchEncoder]. The batch is
+     * released when its values are stored. By default, the values are decoded and added one by
+     * one with [addMeasurement].
+     * @throws IllegalArgumentException if the values cannot be decoded.
+     */
+    fun addMeasurements(key: K, values: ValueBatch) {
+        try {
+            val reader = SpecificDatumReader<V>(topic.valueSchema)
+            var decoder: BinaryDecoder? = null
+            for (i in 0 until values.size) {
+                decoder = DecoderFactory.get().binaryDecoder(values.buffer, values.valueOffset(i), values.valueLength(i), decoder)
+                addMeasurement(key, reader.read(null, decoder))
+            }
+        } catch (ex: IOException) {
+            throw IllegalArgumentException("Cannot decode values for topic ${topic.name}", ex)
+        } finally {
+            values.release()
+        }
+    }
+
     /** Configuration. */
     var config: CacheConfiguration
 
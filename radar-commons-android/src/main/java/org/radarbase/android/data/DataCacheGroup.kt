@@ -1,5 +1,7 @@
 package org.radarbase.android.data
 
+import org.radarbase.util.QueueFile
+import org.radarbase.util.SegmentedQueueFile
 import org.slf4j.LoggerFactory
 import java.io.Closeable
 import java.io.File
@@ -26,6 +28,13 @@ class DataCacheGroup<K, V>(
             if (!tapeFile.delete()) {
                 logger.warn("Cannot remove old DataCache file " + tapeFile + " for topic " + storedCache.readTopic.name)
             }
+            val indexFile = QueueFile.indexFile(tapeFile)
+            if (indexFile.exists() && !indexFile.delete()) {
+                logger.warn("Cannot remove old index file " + indexFile + " for topic " + storedCache.readTopic.name)
+            }
+            if (!SegmentedQueueFile.deleteSegments(tapeFile)) {
+                logger.warn("Cannot remove old segment files of " + tapeFile + " for topic " + storedCache.readTopic.name)
+            }
             val name = tapeFile.absolutePath
             val base = name.substring(0, name.length - storedCache.serialization.fileExtension.length)
             val keySchemaFile = File(base + CacheStore.KEY_SCHEMA_EXTENSION)
@@ -36,6 +45,13 @@ class DataCacheGroup<K, V>(
             if (!valueSchemaFile.delete()) {
                 logger.warn("Cannot remove old value schema file " + valueSchemaFile + " for topic " + storedCache.readTopic.name)
             }
+            for (extension in storedCache.serialization.auxiliaryExtensions) {
+                val auxiliaryFile = File(base + extension)
+                if (auxiliaryFile.exists() && !auxiliaryFile.delete()) {
+                    logger.warn("Cannot remove old auxiliary file " + auxiliaryFile + " for topic " + storedCache.readTopic.name)
+                }
+            }
+            storedCache.serialization.release(tapeFile)
         }
     }
 
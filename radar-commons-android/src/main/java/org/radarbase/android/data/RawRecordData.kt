@@ -0,0 +1,37 @@
+package org.radarbase.android.data
+
+import org.radarbase.topic.AvroTopic
+
+/**
+ * Records with a single key, with values kept in their binary Avro form. The values are stored
+ * back to back in [buffer]: value `i` spans from `valueOffsets[i]` until `valueOffsets[i + 1]`.
+ *
+ * @param topic topic that the values were serialized with.
+ * @param key deserialized key shared by all values.
+ * @param buffer serialized values.
+ * @param valueOffsets offsets of the values in [buffer], with one more entry than [size].
+ * @param size number of values.
+ */
+class RawRecordData(
+    val topic: AvroTopic<Any, Any>,
+    val key: Any,
+    val buffer: ByteArray,
+    val valueOffsets: IntArray,
+    val size: Int,
+) {
+    init {
+        require(valueOffsets.size > size) { "Value offsets must contain the end of the last value" }
+    }
+
+    /** Start offset of value [index] in [buffer]. */
+    fun valueOffset(index: Int): Int = valueOffsets[index]
+
+    /** Serialized length of value [index]. */
+    fun valueLength(index: Int): Int = valueOffsets[index + 1] - valueOffsets[index]
+
+    /** Total serialized size of all values. */
+    val valuesLength: Int
+        get() = valueOffsets[size] - valueOffsets[0]
+
+    override fun toString() = "RawRecordData<${topic.name}>[key=$key, size=$size, bytes=$valuesLength]"
+}
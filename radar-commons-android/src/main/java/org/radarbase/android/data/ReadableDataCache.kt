@@ -22,6 +22,8 @@ import org.radarbase.topic.AvroTopic
 import java.io.Closeable
 import java.io.File
 import java.io.IOException
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
 
 interface ReadableDataCache : Closeable {
     /** Get the topic the cache stores.  */
@@ -30,7 +32,8 @@ interface ReadableDataCache : Closeable {
 
     val file: File
     /**
-     * Get unsent records from the cache.
+     * Get unsent records from the cache. Records that cannot be read have a null value, so the
+     * size of the result is the number of records to [remove] once they are sent.
      *
      * @param limit maximum number of records.
      * @param sizeLimit maximum serialized size of those records.
@@ -39,6 +42,70 @@ interface ReadableDataCache : Closeable {
     @Throws(IOException::class)
     fun getUnsentRecords(limit: Int, sizeLimit: Long): RecordData<Any, Any?>?
 
+    /** Whether unsent records can be read in their serialized form with [getUnsentRawRecords]. */
+    val hasRawRecords: Boolean
+        get() = false
+
+    /**
+     * Get unsent records from the cache in their serialized form, without deserializing their
+     * values. Use [remove] with the size of the result to remove them once they are sent.
+     *
+     * @param limit maximum number of records.
+     * @param sizeLimit maximum serialized size of those records.
+     * @return records or null if none are found or if this cache does not support raw reads.
+     */
+    @Throws(IOException::class)
+    fun getUnsentRawRecords(limit: Int, sizeLimit: Long): RawRecordData? = null
+
+    /**
+     * Read unsent records after the first [offset] unsent records, without waiting for the read
+     * to finish. The read is ordered before any later call to [remove], so [offset] is relative to
+     * the unsent records at the time of this call. Use this to read the next batch while the
+     * current batch is being sent.
+     *
+     * @param offset number of unsent records to skip.
+     * @param limit maximum number of records.
+     * @param sizeLimit maximum serialized size of those records.
+     * @return future records, which are null if none are found, or null if this cache does not
+     *         support reading ahead.
+     */
+    fun readUnsentRecordsAhead(offset: Int, limit: Int, sizeLimit: Long): Future<RecordData<Any, Any?>?>? = null
+
+    /**
+     * Read unsent records after the first [offset] unsent records in their serialized form,
+     * without waiting for the read to finish. See [readUnsentRecordsAhead] and
+     * [getUnsentRawRecords].
+     *
+     * @return future records, which are null if none are found, or null if this cache does not
+     *         support reading raw records ahead.
+     */
+    fun readUnsentRawRecordsAhead(offset: Int, limit: Int, sizeLimit: Long): Future<RawRecordData?>? = null
+
+    /**
+     * Get unsent records from the cache without blocking the caller on the cache thread. This
+     * reads ahead at offset 0 if the cache supports it, otherwise it reads on the current thread.
+     * Any exception of the read is wrapped in an [java.util.concurrent.ExecutionException] when
+     * getting the result.
+     *
+     * @param limit maximum number of records.
+     * @param sizeLimit maximum serialized size of those records.
+     * @return future records, which are null if none are found.
+     */
+    fun getUnsentRecordsAsync(limit: Int, sizeLimit: Long): Future<RecordData<Any, Any?>?> =
+        readUnsentRecordsAhead(0, limit, sizeLimit)
+            ?: FutureTask { getUnsentRecords(limit, sizeLimit) }.apply { run() }
+
+    /**
+     * Get unsent records from the cache in their serialized form, without blocking the caller on
+     * the cache thread. See [getUnsentRecordsAsync] and [getUnsentRawRecords].
+     *
+     * @return future records, which are null if none are found or if this cache does not
+     *         support raw reads.
+     */
+    fun getUnsentRawRecordsAsync(limit: Int, sizeLimit: Long): Future<RawRecordData?> =
+        readUnsentRawRecordsAhead(0, limit, sizeLimit)
+            ?: FutureTask { getUnsentRawRecords(limit, sizeLimit) }.apply { run() }
+
     /**
      * Get latest records in the cache, from new to old.
      *
@@ -48,7 +115,8 @@ interface ReadableDataCache : Closeable {
     fun getRecords(limit: Int): RecordData<Any, Any>?
 
     /**
-     * Number of unsent records in cache.
+     * Number of unsent records in cache. Implementations should return this without waiting for
+     * the cache thread, since it is polled regularly.
      */
     val numberOfRecords: Long
 
@@ -58,4 +126,12 @@ interface ReadableDataCache : Closeable {
      */
     @Throws(IOException::class)
     fun remove(number: Int)
+
+    /**
+     * Return records that were read with [getUnsentRecords], [readUnsentRecordsAhead] or
+     * [getUnsentRecordsAsync] once they are no longer used, so that the cache may reuse their
+     * objects for a later read. The records, their keys and their values must not be accessed
+     * after this call. By default, this does nothing.
+     */
+    fun recycle(records: RecordData<Any, Any?>) = Unit
 }
@@ -0,0 +1,153 @@
+package org.radarbase.android.data
+
+import org.apache.avro.Schema
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Encodes columns of samples directly to binary Avro values, without creating a record per
+ * sample. The value schema must start with the double fields `time` and `timeReceived`, followed
+ * by one field per column. Column fields may be of type float, double, int or long, or a union
+ * of null and one of those types. Values are given as floats and converted to the field type.
+ *
+ * Like regular records, non-finite values are not allowed. For nullable fields, a NaN value is
+ * encoded as null.
+ *
+ * Buffers of batches that were released by the cache are reused for later batches.
+ *
+ * @param schema value schema to encode.
+ * @param numColumns number of columns that will be passed to [encode].
+ * @throws IllegalArgumentException if the schema does not match the expected layout.
+ */
+class SampleBatchEncoder(
+    private val schema: Schema,
+    numColumns: Int,
+) {
+    private val columnTypes: Array<Schema.Type>
+    /** Union index of the null type, or -1 if the field is not nullable. */
+    private val nullIndexes: IntArray
+    /** Union index of the value type, or -1 if the field is not a union. */
+    private val valueIndexes: IntArray
+    /** Released batches, of which the buffers can be reused. */
+    private val freeBatches = ConcurrentLinkedQueue<ValueBatch>()
+
+    init {
+        require(schema.type == Schema.Type.RECORD) { "Schema ${schema.fullName} is not a record" }
+        val fields = schema.fields
+        require(fields.size == numColumns + 2) {
+            "Schema ${schema.fullName} has ${fields.size} fields, expected time, timeReceived and $numColumns columns"
+        }
+        require(fields[0].name() == "time" && fields[0].schema().type == Schema.Type.DOUBLE
+                && fields[1].name() == "timeReceived" && fields[1].schema().type == Schema.Type.DOUBLE) {
+            "Schema ${schema.fullName} does not start with double fields time and timeReceived"
+        }
+        val columnFields = fields.subList(2, fields.size)
+        nullIndexes = IntArray(numColumns) { -1 }
+        valueIndexes = IntArray(numColumns) { -1 }
+        columnTypes = Array(numColumns) { i ->
+            val fieldSchema = columnFields[i].schema()
+            val valueSchema = if (fieldSchema.type == Schema.Type.UNION) {
+                val types = fieldSchema.types
+                require(types.size == 2) { "Union field ${columnFields[i].name()} must have exactly two types" }
+                val nullIndex = types.indexOfFirst { it.type == Schema.Type.NULL }
+                require(nullIndex != -1) { "Union field ${columnFields[i].name()} must be nullable" }
+                nullIndexes[i] = nullIndex
+                valueIndexes[i] = 1 - nullIndex
+                types[1 - nullIndex]
+            } else fieldSchema
+            valueSchema.type.also { type ->
+                require(type in SUPPORTED_TYPES) { "Field ${columnFields[i].name()} has unsupported type $type" }
+            }
+        }
+    }
+
+    /**
+     * Encode samples. Column `c` of sample `i` is taken from `columns[c][i]`.
+     * @param times sample times in seconds since the Unix epoch.
+     * @param timeReceived time that all samples were received.
+     * @param columns column values, in order of the schema fields.
+     * @param size number of samples to encode.
+     * @throws IllegalArgumentException if a value cannot be encoded.
+     */
+    fun encode(times: DoubleArray, timeReceived: Double, columns: Array<out FloatArray>, size: Int = times.size): ValueBatch {
+        require(columns.size == columnTypes.size) { "Expected ${columnTypes.size} columns, got ${columns.size}" }
+        require(size <= times.size && columns.all { size <= it.size }) { "Columns contain fewer than $size samples" }
+        require(timeReceived.isFinite()) { "Time received $timeReceived is not finite" }
+
+        val capacity = size * (16 + columnTypes.size * MAX_COLUMN_LENGTH)
+        val free = freeBatches.poll()
+        val buffer = free?.buffer?.takeIf { it.size >= capacity } ?: ByteArray(capacity)
+        val offsets = free?.valueOffsets?.takeIf { it.size > size } ?: IntArray(size + 1)
+        offsets[0] = 0
+        var position = 0
+        for (i in 0 until size) {
+            val time = times[i]
+            require(time.isFinite()) { "Time $time of sample $i is not finite" }
+            position = buffer.putDouble(position, time)
+            position = buffer.putDouble(position, timeReceived)
+            for (c in columnTypes.indices) {
+                val value = columns[c][i]
+                if (!value.isFinite()) {
+                    require(nullIndexes[c] != -1 && value.isNaN()) {
+                        "Value $value of column $c of sample $i in ${schema.fullName} is not finite"
+                    }
+                    position = buffer.putVarLong(position, nullIndexes[c].toLong())
+                    continue
+                }
+                if (valueIndexes[c] != -1) {
+                    position = buffer.putVarLong(position, valueIndexes[c].toLong())
+                }
+                position = when (columnTypes[c]) {
+                    Schema.Type.FLOAT -> buffer.putInt(position, value.toRawBits())
+                    Schema.Type.DOUBLE -> buffer.putDouble(position, value.toDouble())
+                    Schema.Type.INT -> buffer.putVarLong(position, value.toInt().toLong())
+                    else -> buffer.putVarLong(position, value.toLong())
+                }
+            }
+            offsets[i + 1] = position
+        }
+        return ValueBatch(buffer, offsets, size, ::reuse)
+    }
+
+    private fun reuse(batch: ValueBatch) {
+        if (freeBatches.size < MAX_FREE_BATCHES) {
+            freeBatches.offer(batch)
+        }
+    }
+
+    companion object {
+        private val SUPPORTED_TYPES = setOf(Schema.Type.FLOAT, Schema.Type.DOUBLE, Schema.Type.INT, Schema.Type.LONG)
+
+        /** Maximum length of a column: a union index and a variable-length long. */
+        private const val MAX_COLUMN_LENGTH = 11
+
+        /** Maximum number of released batches to keep for reuse. */
+        private const val MAX_FREE_BATCHES = 4
+
+        /** Write a little-endian int, as Avro does for floats. */
+        private fun ByteArray.putInt(position: Int, value: Int): Int {
+            this[position] = value.toByte()
+            this[position + 1] = (value ushr 8).toByte()
+            this[position + 2] = (value ushr 16).toByte()
+            this[position + 3] = (value ushr 24).toByte()
+            return position + 4
+        }
+
+        private fun ByteArray.putDouble(position: Int, value: Double): Int {
+            val bits = value.toRawBits()
+            putInt(position, bits.toInt())
+            return putInt(position + 4, (bits ushr 32).toInt())
+        }
+
+        /** Write a zig-zag encoded variable-length long, as Avro does for ints and longs. */
+        private fun ByteArray.putVarLong(position: Int, value: Long): Int {
+            var n = (value shl 1) xor (value shr 63)
+            var p = position
+            while (n and 0x7FL.inv() != 0L) {
+                this[p++] = ((n and 0x7F) or 0x80).toByte()
+                n = n ushr 7
+            }
+            this[p++] = n.toByte()
+            return p
+        }
+    }
+}
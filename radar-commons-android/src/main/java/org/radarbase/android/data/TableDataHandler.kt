@@ -20,6 +20,7 @@ import android.content.Context
 import android.os.Process.THREAD_PRIORITY_BACKGROUND
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
 import org.apache.avro.specific.SpecificRecord
+import org.radarbase.android.kafka.BinaryRecordSetSender
 import org.radarbase.android.kafka.KafkaDataSubmitter
 import org.radarbase.android.kafka.ServerStatusListener
 import org.radarbase.android.source.SourceService.Companion.CACHE_RECORDS_UNSENT_NUMBER
@@ -63,6 +64,7 @@ class TableDataHandler(
     private val lastNumberOfRecordsSent = TreeMap<String, Long>()
     private var submitter: KafkaDataSubmitter? = null
     private var sender: RestSender? = null
+    private var binarySender: BinaryRecordSetSender? = null
 
     private val isStarted: Boolean
         get() = submitter != null
@@ -116,6 +118,7 @@ class TableDataHandler(
 
         submitter = null
         sender = null
+        binarySender = null
 
         if (config.restConfig.kafkaConfig != null) {
             handlerThread.execute {
@@ -183,7 +186,23 @@ class TableDataHandler(
             sender = it
         }
 
-        this.submitter = KafkaDataSubmitter(this, sender, config.submitterConfig)
+        val binarySender = createBinarySender(client)
+        this.binarySender = binarySender
+
+        this.submitter = KafkaDataSubmitter(this, sender, config.submitterConfig, binarySender) {
+            networkConnectedReceiver.state.hasWifiOrEthernet
+        }
+    }
+
+    /**
+     * Create a sender of raw records if binary content is enabled.
+     * @return sender or null if binary content is disabled or no schema retriever is configured.
+     */
+    private fun createBinarySender(client: RestClient): BinaryRecordSetSender? {
+        val schemaRetriever = config.restConfig.schemaRetriever
+        return if (config.restConfig.hasBinaryContent && schemaRetriever != null) {
+            BinaryRecordSetSender(client, schemaRetriever, config.restConfig.headers)
+        } else null
     }
 
     /**
@@ -194,6 +213,7 @@ class TableDataHandler(
         submitter?.close()
         submitter = null
         sender = null
+        binarySender = null
         if (status != ServerStatusListener.Status.DISABLED) {
             updateServerStatus(ServerStatusListener.Status.READY)
         }
@@ -241,6 +261,7 @@ class TableDataHandler(
             this.submitter?.close()
             this.submitter = null
             this.sender = null
+            this.binarySender = null
         }
 
         tables.values.forEach(DataCacheGroup<*, *>::close)
@@ -369,6 +390,29 @@ class TableDataHandler(
                     setKafkaConfig(kafkaConfig)
                     resetConnection()
                 }
+                val submitter = submitter
+                if (submitter != null && (binarySender != null || newRest.hasBinaryContent)) {
+                    val client = RestClient.global()
+                        .server(kafkaConfig)
+                        .gzipCompression(newRest.useCompression)
+                        .timeout(newRest.connectionTimeout, TimeUnit.SECONDS)
+                        .build()
+                    val currentBinarySender = binarySender
+                    if (currentBinarySender != null) {
+                        currentBinarySender.client = client
+                        currentBinarySender.headers = newRest.headers
+                        if (oldConfig.restConfig.hasBinaryContent != newRest.hasBinaryContent) {
+                            currentBinarySender.isEnabled = newRest.hasBinaryContent
+                        }
+                        if (oldConfig.restConfig.kafkaConfig != kafkaConfig) {
+                            // a different server may support binary content
+                            currentBinarySender.isSupported = true
+                        }
+                    } else {
+                        binarySender = createBinarySender(client)
+                        submitter.binarySender = binarySender
+                    }
+                }
             }
         }
 
@@ -16,6 +16,8 @@
 
 package org.radarbase.android.data
 
+import org.radarbase.android.data.serialization.RawRecordReader
+import org.radarbase.android.data.serialization.RawRecordWriter
 import org.radarbase.android.data.serialization.SerializationFactory
 import org.radarbase.android.util.ChangeRunner
 import org.radarbase.android.util.SafeHandler
@@ -23,18 +25,27 @@ import org.radarbase.data.AvroRecordData
 import org.radarbase.data.Record
 import org.radarbase.data.RecordData
 import org.radarbase.topic.AvroTopic
-import org.radarbase.util.BackedObjectQueue
+import org.radarbase.util.ElementQueue
+import org.radarbase.util.MpscOverflowBuffer
+import org.radarbase.util.ObjectQueue
+import org.radarbase.util.PipelineMetrics
 import org.radarbase.util.QueueFile
+import org.radarbase.util.SegmentedQueueFile
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.IOException
 import java.util.*
 import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
 
 /**
- * Caches measurement on a BackedObjectQueue. Internally, all data is first cached on a local queue,
- * before being written in batches to the BackedObjectQueue, using a single-threaded
- * ExecutorService. Data is retrieved and removed from the queue in a blocking way using that same
+ * Caches measurement on a BackedObjectQueue. Internally, all data is first cached on a lock-free
+ * ring buffer, before being written in batches to the BackedObjectQueue, using a single-threaded
+ * ExecutorService. The ring buffer is drained when the commit rate passes, or earlier when it is
+ * half full. If it is full, data overflows into an unbounded queue, so adding data never blocks.
+ * Data is retrieved and removed from the queue in a blocking way using that same
  * ExecutorService. Sent messages are not kept, they are immediately removed.
  *
  * @param K measurement key type
@@ -56,41 +67,86 @@ constructor(
     config: CacheConfiguration,
 ) : DataCache<K, V> {
 
+    private val measurementBuffer = MpscOverflowBuffer<Record<K, V>>(MEASUREMENT_BUFFER_CAPACITY)
     private val measurementsToAdd = mutableListOf<Record<K, V>>()
-    private val serializer = serialization.createSerializer(topic)
-    private val deserializer = serialization.createDeserializer(readTopic)
-
-    private var queueFile: QueueFile
-    private var queue: BackedObjectQueue<Record<K, V>, Record<Any, Any>>
+    private val batchBuffer = MpscOverflowBuffer<Record<K, ValueBatch>>(BATCH_BUFFER_CAPACITY)
+    private val batchesToAdd = mutableListOf<Record<K, ValueBatch>>()
+    /** Whether a flush of the measurement buffer is scheduled. */
+    private val isFlushScheduled = AtomicBoolean(false)
+    /** Whether an immediate flush of the measurement buffer is requested. */
+    private val isFlushRequested = AtomicBoolean(false)
+    private val serializer = serialization.createSerializer(topic, file)
+    private val deserializer = serialization.createDeserializer(readTopic, file)
+    private val rawReader = serialization.createRawReader(readTopic, file)
+    @Suppress("UNCHECKED_CAST")
+    private val rawWriter = serializer as? RawRecordWriter<K>
+
+    private var queueFile: ElementQueue
+    private var queue: ObjectQueue<Record<K, V>, Record<Any, Any>>
     private val queueFileFactory = config.queueFileType
 
+    /** Batches that were read but not yet recycled, with the lists they were read into. */
+    private val batchesInUse = ArrayDeque<Pair<RecordData<Any, Any?>, BatchLists>>()
+    /** Lists of recycled batches, of which the records may be overwritten by the next read. */
+    private val recycledBatches = ArrayDeque<BatchLists>()
+
     private var addMeasurementFuture: SafeHandler.HandlerFuture? = null
+    private var syncFuture: SafeHandler.HandlerFuture? = null
 
     private val configCache = ChangeRunner(config)
+    private val metrics = PipelineMetrics.instance.topic(topic.name)
 
+    /**
+     * Number of records in the queue, updated on the handler thread after each modification so
+     * that it can be read without waiting for the handler.
+     */
+    private val recordCount = AtomicLong(0L)
+
+    /** Current configuration. Changes are applied on the handler thread. */
     override var config
-        get() = handler.compute { configCache.value }
+        get() = configCache.value
         set(value) = handler.execute {
             configCache.applyIfChanged(value.copy()) {
-                queueFile.maximumFileSize = it.maximumSize
+                queueFile.maximumFileSize = maximumSizeOf(it, queueFile)
+                queueFile.syncDelay = it.syncDelay
+                queueFile.syncBytes = it.syncBytes
             }
         }
 
-    private val maximumSize: Long
-        get() = config.maximumSize.takeIf { it <= Int.MAX_VALUE } ?: Int.MAX_VALUE.toLong()
+    /**
+     * Maximum size of given queue file. Only segmented queue files may exceed
+     * [QueueFile.MAXIMUM_FILE_SIZE].
+     */
+    private fun maximumSizeOf(config: CacheConfiguration, queueFile: ElementQueue): Long =
+        if (queueFile is SegmentedQueueFile) config.maximumSize
+        else config.maximumSize.coerceAtMost(QueueFile.MAXIMUM_FILE_SIZE)
+
+    /**
+     * Open the queue file. An existing file keeps its type, so its maximum size is set after
+     * opening it.
+     */
+    @Throws(IOException::class)
+    private fun openQueueFile(config: CacheConfiguration): ElementQueue =
+        queueFileFactory.generate(file, config.maximumSize, config.indexInterval).apply {
+            maximumFileSize = maximumSizeOf(config, this)
+            syncDelay = config.syncDelay
+            syncBytes = config.syncBytes
+            metrics = this@TapeCache.metrics.storage
+        }
 
     init {
         queueFile = try {
-            queueFileFactory.generate(Objects.requireNonNull(file), maximumSize)
+            openQueueFile(config)
         } catch (ex: IOException) {
             logger.error("TapeCache {} was corrupted. Removing old cache.", file, ex)
             if (file.delete()) {
-                queueFileFactory.generate(file, maximumSize)
+                openQueueFile(config)
             } else {
                 throw ex
             }
         }
-        this.queue = BackedObjectQueue(queueFile, serializer, deserializer)
+        this.queue = serialization.createQueue(queueFile, serializer, deserializer, file)
+        updateRecordCount()
     }
 
     @Throws(IOException::class)
@@ -98,18 +154,7 @@ constructor(
         logger.debug("Trying to retrieve records from topic {}", topic.name)
         return try {
              handler.compute {
-                try {
-                    getValidUnsentRecords(limit, sizeLimit)
-                            ?.let { (key, values) ->
-                                AvroRecordData(readTopic, key, values)
-                            }
-                } catch (ex: IOException) {
-                    fixCorruptQueue(ex)
-                    null
-                } catch (ex: IllegalStateException) {
-                    fixCorruptQueue(ex)
-                    null
-                }
+                readRecords(0, limit, sizeLimit)
             }
         } catch (ex: InterruptedException) {
             logger.warn("getUnsentRecords was interrupted, returning an empty list", ex)
@@ -126,12 +171,106 @@ constructor(
         }
     }
 
-    private fun getValidUnsentRecords(limit: Int, sizeLimit: Long): Pair<Any, List<Any>>? {
+    @Throws(IOException::class)
+    override fun getUnsentRawRecords(limit: Int, sizeLimit: Long): RawRecordData? {
+        val reader = rawReader ?: return null
+        logger.debug("Trying to retrieve raw records from topic {}", topic.name)
+        return try {
+            handler.compute {
+                readRawRecords(reader, 0, limit, sizeLimit)
+            }
+        } catch (ex: InterruptedException) {
+            logger.warn("getUnsentRawRecords was interrupted, returning an empty list", ex)
+            Thread.currentThread().interrupt()
+            null
+        } catch (ex: ExecutionException) {
+            logger.warn("Failed to retrieve raw records for topic {}", topic, ex)
+            val cause = ex.cause
+            if (cause is RuntimeException) {
+                throw cause
+            } else {
+                throw IOException("Unknown error occurred", ex)
+            }
+        }
+    }
+
+    override val hasRawRecords: Boolean
+        get() = rawReader != null
+
+    override fun readUnsentRecordsAhead(offset: Int, limit: Int, sizeLimit: Long): Future<RecordData<Any, Any?>?>? {
+        logger.debug("Reading records ahead from topic {}", topic.name)
+        return handler.submit { readRecords(offset, limit, sizeLimit) }
+    }
+
+    override fun readUnsentRawRecordsAhead(offset: Int, limit: Int, sizeLimit: Long): Future<RawRecordData?>? {
+        val reader = rawReader ?: return null
+        logger.debug("Reading raw records ahead from topic {}", topic.name)
+        return handler.submit { readRawRecords(reader, offset, limit, sizeLimit) }
+    }
+
+    /**
+     * Read records on the handler thread. Records of a recycled batch are reused if available,
+     * and the batch that is read is tracked so that it can be recycled later.
+     */
+    private fun readRecords(offset: Int, limit: Int, sizeLimit: Long): RecordData<Any, Any?>? {
+        return try {
+            val batch = recycledBatches.pollFirst() ?: BatchLists(limit)
+            val data = getValidUnsentRecords(offset, limit, sizeLimit, batch)
+                ?.let { key -> AvroRecordData<Any, Any?>(readTopic, key, batch.values) }
+            if (data != null) {
+                batchesInUse.addLast(Pair(data, batch))
+                if (batchesInUse.size > MAX_BATCHES_IN_USE) {
+                    // probably not read by the submitter, so it will not be recycled
+                    batchesInUse.removeFirst()
+                }
+            } else {
+                recycledBatches.addFirst(batch)
+            }
+            data
+        } catch (ex: IOException) {
+            fixCorruptQueue(ex)
+            null
+        } catch (ex: IllegalStateException) {
+            fixCorruptQueue(ex)
+            null
+        }
+    }
+
+    /** Read raw records on the handler thread. */
+    private fun readRawRecords(reader: RawRecordReader, offset: Int, limit: Int, sizeLimit: Long): RawRecordData? {
+        return try {
+            reader.reset()
+            queue.peekRaw(limit, sizeLimit, offset, reader::read)
+            reader.result(readTopic)
+        } catch (ex: IOException) {
+            fixCorruptQueue(ex)
+            null
+        } catch (ex: IllegalStateException) {
+            fixCorruptQueue(ex)
+            null
+        }
+    }
+
+    /**
+     * Read records with the same key. Invalid records at the head of the queue are removed. After
+     * an [offset], those cannot be removed yet, so no records are returned if the first record is
+     * invalid. Later invalid records are returned as null values, so that the number of values is
+     * the number of queue elements that were consumed. Callers use that number to remove the
+     * records once sent, and as the offset of the next read. The values are stored in
+     * [BatchLists.values] of [batch].
+     * @return key of the records, or null if no records were read.
+     */
+    private fun getValidUnsentRecords(
+        offset: Int,
+        limit: Int,
+        sizeLimit: Long,
+        batch: BatchLists,
+    ): Any? {
         var currentKey: Any? = null
         lateinit var records: List<Record<Any, Any>?>
 
         while (currentKey == null) {
-            records = queue.peek(limit, sizeLimit)
+            records = queue.peek(limit, sizeLimit, offset, batch.records)
 
             if (records.isEmpty()) return null
 
@@ -140,29 +279,41 @@ constructor(
                     ?: records.size
 
             if (nullSize > 0) {
+                if (offset > 0) return null
                 queue -= nullSize
+                updateRecordCount()
                 records = records.subList(nullSize, records.size)
             }
             currentKey = records.firstOrNull()?.key
         }
 
-        val differentKeyIndex = records.indexOfFirst { it?.key != currentKey }
+        val differentKeyIndex = records.indexOfFirst { it != null && it.key != currentKey }
         if (differentKeyIndex > 0) {
             records = records.subList(0, differentKeyIndex)
         }
-
-        return Pair(currentKey, records.mapNotNull { it?.value })
+        batch.values.clear()
+        records.mapTo(batch.values) { it?.value }
+        return currentKey
     }
 
     @Throws(IOException::class)
     override fun getRecords(limit: Int): RecordData<Any, Any>? {
-        return getUnsentRecords(limit, maximumSize)?.let { records ->
+        return getUnsentRecords(limit, queueFile.maximumFileSize)?.let { records ->
             AvroRecordData<Any, Any>(records.topic, records.key, records.filterNotNull())
         }
     }
 
+    /**
+     * Number of records in the queue. This does not wait for pending additions or removals, so
+     * it may lag behind them.
+     */
     override val numberOfRecords: Long
-        get() = handler.compute { queue.size.toLong() }
+        get() = recordCount.get()
+
+    /** Update [numberOfRecords] after modifying the queue on the handler thread. */
+    private fun updateRecordCount() {
+        recordCount.set(queue.size.toLong())
+    }
 
     @Throws(IOException::class)
     override fun remove(number: Int) {
@@ -171,6 +322,24 @@ constructor(
             if (actualNumber > 0) {
                 logger.debug("Removing {} records from topic {}", actualNumber, topic.name)
                 queue -= actualNumber
+                updateRecordCount()
+                scheduleSync()
+            }
+        }
+    }
+
+    override fun recycle(records: RecordData<Any, Any?>) {
+        handler.execute {
+            val iter = batchesInUse.iterator()
+            while (iter.hasNext()) {
+                val (data, batch) = iter.next()
+                if (data === records) {
+                    iter.remove()
+                    if (recycledBatches.size < MAX_RECYCLED_BATCHES) {
+                        recycledBatches.addLast(batch)
+                    }
+                    break
+                }
             }
         }
     }
@@ -182,11 +351,40 @@ constructor(
             "Cannot send invalid record to topic $topic with {key: $key, value: $value}"
         }
 
-        handler.execute {
-            measurementsToAdd += record
-            logger.debug("====== MEASURE =====" + measurementsToAdd.size);
-            if (addMeasurementFuture == null) {
-                addMeasurementFuture = handler.delay(config.commitRate, ::doFlush)
+        metrics.added(1)
+        measurementBuffer.add(record)
+        scheduleFlush(measurementBuffer)
+    }
+
+    override fun addMeasurements(key: K, values: ValueBatch) {
+        if (rawWriter == null) {
+            super.addMeasurements(key, values)
+            return
+        }
+        if (values.size == 0) {
+            values.release()
+            return
+        }
+
+        metrics.added(values.size)
+        batchBuffer.add(Record(key, values))
+        scheduleFlush(batchBuffer)
+    }
+
+    /**
+     * Schedule a flush after the commit rate, or immediately if given buffer is more than half
+     * full or overflowing. At most one flush is scheduled at a time.
+     */
+    private fun scheduleFlush(buffer: MpscOverflowBuffer<*>) {
+        if (buffer.size >= buffer.capacity / 2) {
+            if (isFlushRequested.compareAndSet(false, true)) {
+                handler.execute(::flushNow)
+            }
+        } else if (isFlushScheduled.compareAndSet(false, true)) {
+            handler.execute {
+                if (addMeasurementFuture == null) {
+                    addMeasurementFuture = handler.delay(configCache.value.commitRate, ::doFlush)
+                }
             }
         }
     }
@@ -194,14 +392,13 @@ constructor(
     @Throws(IOException::class)
     override fun close() {
         flush()
+        syncFuture?.cancel()
         queue.close()
     }
 
     override fun flush() {
         try {
-            handler.await {
-                addMeasurementFuture?.runNow()
-            }
+            handler.await(::flushNow)
         } catch (e: InterruptedException) {
             logger.warn("Did not wait for adding measurements to complete.")
         } catch (ex: ExecutionException) {
@@ -210,14 +407,38 @@ constructor(
     }
 
     override fun triggerFlush() {
-        handler.execute {
-            addMeasurementFuture?.runNow()
-        }
+        handler.execute(::flushNow)
+    }
+
+    /** Flush the measurement buffer without waiting for the commit rate. */
+    private fun flushNow() {
+        addMeasurementFuture?.cancel()
+        doFlush()
     }
 
     private fun doFlush() {
         addMeasurementFuture = null
+        // reset flags before draining, so that any record added after draining schedules a
+        // new flush
+        isFlushScheduled.set(false)
+        isFlushRequested.set(false)
+        measurementBuffer.drain { measurementsToAdd += it }
+        batchBuffer.drain { batchesToAdd += it }
+
+        val numRecords = measurementsToAdd.size + batchesToAdd.sumOf { it.value.size }
+        val startTime = System.nanoTime()
+        val startBytes = queueFile.usedBytes
+        try {
+            writeMeasurements()
+            writeBatches()
+        } finally {
+            metrics.flushed(numRecords, (queueFile.usedBytes - startBytes).coerceAtLeast(0L), System.nanoTime() - startTime)
+            updateRecordCount()
+            scheduleSync()
+        }
+    }
 
+    private fun writeMeasurements() {
         if (measurementsToAdd.isEmpty()) {
             return
         }
@@ -251,6 +472,47 @@ constructor(
         }
     }
 
+    private fun writeBatches() {
+        val writer = rawWriter
+        if (batchesToAdd.isEmpty() || writer == null) {
+            return
+        }
+        try {
+            for (batch in batchesToAdd) {
+                val key = batch.key
+                val values = batch.value
+                logger.debug("Writing {} encoded records to file in topic {}", values.size, topic.name)
+                queue.addAllSerialized(values.size) { i, output ->
+                    writer.serializeRaw(key, values.buffer, values.valueOffset(i), values.valueLength(i), output)
+                }
+            }
+        } catch (ex: IOException) {
+            logger.error("Failed to add encoded records", ex)
+            throw RuntimeException(ex)
+        } catch (ex: IllegalStateException) {
+            logger.error("Queue {} is full, not adding records", topic.name)
+        } finally {
+            batchesToAdd.forEach { it.value.release() }
+            batchesToAdd.clear()
+        }
+    }
+
+    /**
+     * If the queue file uses group commits and has unsynchronized changes, make sure they are
+     * synchronized within the configured sync delay.
+     */
+    private fun scheduleSync() {
+        if (syncFuture != null || !queueFile.isHeaderDirty) return
+        syncFuture = handler.delay(configCache.value.syncDelay) {
+            syncFuture = null
+            try {
+                queueFile.sync()
+            } catch (ex: IOException) {
+                logger.error("Failed to synchronize cache {}", topic.name, ex)
+            }
+        }
+    }
+
     @Throws(IOException::class)
     private fun fixCorruptQueue(ex: Exception) {
         logger.error("Queue {} was corrupted. Removing cache.", topic.name, ex)
@@ -260,15 +522,38 @@ constructor(
             logger.warn("Failed to close corrupt queue", ioex)
         }
 
+        QueueFile.indexFile(file).delete()
+        SegmentedQueueFile.deleteSegments(file)
         if (file.delete()) {
-            queueFile = queueFileFactory.generate(file, maximumSize)
-            queue = BackedObjectQueue(queueFile, serializer, deserializer)
+            queueFile = openQueueFile(configCache.value)
+            queue = serialization.createQueue(queueFile, serializer, deserializer, file)
+            updateRecordCount()
         } else {
             throw IOException("Cannot create new cache.")
         }
     }
 
+    /** Lists that a batch is read into, which are reused once the batch is recycled. */
+    private class BatchLists(limit: Int) {
+        /** Records read from the queue. */
+        val records = ArrayList<Record<Any, Any>?>(limit)
+        /** Values of the records that are returned. */
+        val values = ArrayList<Any?>(limit)
+    }
+
     companion object {
         private val logger = LoggerFactory.getLogger(TapeCache::class.java)
+
+        /** Number of records that can be buffered before being written to the queue. */
+        private const val MEASUREMENT_BUFFER_CAPACITY = 2048
+
+        /** Number of encoded batches that can be buffered before being written to the queue. */
+        private const val BATCH_BUFFER_CAPACITY = 64
+
+        /** Number of batches that are tracked until they are recycled. */
+        private const val MAX_BATCHES_IN_USE = 4
+
+        /** Number of recycled batches that are kept for reuse. */
+        private const val MAX_RECYCLED_BATCHES = 2
     }
 }
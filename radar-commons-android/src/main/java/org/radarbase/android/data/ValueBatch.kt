@@ -0,0 +1,37 @@
+package org.radarbase.android.data
+
+/**
+ * Batch of values of a single topic, encoded in binary Avro form. The values are stored back to
+ * back in [buffer]: value `i` spans from `valueOffsets[i]` until `valueOffsets[i + 1]`.
+ *
+ * @param buffer serialized values.
+ * @param valueOffsets offsets of the values in [buffer], with one more entry than [size].
+ * @param size number of values.
+ * @param onRelease called by [release] to reuse the buffers of this batch.
+ */
+class ValueBatch(
+    val buffer: ByteArray,
+    val valueOffsets: IntArray,
+    val size: Int,
+    private val onRelease: ((ValueBatch) -> Unit)? = null,
+) {
+    init {
+        require(valueOffsets.size > size) { "Value offsets must contain the end of the last value" }
+    }
+
+    /** Start offset of value [index] in [buffer]. */
+    fun valueOffset(index: Int): Int = valueOffsets[index]
+
+    /** Serialized length of value [index]. */
+    fun valueLength(index: Int): Int = valueOffsets[index + 1] - valueOffsets[index]
+
+    /**
+     * Release the batch after its values are stored, so that its buffers can be reused for a new
+     * batch. The batch may not be used after releasing it.
+     */
+    fun release() {
+        onRelease?.invoke(this)
+    }
+
+    override fun toString() = "ValueBatch[size=$size, bytes=${valueOffsets[size] - valueOffsets[0]}]"
+}
@@ -0,0 +1,80 @@
+package org.radarbase.android.data.serialization
+
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.BackedObjectQueue
+import org.radarbase.util.CompressedObjectQueue
+import org.radarbase.util.ObjectQueue
+import org.radarbase.util.ElementQueue
+import java.io.File
+import java.io.IOException
+
+/**
+ * Serialization that stores records of another serialization type in Deflate-compressed blocks.
+ * Each committed batch of records is stored as a single block, see [CompressedObjectQueue].
+ *
+ * @param delegate serialization of individual records.
+ */
+data class DeflateSerializationFactory(
+    private val delegate: SerializationFactory,
+) : SerializationFactory {
+    override val fileExtension: String = delegate.fileExtension + ".deflate"
+
+    override val auxiliaryExtensions: List<String> = delegate.auxiliaryExtensions + OFFSET_EXTENSION
+
+    override fun <K : Any, V : Any> createDeserializer(
+        topic: AvroTopic<K, V>
+    ): BackedObjectQueue.Deserializer<Record<K, V>> = delegate.createDeserializer(topic)
+
+    override fun <K : Any, V : Any> createSerializer(
+        topic: AvroTopic<K, V>
+    ): BackedObjectQueue.Serializer<Record<K, V>> = delegate.createSerializer(topic)
+
+    override fun createRawReader(topic: AvroTopic<*, *>): RawRecordReader? = delegate.createRawReader(topic)
+
+    override fun <K : Any, V : Any> createDeserializer(
+        topic: AvroTopic<K, V>,
+        file: File,
+    ): BackedObjectQueue.Deserializer<Record<K, V>> = delegate.createDeserializer(topic, file.delegateFile)
+
+    override fun <K : Any, V : Any> createSerializer(
+        topic: AvroTopic<K, V>,
+        file: File,
+    ): BackedObjectQueue.Serializer<Record<K, V>> = delegate.createSerializer(topic, file.delegateFile)
+
+    override fun createRawReader(
+        topic: AvroTopic<*, *>,
+        file: File,
+    ): RawRecordReader? = delegate.createRawReader(topic, file.delegateFile)
+
+    override fun release(file: File) = delegate.release(file.delegateFile)
+
+    @Throws(IOException::class)
+    override fun <S, T> createQueue(
+        queueFile: ElementQueue,
+        serializer: BackedObjectQueue.Serializer<S>,
+        deserializer: BackedObjectQueue.Deserializer<T>,
+        file: File,
+    ): ObjectQueue<S, T> = CompressedObjectQueue(
+        queueFile,
+        serializer,
+        deserializer,
+        File(file.basePath + OFFSET_EXTENSION),
+    )
+
+    private val File.basePath: String
+        get() = path.removeSuffix(fileExtension)
+
+    /**
+     * File that the delegate serialization would use, so that it stores any auxiliary files
+     * under the same base name.
+     */
+    private val File.delegateFile: File
+        get() = File(basePath + delegate.fileExtension)
+
+    override fun toString() = "DeflateSerialization<$delegate>"
+
+    companion object {
+        const val OFFSET_EXTENSION = ".offset"
+    }
+}
@@ -0,0 +1,33 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.DecoderFactory
+import org.radarbase.util.QueueFileInputStream
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Creates Avro binary decoders for queue elements. Elements that the queue storage holds
+ * contiguously in memory are decoded directly from the storage, without copying them. Other
+ * elements are decoded from their input stream. Decoders are reused between elements, so
+ * a decoder is only valid until the next call. This class is not thread-safe.
+ */
+internal class ElementDecoder(
+    private val decoderFactory: DecoderFactory = DecoderFactory.get(),
+) {
+    private var bufferDecoder: BinaryDecoder? = null
+    private var streamDecoder: BinaryDecoder? = null
+
+    /** Decoder of the unread bytes of [input]. */
+    @Throws(IOException::class)
+    fun decoder(input: InputStream): BinaryDecoder {
+        val buffer = (input as? QueueFileInputStream)?.remainingBuffer()
+        return if (buffer != null) {
+            decoderFactory.binaryDecoder(buffer, bufferDecoder)
+                .also { bufferDecoder = it }
+        } else {
+            decoderFactory.binaryDecoder(input, streamDecoder)
+                .also { streamDecoder = it }
+        }
+    }
+}
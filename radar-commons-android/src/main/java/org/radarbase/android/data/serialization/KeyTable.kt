@@ -0,0 +1,128 @@
+package org.radarbase.android.data.serialization
+
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+
+/**
+ * Append-only table of serialized record keys, stored next to a cache file. Records in the cache
+ * refer to their key by index in this table, so that each distinct key is only stored once.
+ *
+ * The file consists of entries with a four-byte length followed by the serialized key. A partially
+ * written entry at the end of the file is ignored and overwritten by the next entry. New entries
+ * are synchronized to disk before their index is returned, so that no committed record can refer
+ * to a missing key. The table may be shared between the serializer and deserializers of a cache,
+ * so all access is synchronized.
+ *
+ * @param file file to store keys in. It is created when the first key is added. If null, keys are
+ *             only kept in memory.
+ */
+class KeyTable(private val file: File?) {
+    private val keys = ArrayList<ByteArray>()
+    private val indexes = HashMap<ByteBuffer, Int>()
+
+    /** Length of the file that contains complete entries. */
+    private var validLength = 0L
+
+    init {
+        load()
+    }
+
+    /** Number of keys in the table. */
+    val size: Int
+        @Synchronized get() = keys.size
+
+    /**
+     * Get the serialized key at given index. If the index is not known, the table is read again
+     * from disk, since another instance may have added it.
+     * @throws IOException if the index is not in the table or the table cannot be read.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    operator fun get(index: Int): ByteArray {
+        if (index >= keys.size) {
+            load()
+        }
+        if (index < 0 || index >= keys.size) {
+            throw IOException("Key index $index is not in key table $file of size ${keys.size}")
+        }
+        return keys[index]
+    }
+
+    /**
+     * Get the index of a serialized key, adding it to the table if needed.
+     * @throws IOException if the key could not be stored.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun indexOf(key: ByteArray): Int {
+        indexes[ByteBuffer.wrap(key)]?.let { return it }
+        file ?: return add(key)
+        // another instance may have added it
+        load()
+        indexes[ByteBuffer.wrap(key)]?.let { return it }
+
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(validLength)
+            raf.writeInt(key.size)
+            raf.write(key)
+            raf.setLength(raf.filePointer)
+            raf.fd.sync()
+            validLength = raf.filePointer
+        }
+        return add(key)
+    }
+
+    private fun add(key: ByteArray): Int {
+        val index = keys.size
+        keys += key
+        indexes[ByteBuffer.wrap(key)] = index
+        return index
+    }
+
+    /**
+     * Read any entries from file that are not yet in memory. If the file was removed with its
+     * cache, the table is cleared.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun load() {
+        file ?: return
+        if (!file.exists()) {
+            if (validLength > 0L) {
+                // the cache was removed, so no records refer to the old keys anymore
+                logger.info("Key table {} was removed, clearing it", file)
+                keys.clear()
+                indexes.clear()
+                validLength = 0L
+            }
+            return
+        }
+        RandomAccessFile(file, "r").use { raf ->
+            val length = raf.length()
+            if (length < validLength) {
+                throw IOException("Key table $file was truncated")
+            }
+            raf.seek(validLength)
+            while (raf.filePointer + 4 <= length) {
+                val keyLength = raf.readInt()
+                if (keyLength < 0 || raf.filePointer + keyLength > length) {
+                    logger.warn("Ignoring incomplete entry at the end of key table {}", file)
+                    break
+                }
+                val key = ByteArray(keyLength)
+                raf.readFully(key)
+                add(key)
+                validLength = raf.filePointer
+            }
+        }
+    }
+
+    override fun toString() = "KeyTable<${file?.name ?: "memory"}>[size=${keys.size}]"
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(KeyTable::class.java)
+    }
+}
@@ -0,0 +1,74 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.CompiledDatumReader
+import org.apache.avro.generic.GenericData
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.DatumReader
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.util.Utf8Interner
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.BackedObjectQueue
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Converts records from a keyed tape. Keys are looked up in a [KeyTable] and deserialized only
+ * once per key. Records are not validated again, since [KeyedTapeSerializer.canSerialize]
+ * validated them before they were written. Value strings are interned, so strings that repeat
+ * across records are only decoded once.
+ */
+class KeyedTapeDeserializer<K, V>(
+    topic: AvroTopic<*, *>,
+    avroData: GenericData,
+    private val keyTable: KeyTable,
+) : BackedObjectQueue.Deserializer<Record<K, V>> {
+    private val decoderFactory: DecoderFactory = DecoderFactory.get()
+    private val elementDecoder = ElementDecoder(decoderFactory)
+    private val keyReader: DatumReader<K> = CompiledDatumReader(topic.keySchema, avroData)
+    private val valueReader: DatumReader<V> = CompiledDatumReader<V>(topic.valueSchema, avroData)
+        .apply { setStringInterner(Utf8Interner()) }
+    private var keyDecoder: BinaryDecoder? = null
+    private val keys = ArrayList<K?>()
+
+    @Throws(IOException::class)
+    override fun deserialize(input: InputStream): Record<K, V> = deserialize(input, null)
+
+    /**
+     * Deserialize a record, reading into the value of [reuse] if possible. Keys are shared
+     * between records, so they are never reused.
+     */
+    @Throws(IOException::class)
+    override fun deserialize(input: InputStream, reuse: Record<K, V>?): Record<K, V> {
+        val decoder = elementDecoder.decoder(input)
+
+        val keyIndex: Int
+        val value: V
+        try {
+            keyIndex = decoder.readInt()
+            value = valueReader.read(reuse?.value, decoder)
+        } catch (ex: RuntimeException) {
+            throw IOException("Failed to deserialize object", ex)
+        }
+        return Record(key(keyIndex), value)
+    }
+
+    /** Get the deserialized key at given index of the key table. */
+    @Throws(IOException::class)
+    private fun key(index: Int): K {
+        keys.getOrNull(index)?.let { return it }
+
+        val keyBytes = keyTable[index]
+        keyDecoder = decoderFactory.binaryDecoder(keyBytes, keyDecoder)
+        val key = try {
+            keyReader.read(null, keyDecoder)
+        } catch (ex: RuntimeException) {
+            throw IOException("Failed to deserialize key", ex)
+        }
+        while (keys.size <= index) {
+            keys += null
+        }
+        keys[index] = key
+        return key
+    }
+}
@@ -0,0 +1,114 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.CompiledDatumReader
+import org.apache.avro.generic.GenericData
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.DatumReader
+import org.apache.avro.io.DecoderFactory
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.IO.requireIO
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads records written by [KeyedTapeSerializer] without deserializing their values. Records
+ * with the same key have the same key index, so keys are never compared byte-wise.
+ */
+class KeyedTapeRawReader(
+    topic: AvroTopic<*, *>,
+    avroData: GenericData,
+    private val keyTable: KeyTable,
+) : RawRecordReader {
+    private val decoderFactory: DecoderFactory = DecoderFactory.get()
+    private val keyReader: DatumReader<Any> = CompiledDatumReader<Any>(topic.keySchema, avroData)
+    private var decoder: BinaryDecoder? = null
+
+    private var keyIndex = -1
+    /** Value bytes of the current batch, or null if they were handed to the last result. */
+    private var buffer: ByteArray? = null
+    private var bufferCapacity = 8192
+    private var valueOffsets = IntArray(64)
+    private var size = 0
+
+    override fun reset() {
+        keyIndex = -1
+        size = 0
+    }
+
+    @Throws(IOException::class)
+    override fun read(input: InputStream): Boolean {
+        val recordKeyIndex = input.readVarInt()
+        if (keyIndex == -1) {
+            keyIndex = recordKeyIndex
+        } else if (recordKeyIndex != keyIndex) {
+            return false
+        }
+        val valueLength = input.available()
+        val offset = valueOffsets[size]
+        val buffer = ensureCapacity(offset + valueLength)
+        if (valueOffsets.size < size + 2) {
+            valueOffsets = valueOffsets.copyOf(valueOffsets.size * 2)
+        }
+        var numRead = 0
+        while (numRead < valueLength) {
+            val n = input.read(buffer, offset + numRead, valueLength - numRead)
+            requireIO(n >= 0) { "Unexpected end of serialized record" }
+            numRead += n
+        }
+        valueOffsets[size + 1] = offset + valueLength
+        size++
+        return true
+    }
+
+    private fun ensureCapacity(bufferLength: Int): ByteArray {
+        val current = buffer
+        if (current != null && current.size >= bufferLength) return current
+        val newBuffer = current?.copyOf(maxOf(bufferLength, current.size * 2))
+            ?: ByteArray(maxOf(bufferLength, bufferCapacity))
+        buffer = newBuffer
+        bufferCapacity = newBuffer.size
+        return newBuffer
+    }
+
+    /**
+     * Get the current batch. The value bytes are not copied: the result takes over the buffer,
+     * and the next batch is read into a new buffer.
+     */
+    @Throws(IOException::class)
+    override fun result(topic: AvroTopic<Any, Any>): RawRecordData? {
+        if (size == 0) return null
+        val values = checkNotNull(buffer) { "Result was already taken" }
+        decoder = decoderFactory.binaryDecoder(keyTable[keyIndex], decoder)
+        val key = try {
+            keyReader.read(null, decoder)
+        } catch (ex: RuntimeException) {
+            throw IOException("Failed to deserialize key", ex)
+        }
+        buffer = null
+        return RawRecordData(
+            topic,
+            key,
+            values,
+            valueOffsets.copyOf(size + 1),
+            size,
+        )
+    }
+
+    companion object {
+        /** Read a zig-zag encoded Avro int. */
+        @Throws(IOException::class)
+        private fun InputStream.readVarInt(): Int {
+            var value = 0
+            var shift = 0
+            do {
+                val b = read()
+                requireIO(b >= 0) { "Unexpected end of serialized record" }
+                requireIO(shift < 32) { "Invalid int encoding" }
+                value = value or ((b and 0x7F) shl shift)
+                shift += 7
+            } while (b and 0x80 != 0)
+            return (value ushr 1) xor -(value and 1)
+        }
+    }
+}
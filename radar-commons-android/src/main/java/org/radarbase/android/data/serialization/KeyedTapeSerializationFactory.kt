@@ -0,0 +1,84 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.GenericData
+import org.apache.avro.specific.SpecificData
+import org.radarbase.android.data.serialization.TapeAvroSerializationFactory.Companion.finiteGenericData
+import org.radarbase.android.data.serialization.TapeAvroSerializationFactory.Companion.finiteSpecificData
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.BackedObjectQueue
+import java.io.File
+
+/**
+ * Serialization for binary Avro records to a tape, storing each distinct key only once. Keys are
+ * kept in a [KeyTable] next to the tape file, and each record only contains the index of its
+ * key and its binary value. Since most topics only ever have a single key, this makes the cache
+ * considerably smaller than with [TapeAvroSerializationFactory].
+ *
+ * All serializers, deserializers and raw readers of a single cache file share one key table.
+ * Serializers and deserializers that are not created for a cache file share an in-memory key
+ * table.
+ */
+class KeyedTapeSerializationFactory: SerializationFactory {
+    override val fileExtension: String = ".ktape"
+
+    override val auxiliaryExtensions: List<String> = listOf(KEY_TABLE_EXTENSION)
+
+    private val genericData: GenericData = finiteGenericData()
+    private val specificData: SpecificData = finiteSpecificData()
+    private val memoryKeyTable = KeyTable(null)
+    private val keyTables = HashMap<String, KeyTable>()
+
+    override fun <K: Any, V: Any> createDeserializer(
+            topic: AvroTopic<K, V>
+    ): BackedObjectQueue.Deserializer<Record<K, V>> = KeyedTapeDeserializer(topic, genericData, memoryKeyTable)
+
+    override fun <K : Any, V : Any> createSerializer(
+            topic: AvroTopic<K, V>
+    ): BackedObjectQueue.Serializer<Record<K, V>> = KeyedTapeSerializer(topic, specificData, memoryKeyTable)
+
+    override fun <K: Any, V: Any> createDeserializer(
+            topic: AvroTopic<K, V>,
+            file: File,
+    ): BackedObjectQueue.Deserializer<Record<K, V>> = KeyedTapeDeserializer(topic, genericData, keyTable(file))
+
+    override fun <K : Any, V : Any> createSerializer(
+            topic: AvroTopic<K, V>,
+            file: File,
+    ): BackedObjectQueue.Serializer<Record<K, V>> = KeyedTapeSerializer(topic, specificData, keyTable(file))
+
+    override fun createRawReader(
+            topic: AvroTopic<*, *>,
+            file: File,
+    ): RawRecordReader = KeyedTapeRawReader(topic, genericData, keyTable(file))
+
+    /**
+     * Get the key table that belongs to given cache file. An existing table is reloaded, in case
+     * its cache was removed in the meantime.
+     */
+    @Synchronized
+    private fun keyTable(file: File): KeyTable {
+        val keyFile = file.keyFile
+        val existing = keyTables[keyFile.absolutePath]
+        return if (existing != null) {
+            existing.apply { load() }
+        } else {
+            KeyTable(keyFile).also { keyTables[keyFile.absolutePath] = it }
+        }
+    }
+
+    /** Forget the key table of a deleted cache file. */
+    @Synchronized
+    override fun release(file: File) {
+        keyTables -= file.keyFile.absolutePath
+    }
+
+    private val File.keyFile: File
+        get() = File(path.removeSuffix(fileExtension) + KEY_TABLE_EXTENSION)
+
+    override fun toString() = "KeyedTapeSerialization"
+
+    companion object {
+        const val KEY_TABLE_EXTENSION = ".keys"
+    }
+}
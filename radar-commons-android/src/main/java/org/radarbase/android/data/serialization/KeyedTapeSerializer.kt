@@ -0,0 +1,81 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.CompiledDatumValidator
+import org.apache.avro.generic.CompiledDatumWriter
+import org.apache.avro.generic.GenericData
+import org.apache.avro.io.BinaryEncoder
+import org.apache.avro.io.DatumWriter
+import org.apache.avro.io.EncoderFactory
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.BackedObjectQueue
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * Converts records from an AvroTopic for a keyed tape. Instead of the full key, each record
+ * stores the index of its key in a [KeyTable], followed by the binary value.
+ */
+class KeyedTapeSerializer<K: Any, V: Any>(
+        private val topic: AvroTopic<K, V>,
+        avroData: GenericData,
+        private val keyTable: KeyTable,
+) : BackedObjectQueue.Serializer<Record<K, V>>, RawRecordWriter<K> {
+
+    private val encoderFactory: EncoderFactory = EncoderFactory.get()
+    private val keyWriter: DatumWriter<K> = CompiledDatumWriter<K>(topic.keySchema, avroData)
+    private val valueWriter: DatumWriter<V> = CompiledDatumWriter<V>(topic.valueSchema, avroData)
+    private val keyValidator = CompiledDatumValidator(topic.keySchema, avroData)
+    private val valueValidator = CompiledDatumValidator(topic.valueSchema, avroData)
+    private var encoder: BinaryEncoder? = null
+
+    private var lastKey: K? = null
+    private var lastKeyIndex = -1
+
+    @Throws(IOException::class)
+    override fun serialize(value: Record<K, V>, output: OutputStream) {
+        val keyIndex = keyIndex(value.key)
+        encoderFactory.binaryEncoder(output, encoder)
+                .also { encoder = it }
+                .run {
+                    writeInt(keyIndex)
+                    valueWriter.write(value.value, this)
+                    flush()
+                }
+    }
+
+    @Throws(IOException::class)
+    override fun serializeRaw(key: K, value: ByteArray, offset: Int, length: Int, output: OutputStream) {
+        val keyIndex = keyIndex(key)
+        encoderFactory.binaryEncoder(output, encoder)
+                .also { encoder = it }
+                .run {
+                    writeInt(keyIndex)
+                    flush()
+                }
+        output.write(value, offset, length)
+    }
+
+    @Throws(IOException::class)
+    private fun keyIndex(key: K): Int {
+        if (key != lastKey) {
+            val keyBytes = ByteArrayOutputStream().use { buffer ->
+                encoderFactory.binaryEncoder(buffer, encoder)
+                        .also { encoder = it }
+                        .run {
+                            keyWriter.write(key, this)
+                            flush()
+                        }
+                buffer.toByteArray()
+            }
+            lastKeyIndex = keyTable.indexOf(keyBytes)
+            lastKey = key
+        }
+        return lastKeyIndex
+    }
+
+    override fun canSerialize(
+            value: Record<K, V>
+    ) = keyValidator.validate(value.key) && valueValidator.validate(value.value)
+}
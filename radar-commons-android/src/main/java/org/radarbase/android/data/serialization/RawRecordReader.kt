@@ -0,0 +1,33 @@
+package org.radarbase.android.data.serialization
+
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.topic.AvroTopic
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads serialized records into a [RawRecordData] batch without deserializing their values.
+ * A batch only contains records with the same key. Implementations are not thread-safe and
+ * may reuse their buffers between batches.
+ */
+interface RawRecordReader {
+    /** Start a new batch, discarding any previously read records. */
+    fun reset()
+
+    /**
+     * Read a single serialized record into the current batch.
+     * @param input serialized record, which will not be closed after this call.
+     * @return true if the record was added, false if it has a different key than the records
+     *         already in the batch.
+     * @throws IOException if the record could not be read.
+     */
+    @Throws(IOException::class)
+    fun read(input: InputStream): Boolean
+
+    /**
+     * Get the current batch.
+     * @return records or null if no records were read.
+     */
+    @Throws(IOException::class)
+    fun result(topic: AvroTopic<Any, Any>): RawRecordData?
+}
@@ -0,0 +1,18 @@
+package org.radarbase.android.data.serialization
+
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * Writes records of which the value is already encoded in binary Avro form. Serializers that
+ * support this implement this interface alongside their regular serializer interface.
+ */
+interface RawRecordWriter<K> {
+    /**
+     * Serialize a record with given key and binary value to given output stream.
+     * @param output output, which will not be closed after this call.
+     * @throws IOException if the record could not be serialized to the stream
+     */
+    @Throws(IOException::class)
+    fun serializeRaw(key: K, value: ByteArray, offset: Int, length: Int, output: OutputStream)
+}
@@ -3,6 +3,10 @@ package org.radarbase.android.data.serialization
 import org.radarbase.data.Record
 import org.radarbase.topic.AvroTopic
 import org.radarbase.util.BackedObjectQueue
+import org.radarbase.util.ObjectQueue
+import org.radarbase.util.ElementQueue
+import java.io.File
+import java.io.IOException
 
 /**
  * Factory for serializer and deserializers for the data cache.
@@ -23,4 +27,56 @@ interface SerializationFactory {
      * Creates a serializer for a given topic.
      */
     fun <K: Any, V: Any> createSerializer(topic: AvroTopic<K, V>): BackedObjectQueue.Serializer<Record<K, V>>
+
+    /**
+     * Creates a reader that reads serialized records for a given topic without deserializing
+     * their values.
+     * @return reader or null if this serialization type does not support raw reads.
+     */
+    fun createRawReader(topic: AvroTopic<*, *>): RawRecordReader? = null
+
+    /**
+     * Extensions of additional files that this serialization type stores next to a cache file.
+     * The cache file extension is replaced with these extensions.
+     */
+    val auxiliaryExtensions: List<String>
+        get() = emptyList()
+
+    /**
+     * Creates a deserializer for a given topic, reading from given cache file. This defaults to
+     * [createDeserializer] without a file.
+     */
+    fun <K: Any, V: Any> createDeserializer(topic: AvroTopic<K, V>, file: File): BackedObjectQueue.Deserializer<Record<K, V>> = createDeserializer(topic)
+
+    /**
+     * Creates a serializer for a given topic, writing to given cache file. This defaults to
+     * [createSerializer] without a file.
+     */
+    fun <K: Any, V: Any> createSerializer(topic: AvroTopic<K, V>, file: File): BackedObjectQueue.Serializer<Record<K, V>> = createSerializer(topic)
+
+    /**
+     * Creates a raw reader for a given topic, reading from given cache file. This defaults to
+     * [createRawReader] without a file.
+     */
+    fun createRawReader(topic: AvroTopic<*, *>, file: File): RawRecordReader? = createRawReader(topic)
+
+    /**
+     * Releases any state kept for given cache file, after the cache and its auxiliary files were
+     * deleted. This defaults to doing nothing.
+     */
+    fun release(file: File) = Unit
+
+    /**
+     * Creates the queue that stores serialized records in a queue file. This defaults to a
+     * [BackedObjectQueue] that stores each record as a separate queue element.
+     * @param file cache file that the queue file was opened from.
+     * @throws IOException if the queue cannot be read.
+     */
+    @Throws(IOException::class)
+    fun <S, T> createQueue(
+        queueFile: ElementQueue,
+        serializer: BackedObjectQueue.Serializer<S>,
+        deserializer: BackedObjectQueue.Deserializer<T>,
+        file: File,
+    ): ObjectQueue<S, T> = BackedObjectQueue(queueFile, serializer, deserializer)
 }
@@ -17,11 +17,10 @@
 
 package org.radarbase.android.data.serialization
 
-import org.apache.avro.Schema
+import org.apache.avro.generic.CompiledDatumReader
 import org.apache.avro.generic.GenericData
-import org.apache.avro.io.BinaryDecoder
 import org.apache.avro.io.DatumReader
-import org.apache.avro.io.DecoderFactory
+import org.apache.avro.util.Utf8Interner
 import org.radarbase.data.Record
 import org.radarbase.topic.AvroTopic
 import org.radarbase.util.BackedObjectQueue
@@ -31,47 +30,41 @@ import java.io.IOException
 import java.io.InputStream
 
 /**
- * Converts records from an AvroTopic for Tape
+ * Converts records from an AvroTopic for Tape. Records are not validated again, since
+ * [TapeAvroSerializer.canSerialize] validated them before they were written, and they are read
+ * with the schema that they were written with. Strings are interned, so key strings and other
+ * strings that repeat across records are only decoded once.
  */
 class TapeAvroDeserializer<K, V>(
     topic: AvroTopic<*, *>,
-    private val avroData: GenericData,
+    avroData: GenericData,
 ) : BackedObjectQueue.Deserializer<Record<K, V>> {
-    private val decoderFactory: DecoderFactory = DecoderFactory.get()
-    private val keyReader: DatumReader<K>
-    private val valueReader: DatumReader<V>
-    private val topicName: String = topic.name
-    private val keySchema: Schema = topic.keySchema
-    private val valueSchema: Schema = topic.valueSchema
-    private var decoder: BinaryDecoder? = null
+    private val elementDecoder = ElementDecoder()
+    private val stringInterner = Utf8Interner()
+    private val keyReader: DatumReader<K> = CompiledDatumReader<K>(topic.keySchema, avroData)
+        .apply { setStringInterner(stringInterner) }
+    private val valueReader: DatumReader<V> = CompiledDatumReader<V>(topic.valueSchema, avroData)
+        .apply { setStringInterner(stringInterner) }
 
-    init {
-        @Suppress("UNCHECKED_CAST")
-        keyReader = avroData.createDatumReader(keySchema) as DatumReader<K>
-        @Suppress("UNCHECKED_CAST")
-        valueReader = avroData.createDatumReader(valueSchema) as DatumReader<V>
-    }
+    @Throws(IOException::class)
+    override fun deserialize(input: InputStream): Record<K, V> = deserialize(input, null)
 
+    /** Deserialize a record, reading into the key and value of [reuse] if possible. */
     @Throws(IOException::class)
-    override fun deserialize(input: InputStream): Record<K, V> {
+    override fun deserialize(input: InputStream, reuse: Record<K, V>?): Record<K, V> {
         // for backwards compatibility
         input.skipFully(8L)
 
-        decoder = decoderFactory.binaryDecoder(input, decoder)
+        val decoder = elementDecoder.decoder(input)
 
         val key: K
         val value: V
         try {
-            key = keyReader.read(null, decoder)
-            value = valueReader.read(null, decoder)
+            key = keyReader.read(reuse?.key, decoder)
+            value = valueReader.read(reuse?.value, decoder)
         } catch (ex: RuntimeException) {
             throw IOException("Failed to deserialize object", ex)
         }
-
-        require(avroData.validate(keySchema, key)
-                && avroData.validate(valueSchema, value)) {
-            "Failed to validate given record in topic $topicName\n\tkey: $key\n\tvalue: $value"
-        }
         return Record(key, value)
     }
 }
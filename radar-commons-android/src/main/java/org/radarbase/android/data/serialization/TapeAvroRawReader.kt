@@ -0,0 +1,137 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.CompiledDatumReader
+import org.apache.avro.generic.GenericData
+import org.apache.avro.io.BinaryDecoder
+import org.apache.avro.io.DatumReader
+import org.apache.avro.io.DecoderFactory
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.IO.requireIO
+import org.radarbase.util.IO.skipFully
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads records written by [TapeAvroSerializer] without deserializing their values. Only the key
+ * of the first record of a batch is deserialized; subsequent records are matched against its
+ * serialized form.
+ */
+class TapeAvroRawReader(
+    topic: AvroTopic<*, *>,
+    avroData: GenericData,
+) : RawRecordReader {
+    private val decoderFactory: DecoderFactory = DecoderFactory.get()
+    private val keyReader: DatumReader<Any> = CompiledDatumReader<Any>(topic.keySchema, avroData)
+    private var decoder: BinaryDecoder? = null
+
+    private var key: Any? = null
+    private var keyBytes = ByteArray(64)
+    private var keyLength = 0
+    private var scratch = ByteArray(64)
+
+    /** Value bytes of the current batch, or null if they were handed to the last result. */
+    private var buffer: ByteArray? = null
+    private var bufferCapacity = 8192
+    private var valueOffsets = IntArray(64)
+    private var size = 0
+
+    override fun reset() {
+        key = null
+        keyLength = 0
+        size = 0
+    }
+
+    @Throws(IOException::class)
+    override fun read(input: InputStream): Boolean {
+        // for backwards compatibility
+        input.skipFully(8L)
+
+        val length = input.available()
+        if (key == null) {
+            readKey(input, length)
+        } else {
+            if (length < keyLength) return false
+            input.readFully(scratch, keyLength)
+            for (i in 0 until keyLength) {
+                if (scratch[i] != keyBytes[i]) return false
+            }
+            val valueLength = length - keyLength
+            val offset = valueOffsets[size]
+            val buffer = ensureCapacity(offset + valueLength)
+            input.readFully(buffer, valueLength, offset)
+            valueOffsets[size + 1] = offset + valueLength
+        }
+        size++
+        return true
+    }
+
+    /** Read and deserialize the key of the first record, and store its value bytes. */
+    private fun readKey(input: InputStream, length: Int) {
+        if (scratch.size < length) {
+            scratch = ByteArray(length)
+        }
+        input.readFully(scratch, length)
+        val keyInput = ByteArrayInputStream(scratch, 0, length)
+        decoder = decoderFactory.directBinaryDecoder(keyInput, decoder)
+        key = try {
+            keyReader.read(null, decoder)
+        } catch (ex: RuntimeException) {
+            throw IOException("Failed to deserialize key", ex)
+        }
+        keyLength = length - keyInput.available()
+        if (keyBytes.size < keyLength) {
+            keyBytes = ByteArray(keyLength)
+        }
+        System.arraycopy(scratch, 0, keyBytes, 0, keyLength)
+
+        val valueLength = length - keyLength
+        val buffer = ensureCapacity(valueLength)
+        System.arraycopy(scratch, keyLength, buffer, 0, valueLength)
+        valueOffsets[0] = 0
+        valueOffsets[1] = valueLength
+    }
+
+    private fun ensureCapacity(bufferLength: Int): ByteArray {
+        if (valueOffsets.size < size + 2) {
+            valueOffsets = valueOffsets.copyOf(valueOffsets.size * 2)
+        }
+        val current = buffer
+        if (current != null && current.size >= bufferLength) return current
+        val newBuffer = current?.copyOf(maxOf(bufferLength, current.size * 2))
+            ?: ByteArray(maxOf(bufferLength, bufferCapacity))
+        buffer = newBuffer
+        bufferCapacity = newBuffer.size
+        return newBuffer
+    }
+
+    /**
+     * Get the current batch. The value bytes are not copied: the result takes over the buffer,
+     * and the next batch is read into a new buffer.
+     */
+    override fun result(topic: AvroTopic<Any, Any>): RawRecordData? {
+        val currentKey = key ?: return null
+        val values = checkNotNull(buffer) { "Result was already taken" }
+        buffer = null
+        return RawRecordData(
+            topic,
+            currentKey,
+            values,
+            valueOffsets.copyOf(size + 1),
+            size,
+        )
+    }
+
+    companion object {
+        @Throws(IOException::class)
+        private fun InputStream.readFully(bytes: ByteArray, length: Int, offset: Int = 0) {
+            var numRead = 0
+            while (numRead < length) {
+                val n = read(bytes, offset + numRead, length - numRead)
+                requireIO(n >= 0) { "Unexpected end of serialized record" }
+                numRead += n
+            }
+        }
+    }
+}
@@ -12,17 +12,8 @@ import org.radarbase.util.BackedObjectQueue
 class TapeAvroSerializationFactory: SerializationFactory {
     override val fileExtension: String = ".tape"
 
-    // The receiving end may have problems with non-numeric representations of floats, so they are not allowed.
-    private val genericData: GenericData = object : GenericData(TapeAvroSerializationFactory::class.java.classLoader) {
-        override fun isFloat(datum: Any?): Boolean = datum is Float && datum.isFinite()
-        override fun isDouble(datum: Any?): Boolean = datum is Double && datum.isFinite()
-    }
-
-    // The receiving end may have problems with non-numeric representations of floats, so they are not allowed.
-    private val specificData: SpecificData = object : SpecificData(TapeAvroSerializationFactory::class.java.classLoader) {
-        override fun isFloat(datum: Any?): Boolean = datum is Float && datum.isFinite()
-        override fun isDouble(datum: Any?): Boolean = datum is Double && datum.isFinite()
-    }
+    private val genericData: GenericData = finiteGenericData()
+    private val specificData: SpecificData = finiteSpecificData()
 
     override fun <K: Any, V: Any> createDeserializer(
             topic: AvroTopic<K, V>
@@ -32,5 +23,23 @@ class TapeAvroSerializationFactory: SerializationFactory {
             topic: AvroTopic<K, V>
     ) = TapeAvroSerializer(topic, specificData)
 
+    override fun createRawReader(
+            topic: AvroTopic<*, *>
+    ): RawRecordReader = TapeAvroRawReader(topic, genericData)
+
     override fun toString() = "TapeAvroSerialization"
+
+    companion object {
+        // The receiving end may have problems with non-numeric representations of floats, so they are not allowed.
+        internal fun finiteGenericData(): GenericData = object : GenericData(TapeAvroSerializationFactory::class.java.classLoader) {
+            override fun isFloat(datum: Any?): Boolean = datum is Float && datum.isFinite()
+            override fun isDouble(datum: Any?): Boolean = datum is Double && datum.isFinite()
+        }
+
+        // The receiving end may have problems with non-numeric representations of floats, so they are not allowed.
+        internal fun finiteSpecificData(): SpecificData = object : SpecificData(TapeAvroSerializationFactory::class.java.classLoader) {
+            override fun isFloat(datum: Any?): Boolean = datum is Float && datum.isFinite()
+            override fun isDouble(datum: Any?): Boolean = datum is Double && datum.isFinite()
+        }
+    }
 }
@@ -16,6 +16,8 @@
 
 package org.radarbase.android.data.serialization
 
+import org.apache.avro.generic.CompiledDatumValidator
+import org.apache.avro.generic.CompiledDatumWriter
 import org.apache.avro.generic.GenericData
 import org.apache.avro.io.BinaryEncoder
 import org.apache.avro.io.DatumWriter
@@ -33,14 +35,14 @@ import java.io.OutputStream
  */
 class TapeAvroSerializer<K: Any, V: Any>(
         private val topic: AvroTopic<K, V>,
-        private val avroData: GenericData
-) : BackedObjectQueue.Serializer<Record<K, V>> {
+        avroData: GenericData
+) : BackedObjectQueue.Serializer<Record<K, V>>, RawRecordWriter<K> {
 
     private val encoderFactory: EncoderFactory = EncoderFactory.get()
-    @Suppress("UNCHECKED_CAST")
-    private val keyWriter: DatumWriter<K> = avroData.createDatumWriter(topic.keySchema) as DatumWriter<K>
-    @Suppress("UNCHECKED_CAST")
-    private val valueWriter: DatumWriter<V> = avroData.createDatumWriter(topic.valueSchema) as DatumWriter<V>
+    private val keyWriter: DatumWriter<K> = CompiledDatumWriter<K>(topic.keySchema, avroData)
+    private val valueWriter: DatumWriter<V> = CompiledDatumWriter<V>(topic.valueSchema, avroData)
+    private val keyValidator = CompiledDatumValidator(topic.keySchema, avroData)
+    private val valueValidator = CompiledDatumValidator(topic.valueSchema, avroData)
     private var encoder: BinaryEncoder? = null
     private val cachedKey = ChangeApplier(::serializeKey)
 
@@ -52,6 +54,14 @@ class TapeAvroSerializer<K: Any, V: Any>(
         valueWriter.writeBinary(value.value, output)
     }
 
+    @Throws(IOException::class)
+    override fun serializeRaw(key: K, value: ByteArray, offset: Int, length: Int, output: OutputStream) {
+        // for backwards compatibility
+        output.write(EMPTY_HEADER, 0, 8)
+        output.write(cachedKey.applyIfChanged(key))
+        output.write(value, offset, length)
+    }
+
     private fun serializeKey(key: K): ByteArray {
         return ByteArrayOutputStream().use { buffer ->
             keyWriter.writeBinary(key, buffer)
@@ -75,6 +85,5 @@ class TapeAvroSerializer<K: Any, V: Any>(
 
     override fun canSerialize(
             value: Record<K, V>
-    ) = avroData.validate(topic.keySchema, value.key)
-                && avroData.validate(topic.valueSchema, value.value)
+    ) = keyValidator.validate(value.key) && valueValidator.validate(value.value)
 }
@@ -0,0 +1,120 @@
+package org.radarbase.android.kafka
+
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.roundToLong
+
+/**
+ * Adapts the number of records and bytes to send per request, per topic and network type, to the
+ * measured request duration. This uses additive increase and multiplicative decrease (AIMD): if a
+ * full request finishes within [targetDuration], the limits are raised by a fixed step, and if a
+ * request fails or is slower than [targetDuration], the limits are cut by at least half. Slow
+ * requests with a known size also cut the byte limit to what the measured throughput can send
+ * within [targetDuration].
+ *
+ * Limits never exceed the configured [SubmitterConfiguration.sizeLimit], nor [MAX_AMOUNT_FACTOR]
+ * times [SubmitterConfiguration.amountLimit].
+ *
+ * This class is thread-safe, but each topic should only be updated by one thread at a time.
+ *
+ * @param targetDuration target request duration in milliseconds.
+ */
+class AdaptiveUploadLimits(
+    private val targetDuration: Long,
+) {
+    private val limits = ConcurrentHashMap<LimitKey, TopicLimits>()
+
+    /**
+     * Get the current limits for a topic.
+     * @param isUnmetered whether the current network is WiFi or ethernet.
+     */
+    fun limitsFor(topic: String, isUnmetered: Boolean, config: SubmitterConfiguration): UploadLimits {
+        val state = limits[LimitKey(topic, isUnmetered)] ?: return UploadLimits(
+            amountLimit = config.amountLimit,
+            sizeLimit = config.sizeLimit.coerceAtMost(INITIAL_SIZE_LIMIT),
+        )
+        return synchronized(state) {
+            UploadLimits(
+                amountLimit = state.amountLimit.coerceIn(1, maxAmountLimit(config)),
+                sizeLimit = state.sizeLimit.coerceIn(MIN_SIZE_LIMIT.coerceAtMost(config.sizeLimit), config.sizeLimit),
+            )
+        }
+    }
+
+    /**
+     * Update the limits of a topic with the result of a request.
+     * @param limits limits that the request was made with.
+     * @param numRecords number of records sent.
+     * @param numBytes number of bytes sent, or -1 if unknown.
+     * @param duration request duration in nanoseconds.
+     * @param isSuccessful whether the request succeeded.
+     */
+    fun update(
+        topic: String,
+        isUnmetered: Boolean,
+        config: SubmitterConfiguration,
+        limits: UploadLimits,
+        numRecords: Int,
+        numBytes: Long,
+        duration: Long,
+        isSuccessful: Boolean,
+    ) {
+        val state = this.limits.computeIfAbsent(LimitKey(topic, isUnmetered)) {
+            TopicLimits(limits.amountLimit, limits.sizeLimit)
+        }
+        val durationMillis = duration / 1_000_000L
+        val maxAmountLimit = maxAmountLimit(config)
+        val minSizeLimit = MIN_SIZE_LIMIT.coerceAtMost(config.sizeLimit)
+
+        synchronized(state) {
+            when {
+                !isSuccessful || durationMillis > targetDuration -> {
+                    state.amountLimit = (state.amountLimit / 2).coerceAtLeast(1)
+                    var newSizeLimit = (state.sizeLimit / 2)
+                    if (isSuccessful && numBytes > 0 && durationMillis > 0) {
+                        // bytes that could have been sent within the target duration
+                        val targetBytes = (numBytes.toDouble() * targetDuration / durationMillis).roundToLong()
+                        newSizeLimit = newSizeLimit.coerceAtMost(targetBytes)
+                    }
+                    state.sizeLimit = newSizeLimit.coerceAtLeast(minSizeLimit)
+                }
+                numRecords >= limits.amountLimit || numBytes >= limits.sizeLimit * FULL_SIZE_RATIO -> {
+                    state.amountLimit = (state.amountLimit + (config.amountLimit / AMOUNT_STEP_DIVISOR).coerceAtLeast(1))
+                        .coerceAtMost(maxAmountLimit)
+                    state.sizeLimit = (state.sizeLimit + SIZE_LIMIT_STEP)
+                        .coerceAtMost(config.sizeLimit)
+                }
+                // the request was not limited by the current limits, so it says nothing about
+                // whether larger requests would succeed.
+                else -> Unit
+            }
+        }
+    }
+
+    private fun maxAmountLimit(config: SubmitterConfiguration) = config.amountLimit * MAX_AMOUNT_FACTOR
+
+    override fun toString() = "AdaptiveUploadLimits<$targetDuration ms>$limits"
+
+    /** Limits to use for a single upload request. */
+    data class UploadLimits(val amountLimit: Int, val sizeLimit: Long)
+
+    private data class LimitKey(val topic: String, val isUnmetered: Boolean)
+
+    private class TopicLimits(var amountLimit: Int, var sizeLimit: Long) {
+        override fun toString() = "[amountLimit=$amountLimit, sizeLimit=$sizeLimit]"
+    }
+
+    companion object {
+        /** Byte limit of a topic before any requests were measured. */
+        const val INITIAL_SIZE_LIMIT = 1_000_000L
+        /** Lowest byte limit. */
+        const val MIN_SIZE_LIMIT = 16_384L
+        /** Increase of the byte limit after a fast, full request. */
+        const val SIZE_LIMIT_STEP = 250_000L
+        /** The amount limit increases by the configured amount limit divided by this. */
+        private const val AMOUNT_STEP_DIVISOR = 4
+        /** Maximum amount limit, relative to the configured amount limit. */
+        const val MAX_AMOUNT_FACTOR = 4
+        /** Fraction of the byte limit above which a request counts as full. */
+        private const val FULL_SIZE_RATIO = 0.9
+    }
+}
@@ -0,0 +1,242 @@
+package org.radarbase.android.kafka
+
+import okhttp3.Headers
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import org.apache.avro.Schema
+import org.apache.avro.generic.IndexedRecord
+import org.apache.avro.io.BinaryEncoder
+import org.apache.avro.io.EncoderFactory
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.producer.AuthenticationException
+import org.radarbase.producer.rest.RestClient
+import org.radarbase.producer.rest.SchemaRetriever
+import org.slf4j.LoggerFactory
+import java.io.IOException
+
+/**
+ * Sends [RawRecordData] to the Kafka REST proxy as a binary record set, without deserializing
+ * and re-encoding the record values. The values are written from the buffer of the record data
+ * straight into the request body. This requires a proxy that accepts binary content, like the
+ * RADAR-base gateway.
+ *
+ * If the server rejects a record set with a client error, it may contain records that are not
+ * valid, so [send] returns false and the records should be sent through the regular, validating
+ * path instead. If the server does not support binary content at all, [isSupported] is disabled.
+ *
+ * With [sendAll], record sets of multiple topics are sent in a single request to the `topics`
+ * endpoint. Servers that do not support this are detected by their response, after which
+ * [isMultiTopicEnabled] is disabled.
+ *
+ * @param client client configured with the Kafka REST proxy as server.
+ * @param schemaRetriever retriever for key and value schema versions.
+ * @param headers additional request headers, e.g. for authorization.
+ */
+class BinaryRecordSetSender(
+    client: RestClient,
+    private val schemaRetriever: SchemaRetriever,
+    headers: Headers,
+) {
+    @Volatile
+    var client: RestClient = client
+
+    @Volatile
+    var headers: Headers = headers
+
+    /** Whether binary record sets are enabled by the configuration. */
+    @Volatile
+    var isEnabled: Boolean = true
+
+    /**
+     * Whether the server supports binary record sets. This is disabled if the server indicates
+     * that it does not support binary content.
+     */
+    @Volatile
+    var isSupported: Boolean = true
+
+    /** Whether binary record sets are enabled and supported by the server. */
+    val isAvailable: Boolean
+        get() = isEnabled && isSupported
+
+    /**
+     * Whether record sets of multiple topics may be sent in a single request. This is disabled if
+     * the server indicates that it does not support it.
+     */
+    @Volatile
+    var isMultiTopicEnabled: Boolean = true
+
+    private val encoderFactory = EncoderFactory.get()
+
+    /**
+     * Send records to the server.
+     * @return true if the records were sent, false if they could not be sent as binary record
+     *         set and should be sent another way, for example because the server rejected them.
+     * @throws AuthenticationException if the server does not accept the authentication headers.
+     * @throws IOException if the server could not be reached or did not accept the records.
+     */
+    @Throws(IOException::class)
+    fun send(records: RawRecordData): Boolean {
+        if (!isAvailable) return false
+
+        val topic = records.topic
+        val header = recordSetHeader(records) ?: return false
+
+        val body = EncodedBody {
+            writeRecordSet(records, header)
+        }
+
+        val currentClient = client
+        val request = currentClient.requestBuilder("topics/${topic.name}")
+            .headers(headers)
+            .header("Accept", KAFKA_REST_ACCEPT)
+            .post(body)
+            .build()
+
+        return currentClient.request(request).use { response ->
+            when (response.code) {
+                in 200 .. 299 -> true
+                401, 403 -> throw AuthenticationException("Cannot authenticate to send ${topic.name} data: ${RestClient.responseBody(response)}")
+                415 -> {
+                    logger.warn("Server does not support binary record sets; disabling raw upload")
+                    isSupported = false
+                    false
+                }
+                in REJECTED_CODES -> {
+                    logger.warn("Server rejected {} raw records of topic {}: HTTP {} {}; sending them decoded instead",
+                        records.size, topic.name, response.code, RestClient.responseBody(response))
+                    false
+                }
+                else -> throw IOException("Failed to submit ${records.size} records to ${topic.name}: HTTP ${response.code} ${RestClient.responseBody(response)}")
+            }
+        }
+    }
+
+    /**
+     * Send record sets of multiple topics in a single request. The request body is an array of
+     * topic names, each followed by a record set as sent by [send].
+     * @return true if the records were sent, false if they could not be sent in a single request
+     *         and should be sent another way.
+     * @throws AuthenticationException if the server does not accept the authentication headers.
+     * @throws IOException if the server could not be reached or did not accept the records.
+     */
+    @Throws(IOException::class)
+    fun sendAll(recordSets: List<RawRecordData>): Boolean {
+        if (!isAvailable || !isMultiTopicEnabled) return false
+
+        val setHeaders = recordSets.map { recordSetHeader(it) ?: return false }
+
+        val body = EncodedBody {
+            writeArrayStart()
+            setItemCount(recordSets.size.toLong())
+            recordSets.forEachIndexed { i, records ->
+                startItem()
+                writeString(records.topic.name)
+                writeRecordSet(records, setHeaders[i])
+            }
+            writeArrayEnd()
+        }
+
+        val currentClient = client
+        val request = currentClient.requestBuilder("topics")
+            .headers(headers)
+            .header("Accept", KAFKA_REST_ACCEPT)
+            .post(body)
+            .build()
+
+        return currentClient.request(request).use { response ->
+            when (response.code) {
+                in 200 .. 299 -> true
+                401, 403 -> throw AuthenticationException("Cannot authenticate to send data: ${RestClient.responseBody(response)}")
+                404, 405, 415 -> {
+                    logger.warn("Server does not support multi-topic record sets; disabling them")
+                    isMultiTopicEnabled = false
+                    false
+                }
+                in REJECTED_CODES -> {
+                    logger.warn("Server rejected {} record sets: HTTP {} {}; sending them separately instead",
+                        recordSets.size, response.code, RestClient.responseBody(response))
+                    false
+                }
+                else -> throw IOException("Failed to submit ${recordSets.size} record sets: HTTP ${response.code} ${RestClient.responseBody(response)}")
+            }
+        }
+    }
+
+    /**
+     * Get the schema versions and source ID to send records with.
+     * @return header, or null if the key cannot be sent in a binary record set.
+     */
+    @Throws(IOException::class)
+    private fun recordSetHeader(records: RawRecordData): RecordSetHeader? {
+        val topic = records.topic
+        if (topic.keySchema.type != Schema.Type.RECORD) return null
+        val sourceIdField = topic.keySchema.getField("sourceId") ?: return null
+
+        return RecordSetHeader(
+            keyVersion = schemaRetriever.getOrSetSchemaMetadata(topic.name, false, topic.keySchema, -1).version,
+            valueVersion = schemaRetriever.getOrSetSchemaMetadata(topic.name, true, topic.valueSchema, -1).version,
+            sourceId = (records.key as IndexedRecord).get(sourceIdField.pos()).toString(),
+        )
+    }
+
+    /**
+     * Request body that is encoded while it is written to the request, so the values are not
+     * copied into an intermediate buffer.
+     */
+    private inner class EncodedBody(
+        private val write: BinaryEncoder.() -> Unit,
+    ) : RequestBody() {
+        override fun contentType(): MediaType = BINARY_CONTENT_TYPE
+
+        @Throws(IOException::class)
+        override fun writeTo(sink: BufferedSink) {
+            encoderFactory.directBinaryEncoder(sink.outputStream(), null)
+                .run {
+                    write()
+                    flush()
+                }
+        }
+    }
+
+    /**
+     * Encode a record set. Project ID and user ID are not sent, they are derived from the
+     * authorization of the request.
+     */
+    @Throws(IOException::class)
+    private fun BinaryEncoder.writeRecordSet(records: RawRecordData, header: RecordSetHeader) {
+        writeInt(header.keyVersion)
+        writeInt(header.valueVersion)
+        // project ID
+        writeIndex(0)
+        // user ID
+        writeIndex(0)
+        writeString(header.sourceId)
+        writeArrayStart()
+        setItemCount(records.size.toLong())
+        for (i in 0 until records.size) {
+            startItem()
+            writeBytes(records.buffer, records.valueOffset(i), records.valueLength(i))
+        }
+        writeArrayEnd()
+    }
+
+    private data class RecordSetHeader(
+        val keyVersion: Int,
+        val valueVersion: Int,
+        val sourceId: String,
+    )
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(BinaryRecordSetSender::class.java)
+
+        private val BINARY_CONTENT_TYPE = "application/vnd.radarbase.avro.v1+binary".toMediaType()
+        /**
+         * Client errors that indicate that the records were not accepted. After a timeout (408)
+         * or rate limiting (429), the same request is retried instead.
+         */
+        private val REJECTED_CODES: Set<Int> = (400 .. 499).toHashSet() - setOf(408, 429)
+        private const val KAFKA_REST_ACCEPT = "application/vnd.kafka.v2+json, application/vnd.kafka+json; q=0.9, application/json; q=0.8"
+    }
+}
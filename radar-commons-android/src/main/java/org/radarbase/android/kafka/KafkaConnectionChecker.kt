@@ -21,6 +21,7 @@ import org.radarbase.android.util.DelayedRetry
 import org.radarbase.android.util.SafeHandler
 import org.radarbase.producer.AuthenticationException
 import org.radarbase.producer.KafkaSender
+import org.radarbase.util.PipelineMetrics
 import org.slf4j.LoggerFactory
 import java.util.concurrent.atomic.AtomicBoolean
 
@@ -97,6 +98,7 @@ internal class KafkaConnectionChecker(private val sender: KafkaSender,
         mHandler.executeReentrant {
             lastConnection = SystemClock.uptimeMillis()
             if (isConnectedBacking.compareAndSet(false, true)) {
+                PipelineMetrics.instance.connection.connected()
                 future?.cancel()
                 future = mHandler.repeat(heartbeatInterval, ::makeCheck)
             }
@@ -113,6 +115,7 @@ internal class KafkaConnectionChecker(private val sender: KafkaSender,
             logger.warn("Sender is disconnected", ex)
 
             if (isConnectedBacking.compareAndSet(true, false)) {
+                PipelineMetrics.instance.connection.disconnected()
                 future?.cancel()
                 future = mHandler.delay(INCREMENTAL_BACKOFF_MILLISECONDS, ::makeCheck)
                 if (ex is AuthenticationException) {
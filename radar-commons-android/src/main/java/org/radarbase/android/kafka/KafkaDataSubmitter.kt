@@ -20,20 +20,32 @@ import android.os.Process
 import org.apache.avro.Schema
 import org.apache.avro.SchemaValidationException
 import org.apache.avro.generic.IndexedRecord
-import org.radarbase.android.data.DataCacheGroup
 import org.radarbase.android.data.DataHandler
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.android.kafka.AdaptiveUploadLimits.UploadLimits
 import org.radarbase.android.data.ReadableDataCache
 import org.radarbase.android.util.SafeHandler
 import org.radarbase.data.AvroRecordData
+import org.radarbase.data.RecordData
 import org.radarbase.producer.AuthenticationException
 import org.radarbase.producer.KafkaSender
 import org.radarbase.producer.KafkaTopicSender
 import org.radarbase.topic.AvroTopic
+import org.radarbase.util.PipelineMetrics
 import org.slf4j.LoggerFactory
 import java.io.Closeable
 import java.io.IOException
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.collections.HashSet
 
 /**
@@ -41,15 +53,44 @@ import kotlin.collections.HashSet
  * database.
  *
  * It uses a set of timers to addMeasurement data and clean the databases.
+ *
+ * If a [binarySender] is given, records of caches that support it are sent as raw bytes, without
+ * deserializing them first. Otherwise, or if the binary sender cannot send the records, records
+ * are sent with [sender].
+ *
+ * If [SubmitterConfiguration.uploadConcurrency] is larger than one, different topics are uploaded
+ * in parallel on a pool of upload threads. The submitter thread waits until all topics of an upload
+ * round are done, so a single topic is still only uploaded by one thread at a time.
+ *
+ * If [SubmitterConfiguration.multiTopicUpload] is set, topics that have fewer records than fit in
+ * a single request are first combined into a multi-topic request with [binarySender]. If the
+ * server does not support that, all topics are sent separately.
+ *
+ * If [SubmitterConfiguration.uploadTargetDuration] is set, the number of records and bytes per
+ * request are adapted per topic and per network type with [AdaptiveUploadLimits], within the
+ * configured [SubmitterConfiguration.amountLimit] and [SubmitterConfiguration.sizeLimit].
+ * [isUnmeteredNetwork] should return whether the current network is WiFi or ethernet.
  */
 class KafkaDataSubmitter(
     private val dataHandler: DataHandler<*, *>,
     private val sender: KafkaSender,
     config: SubmitterConfiguration,
+    binarySender: BinaryRecordSetSender? = null,
+    private val isUnmeteredNetwork: () -> Boolean = { true },
 ) : Closeable {
 
+    /** Sender of raw records, which may be set when binary content is enabled later. */
+    @Volatile
+    var binarySender: BinaryRecordSetSender? = binarySender
+
     private val submitHandler = SafeHandler.getInstance("KafkaDataSubmitter", Process.THREAD_PRIORITY_BACKGROUND)
-    private val topicSenders: MutableMap<String, KafkaTopicSender<Any, Any>> = HashMap()
+    private val topicSenders: MutableMap<String, KafkaTopicSender<Any, Any>> = ConcurrentHashMap()
+    /** Executor to upload topics in parallel with, or null if topics are uploaded sequentially. */
+    private var uploadExecutor: ExecutorService? = null
+    /** Adaptive request limits, or null if the configured limits are used as is. */
+    @Volatile
+    private var adaptiveLimits: AdaptiveUploadLimits? = null
+    private val metrics = PipelineMetrics.instance
     private val connection: KafkaConnectionChecker
 
     var config: SubmitterConfiguration = config
@@ -58,6 +99,12 @@ class KafkaDataSubmitter(
                 if (newValue == field) return@execute
 
                 validate(newValue)
+                if (newValue.uploadConcurrency != field.uploadConcurrency) {
+                    updateUploadExecutor(newValue.uploadConcurrency)
+                }
+                if (newValue.uploadTargetDuration != field.uploadTargetDuration) {
+                    adaptiveLimits = createAdaptiveLimits(newValue)
+                }
                 field = newValue.copy()
                 schedule()
             }
@@ -79,6 +126,8 @@ class KafkaDataSubmitter(
         submitHandler.execute {
             uploadFuture = null
             uploadIfNeededFuture = null
+            updateUploadExecutor(config.uploadConcurrency)
+            adaptiveLimits = createAdaptiveLimits(config)
 
             try {
                 if (sender.isConnected) {
@@ -123,12 +172,74 @@ class KafkaDataSubmitter(
         }
     }
 
+    /** Replace the upload executor with one with given number of threads. */
+    private fun updateUploadExecutor(concurrency: Int) {
+        uploadExecutor?.shutdown()
+        uploadExecutor = if (concurrency > 1) {
+            val threadCount = AtomicInteger(0)
+            Executors.newFixedThreadPool(concurrency) { runnable ->
+                Thread({
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+                    runnable.run()
+                }, "KafkaDataSubmitter-upload-${threadCount.incrementAndGet()}")
+            }
+        } else null
+    }
+
+    private fun createAdaptiveLimits(config: SubmitterConfiguration): AdaptiveUploadLimits? =
+        if (config.uploadTargetDuration > 0L) AdaptiveUploadLimits(config.uploadTargetDuration) else null
+
+    /** Limits to use for the next request of given topic. */
+    private fun uploadLimits(topic: String): UploadLimits = adaptiveLimits
+        ?.limitsFor(topic, isUnmeteredNetwork(), config)
+        ?: UploadLimits(config.amountLimit, config.sizeLimit)
+
+    /**
+     * Update the pipeline metrics and adaptive limits with the result of a request.
+     * @param numBytes number of bytes sent, or -1 if unknown.
+     * @param startTime [System.nanoTime] at the start of the request.
+     */
+    private fun uploadFinished(
+        topic: String,
+        limits: UploadLimits,
+        numRecords: Int,
+        numBytes: Long,
+        startTime: Long,
+        isSuccessful: Boolean,
+    ) {
+        val duration = System.nanoTime() - startTime
+        metrics.topic(topic).uploaded(numRecords, duration, isSuccessful)
+        adaptiveLimits?.update(
+            topic,
+            isUnmeteredNetwork(),
+            config,
+            limits,
+            numRecords,
+            numBytes,
+            duration,
+            isSuccessful,
+        )
+    }
+
+    /** Read records from a cache, measuring how long the upload waits for it. */
+    private inline fun <T> ReadableDataCache.timedRead(read: ReadableDataCache.() -> T): T {
+        val startTime = System.nanoTime()
+        try {
+            return read()
+        } finally {
+            metrics.topic(readTopic.name).read(System.nanoTime() - startTime)
+        }
+    }
+
     /**
      * Close the submitter eventually. This does not flush any caches.
      */
     @Synchronized
     override fun close() {
         this.submitHandler.stop {
+            uploadExecutor?.shutdown()
+            uploadExecutor = null
+
             for ((topic, sender) in topicSenders) {
                 try {
                     sender.close()
@@ -146,6 +257,50 @@ class KafkaDataSubmitter(
         }
     }
 
+    /**
+     * Run [upload] for each item, on the upload executor if there is one. This returns when all
+     * uploads are done. Once an upload fails, uploads that have not started yet are skipped.
+     * @return upload results, in order of [items].
+     * @throws Exception the first exception that an upload threw.
+     */
+    @Throws(Exception::class)
+    private fun <S, T> uploadEach(items: List<S>, upload: (S) -> T): List<T> {
+        val executor = uploadExecutor
+        if (executor == null || items.size <= 1) {
+            return items.map(upload)
+        }
+
+        val hasFailed = AtomicBoolean(false)
+        val futures = items.map { item ->
+            executor.submit(Callable {
+                if (hasFailed.get()) {
+                    null
+                } else try {
+                    upload(item)
+                } catch (ex: Exception) {
+                    hasFailed.set(true)
+                    throw ex
+                }
+            })
+        }
+        var exception: Throwable? = null
+        // wait for all uploads, so that no topic is still being uploaded after this returns
+        val results = futures.map { future ->
+            try {
+                future.get()
+            } catch (ex: ExecutionException) {
+                if (exception == null) {
+                    exception = ex.cause ?: ex
+                }
+                null
+            }
+        }
+        exception?.let { throw it }
+
+        @Suppress("UNCHECKED_CAST")
+        return results as List<T>
+    }
+
     /** Get a sender for a topic. Per topic, only ONE thread may use this.  */
     @Throws(IOException::class, SchemaValidationException::class)
     private fun sender(
@@ -174,15 +329,16 @@ class KafkaDataSubmitter(
         try {
             val uploadingNotified = AtomicBoolean(false)
 
-            for (entry in dataHandler.activeCaches) {
-                val unsent = entry.activeDataCache.numberOfRecords
-                if (unsent > config.amountLimit) {
-                    val sent = uploadCache(entry.activeDataCache, uploadingNotified)
-                    if (unsent - sent > config.amountLimit) {
-                        sendAgain = true
-                    }
-                }
-            }
+            val fullCaches = dataHandler.activeCaches
+                .map { it.activeDataCache }
+                .filter { it.numberOfRecords > config.amountLimit }
+
+            sendAgain = uploadEach(fullCaches) { cache ->
+                val unsent = cache.numberOfRecords
+                val sent = uploadCache(cache, uploadingNotified, uploadLimits(cache.readTopic.name))
+                unsent - sent > config.amountLimit
+            }.any { it }
+
             if (uploadingNotified.get()) {
                 dataHandler.updateServerStatus(ServerStatusListener.Status.CONNECTED)
                 connection.didConnect()
@@ -201,21 +357,25 @@ class KafkaDataSubmitter(
     private fun uploadCaches(toSend: MutableSet<String>) {
         try {
             val uploadingNotified = AtomicBoolean(false)
-            toSend -= dataHandler.activeCaches
-                .asSequence()
-                .filter { group ->
-                    if (group.topicName in toSend) {
-                        val sentActive = uploadCache(group.activeDataCache, uploadingNotified)
-                        val sentDeprecated = group.deprecatedCaches.map { uploadCache(it, uploadingNotified) }
-
-                        if (sentDeprecated.any { it == 0 }) {
-                            group.deleteEmptyCaches()
-                        }
-                        sentActive < config.amountLimit
-                                && sentDeprecated.all { it < config.amountLimit }
-                    } else false
+            toSend -= uploadCombined(toSend, uploadingNotified)
+
+            val groups = dataHandler.activeCaches.filter { it.topicName in toSend }
+            val isDone = uploadEach(groups) { group ->
+                val limits = uploadLimits(group.topicName)
+                val sentActive = uploadCache(group.activeDataCache, uploadingNotified, limits)
+                val sentDeprecated = group.deprecatedCaches.map { uploadCache(it, uploadingNotified, limits) }
+
+                if (sentDeprecated.any { it == 0 }) {
+                    group.deleteEmptyCaches()
+                }
+                sentActive < limits.amountLimit
+                        && sentDeprecated.all { it < limits.amountLimit }
+            }
+            groups.forEachIndexed { i, group ->
+                if (isDone[i]) {
+                    toSend -= group.topicName
                 }
-                .mapTo(HashSet(), DataCacheGroup<*,*>::topicName)
+            }
 
             if (uploadingNotified.get()) {
                 dataHandler.updateServerStatus(ServerStatusListener.Status.CONNECTED)
@@ -227,45 +387,288 @@ class KafkaDataSubmitter(
     }
 
     /**
-     * Upload some data from a single table.
+     * Upload topics that have only a few records in a single request, if enabled and supported.
+     * Topics that fill a request of their own within their [uploadLimits] or that still have
+     * deprecated caches are not included. The total size is limited by
+     * [SubmitterConfiguration.sizeLimit].
+     * @return names of the topics that were completely uploaded.
+     */
+    @Throws(IOException::class)
+    private fun uploadCombined(toSend: Set<String>, uploadingNotified: AtomicBoolean): Set<String> {
+        val binarySender = binarySender
+        if (!config.multiTopicUpload
+            || binarySender == null
+            || !binarySender.isAvailable
+            || !binarySender.isMultiTopicEnabled
+        ) {
+            return emptySet()
+        }
+
+        // start all reads before waiting for any of them
+        val reads = dataHandler.activeCaches
+            .filter { it.topicName in toSend && it.deprecatedCaches.isEmpty() && it.activeDataCache.hasRawRecords }
+            .map { group ->
+                val cache = group.activeDataCache
+                val limits = uploadLimits(group.topicName)
+                CombinedRead(cache, limits, cache.getUnsentRawRecordsAsync(limits.amountLimit, limits.sizeLimit))
+            }
+
+        val batches = ArrayList<CombinedRead>()
+        var totalSize = 0L
+        var numAwaited = 0
+        for (read in reads) {
+            numAwaited++
+            val data = awaitRead(read.cache, read.future) ?: continue
+            if (data.size == 0 || data.size >= read.limits.amountLimit || !read.cache.readTopic.isKeyOfUser(data.key)) {
+                continue
+            }
+            if (totalSize + data.valuesLength > config.sizeLimit) break
+            totalSize += data.valuesLength
+            read.data = data
+            batches += read
+        }
+        // topics after the size limit will not be sent, but their reads may already be running
+        for (i in numAwaited until reads.size) {
+            discardRead(reads[i].cache, reads[i].future)
+        }
+        if (batches.size < 2) {
+            return emptySet()
+        }
+
+        if (uploadingNotified.compareAndSet(false, true)) {
+            dataHandler.updateServerStatus(ServerStatusListener.Status.UPLOADING)
+        }
+
+        val startTime = System.nanoTime()
+        try {
+            if (!binarySender.sendAll(batches.map { it.sentData })) {
+                return emptySet()
+            }
+            batches.forEach { it.finished(startTime, isSuccessful = true) }
+        } catch (ex: AuthenticationException) {
+            batches.forEach { dataHandler.updateRecordsSent(it.cache.readTopic.name, -1) }
+            throw ex
+        } catch (e: Exception) {
+            dataHandler.updateServerStatus(ServerStatusListener.Status.UPLOADING_FAILED)
+            batches.forEach {
+                it.finished(startTime, isSuccessful = false)
+                dataHandler.updateRecordsSent(it.cache.readTopic.name, -1)
+            }
+            throw e
+        }
+
+        logger.debug("uploaded {} topics in a single request", batches.size)
+
+        return batches.mapTo(HashSet()) { read ->
+            val data = read.sentData
+            dataHandler.updateRecordsSent(read.cache.readTopic.name, data.size.toLong())
+            read.cache.remove(data.size)
+            read.cache.readTopic.name
+        }
+    }
+
+    /** Read of a single topic for [uploadCombined], with the limits it was read with. */
+    private inner class CombinedRead(
+        val cache: ReadableDataCache,
+        val limits: UploadLimits,
+        val future: Future<RawRecordData?>,
+    ) {
+        var data: RawRecordData? = null
+
+        val sentData: RawRecordData
+            get() = checkNotNull(data) { "Topic ${cache.readTopic.name} was not read" }
+
+        /** Report the result of the combined request to the adaptive limits of this topic. */
+        fun finished(startTime: Long, isSuccessful: Boolean) {
+            val data = sentData
+            uploadFinished(cache.readTopic.name, limits, data.size, data.valuesLength.toLong(), startTime, isSuccessful)
+        }
+    }
+
+    /**
+     * Upload some data from a single table. While a full batch is being sent, the next batch is
+     * read from the cache, for at most [MAX_PIPELINED_BATCHES] batches.
+     * @param limits maximum number of records and bytes to send per request.
      * @return number of records sent.
      */
     @Throws(IOException::class, SchemaValidationException::class)
-    private fun uploadCache(cache: ReadableDataCache, uploadingNotified: AtomicBoolean): Int {
-        val data = cache.getUnsentRecords(config.amountLimit, config.sizeLimit)
+    private fun uploadCache(
+        cache: ReadableDataCache,
+        uploadingNotified: AtomicBoolean,
+        limits: UploadLimits,
+    ): Int {
+        val binarySender = binarySender
+        if (binarySender?.isAvailable == true) {
+            val sent = uploadRawCache(binarySender, cache, uploadingNotified, limits)
+            if (sent >= 0) {
+                return sent
+            }
+        }
+
+        val data = cache.timedRead { awaitRead(this, getUnsentRecordsAsync(limits.amountLimit, limits.sizeLimit)) }
             ?: return 0
 
-        val size = data.size()
-        if (size == 0) {
-            return 0
+        return uploadPipelined(
+            cache,
+            limits,
+            data,
+            size = { it.size() },
+            readAhead = { offset -> cache.readUnsentRecordsAhead(offset, limits.amountLimit, limits.sizeLimit) },
+        ) {
+            try {
+                sendRecords(cache, it, uploadingNotified, limits)
+            } finally {
+                // the next read may reuse the records of this batch
+                cache.recycle(it)
+            }
+        }
+    }
+
+    /**
+     * Upload some data from a single table without deserializing it. If the server rejects the
+     * first batch, for example because it contains invalid records, it is sent through the
+     * regular path, which skips records that cannot be read. If no records could be read, for
+     * example because the cache is empty or the read timed out, they are not read again through
+     * the regular path.
+     * @return number of records sent, or -1 if the cache does not support raw records or the data
+     *         could not be sent as raw bytes.
+     */
+    @Throws(IOException::class)
+    private fun uploadRawCache(
+        binarySender: BinaryRecordSetSender,
+        cache: ReadableDataCache,
+        uploadingNotified: AtomicBoolean,
+        limits: UploadLimits,
+    ): Int {
+        if (!cache.hasRawRecords) return -1
+        val data = cache.timedRead { awaitRead(this, getUnsentRawRecordsAsync(limits.amountLimit, limits.sizeLimit)) }
+            ?: return 0
+
+        return uploadPipelined(
+            cache,
+            limits,
+            data,
+            size = { it.size },
+            readAhead = { offset -> cache.readUnsentRawRecordsAhead(offset, limits.amountLimit, limits.sizeLimit) },
+        ) { sendRawRecords(binarySender, cache, it, uploadingNotified, limits) }
+    }
+
+    /**
+     * Send batches of records from a cache, starting with [first]. While sending a full batch,
+     * the next batch is read with [readAhead]. Records are only removed from the cache after
+     * they are sent, so the next batch is read at an offset of the current batch size.
+     * @param readAhead starts reading the batch after given number of records, or returns null
+     *                  if the cache cannot do so.
+     * @param send sends a batch, returning false if it could not be sent this way.
+     * @return number of records sent, or -1 if the first batch could not be sent this way.
+     */
+    @Throws(IOException::class)
+    private inline fun <T : Any> uploadPipelined(
+        cache: ReadableDataCache,
+        limits: UploadLimits,
+        first: T,
+        size: (T) -> Int,
+        readAhead: (offset: Int) -> Future<T?>?,
+        send: (T) -> Boolean,
+    ): Int {
+        var data: T? = first
+        var sent = 0
+        var numBatches = 0
+        while (data != null) {
+            val dataSize = size(data)
+            if (dataSize == 0) break
+            numBatches++
+            val next = if (dataSize >= limits.amountLimit && numBatches < MAX_PIPELINED_BATCHES) {
+                readAhead(dataSize)
+            } else null
+
+            try {
+                if (!send(data)) {
+                    return if (numBatches == 1) -1 else sent
+                }
+                cache.remove(dataSize)
+                sent += dataSize
+                data = next?.let { future -> cache.timedRead { awaitRead(this, future) } }
+            } finally {
+                if (next != null) discardRead(cache, next)
+            }
         }
+        return sent
+    }
 
+    /**
+     * Get the result of an asynchronous read. This does not wait longer than [READ_TIMEOUT] for
+     * the cache thread, so a busy cache does not stall the upload of other topics.
+     * @return records or null if none were read in time.
+     */
+    @Throws(IOException::class)
+    private fun <T> awaitRead(cache: ReadableDataCache, future: Future<T?>): T? = try {
+        future.get(READ_TIMEOUT, TimeUnit.MILLISECONDS)
+    } catch (ex: TimeoutException) {
+        logger.warn("Reading from topic {} timed out", cache.readTopic.name)
+        future.cancel(false)
+        null
+    } catch (ex: InterruptedException) {
+        Thread.currentThread().interrupt()
+        null
+    } catch (ex: ExecutionException) {
+        val cause = ex.cause
+        if (cause is RuntimeException) {
+            throw cause
+        } else {
+            throw IOException("Failed to read records", ex)
+        }
+    }
+
+    /**
+     * Wait for a read that is no longer needed. Cancelling it does not stop a read that already
+     * started, so it would keep using the cache after the upload moved on. Any error of the read
+     * is ignored.
+     */
+    private fun <T> discardRead(cache: ReadableDataCache, future: Future<T?>) {
+        if (future.isDone) return
+        try {
+            awaitRead(cache, future)
+        } catch (ex: Exception) {
+            logger.debug("Ignoring failed read from topic {}: {}", cache.readTopic.name, ex.toString())
+        }
+    }
+
+    /**
+     * Send a single batch of records.
+     * @return true, since records can always be sent this way.
+     */
+    @Throws(IOException::class, SchemaValidationException::class)
+    private fun sendRecords(
+        cache: ReadableDataCache,
+        data: RecordData<Any, Any?>,
+        uploadingNotified: AtomicBoolean,
+        limits: UploadLimits,
+    ): Boolean {
+        val size = data.size()
         val recordsNotNull = data.filterNotNull()
 
         if (recordsNotNull.isNotEmpty()) {
             val topic = cache.readTopic
 
-            val keyUserId = if (topic.keySchema.type == Schema.Type.RECORD) {
-                topic.keySchema.getField("userId")?.let { userIdField ->
-                    (data.key as IndexedRecord).get(userIdField.pos()).toString()
-                }
-            } else null
-
-            if (keyUserId == null || keyUserId == config.userId) {
+            if (topic.isKeyOfUser(data.key)) {
                 if (uploadingNotified.compareAndSet(false, true)) {
                     dataHandler.updateServerStatus(ServerStatusListener.Status.UPLOADING)
                 }
 
+                val startTime = System.nanoTime()
                 try {
                     sender(topic).run {
                         send(AvroRecordData<Any, Any>(data.topic, data.key, recordsNotNull))
                         flush()
                     }
+                    uploadFinished(topic.name, limits, size, -1L, startTime, isSuccessful = true)
                     dataHandler.updateRecordsSent(topic.name, size.toLong())
                 } catch (ex: AuthenticationException) {
                     dataHandler.updateRecordsSent(topic.name, -1)
                     throw ex
                 } catch (e: Exception) {
+                    uploadFinished(topic.name, limits, size, -1L, startTime, isSuccessful = false)
                     dataHandler.updateServerStatus(ServerStatusListener.Status.UPLOADING_FAILED)
                     dataHandler.updateRecordsSent(topic.name, -1)
                     throw e
@@ -274,13 +677,67 @@ class KafkaDataSubmitter(
                 logger.debug("uploaded {} {} records", size, topic.name)
             }
         }
+        return true
+    }
 
-        cache.remove(size)
+    /**
+     * Send a single batch of raw records.
+     * @return false if the data could not be sent as raw bytes.
+     */
+    @Throws(IOException::class)
+    private fun sendRawRecords(
+        binarySender: BinaryRecordSetSender,
+        cache: ReadableDataCache,
+        data: RawRecordData,
+        uploadingNotified: AtomicBoolean,
+        limits: UploadLimits,
+    ): Boolean {
+        val size = data.size
+        val topic = cache.readTopic
+        if (topic.isKeyOfUser(data.key)) {
+            if (uploadingNotified.compareAndSet(false, true)) {
+                dataHandler.updateServerStatus(ServerStatusListener.Status.UPLOADING)
+            }
 
-        return size
+            val startTime = System.nanoTime()
+            try {
+                if (!binarySender.send(data)) {
+                    return false
+                }
+                uploadFinished(topic.name, limits, size, data.valuesLength.toLong(), startTime, isSuccessful = true)
+                dataHandler.updateRecordsSent(topic.name, size.toLong())
+            } catch (ex: AuthenticationException) {
+                dataHandler.updateRecordsSent(topic.name, -1)
+                throw ex
+            } catch (e: Exception) {
+                uploadFinished(topic.name, limits, size, data.valuesLength.toLong(), startTime, isSuccessful = false)
+                dataHandler.updateServerStatus(ServerStatusListener.Status.UPLOADING_FAILED)
+                dataHandler.updateRecordsSent(topic.name, -1)
+                throw e
+            }
+
+            logger.debug("uploaded {} {} raw records", size, topic.name)
+        }
+        return true
+    }
+
+    /** Whether the key is of the configured user, or does not contain a user ID. */
+    private fun AvroTopic<Any, Any>.isKeyOfUser(key: Any): Boolean {
+        val keyUserId = if (keySchema.type == Schema.Type.RECORD) {
+            keySchema.getField("userId")?.let { userIdField ->
+                (key as IndexedRecord).get(userIdField.pos()).toString()
+            }
+        } else null
+
+        return keyUserId == null || keyUserId == config.userId
     }
 
     companion object {
         private val logger = LoggerFactory.getLogger(KafkaDataSubmitter::class.java)
+
+        /** Maximum number of consecutive batches of a single cache to read ahead for. */
+        private const val MAX_PIPELINED_BATCHES = 4
+        /** Maximum time in milliseconds to wait for the cache thread to read records. */
+        private const val READ_TIMEOUT = 10_000L
     }
 }
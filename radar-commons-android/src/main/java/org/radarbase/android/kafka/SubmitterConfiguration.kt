@@ -8,11 +8,32 @@ data class SubmitterConfiguration(
         var amountLimit: Int = 1000,
         var sizeLimit: Long = 5000000L,
         var uploadRate: Long = 10L,
-        var uploadRateMultiplier: Int = 1) {
+        var uploadRateMultiplier: Int = 1,
+        /** Maximum number of topics to upload at the same time. */
+        var uploadConcurrency: Int = 1,
+        /**
+         * Whether to send small batches of multiple topics in a single request, if the server
+         * supports it.
+         */
+        var multiTopicUpload: Boolean = false,
+        /**
+         * Target duration of a single upload request in milliseconds. If positive, request limits
+         * are adapted to reach this duration, with [amountLimit] and [sizeLimit] as upper bounds.
+         */
+        var uploadTargetDuration: Long = 0L) {
 
     fun configure(config: SingleRadarConfiguration) {
         uploadRate = config.getLong(RadarConfiguration.KAFKA_UPLOAD_RATE_KEY, uploadRate)
         amountLimit = config.getInt(RadarConfiguration.KAFKA_RECORDS_SEND_LIMIT_KEY, amountLimit)
         sizeLimit = config.getLong(RadarConfiguration.KAFKA_RECORDS_SIZE_LIMIT_KEY, sizeLimit)
+        uploadConcurrency = config.getInt(RadarConfiguration.KAFKA_UPLOAD_CONCURRENCY_KEY, uploadConcurrency)
+            .coerceIn(1, MAX_UPLOAD_CONCURRENCY)
+        multiTopicUpload = config.getBoolean(RadarConfiguration.KAFKA_UPLOAD_MULTI_TOPIC_KEY, multiTopicUpload)
+        uploadTargetDuration = config.getLong(RadarConfiguration.KAFKA_UPLOAD_TARGET_DURATION_KEY, uploadTargetDuration)
+    }
+
+    companion object {
+        /** Upper bound for [uploadConcurrency], to limit the number of open connections. */
+        const val MAX_UPLOAD_CONCURRENCY = 8
     }
 }
@@ -23,12 +23,14 @@ import org.radarbase.android.RadarConfiguration
 import org.radarbase.android.RadarConfiguration.Companion.SOURCE_ID_KEY
 import org.radarbase.android.auth.SourceMetadata
 import org.radarbase.android.data.DataCache
+import org.radarbase.android.data.SampleBatchEncoder
 import org.radarbase.android.util.ChangeRunner
 import org.radarbase.android.util.SafeHandler
 import org.radarbase.topic.AvroTopic
 import org.radarcns.kafka.ObservationKey
 import org.slf4j.LoggerFactory
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * SourceManager that handles some common functionality.
@@ -63,6 +65,9 @@ abstract class AbstractSourceManager<S : SourceService<T>, T : BaseSourceState>(
     protected var hasClosed: Boolean = false
     private var didWarn: Boolean = false
 
+    /** Encoders for [sendBatch], by topic name. */
+    private val batchEncoders = ConcurrentHashMap<String, SampleBatchEncoder>()
+
     private val statusChanges = ChangeRunner(service.state.status)
 
     /**
@@ -160,6 +165,42 @@ abstract class AbstractSourceManager<S : SourceService<T>, T : BaseSourceState>(
         }
     }
 
+    /**
+     * Send a batch of samples, using the cache to persist the data. This avoids creating a record
+     * per sample, by encoding the samples to binary form directly. The topic value schema must
+     * start with the `time` and `timeReceived` fields, followed by one numeric field per column,
+     * see [SampleBatchEncoder]. If the current source is not registered when this is called, the
+     * data will NOT be sent.
+     * @param times sample times in seconds since the Unix epoch.
+     * @param timeReceived time that the samples were received.
+     * @param columns one array of values per field after `timeReceived`.
+     * @param size number of samples to send from the arrays.
+     */
+    protected fun <V : SpecificRecord> sendBatch(
+        dataCache: DataCache<ObservationKey, V>,
+        times: DoubleArray,
+        timeReceived: Double,
+        vararg columns: FloatArray,
+        size: Int = times.size,
+    ) {
+        val key = state.id
+
+        if (key.getSourceId() != null) {
+            try {
+                val topic = dataCache.topic
+                val encoder = batchEncoders.getOrPut(topic.name) {
+                    SampleBatchEncoder(topic.valueSchema, columns.size)
+                }
+                dataCache.addMeasurements(key, encoder.encode(times, timeReceived, columns, size))
+            } catch (ex: IllegalArgumentException) {
+                logger.error("Cannot send for {} to dataCache {}: {}", state.id, dataCache.topic.name, ex)
+            }
+        } else if (!didWarn) {
+            logger.warn("Cannot send data without a source ID to topic {}", dataCache.topic.name)
+            didWarn = true
+        }
+    }
+
     @CallSuper
     override fun didRegister(source: SourceMetadata) {
         state.id.setSourceId(source.sourceId)
@@ -0,0 +1,41 @@
+package org.radarbase.android.util
+
+import android.os.Handler
+
+/**
+ * Thread that runs the tasks of a [SafeHandler]. Tasks are run in the order that they were
+ * posted, or in order of their due time for delayed tasks. A task that throws an exception is
+ * logged and does not stop the backend.
+ */
+interface HandlerBackend {
+    /** Whether the current thread is the thread of this backend. */
+    val isCurrentThread: Boolean
+
+    /** Android handler that runs tasks on this backend, or null if it does not use a Looper. */
+    val handler: Handler?
+        get() = null
+
+    /**
+     * Run [task] as soon as possible.
+     * @return whether the task was accepted. It is not accepted after [quit].
+     */
+    fun post(task: Runnable): Boolean
+
+    /**
+     * Run [task] after [delay] milliseconds.
+     * @return whether the task was accepted. It is not accepted after [quit].
+     */
+    fun postDelayed(task: Runnable, delay: Long): Boolean
+
+    /** Remove all delayed posts of [task] that did not run yet. */
+    fun remove(task: Runnable)
+
+    /**
+     * Stop the backend after running all tasks that are due. Delayed tasks that are not yet due
+     * are discarded.
+     */
+    fun quit()
+
+    /** Interrupt the backend thread. */
+    fun interrupt()
+}
@@ -0,0 +1,52 @@
+package org.radarbase.android.util
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.SystemClock
+import org.slf4j.LoggerFactory
+
+/**
+ * Backend that runs tasks on an Android [HandlerThread] with given Android thread [priority].
+ * The thread is started on construction.
+ */
+class LooperHandlerBackend(name: String, priority: Int) : HandlerBackend {
+    private val thread = HandlerThread(name, priority).apply { start() }
+
+    override val handler = Handler(thread.looper)
+
+    override val isCurrentThread: Boolean
+        get() = Thread.currentThread() == thread
+
+    override fun post(task: Runnable): Boolean = handler.post { task.runSafely() }
+
+    override fun postDelayed(task: Runnable, delay: Long): Boolean {
+        // the task is used as token, so that it can be removed again
+        return handler.postAtTime(SafeRunnable(task), task, SystemClock.uptimeMillis() + delay)
+    }
+
+    override fun remove(task: Runnable) = handler.removeCallbacksAndMessages(task)
+
+    override fun quit() {
+        thread.quitSafely()
+    }
+
+    override fun interrupt() = thread.interrupt()
+
+    override fun toString(): String = "LooperHandlerBackend<${thread.name}>"
+
+    private class SafeRunnable(private val task: Runnable) : Runnable {
+        override fun run() = task.runSafely()
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(LooperHandlerBackend::class.java)
+
+        private fun Runnable.runSafely() {
+            try {
+                run()
+            } catch (ex: Exception) {
+                logger.error("Failed to run posted runnable", ex)
+            }
+        }
+    }
+}
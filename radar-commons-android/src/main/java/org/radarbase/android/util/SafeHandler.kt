@@ -1,40 +1,50 @@
 package org.radarbase.android.util
 
 import android.os.Handler
-import android.os.HandlerThread
-import android.os.Looper
 import androidx.annotation.Keep
 import org.radarbase.android.util.SafeHandler.Companion.getInstance
 import org.slf4j.LoggerFactory
 import java.lang.ref.WeakReference
+import java.util.concurrent.Callable
 import java.util.concurrent.ExecutionException
-import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
 
 /**
- * A wrapper around Android Handler that makes some operations easier or safer in terms of exception
- * handling and multithreading.
+ * A wrapper around a single handler thread that makes some operations easier or safer in terms
+ * of exception handling and multithreading. By default, tasks run on an Android Looper. Set
+ * [backendFactory], or [defaultBackendFactory] for all new handlers, to use another
+ * [HandlerBackend], for example a [ThreadHandlerBackend] on a plain JVM.
  * @constructor consider using [getInstance] instead for shared or reinitializing handlers.
  */
 @Suppress("unused", "MemberVisibilityCanBePrivate")
 class SafeHandler(
     val name: String,
     private val priority: Int,
+    private val backendFactory: (name: String, priority: Int) -> HandlerBackend = defaultBackendFactory,
 ) {
-    private var handlerThread: HandlerThread? = null
+    /** Backend that runs the tasks, or null if the handler is not running. */
+    @Volatile
+    private var backend: HandlerBackend? = null
 
     /** Whether the handler has been started. */
     @get:Synchronized
     val isStarted: Boolean
-        get() = handler != null
+        get() = backend != null
 
     /**
      * Direct access to the handler. Can be used for outside code that requires an actual
      * handler. Using this means that the handler should be stopped with great care, preferably
      * by ensuring during finalization in [stop] that the handler is not being used anymore.
+     * This is null if the handler is not running or if its backend does not use a Looper.
      */
     @get:Synchronized
-    var handler: Handler? = null
-        private set
+    val handler: Handler?
+        get() = backend?.handler
+
+    /** Whether the current thread is the handler thread. */
+    private val isHandlerThread: Boolean
+        get() = backend?.isCurrentThread == true
 
     @Synchronized
     fun start() {
@@ -43,10 +53,7 @@ class SafeHandler(
             return
         }
 
-        handlerThread = HandlerThread(name, priority).apply {
-            start()
-            handler = Handler(looper)
-        }
+        backend = backendFactory(name, priority)
     }
 
     /**
@@ -69,36 +76,37 @@ class SafeHandler(
      */
     @Throws(InterruptedException::class, ExecutionException::class)
     fun <T> compute(method: () -> T): T {
-        if (Thread.currentThread() == handlerThread) {
+        if (isHandlerThread) {
             try {
                 return method()
             } catch (ex: Exception) {
                 throw ExecutionException(ex)
             }
         } else {
-            val queue = SynchronousQueue<Any>()
-            execute {
-                try {
-                    queue.put(method() ?: nullMarker)
-                } catch (ex: Exception) {
-                    queue.put(ExecutionException(ex))
-                }
-            }
-            val result = queue.take()
-            @Suppress("UNCHECKED_CAST")
-            return when {
-                result === nullMarker -> null
-                result is ExecutionException -> throw result
-                else -> result
-            } as T
+            val task = submit(method)
+                ?: throw ExecutionException(IllegalStateException("SafeHandler $name is not running"))
+            return task.get()
         }
     }
 
+    /**
+     * Compute a value in the given handler without waiting for it. Any exception in [method] is
+     * wrapped in an [ExecutionException] when getting the result.
+     * @return future result, or null if the handler has been stopped.
+     */
+    fun <T> submit(method: () -> T): Future<T>? {
+        val task = FutureTask(Callable(method))
+        val didPost = synchronized(this) {
+            backend?.post(task)
+        } ?: false
+        return if (didPost) task else null
+    }
+
     /**
      * Executes [runnable] on this handler. If the handler has already been stopped, this does not
      * get executed.
      */
-    fun execute(runnable: Runnable) = execute(false, runnable::run)
+    fun execute(runnable: Runnable) = execute(false, runnable)
 
     /**
      * Executes [runnable] on this handler. If the handler has already been stopped, this does not
@@ -111,7 +119,7 @@ class SafeHandler(
      * runnable is executed immediately, instead of putting it in the queue.
      */
     fun executeReentrant(runnable: () -> Unit) {
-        if (Thread.currentThread() == handlerThread) {
+        if (isHandlerThread) {
             runnable.tryRunOrNull()
         } else {
             execute(runnable)
@@ -126,7 +134,7 @@ class SafeHandler(
      * will not be executed.
      */
     fun executeReentrant(defaultToCurrentThread: Boolean, runnable: () -> Unit) {
-        if (Thread.currentThread() == handlerThread) {
+        if (isHandlerThread) {
             runnable.tryRunOrNull()
         } else {
             execute(defaultToCurrentThread, runnable)
@@ -145,7 +153,15 @@ class SafeHandler(
      * If the handler is stopped and [defaultToCurrentThread] is false, the runnable will not be
      * executed.
      */
-    fun execute(defaultToCurrentThread: Boolean, runnable: Runnable) = execute(defaultToCurrentThread, runnable::run)
+    fun execute(defaultToCurrentThread: Boolean, runnable: Runnable) {
+        val didRun = synchronized(this) {
+            backend?.post(runnable)
+        } ?: false
+
+        if (!didRun && defaultToCurrentThread) {
+            runnable::run.tryRunOrNull()
+        }
+    }
 
     /**
      * Executes [runnable] on a handler. If the handler has been stopped and
@@ -153,15 +169,7 @@ class SafeHandler(
      * If the handler is stopped and [defaultToCurrentThread] is false, the runnable will not be
      * executed.
      */
-    fun execute(defaultToCurrentThread: Boolean, runnable: () -> Unit) {
-        val didRun = synchronized(this) {
-            handler?.post { runnable.tryRunOrNull() }
-        } ?: false
-
-        if (!didRun && defaultToCurrentThread) {
-            runnable.tryRunOrNull()
-        }
-    }
+    fun execute(defaultToCurrentThread: Boolean, runnable: () -> Unit) = execute(defaultToCurrentThread, Runnable(runnable))
 
     /**
      * Executes [runnable] on a handler after [delay] milliseconds.
@@ -174,12 +182,9 @@ class SafeHandler(
      */
     @Synchronized
     fun delay(delay: Long, runnable: () -> Unit): HandlerFuture? {
-        val handler = handler ?: return null
-        val r = Runnable {
-            runnable.tryRunOrNull()
-        }
-        handler.postDelayed(r, delay)
-        return HandlerFutureRef(r)
+        val backend = backend ?: return null
+        val r = Runnable(runnable)
+        return if (backend.postDelayed(r, delay)) HandlerFutureRef(r) else null
     }
 
     /**
@@ -204,7 +209,7 @@ class SafeHandler(
     fun stop(finalization: Runnable) = stop(finalization::run)
 
     @Synchronized
-    fun interrupt() = handlerThread?.interrupt()
+    fun interrupt() = backend?.interrupt()
 
     /**
      * Stop the handler, running [finalization], if any, as the last operation. If the handler
@@ -213,22 +218,15 @@ class SafeHandler(
      */
     @Synchronized
     fun stop(finalization: (() -> Unit)? = null, currentThreadFinalization: (() -> Unit)? = null) {
-        val thread = handlerThread ?: return
+        val oldBackend = backend ?: return
 
         currentThreadFinalization?.tryRunOrNull()
 
-        val oldHandler = handler
-        if (oldHandler != null) {
-            handler = null
-            if (finalization != null) {
-                oldHandler.post { finalization.tryRunOrNull() }
-            }
-        } else {
-            finalization?.tryRunOrNull()
+        backend = null
+        if (finalization != null) {
+            oldBackend.post(Runnable(finalization))
         }
-        thread.quitSafely()
-
-        handlerThread = null
+        oldBackend.quit()
     }
 
     /**
@@ -258,23 +256,29 @@ class SafeHandler(
 
     private inner class HandlerFutureRef(val runnable: Runnable): HandlerFuture {
         override fun awaitNow(): Unit = synchronized(this@SafeHandler) {
-            handler?.removeCallbacks(runnable)
+            backend?.remove(runnable)
             await(runnable)
         }
         override fun runNow(): Unit = synchronized(this@SafeHandler) {
-            handler?.removeCallbacks(runnable)
+            backend?.remove(runnable)
             executeReentrant(runnable)
         }
         override fun cancel(): Unit = synchronized(this@SafeHandler) {
-            handler?.removeCallbacks(runnable)
+            backend?.remove(runnable)
         }
     }
 
     companion object {
         private val logger = LoggerFactory.getLogger(SafeHandler::class.java)
-        private val nullMarker = Any()
         private val map: MutableMap<String, WeakReference<SafeHandler>> = HashMap()
 
+        /**
+         * Backend of handlers that are created without an explicit backend. This defaults to an
+         * Android Looper. Set it before creating any handlers to run them on another backend.
+         */
+        @Volatile
+        var defaultBackendFactory: (name: String, priority: Int) -> HandlerBackend = ::LooperHandlerBackend
+
         /**
          * Get a shared instance of a handler. Note that for this to be safe, the app should
          * not stop the handler. This can be used for a client library that is very sensitive about
@@ -0,0 +1,151 @@
+package org.radarbase.android.util
+
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Backend that runs tasks on a plain JVM thread, without depending on Android. The thread is
+ * started on construction.
+ *
+ * Posting a task does not allocate, other than to grow the task queue. Delayed tasks allocate a
+ * single entry. The thread drains all tasks that are due in a single batch, so it acquires the
+ * lock once per batch instead of once per task.
+ *
+ * @param name thread name.
+ * @param priority Android thread priority, from -20 for the highest to 19 for the lowest
+ *                 priority. It is mapped to the nearest Java thread priority.
+ */
+class ThreadHandlerBackend(
+    name: String,
+    priority: Int = 0,
+) : HandlerBackend {
+    private val lock = ReentrantLock()
+    private val taskAvailable = lock.newCondition()
+
+    /** Tasks that are due, guarded by [lock]. */
+    private var tasks = ArrayDeque<Runnable>()
+
+    /** Delayed tasks, ordered by due time and guarded by [lock]. */
+    private val delayedTasks = PriorityQueue<DelayedTask>()
+
+    /** Sequence number of delayed tasks, to keep tasks with the same due time in order. */
+    private var delayedSequence = 0L
+
+    private var isQuit = false
+
+    private val thread = Thread(::runLoop, name).also {
+        it.priority = javaPriority(priority)
+        it.isDaemon = true
+        it.start()
+    }
+
+    override val isCurrentThread: Boolean
+        get() = Thread.currentThread() === thread
+
+    override fun post(task: Runnable): Boolean = lock.withLock {
+        if (isQuit) return false
+        tasks.addLast(task)
+        if (tasks.size == 1) {
+            taskAvailable.signal()
+        }
+        true
+    }
+
+    override fun postDelayed(task: Runnable, delay: Long): Boolean {
+        if (delay <= 0L) return post(task)
+        val dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)
+        return lock.withLock {
+            if (isQuit) return false
+            val delayedTask = DelayedTask(task, dueTime, delayedSequence++)
+            delayedTasks.add(delayedTask)
+            if (delayedTasks.peek() === delayedTask) {
+                taskAvailable.signal()
+            }
+            true
+        }
+    }
+
+    /**
+     * Remove all posts of [task] that did not run yet. Posts without delay are queued as regular
+     * tasks, so those are removed from the task queue.
+     */
+    override fun remove(task: Runnable): Unit = lock.withLock {
+        tasks.removeAll { it === task }
+        delayedTasks.removeAll { it.task === task }
+    }
+
+    override fun quit(): Unit = lock.withLock {
+        isQuit = true
+        delayedTasks.clear()
+        taskAvailable.signal()
+    }
+
+    override fun interrupt() = thread.interrupt()
+
+    private fun runLoop() {
+        var batch = ArrayDeque<Runnable>()
+        while (true) {
+            lock.withLock {
+                while (true) {
+                    val now = System.nanoTime()
+                    while (delayedTasks.peek()?.let { it.dueTime <= now } == true) {
+                        tasks.addLast(delayedTasks.poll()!!.task)
+                    }
+                    if (tasks.isNotEmpty()) break
+                    if (isQuit) return
+
+                    val nextDelayed = delayedTasks.peek()
+                    try {
+                        if (nextDelayed == null) {
+                            taskAvailable.await()
+                        } else {
+                            taskAvailable.awaitNanos(nextDelayed.dueTime - now)
+                        }
+                    } catch (ex: InterruptedException) {
+                        // interrupts are meant for the running task, keep waiting for tasks
+                    }
+                }
+                // swap queues, so that the batch can run without holding the lock
+                val dueTasks = tasks
+                tasks = batch
+                batch = dueTasks
+            }
+            while (true) {
+                val task = batch.pollFirst() ?: break
+                try {
+                    task.run()
+                } catch (ex: Exception) {
+                    logger.error("Failed to run posted runnable", ex)
+                }
+            }
+        }
+    }
+
+    override fun toString(): String = "ThreadHandlerBackend<${thread.name}>"
+
+    private class DelayedTask(
+        val task: Runnable,
+        val dueTime: Long,
+        private val sequence: Long,
+    ) : Comparable<DelayedTask> {
+        override fun compareTo(other: DelayedTask): Int {
+            val timeDifference = dueTime - other.dueTime
+            return when {
+                timeDifference < 0L -> -1
+                timeDifference > 0L -> 1
+                else -> sequence.compareTo(other.sequence)
+            }
+        }
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(ThreadHandlerBackend::class.java)
+
+        /** Java thread priority closest to given Android thread priority. */
+        internal fun javaPriority(androidPriority: Int): Int =
+            (Thread.NORM_PRIORITY - androidPriority / 4).coerceIn(Thread.MIN_PRIORITY, Thread.MAX_PRIORITY)
+    }
+}
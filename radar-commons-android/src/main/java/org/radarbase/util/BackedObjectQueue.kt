@@ -17,7 +17,6 @@
 package org.radarbase.util
 
 import org.slf4j.LoggerFactory
-import java.io.Closeable
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
@@ -32,16 +31,12 @@ import java.util.*
  * @param deserializer way to deserialize to objects from a stream
  */
 class BackedObjectQueue<S, T>(
-        private val queueFile: QueueFile,
+        private val queueFile: ElementQueue,
         private val serializer: Serializer<S>,
-        private val deserializer: Deserializer<T>) : Closeable {
-
-    /** Returns `true` if this queue contains no entries.  */
-    val isEmpty: Boolean
-        get() = size == 0
+        private val deserializer: Deserializer<T>) : ObjectQueue<S, T> {
 
     /** Number of elements in the queue.  */
-    val size: Int
+    override val size: Int
         get() = queueFile.size
 
     /**
@@ -53,12 +48,10 @@ class BackedObjectQueue<S, T>(
      * @throws IllegalStateException if the queue is full
      */
     @Throws(IOException::class)
-    fun add(entry: S) {
+    override fun add(entry: S) {
         queueFile.elementOutputStream().use { out -> serializer.serialize(entry, out) }
     }
 
-    operator fun plusAssign(entry: S) = add(entry)
-
     /**
      * Add a collection of new element to the queue.
      * @param entries elements to add
@@ -68,7 +61,7 @@ class BackedObjectQueue<S, T>(
      * @throws IllegalStateException if the queue is full
      */
     @Throws(IOException::class)
-    fun addAll(entries: Collection<S>) {
+    override fun addAll(entries: Collection<S>) {
         queueFile.elementOutputStream().use { out ->
             for (entry in entries) {
                 serializer.serialize(entry, out)
@@ -77,7 +70,15 @@ class BackedObjectQueue<S, T>(
         }
     }
 
-    operator fun plusAssign(entries: Collection<S>) = addAll(entries)
+    @Throws(IOException::class)
+    override fun addAllSerialized(count: Int, writer: (index: Int, output: OutputStream) -> Unit) {
+        queueFile.elementOutputStream().use { out ->
+            for (i in 0 until count) {
+                writer(i, out)
+                out.next()
+            }
+        }
+    }
 
     /**
      * Get the front-most object in the queue. This does not remove the element.
@@ -86,7 +87,7 @@ class BackedObjectQueue<S, T>(
      * @throws IllegalStateException if the element that was read was invalid.
      */
     @Throws(IOException::class)
-    fun peek(): T? {
+    override fun peek(): T? {
         return queueFile.peek()
                 ?.use { deserializer.deserialize(it) }
     }
@@ -103,28 +104,86 @@ class BackedObjectQueue<S, T>(
      * @throws IllegalStateException if the element could not be read
      */
     @Throws(IOException::class)
-    fun peek(n: Int, sizeLimit: Long): List<T?> {
-        val iter = queueFile.iterator()
+    override fun peek(n: Int, sizeLimit: Long): List<T?> = peek(n, sizeLimit, 0)
+
+    @Throws(IOException::class)
+    override fun peek(n: Int, sizeLimit: Long, offset: Int): List<T?> =
+        peekInto(n, sizeLimit, offset, ArrayList(n), reuse = false)
+
+    @Throws(IOException::class)
+    override fun peek(n: Int, sizeLimit: Long, offset: Int, reuse: MutableList<T?>): List<T?> =
+        peekInto(n, sizeLimit, offset, reuse, reuse = true)
+
+    /**
+     * Read elements into [results]. If [reuse] is set, the element at the same index of
+     * [results] is passed to the deserializer to reuse, and any remaining elements are removed.
+     */
+    @Throws(IOException::class)
+    private fun peekInto(n: Int, sizeLimit: Long, offset: Int, results: MutableList<T?>, reuse: Boolean): List<T?> {
+        require(offset >= 0) { "Cannot skip negative ($offset) number of elements." }
+        val iter = queueFile.iterator(offset)
         var curSize: Long = 0
-        val results = ArrayList<T?>(n)
+        var numResults = 0
         var i = 0
         while (i < n && iter.hasNext() && curSize < sizeLimit) {
             iter.next().use { input ->
                 curSize += input.available().toLong()
                 if (curSize <= sizeLimit || i == 0) {
-                    try {
-                        results += deserializer.deserialize(input)
+                    val old = if (reuse) results.getOrNull(numResults) else null
+                    val result = try {
+                        deserializer.deserialize(input, old)
                     } catch (ex: IllegalStateException) {
                         logger.warn("Invalid record ignored", ex)
-                        results += null
+                        null
+                    }
+                    if (numResults < results.size) {
+                        results[numResults] = result
+                    } else {
+                        results += result
                     }
+                    numResults++
                 }
             }
             i++
         }
+        if (results.size > numResults) {
+            results.subList(numResults, results.size).clear()
+        }
         return results
     }
 
+    /**
+     * Read at most `n` front-most elements in the queue in their serialized form, without
+     * deserializing them. This does not remove the elements. Like [peek], at least one element
+     * is read, and after that, no more than `n` elements with a collective serialized size no
+     * larger than `sizeLimit`.
+     * @param consumer reads a single serialized element from the given input. If it returns
+     *                 false, reading stops and the element is not counted.
+     * @return number of elements consumed.
+     * @throws IOException if the element could not be read
+     * @throws IllegalStateException if the element could not be read
+     */
+    @Throws(IOException::class)
+    override fun peekRaw(n: Int, sizeLimit: Long, consumer: (InputStream) -> Boolean): Int =
+        peekRaw(n, sizeLimit, 0, consumer)
+
+    @Throws(IOException::class)
+    override fun peekRaw(n: Int, sizeLimit: Long, offset: Int, consumer: (InputStream) -> Boolean): Int {
+        require(offset >= 0) { "Cannot skip negative ($offset) number of elements." }
+        val iter = queueFile.iterator(offset)
+        var curSize: Long = 0
+        var i = 0
+        while (i < n && iter.hasNext() && curSize < sizeLimit) {
+            val didConsume = iter.next().use { input ->
+                curSize += input.available().toLong()
+                (curSize <= sizeLimit || i == 0) && consumer(input)
+            }
+            if (!didConsume) break
+            i++
+        }
+        return i
+    }
+
     /**
      * Remove the first `n` elements from the queue.
      *
@@ -132,13 +191,10 @@ class BackedObjectQueue<S, T>(
      * @throws NoSuchElementException if more than the available elements are requested to be removed
      */
     @Throws(IOException::class)
-    @JvmOverloads
-    fun remove(n: Int = 1) {
+    override fun remove(n: Int) {
         queueFile.remove(n)
     }
 
-    operator fun minusAssign(n: Int) = remove(n)
-
     /**
      * Close the queue. This also closes the backing file.
      * @throws IOException if the file cannot be closed.
@@ -176,6 +232,16 @@ class BackedObjectQueue<S, T>(
          */
         @Throws(IOException::class)
         fun deserialize(input: InputStream): T
+
+        /**
+         * Deserialize an object from given input stream, possibly reusing a previously
+         * deserialized object. By default, [reuse] is ignored.
+         * @param reuse object that is no longer used and may be overwritten, or null.
+         * @return deserialized object, which may be [reuse].
+         * @throws IOException if a valid object could not be deserialized from the stream
+         */
+        @Throws(IOException::class)
+        fun deserialize(input: InputStream, reuse: T?): T = deserialize(input)
     }
 
     companion object {
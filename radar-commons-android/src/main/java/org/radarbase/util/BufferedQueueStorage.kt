@@ -173,6 +173,11 @@ class BufferedQueueStorage(
         storage.flush()
     }
 
+    override fun flushBuffer() {
+        retrieveState().flush()
+        storage.flushBuffer()
+    }
+
     override fun toString() = "BufferedQueueStorage[storage=$storage,bufferSize=${retrieveState().buffer.remaining()}]"
 
     private inner class BufferState(
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarbase.util
+
+import org.radarbase.util.BackedObjectQueue.Deserializer
+import org.radarbase.util.BackedObjectQueue.Serializer
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.Inflater
+import java.util.zip.InflaterInputStream
+
+/**
+ * An object queue that stores each batch of added objects as a single compressed block in a
+ * queue file. Each block starts with an uncompressed sequence number and number of objects,
+ * followed by the Deflate-compressed serialized objects, each prefixed by their length.
+ *
+ * Objects can be removed from the middle of the first block. The number of objects removed from
+ * the first block is stored in a separate offset file. If that file is out of date after a crash,
+ * the first block is read from its start again, so objects may be read twice but are never lost.
+ *
+ * @param queueFile file to write blocks to
+ * @param serializer way to serialize from given objects
+ * @param deserializer way to deserialize to objects from a stream
+ * @param offsetFile file to store the number of objects removed from the first block in.
+ * @param compressionLevel Deflate compression level.
+ * @throws IOException if the queue file or offset file could not be read.
+ */
+class CompressedObjectQueue<S, T> @Throws(IOException::class) constructor(
+    private val queueFile: ElementQueue,
+    private val serializer: Serializer<S>,
+    private val deserializer: Deserializer<T>,
+    offsetFile: File,
+    compressionLevel: Int = Deflater.BEST_SPEED,
+) : ObjectQueue<S, T> {
+    private val deflater = Deflater(compressionLevel)
+    private val inflater = Inflater()
+    private val offsetStorage = RandomAccessFile(offsetFile, "rw")
+
+    /** Blocks in the queue file, in order. */
+    private val blocks = ArrayDeque<Block>()
+
+    /** Number of objects already removed from the first block. */
+    private var headOffset = 0
+    private var nextSequence = 0L
+
+    override var size: Int = 0
+        private set
+
+    /** Buffer to serialize a single object in. */
+    private val objectBuffer = ByteArrayOutputStream(256)
+    private var objectBytes = ByteArray(256)
+
+    init {
+        try {
+            for (element in queueFile) {
+                element.use { input ->
+                    DataInputStream(input).run {
+                        blocks += Block(readLong(), readInt())
+                    }
+                }
+            }
+            size = blocks.sumOf { it.count }
+            nextSequence = blocks.lastOrNull()?.let { it.sequence + 1 } ?: 0L
+            readOffset()
+        } catch (ex: IOException) {
+            close()
+            throw ex
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun readOffset() {
+        val firstBlock = blocks.firstOrNull()
+        if (firstBlock != null && offsetStorage.length() >= OFFSET_LENGTH) {
+            offsetStorage.seek(0L)
+            val sequence = offsetStorage.readLong()
+            val offset = offsetStorage.readInt()
+            if (sequence == firstBlock.sequence && offset in 0 until firstBlock.count) {
+                headOffset = offset
+                size -= offset
+            }
+        } else {
+            writeOffset()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun writeOffset() {
+        offsetStorage.seek(0L)
+        offsetStorage.writeLong(blocks.firstOrNull()?.sequence ?: -1L)
+        offsetStorage.writeInt(headOffset)
+    }
+
+    @Throws(IOException::class)
+    override fun add(entry: S) = addAll(listOf(entry))
+
+    @Throws(IOException::class)
+    override fun addAll(entries: Collection<S>) {
+        val iter = entries.iterator()
+        addAllSerialized(entries.size) { _, output ->
+            serializer.serialize(iter.next(), output)
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun addAllSerialized(count: Int, writer: (index: Int, output: OutputStream) -> Unit) {
+        if (count == 0) return
+
+        val block = Block(nextSequence, count)
+        val blockBuffer = ByteArrayOutputStream()
+        DataOutputStream(blockBuffer).run {
+            writeLong(block.sequence)
+            writeInt(block.count)
+        }
+        deflater.reset()
+        DataOutputStream(DeflaterOutputStream(blockBuffer, deflater)).use { out ->
+            for (i in 0 until count) {
+                objectBuffer.reset()
+                writer(i, objectBuffer)
+                out.writeInt(objectBuffer.size())
+                objectBuffer.writeTo(out)
+            }
+        }
+        queueFile.elementOutputStream().use { out ->
+            blockBuffer.writeTo(out)
+        }
+        blocks += block
+        nextSequence++
+        size += block.count
+    }
+
+    @Throws(IOException::class)
+    override fun peek(): T? {
+        var result: T? = null
+        readObjects(1, Long.MAX_VALUE) { bytes, length ->
+            result = deserializer.deserialize(ByteArrayInputStream(bytes, 0, length))
+            true
+        }
+        return result
+    }
+
+    @Throws(IOException::class)
+    override fun peek(n: Int, sizeLimit: Long): List<T?> = peek(n, sizeLimit, 0)
+
+    @Throws(IOException::class)
+    override fun peek(n: Int, sizeLimit: Long, offset: Int): List<T?> {
+        val results = ArrayList<T?>(n.coerceAtMost(size - offset).coerceAtLeast(0))
+        readObjects(n, sizeLimit, offset) { bytes, length ->
+            try {
+                results += deserializer.deserialize(ByteArrayInputStream(bytes, 0, length))
+            } catch (ex: IllegalStateException) {
+                logger.warn("Invalid record ignored", ex)
+                results += null
+            }
+            true
+        }
+        return results
+    }
+
+    @Throws(IOException::class)
+    override fun peek(n: Int, sizeLimit: Long, offset: Int, reuse: MutableList<T?>): List<T?> {
+        var numResults = 0
+        readObjects(n, sizeLimit, offset) { bytes, length ->
+            val result = try {
+                deserializer.deserialize(ByteArrayInputStream(bytes, 0, length), reuse.getOrNull(numResults))
+            } catch (ex: IllegalStateException) {
+                logger.warn("Invalid record ignored", ex)
+                null
+            }
+            if (numResults < reuse.size) {
+                reuse[numResults] = result
+            } else {
+                reuse += result
+            }
+            numResults++
+            true
+        }
+        if (reuse.size > numResults) {
+            reuse.subList(numResults, reuse.size).clear()
+        }
+        return reuse
+    }
+
+    @Throws(IOException::class)
+    override fun peekRaw(n: Int, sizeLimit: Long, consumer: (InputStream) -> Boolean): Int =
+        peekRaw(n, sizeLimit, 0, consumer)
+
+    @Throws(IOException::class)
+    override fun peekRaw(n: Int, sizeLimit: Long, offset: Int, consumer: (InputStream) -> Boolean): Int {
+        return readObjects(n, sizeLimit, offset) { bytes, length ->
+            consumer(ByteArrayInputStream(bytes, 0, length))
+        }
+    }
+
+    /**
+     * Read at most `n` front-most serialized objects, after skipping [offset] objects. At least
+     * one object is read, and after that, no more than `n` objects with a collective serialized
+     * size no larger than `sizeLimit`. Blocks that are skipped entirely are not decompressed.
+     * @param consumer reads a single serialized object from the first given number of bytes of
+     *                 the array. If it returns false, reading stops and the object is not counted.
+     * @return number of objects consumed.
+     */
+    @Throws(IOException::class)
+    private inline fun readObjects(n: Int, sizeLimit: Long, offset: Int = 0, consumer: (ByteArray, Int) -> Boolean): Int {
+        require(offset >= 0) { "Cannot skip negative ($offset) number of objects." }
+        var curSize = 0L
+        var i = 0
+        var skip = headOffset + offset
+        var skipBlocks = 0
+        for (block in blocks) {
+            if (skip < block.count) break
+            skip -= block.count
+            skipBlocks++
+        }
+        val iter = queueFile.iterator(skipBlocks)
+        var isDone = false
+        while (!isDone && i < n && curSize < sizeLimit && iter.hasNext()) {
+            iter.next().use { input ->
+                val header = DataInputStream(input)
+                header.readLong()
+                val count = header.readInt()
+                inflater.reset()
+                val data = DataInputStream(InflaterInputStream(input, inflater))
+                var j = 0
+                while (!isDone && j < count && i < n && curSize < sizeLimit) {
+                    val length = data.readInt()
+                    if (objectBytes.size < length) {
+                        objectBytes = ByteArray(maxOf(length, objectBytes.size * 2))
+                    }
+                    data.readFully(objectBytes, 0, length)
+                    if (j >= skip) {
+                        curSize += length
+                        if ((curSize <= sizeLimit || i == 0) && consumer(objectBytes, length)) {
+                            i++
+                        } else {
+                            isDone = true
+                        }
+                    }
+                    j++
+                }
+            }
+            skip = 0
+        }
+        return i
+    }
+
+    @Throws(IOException::class)
+    override fun remove(n: Int) {
+        require(n >= 0) { "Cannot remove negative ($n) number of elements." }
+        if (n == 0) return
+        if (n > size) {
+            throw NoSuchElementException(
+                "Cannot remove more elements ($n) than present in queue ($size).")
+        }
+        var remaining = n
+        var numBlocks = 0
+        var offset = headOffset
+        for (block in blocks) {
+            val available = block.count - offset
+            if (remaining < available) {
+                offset += remaining
+                break
+            }
+            remaining -= available
+            numBlocks++
+            offset = 0
+            if (remaining == 0) break
+        }
+        if (numBlocks > 0) {
+            queueFile.remove(numBlocks)
+            repeat(numBlocks) { blocks.removeFirst() }
+        }
+        headOffset = offset
+        size -= n
+        writeOffset()
+    }
+
+    /**
+     * Close the queue. This also closes the backing file.
+     * @throws IOException if the file cannot be closed.
+     */
+    @Throws(IOException::class)
+    override fun close() {
+        try {
+            queueFile.close()
+        } finally {
+            offsetStorage.close()
+            deflater.end()
+            inflater.end()
+        }
+    }
+
+    private data class Block(val sequence: Long, val count: Int)
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(CompressedObjectQueue::class.java)
+
+        /** Length of the offset file contents. */
+        private const val OFFSET_LENGTH = 12L
+    }
+}
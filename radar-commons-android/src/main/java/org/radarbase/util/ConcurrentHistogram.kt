@@ -0,0 +1,111 @@
+package org.radarbase.util
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of non-negative values, with buckets that grow exponentially in width like
+ * in HdrHistogram. Values are stored with a relative precision of 1 / [SUB_BUCKET_HALF_COUNT], up
+ * to [MAX_VALUE]. Larger values are counted as [MAX_VALUE]. Recording values does not allocate
+ * and may be done from any thread.
+ */
+class ConcurrentHistogram {
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val sum = AtomicLong(0L)
+    private val max = AtomicLong(0L)
+
+    /** Record a single value. Negative values are counted as zero. */
+    fun record(value: Long) {
+        val boundedValue = value.coerceIn(0L, MAX_VALUE)
+        counts.incrementAndGet(indexOf(boundedValue))
+        sum.addAndGet(boundedValue)
+        var currentMax = max.get()
+        while (boundedValue > currentMax && !max.compareAndSet(currentMax, boundedValue)) {
+            currentMax = max.get()
+        }
+    }
+
+    /**
+     * Copy the current state. Values that are recorded concurrently may be missing from the
+     * sum or maximum while already being counted.
+     */
+    fun snapshot(): HistogramSnapshot {
+        val snapshotCounts = LongArray(BUCKET_COUNT) { counts.get(it) }
+        return HistogramSnapshot(snapshotCounts, sum.get(), max.get())
+    }
+
+    override fun toString(): String = "ConcurrentHistogram${snapshot()}"
+
+    /**
+     * Recorded values of a histogram at a single point in time.
+     * @param sum sum of all recorded values.
+     * @param max largest recorded value.
+     */
+    class HistogramSnapshot internal constructor(
+        private val counts: LongArray,
+        val sum: Long,
+        val max: Long,
+    ) {
+        /** Number of recorded values. */
+        val count: Long = counts.sum()
+
+        /** Mean of the recorded values, or 0 if none were recorded. */
+        val mean: Double
+            get() = if (count > 0) sum.toDouble() / count else 0.0
+
+        /**
+         * Highest value that is equivalent to the value at given percentile.
+         * @param percentile percentile between 0 and 100.
+         * @return value or 0 if no values were recorded.
+         */
+        fun percentile(percentile: Double): Long {
+            require(percentile in 0.0..100.0) { "Percentile $percentile must be between 0 and 100" }
+            if (count == 0L) return 0L
+            val rank = Math.ceil(percentile / 100.0 * count).toLong().coerceAtLeast(1L)
+            var cumulativeCount = 0L
+            for (i in counts.indices) {
+                cumulativeCount += counts[i]
+                if (cumulativeCount >= rank) {
+                    return highestEquivalentValue(i).coerceAtMost(max)
+                }
+            }
+            return max
+        }
+
+        override fun toString(): String = if (count == 0L) {
+            "[count=0]"
+        } else {
+            "[count=$count, mean=${"%.1f".format(mean)}, p50=${percentile(50.0)}, " +
+                "p90=${percentile(90.0)}, p99=${percentile(99.0)}, max=$max]"
+        }
+    }
+
+    companion object {
+        /** Number of bits that determines the precision of recorded values. */
+        private const val SUB_BUCKET_BITS = 5
+        /** Number of buckets per doubling of the value, above [SUB_BUCKET_HALF_COUNT] * 2. */
+        const val SUB_BUCKET_HALF_COUNT = 1 shl (SUB_BUCKET_BITS - 1)
+        /** Highest bit of the largest value that can be recorded. */
+        private const val MAX_VALUE_BIT = 40
+        /** Largest value that can be recorded, about 18 minutes in nanoseconds. */
+        const val MAX_VALUE = (1L shl (MAX_VALUE_BIT + 1)) - 1L
+        private const val BUCKET_COUNT = (MAX_VALUE_BIT - SUB_BUCKET_BITS + 3) * SUB_BUCKET_HALF_COUNT
+
+        internal fun indexOf(value: Long): Int {
+            if (value < 2 * SUB_BUCKET_HALF_COUNT) return value.toInt()
+            val shift = 63 - java.lang.Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1)
+            return shift * SUB_BUCKET_HALF_COUNT + (value ushr shift).toInt()
+        }
+
+        internal fun lowestEquivalentValue(index: Int): Long {
+            if (index < 2 * SUB_BUCKET_HALF_COUNT) return index.toLong()
+            val shift = index / SUB_BUCKET_HALF_COUNT - 1
+            return (index - shift * SUB_BUCKET_HALF_COUNT).toLong() shl shift
+        }
+
+        internal fun highestEquivalentValue(index: Int): Long {
+            val shift = if (index < 2 * SUB_BUCKET_HALF_COUNT) 0 else index / SUB_BUCKET_HALF_COUNT - 1
+            return lowestEquivalentValue(index) + (1L shl shift) - 1L
+        }
+    }
+}
@@ -128,6 +128,9 @@ class DirectQueueFileStorage(
         channel.force(false)
     }
 
+    /** Data is written to the channel directly, so there is no buffer to flush. */
+    override fun flushBuffer() = Unit
+
     @Throws(IOException::class)
     override fun write(position: Long, data: ByteBuffer, mayIgnoreBuffer: Boolean): Long {
         requireNotClosed()
@@ -0,0 +1,98 @@
+package org.radarbase.util
+
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * A file-based FIFO queue of binary elements. Elements are written with [elementOutputStream],
+ * read with [peek] or [iterator], and removed with [remove] once they are processed.
+ *
+ * **Implementations are not synchronized.**
+ */
+interface ElementQueue : Closeable, Iterable<InputStream> {
+    /** Number of elements in the queue. */
+    val size: Int
+
+    /** Whether the queue contains no elements. */
+    val isEmpty: Boolean
+        get() = size == 0
+
+    /** Number of bytes used by the elements and headers of the queue. */
+    val usedBytes: Long
+
+    /** Number of bytes used on disk. */
+    val fileSize: Long
+
+    /** Maximum number of bytes the queue may use. */
+    var maximumFileSize: Long
+
+    /**
+     * Maximum time in milliseconds that a commit may remain unsynchronized to disk. If this is
+     * zero or negative, every commit is synchronized immediately.
+     */
+    var syncDelay: Long
+
+    /**
+     * Maximum number of added or removed bytes that may remain unsynchronized to disk when
+     * [syncDelay] is set. If this is zero or negative, only [syncDelay] is used.
+     */
+    var syncBytes: Long
+
+    /** Whether there are commits that were not yet synchronized to disk. */
+    val isHeaderDirty: Boolean
+
+    /** Metrics to update when the storage is resized, if any. */
+    var metrics: PipelineMetrics.StorageMetrics?
+
+    /**
+     * Start adding elements to the end of the queue. The elements are committed when the
+     * stream is closed.
+     */
+    @Throws(IOException::class)
+    fun elementOutputStream(): ElementOutputStream
+
+    /** Returns an InputStream to read the eldest element. Returns null if the queue is empty. */
+    @Throws(IOException::class)
+    fun peek(): InputStream?
+
+    /**
+     * Returns an iterator over elements in this queue, starting at element [startIndex].
+     * The iterator disallows modifications to be made to the queue during iteration.
+     */
+    fun iterator(startIndex: Int): Iterator<InputStream>
+
+    /**
+     * Removes the eldest [n] elements.
+     * @throws NoSuchElementException if more than the available elements are requested to be removed
+     */
+    @Throws(IOException::class)
+    fun remove(n: Int)
+
+    /** Removes all elements. */
+    @Throws(IOException::class)
+    fun clear()
+
+    /**
+     * Synchronize any pending commits to disk.
+     * @throws IOException if the storage cannot be written to.
+     */
+    @Throws(IOException::class)
+    fun sync()
+}
+
+/**
+ * An OutputStream that can write multiple elements to an [ElementQueue]. After finished writing
+ * one element, call [next] to start writing the next. Closing the stream commits all elements
+ * written to it.
+ */
+abstract class ElementOutputStream : OutputStream() {
+    /**
+     * Proceed writing the next element. Zero length elements are not written, so always write
+     * at least one byte to store an element.
+     * @throws IOException if the storage cannot be written to
+     */
+    @Throws(IOException::class)
+    abstract operator fun next()
+}
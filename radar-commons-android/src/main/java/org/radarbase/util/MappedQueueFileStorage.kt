@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarbase.util
+
+import org.radarbase.util.IO.requireIO
+import org.radarbase.util.QueueFileHeader.Companion.QUEUE_HEADER_LENGTH
+import org.radarbase.util.QueueStorage.Companion.withAvailable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * A storage backend for a QueueFile that memory-maps the file. The file is mapped in regions of
+ * [regionSize] bytes, which are only mapped once they are accessed. Reads and writes are then
+ * plain memory copies instead of system calls. Unlike [DirectQueueFileStorage], this storage does
+ * not benefit from being wrapped in a [BufferedQueueStorage].
+ *
+ * @param file file to use
+ * @param initialLength initial length if the file does not exist.
+ * @param maximumLength maximum length that the file may have.
+ * @param regionSize size of a single mapped region in bytes. Must be a multiple of
+ *                   [MINIMUM_LENGTH].
+ * @throws IllegalArgumentException if the initialLength or maximumLength is smaller than
+ *                                  [MINIMUM_LENGTH].
+ * @throws IOException if the file could not be accessed or was smaller than
+ *                     `QueueFileHeader.QUEUE_HEADER_LENGTH`
+ */
+class MappedQueueFileStorage(
+    private val file: File,
+    initialLength: Long,
+    maximumLength: Long,
+    private val regionSize: Int = DEFAULT_REGION_SIZE,
+) : QueueStorage {
+    private val randomAccessFile: RandomAccessFile
+    private val channel: FileChannel
+
+    /** Mapped regions of the file, indexed by position / [regionSize]. */
+    private var regions: Array<MappedByteBuffer?> = emptyArray()
+
+    /** Regions that were written to since the last flush. */
+    private var dirtyRegions: BooleanArray = BooleanArray(0)
+
+    override var isClosed: Boolean = false
+        private set
+
+    override val isPreExisting: Boolean = file.exists()
+
+    /** File size in bytes.  */
+    override var length: Long = 0L
+        private set
+
+    override val minimumLength: Long = MINIMUM_LENGTH
+
+    override var maximumLength: Long = maximumLength
+        set(value) {
+            require(value <= Int.MAX_VALUE) {
+                "Maximum cache size out of range $value <= ${Int.MAX_VALUE}"
+            }
+            field = value.coerceAtLeast(MINIMUM_LENGTH)
+        }
+
+    init {
+        require(regionSize > 0 && regionSize % MINIMUM_LENGTH == 0L) { "Region size $regionSize must be a positive multiple of $MINIMUM_LENGTH" }
+        require(initialLength >= minimumLength) { "Initial length $initialLength is smaller than minimum length $minimumLength" }
+        require(maximumLength <= Int.MAX_VALUE) { "Maximum cache size out of range $maximumLength <= ${Int.MAX_VALUE}" }
+        require(initialLength <= maximumLength) { "Initial length $initialLength exceeds maximum length $maximumLength" }
+
+        randomAccessFile = RandomAccessFile(file, "rw")
+        length = if (isPreExisting) {
+            randomAccessFile.length()
+                .also { requireIO(it >= QUEUE_HEADER_LENGTH) { "File length $it of $file is smaller than queue header length $QUEUE_HEADER_LENGTH" } }
+        } else {
+            randomAccessFile.setLength(initialLength)
+            initialLength
+        }
+        channel = randomAccessFile.channel
+        resetRegions()
+    }
+
+    /** Drop all mappings and prepare the region table for the current [length]. */
+    private fun resetRegions() {
+        val numRegions = ((length + regionSize - 1) / regionSize).toInt()
+        regions = arrayOfNulls(numRegions)
+        dirtyRegions = BooleanArray(numRegions)
+    }
+
+    /**
+     * Get the region containing [position], mapping it if needed. The returned buffer is a
+     * duplicate positioned at [position] so that concurrent callers do not share buffer state.
+     */
+    @Throws(IOException::class)
+    private fun regionAt(position: Long): ByteBuffer {
+        val index = (position / regionSize).toInt()
+        val region = regions[index] ?: run {
+            val regionStart = index.toLong() * regionSize
+            val regionLength = (length - regionStart).coerceAtMost(regionSize.toLong())
+            channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionLength)
+                .also { regions[index] = it }
+        }
+        return region.duplicate().apply {
+            position((position - index.toLong() * regionSize).toInt())
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun read(position: Long, data: ByteBuffer): Long {
+        requireNotClosed()
+        require(position >= 0) { "Read position $position in storage $this must be positive." }
+        require(position < length)  { "Read position $position in storage $this must be less than length $length." }
+
+        val region = regionAt(position)
+        val numRead = region.withAvailable(data.remaining().toLong()) {
+            val count = it.remaining()
+            data.put(it)
+            count
+        }
+        return wrapPosition(position + numRead)
+    }
+
+    /**
+     * View of the bytes in a mapped region. Returns null if the bytes wrap around the end of the
+     * storage or span multiple regions.
+     */
+    @Throws(IOException::class)
+    override fun slice(position: Long, count: Int): ByteBuffer? {
+        requireNotClosed()
+        require(position >= 0) { "Slice position $position in storage $this must be positive." }
+        require(count >= 0) { "Slice count $count in storage $this must be positive." }
+
+        val end = position + count
+        if (end > length || (end - 1) / regionSize != position / regionSize) return null
+        val region = regionAt(position)
+        region.limit(region.position() + count)
+        return region.asReadOnlyBuffer()
+    }
+
+    @Throws(IOException::class)
+    override fun write(position: Long, data: ByteBuffer, mayIgnoreBuffer: Boolean): Long {
+        requireNotClosed()
+        require(position >= 0) { "Write position $position in storage $this must be positive." }
+        require(position < length)  { "Write position $position in storage $this must be less than length $length." }
+
+        val region = regionAt(position)
+        val numWritten = data.withAvailable(region.remaining().toLong()) {
+            val count = it.remaining()
+            region.put(it)
+            count
+        }
+        dirtyRegions[(position / regionSize).toInt()] = true
+        return wrapPosition(position + numWritten)
+    }
+
+    /**
+     * Move data within the mapped file. Data is copied in memory, one contiguous region span at
+     * a time. If the source and destination overlap with the destination after the source, the
+     * data is copied back to front so that it is not overwritten before it is read.
+     */
+    @Throws(IOException::class)
+    override fun move(srcPosition: Long, dstPosition: Long, count: Long) {
+        requireNotClosed()
+        require(srcPosition >= 0
+                && dstPosition >= 0
+                && count > 0
+                && srcPosition + count <= length
+                && dstPosition + count <= length
+        ) {
+            "Movement specification src=$srcPosition, count=$count, dst=$dstPosition is invalid for storage $this"
+        }
+        if (srcPosition == dstPosition) return
+
+        val backwards = dstPosition > srcPosition && dstPosition < srcPosition + count
+        var remaining = count
+        while (remaining > 0) {
+            val chunk = if (backwards) {
+                val srcEnd = srcPosition + remaining
+                val dstEnd = dstPosition + remaining
+                minOf(
+                    remaining,
+                    srcEnd - ((srcEnd - 1) / regionSize) * regionSize,
+                    dstEnd - ((dstEnd - 1) / regionSize) * regionSize,
+                )
+            } else {
+                val offset = count - remaining
+                minOf(
+                    remaining,
+                    regionSize - (srcPosition + offset) % regionSize,
+                    regionSize - (dstPosition + offset) % regionSize,
+                )
+            }
+            val offset = if (backwards) remaining - chunk else count - remaining
+            val src = regionAt(srcPosition + offset)
+            src.limit(src.position() + chunk.toInt())
+            val dst = regionAt(dstPosition + offset)
+            dst.put(src)
+            dirtyRegions[((dstPosition + offset) / regionSize).toInt()] = true
+            remaining -= chunk
+        }
+    }
+
+    /** Sets the length of the file.  */
+    @Throws(IOException::class)
+    override fun resize(size: Long) {
+        requireNotClosed()
+        if (size == length) {
+            return
+        }
+        require(size <= length || size <= maximumLength) {
+            "New length $size of $this exceeds maximum length $maximumLength"
+        }
+        require(size >= minimumLength) {
+            "New length $size of $this is less than minimum length $QUEUE_HEADER_LENGTH"
+        }
+        flush()
+        // Mappings cannot be resized; they are dropped and remapped on demand.
+        regions.fill(null)
+        randomAccessFile.setLength(size)
+        channel.force(true)
+        length = size
+        resetRegions()
+    }
+
+    @Throws(IOException::class)
+    override fun flush() {
+        for (i in dirtyRegions.indices) {
+            if (dirtyRegions[i]) {
+                regions[i]?.force()
+                dirtyRegions[i] = false
+            }
+        }
+    }
+
+    /** Data is written to the page cache directly, so there is no buffer to flush. */
+    override fun flushBuffer() = Unit
+
+    @Throws(IOException::class)
+    private fun requireNotClosed() {
+        requireIO(!isClosed) { "Queue storage $this is already closed." }
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        if (isClosed) return
+        try {
+            flush()
+        } finally {
+            isClosed = true
+            regions = emptyArray()
+            dirtyRegions = BooleanArray(0)
+            channel.close()
+            randomAccessFile.close()
+        }
+    }
+
+    override fun toString() = "MappedQueueFileStorage<${file.name}>[length=$length]"
+
+    companion object {
+        /** Initial file size in bytes.  */
+        const val MINIMUM_LENGTH = DirectQueueFileStorage.MINIMUM_LENGTH
+
+        /** Default size of a mapped region. */
+        const val DEFAULT_REGION_SIZE = 8 * 1024 * 1024
+    }
+}
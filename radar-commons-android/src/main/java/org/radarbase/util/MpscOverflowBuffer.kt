@@ -0,0 +1,66 @@
+package org.radarbase.util
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Unbounded buffer for multiple producers and a single consumer, that never blocks its
+ * producers. Elements are added to an [MpscRingBuffer] while it has space. When it is full, they
+ * are added to an overflow queue instead, and later elements follow them there until the
+ * consumer has emptied the overflow queue. The consumer takes the elements of each producer in
+ * the order that they were added.
+ *
+ * @param capacity minimum number of elements that the ring buffer can hold. It is rounded up to
+ *                 a power of two.
+ */
+class MpscOverflowBuffer<T: Any>(capacity: Int) {
+    private val ring = MpscRingBuffer<T>(capacity)
+    private val overflow = ConcurrentLinkedQueue<T>()
+
+    /** Number of elements that the ring buffer can hold. */
+    val capacity: Int
+        get() = ring.capacity
+
+    /** Whether elements were added to the overflow queue and not yet taken by the consumer. */
+    val isOverflowing: Boolean
+        get() = !overflow.isEmpty()
+
+    /**
+     * Approximate number of elements in the ring buffer. While the buffer is overflowing, this is
+     * the [capacity].
+     */
+    val size: Int
+        get() = if (isOverflowing) ring.capacity else ring.size
+
+    /**
+     * Add an element to the buffer. This may be called from any thread, and does not block.
+     */
+    fun add(element: T) {
+        if (!overflow.isEmpty() || !ring.offer(element)) {
+            overflow.add(element)
+        }
+    }
+
+    /**
+     * Take all elements from the buffer. This may only be called from a single consumer thread
+     * at a time.
+     * @return number of elements taken.
+     */
+    fun drain(consumer: (T) -> Unit): Int {
+        var count = ring.drain(consumer)
+        while (overflow.peek() != null) {
+            // Elements in the ring buffer were added before the first overflow element. Producers
+            // do not add to the ring buffer while the overflow queue is not empty, so this only
+            // waits for elements that are claimed but not yet published.
+            while (ring.size > 0) {
+                val numTaken = ring.drain(consumer)
+                if (numTaken == 0) {
+                    Thread.yield()
+                }
+                count += numTaken
+            }
+            consumer(overflow.poll() ?: break)
+            count++
+        }
+        return count
+    }
+}
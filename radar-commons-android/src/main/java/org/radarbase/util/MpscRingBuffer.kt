@@ -0,0 +1,84 @@
+package org.radarbase.util
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Bounded lock-free ring buffer for multiple producers and a single consumer. Producers claim a
+ * slot by advancing the tail and then publish their element in it. The consumer takes published
+ * elements from the head, and stops at the first slot that is claimed but not yet published.
+ *
+ * @param capacity minimum number of elements that the buffer can hold. It is rounded up to a
+ *                 power of two.
+ */
+class MpscRingBuffer<T: Any>(capacity: Int) {
+    /** Number of elements that the buffer can hold. */
+    val capacity: Int
+
+    private val mask: Int
+    private val slots: AtomicReferenceArray<T?>
+    private val tail = AtomicLong(0L)
+
+    /** Position of the next element to take. Only written by the consumer. */
+    @Volatile
+    private var head = 0L
+
+    init {
+        require(capacity in 1 .. MAXIMUM_CAPACITY) { "Capacity $capacity must be between 1 and $MAXIMUM_CAPACITY" }
+        this.capacity = if (capacity == 1) 1 else Integer.highestOneBit(capacity - 1) shl 1
+        mask = this.capacity - 1
+        slots = AtomicReferenceArray(this.capacity)
+    }
+
+    /** Approximate number of elements in the buffer. */
+    val size: Int
+        get() = (tail.get() - head).toInt().coerceIn(0, capacity)
+
+    /**
+     * Add an element to the buffer. This may be called from any thread.
+     * @return true if the element was added, false if the buffer is full.
+     */
+    fun offer(element: T): Boolean {
+        var position: Long
+        do {
+            position = tail.get()
+            if (position - head >= capacity) return false
+        } while (!tail.compareAndSet(position, position + 1))
+        slots.lazySet((position and mask.toLong()).toInt(), element)
+        return true
+    }
+
+    /**
+     * Take all published elements from the buffer. This may only be called from a single
+     * consumer thread at a time.
+     * @return number of elements taken.
+     */
+    inline fun drain(consumer: (T) -> Unit): Int {
+        var count = 0
+        while (true) {
+            val element = poll() ?: break
+            consumer(element)
+            count++
+        }
+        return count
+    }
+
+    /**
+     * Take the first element from the buffer. This may only be called from a single
+     * consumer thread at a time.
+     * @return the first element or null if the buffer is empty or the first element is not
+     *         published yet.
+     */
+    fun poll(): T? {
+        val position = head
+        val index = (position and mask.toLong()).toInt()
+        val element = slots.get(index) ?: return null
+        slots.lazySet(index, null)
+        head = position + 1
+        return element
+    }
+
+    companion object {
+        const val MAXIMUM_CAPACITY = 1 shl 30
+    }
+}
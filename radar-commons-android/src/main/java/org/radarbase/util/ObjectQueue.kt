@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarbase.util
+
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * A queue of objects that is backed by a file storage.
+ * @param <S> type of objects to store.
+ * @param <T> type of objects to retrieve.
+ */
+interface ObjectQueue<S, T> : Closeable {
+    /** Returns `true` if this queue contains no entries.  */
+    val isEmpty: Boolean
+        get() = size == 0
+
+    /** Number of objects in the queue.  */
+    val size: Int
+
+    /**
+     * Add a new object to the queue.
+     * @param entry object to add
+     * @throws IOException if the backing file cannot be accessed, or the object
+     * cannot be converted.
+     * @throws IllegalArgumentException if given entry is not a valid object for serialization.
+     * @throws IllegalStateException if the queue is full
+     */
+    @Throws(IOException::class)
+    fun add(entry: S)
+
+    operator fun plusAssign(entry: S) = add(entry)
+
+    /**
+     * Add a collection of new objects to the queue.
+     * @param entries objects to add
+     * @throws IOException if the backing file cannot be accessed or the object
+     * cannot be converted.
+     * @throws IllegalArgumentException if given entry is not a valid object for serialization.
+     * @throws IllegalStateException if the queue is full
+     */
+    @Throws(IOException::class)
+    fun addAll(entries: Collection<S>)
+
+    operator fun plusAssign(entries: Collection<S>) = addAll(entries)
+
+    /**
+     * Add objects to the queue that are serialized by given writer instead of by the queue
+     * serializer.
+     * @param count number of objects to add
+     * @param writer writes object with given index to given output.
+     * @throws IOException if the backing file cannot be accessed or the object
+     * cannot be written.
+     * @throws IllegalStateException if the queue is full
+     */
+    @Throws(IOException::class)
+    fun addAllSerialized(count: Int, writer: (index: Int, output: OutputStream) -> Unit)
+
+    /**
+     * Get the front-most object in the queue. This does not remove the object.
+     * @return front-most object or null if none is available
+     * @throws IOException if the object could not be read or deserialized
+     * @throws IllegalStateException if the object that was read was invalid.
+     */
+    @Throws(IOException::class)
+    fun peek(): T?
+
+    /**
+     * Get at most `n` front-most objects in the queue. This does not remove the objects.
+     * Objects that were found to be invalid according to the current schema are logged. This
+     * method will try to read at least one object. After that, no more than `n` objects are
+     * read, and their collective serialized size is no larger than `sizeLimit`.
+     * @param n number of objects to retrieve at most.
+     * @param sizeLimit limit for the size of read data.
+     * @return list of objects, with at most `n` objects.
+     * @throws IOException if the object could not be read or deserialized
+     * @throws IllegalStateException if the object could not be read
+     */
+    @Throws(IOException::class)
+    fun peek(n: Int, sizeLimit: Long): List<T?> = peek(n, sizeLimit, 0)
+
+    /**
+     * Get at most `n` objects in the queue, after skipping the first [offset] objects. Otherwise
+     * this behaves like [peek].
+     * @param offset number of front-most objects to skip.
+     * @return list of objects, with at most `n` objects. This is empty if there are no more than
+     *         [offset] objects in the queue.
+     * @throws IOException if the object could not be read or deserialized
+     * @throws IllegalStateException if the object could not be read
+     */
+    @Throws(IOException::class)
+    fun peek(n: Int, sizeLimit: Long, offset: Int): List<T?>
+
+    /**
+     * Get at most `n` objects in the queue, after skipping the first [offset] objects, reusing
+     * the objects of a previous batch. Otherwise this behaves like [peek]. The objects in
+     * [reuse] are overwritten by the objects that are read, so the caller must no longer use
+     * them. By default, the objects themselves are not reused.
+     * @param reuse list of objects of a previous batch, which is cleared and then filled with
+     *              the objects that are read.
+     * @return [reuse], with at most `n` objects.
+     * @throws IOException if the object could not be read or deserialized
+     * @throws IllegalStateException if the object could not be read
+     */
+    @Throws(IOException::class)
+    fun peek(n: Int, sizeLimit: Long, offset: Int, reuse: MutableList<T?>): List<T?> {
+        val results = peek(n, sizeLimit, offset)
+        reuse.clear()
+        reuse.addAll(results)
+        return reuse
+    }
+
+    /**
+     * Read at most `n` front-most objects in the queue in their serialized form, without
+     * deserializing them. This does not remove the objects. Like [peek], at least one object
+     * is read, and after that, no more than `n` objects with a collective serialized size no
+     * larger than `sizeLimit`.
+     * @param consumer reads a single serialized object from the given input. If it returns
+     *                 false, reading stops and the object is not counted.
+     * @return number of objects consumed.
+     * @throws IOException if the object could not be read
+     * @throws IllegalStateException if the object could not be read
+     */
+    @Throws(IOException::class)
+    fun peekRaw(n: Int, sizeLimit: Long, consumer: (InputStream) -> Boolean): Int = peekRaw(n, sizeLimit, 0, consumer)
+
+    /**
+     * Read at most `n` objects in their serialized form, after skipping the first [offset]
+     * objects. Otherwise this behaves like [peekRaw].
+     * @param offset number of front-most objects to skip.
+     * @return number of objects consumed.
+     * @throws IOException if the object could not be read
+     * @throws IllegalStateException if the object could not be read
+     */
+    @Throws(IOException::class)
+    fun peekRaw(n: Int, sizeLimit: Long, offset: Int, consumer: (InputStream) -> Boolean): Int
+
+    /**
+     * Remove the first `n` objects from the queue.
+     *
+     * @throws IOException when the objects could not be removed
+     * @throws NoSuchElementException if more than the available objects are requested to be removed
+     */
+    @Throws(IOException::class)
+    fun remove(n: Int = 1)
+
+    operator fun minusAssign(n: Int) = remove(n)
+}
@@ -0,0 +1,214 @@
+package org.radarbase.util
+
+import org.radarbase.util.ConcurrentHistogram.HistogramSnapshot
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Registry of metrics of the data path, from adding records to a cache, storing them in a queue
+ * file, to uploading them to the server. Metrics can be updated from any thread without locking
+ * and, once a topic is registered, without allocating. Callers on a hot path should keep the
+ * result of [topic] instead of looking it up for each update.
+ *
+ * Use [instance] to access the metrics of the application.
+ */
+class PipelineMetrics {
+    private val topics = ConcurrentHashMap<String, TopicMetrics>()
+
+    /** Metrics of the server connection. */
+    val connection = ConnectionMetrics()
+
+    /** Get the metrics of a topic, registering it if needed. */
+    fun topic(name: String): TopicMetrics = topics[name]
+        ?: topics.computeIfAbsent(name) { TopicMetrics(it) }
+
+    /** Get the current values of all metrics. */
+    fun snapshot(): Snapshot = Snapshot(
+        time = System.currentTimeMillis(),
+        topics = topics.mapValues { (_, metrics) -> metrics.snapshot() },
+        connection = connection.snapshot(),
+    )
+
+    override fun toString(): String = "PipelineMetrics<topics=${topics.keys}>"
+
+    /** Metrics of a single topic. */
+    class TopicMetrics internal constructor(val name: String) {
+        private val recordsAdded = LongAdder()
+        private val recordsFlushed = LongAdder()
+        private val bytesFlushed = LongAdder()
+        private val flushDuration = ConcurrentHistogram()
+        private val readDuration = ConcurrentHistogram()
+        private val uploadBatchSize = ConcurrentHistogram()
+        private val requestDuration = ConcurrentHistogram()
+        private val recordsSent = LongAdder()
+        private val uploadFailures = LongAdder()
+
+        /** Metrics of the queue file that stores the topic. */
+        val storage = StorageMetrics()
+
+        /** Records were added to the cache. */
+        fun added(numRecords: Int) = recordsAdded.add(numRecords.toLong())
+
+        /**
+         * Records were written from memory to the queue file.
+         * @param duration duration of the write in nanoseconds.
+         */
+        fun flushed(numRecords: Int, numBytes: Long, duration: Long) {
+            recordsFlushed.add(numRecords.toLong())
+            bytesFlushed.add(numBytes)
+            flushDuration.record(duration)
+        }
+
+        /**
+         * The uploader waited for records to be read and deserialized from the cache.
+         * @param duration duration of the wait in nanoseconds.
+         */
+        fun read(duration: Long) = readDuration.record(duration)
+
+        /**
+         * A batch of records was uploaded.
+         * @param duration duration of the request in nanoseconds.
+         */
+        fun uploaded(numRecords: Int, duration: Long, isSuccessful: Boolean) {
+            uploadBatchSize.record(numRecords.toLong())
+            requestDuration.record(duration)
+            if (isSuccessful) {
+                recordsSent.add(numRecords.toLong())
+            } else {
+                uploadFailures.increment()
+            }
+        }
+
+        fun snapshot() = TopicSnapshot(
+            recordsAdded = recordsAdded.sum(),
+            recordsFlushed = recordsFlushed.sum(),
+            bytesFlushed = bytesFlushed.sum(),
+            flushDuration = flushDuration.snapshot(),
+            storage = storage.snapshot(),
+            readDuration = readDuration.snapshot(),
+            uploadBatchSize = uploadBatchSize.snapshot(),
+            requestDuration = requestDuration.snapshot(),
+            recordsSent = recordsSent.sum(),
+            uploadFailures = uploadFailures.sum(),
+        )
+
+        override fun toString(): String = "TopicMetrics<$name>"
+    }
+
+    /** Metrics of a queue file. */
+    class StorageMetrics internal constructor() {
+        private val growths = LongAdder()
+        private val truncations = LongAdder()
+        private val bytesMoved = LongAdder()
+
+        /** The storage was grown, moving [numBytes] bytes to make the ring buffer contiguous. */
+        fun grown(numBytes: Long) {
+            growths.increment()
+            bytesMoved.add(numBytes)
+        }
+
+        /** The storage was truncated. */
+        fun truncated() = truncations.increment()
+
+        fun snapshot() = StorageSnapshot(
+            growths = growths.sum(),
+            truncations = truncations.sum(),
+            bytesMoved = bytesMoved.sum(),
+        )
+    }
+
+    /** Metrics of the server connection. */
+    class ConnectionMetrics internal constructor() {
+        private val connects = LongAdder()
+        private val disconnects = LongAdder()
+        private val lastChange = AtomicLong(0L)
+
+        @Volatile
+        private var isConnected = false
+
+        /** The server was connected after being disconnected. */
+        fun connected() = update(isConnected = true, counter = connects)
+
+        /** The server was disconnected after being connected. */
+        fun disconnected() = update(isConnected = false, counter = disconnects)
+
+        private fun update(isConnected: Boolean, counter: LongAdder) {
+            this.isConnected = isConnected
+            counter.increment()
+            lastChange.set(System.currentTimeMillis())
+        }
+
+        fun snapshot() = ConnectionSnapshot(
+            isConnected = isConnected,
+            connects = connects.sum(),
+            disconnects = disconnects.sum(),
+            lastChange = lastChange.get(),
+        )
+    }
+
+    /**
+     * Values of all metrics at a single point in time.
+     * @param time time of the snapshot in milliseconds since the Unix Epoch.
+     */
+    data class Snapshot(
+        val time: Long,
+        val topics: Map<String, TopicSnapshot>,
+        val connection: ConnectionSnapshot,
+    )
+
+    /**
+     * Values of the metrics of a single topic. Durations are in nanoseconds.
+     * @param recordsAdded number of records added to the cache.
+     * @param recordsFlushed number of records written to the queue file.
+     * @param bytesFlushed number of bytes written to the queue file.
+     * @param flushDuration duration of writing records to the queue file.
+     * @param readDuration time the uploader waited for records to be read from the cache.
+     * @param uploadBatchSize number of records per upload request.
+     * @param requestDuration duration of upload requests.
+     * @param recordsSent number of records that were successfully uploaded.
+     * @param uploadFailures number of failed upload requests.
+     */
+    data class TopicSnapshot(
+        val recordsAdded: Long,
+        val recordsFlushed: Long,
+        val bytesFlushed: Long,
+        val flushDuration: HistogramSnapshot,
+        val storage: StorageSnapshot,
+        val readDuration: HistogramSnapshot,
+        val uploadBatchSize: HistogramSnapshot,
+        val requestDuration: HistogramSnapshot,
+        val recordsSent: Long,
+        val uploadFailures: Long,
+    )
+
+    /**
+     * Values of the metrics of a queue file.
+     * @param growths number of times the storage was grown.
+     * @param truncations number of times the storage was truncated.
+     * @param bytesMoved number of bytes moved while growing the storage.
+     */
+    data class StorageSnapshot(
+        val growths: Long,
+        val truncations: Long,
+        val bytesMoved: Long,
+    )
+
+    /**
+     * Values of the metrics of the server connection.
+     * @param lastChange time of the last connection change in milliseconds since the Unix Epoch,
+     *                   or 0 if it did not change.
+     */
+    data class ConnectionSnapshot(
+        val isConnected: Boolean,
+        val connects: Long,
+        val disconnects: Long,
+        val lastChange: Long,
+    )
+
+    companion object {
+        /** Metrics of the application. */
+        @JvmStatic
+        val instance = PipelineMetrics()
+    }
+}
@@ -19,7 +19,6 @@ package org.radarbase.util
 import org.radarbase.util.IO.requireIO
 import org.radarbase.util.QueueFileHeader.Companion.QUEUE_HEADER_LENGTH
 import org.slf4j.LoggerFactory
-import java.io.Closeable
 import java.io.File
 import java.io.IOException
 import java.io.InputStream
@@ -28,12 +27,20 @@ import java.util.*
 import java.util.concurrent.atomic.AtomicInteger
 
 /**
- * An efficient, file-based, FIFO queue. Additions and removals are O(1). Writes are
+ * An efficient, file-based, FIFO queue. Additions and removals are O(1). By default, writes are
  * synchronous; data will be written to disk before an operation returns.
  * The underlying file is structured to survive process and even system crashes. If an I/O
  * exception is thrown during a mutating change, the change is aborted. It is safe to continue to
  * use a `QueueFile` instance after an exception.
  *
+ * If [syncDelay] is set, the queue uses group commits instead: the header is only written and
+ * synchronized to disk at most every [syncDelay] milliseconds or [syncBytes] bytes, and
+ * whenever the storage is resized, moved or cleared. At each synchronization point, data is
+ * synchronized before the header that refers to it is written, so the header on disk is always
+ * a consistent, checksummed snapshot of an earlier committed state. After a crash, the queue
+ * simply reopens at that snapshot; commits since the last synchronization point are lost.
+ * Space freed by unsynchronized removals is not reused before the removal is synchronized.
+ *
  *
  * **Note that this implementation is not synchronized.**
  *
@@ -44,14 +51,28 @@ import java.util.concurrent.atomic.AtomicInteger
  * successful processing. If the system crashes after [peek] and during processing, the
  * element will remain in the queue, to be processed when the system restarts.
  *
+ * If [indexInterval] is set, the position of every [indexInterval]th element is kept in a sparse
+ * [QueueFileIndex]. Removing or skipping many elements then only reads the headers of at most
+ * [indexInterval] elements, instead of all of them. The index is stored in [indexFile] when the
+ * queue is closed. If it is missing or out of date when the queue is opened, it is rebuilt while
+ * elements are read.
+ *
  * This class is an adaptation of com.squareup.tape2, allowing multi-element writes. It also
  * removes legacy support.
  *
+ * @param indexFile file to store the element index in when closing the queue.
+ * @param indexInterval number of elements between element index entries, or 0 to disable the
+ *                      element index.
+ *
  * @author Bob Lee (bob@squareup.com)
  * @author Joris Borgdorff (joris@thehyve.nl)
  */
 class QueueFile @Throws(IOException::class)
-constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream> {
+constructor(
+    private val storage: QueueStorage,
+    private val indexFile: File? = null,
+    indexInterval: Int = 0,
+) : ElementQueue {
     /**
      * The underlying file. Uses a ring buffer to store entries. Designed so that a modification
      * isn't committed or visible until we write the header. The header is much smaller than a
@@ -80,11 +101,11 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
     private val header: QueueFileHeader = QueueFileHeader(storage)
 
     /** Returns the number of elements in this queue.  */
-    val size: Int
+    override val size: Int
         get() = header.count
 
     /** File size in bytes  */
-    val fileSize: Long
+    override val fileSize: Long
         get() = header.length
 
     /** Pointer to first (or eldest) element.  */
@@ -102,16 +123,62 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
 
     private val elementHeaderBuffer = ByteBuffer.allocate(QueueFileElement.ELEMENT_HEADER_LENGTH)
 
+    /** Sparse index of element positions, or null if disabled. */
+    private var index: QueueFileIndex? = null
+
+    /** Sequence number of the first element, as counted by [index]. */
+    private val headSequence: Long
+        get() = index?.headSequence ?: 0L
+
     /** Returns true if this queue contains no entries.  */
-    val isEmpty: Boolean
+    override val isEmpty: Boolean
         get() = size == 0
 
-    var maximumFileSize: Long
+    /** Maximum file size. This is limited to [MAXIMUM_FILE_SIZE]. */
+    override var maximumFileSize: Long
         get() = storage.maximumLength
         set(newSize) {
-            storage.maximumLength = newSize
+            storage.maximumLength = newSize.coerceAtMost(MAXIMUM_FILE_SIZE)
         }
 
+    /**
+     * Maximum time in milliseconds that a commit may remain unsynchronized to disk. If this is
+     * zero or negative, every commit is synchronized immediately.
+     */
+    override var syncDelay: Long = 0L
+
+    /**
+     * Maximum number of added or removed bytes that may remain unsynchronized to disk when
+     * [syncDelay] is set. If this is zero or negative, only [syncDelay] is used.
+     */
+    override var syncBytes: Long = 0L
+
+    /** Metrics to update when the storage is resized, if any. */
+    override var metrics: PipelineMetrics.StorageMetrics? = null
+
+    /** Whether the in-memory header has changes that were not yet written to disk. */
+    override var isHeaderDirty: Boolean = false
+        private set
+
+    /** Whether data was written since the last synchronization. */
+    private var hasUnsyncedData: Boolean = false
+
+    /** Whether elements were removed since the last synchronization. */
+    private var hasUnsyncedRemoval: Boolean = false
+
+    /**
+     * Position of the first element in the header on disk, or 0 if that header has no elements.
+     * Space from there up to the current first element was freed by removals that are not
+     * synchronized yet, so it may not be overwritten until they are.
+     */
+    private var syncedFirstPosition: Long = 0L
+
+    /** Number of bytes added or removed since the last synchronization. */
+    private var unsyncedBytes: Long = 0L
+
+    /** Time of the last synchronization, as given by [System.nanoTime]. */
+    private var lastSyncTime: Long = System.nanoTime()
+
     init {
         try {
             if (header.length < storage.length) {
@@ -123,6 +190,17 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
                 ?.let { firstElements += it }
 
             last = readElement(storage.wrapPosition(header.lastPosition))
+            syncedFirstPosition = if (header.count > 0) header.firstPosition else 0L
+
+            if (indexInterval > 0) {
+                val index = indexFile?.let { QueueFileIndex.load(it, indexInterval, header) }
+                    ?: QueueFileIndex(indexInterval)
+                firstElements.firstOrNull()?.let { index.add(index.headSequence, it.position) }
+                this.index = index
+            } else {
+                // an index would be out of date once this queue is modified
+                indexFile?.delete()
+            }
         } catch (ex: IllegalArgumentException) {
             throw IOException("Cannot initialize queue with header $header", ex)
         }
@@ -156,6 +234,8 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
                     + "QueueFile is corrupt.",
                 elementToUpdate, elementToUpdate.crc, crc)
 
+            // do not store an index of a corrupt queue
+            index = null
             close()
             throw IOException("Element is not correct; queue file is corrupted")
         }
@@ -179,13 +259,31 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
      * Adds an element to the end of the queue.
      */
     @Throws(IOException::class)
-    fun elementOutputStream(): QueueFileOutputStream {
+    override fun elementOutputStream(): QueueFileOutputStream {
         requireNotClosed()
+        // forget index entries of a previous stream that was not committed
+        index?.removeFrom(headSequence + header.count)
         return QueueFileOutputStream(this, header, storage, last.nextPosition)
     }
 
+    /**
+     * Number of bytes freed by removals that are not synchronized yet. The header on disk may
+     * still refer to them, so they are reserved until the next synchronization.
+     */
+    internal val unsyncedRemovedBytes: Long
+        get() {
+            if (!hasUnsyncedRemoval || syncedFirstPosition == 0L || isEmpty) return 0L
+            val firstPosition = header.firstPosition
+            return if (firstPosition >= syncedFirstPosition) {
+                firstPosition - syncedFirstPosition
+            } else {
+                // the removed elements wrap around the end of the file
+                header.length - syncedFirstPosition + firstPosition - QUEUE_HEADER_LENGTH
+            }
+        }
+
     /** Number of bytes used in the file.  */
-    val usedBytes: Long
+    override val usedBytes: Long
         get() {
             if (isEmpty) {
                 return QUEUE_HEADER_LENGTH
@@ -202,7 +300,7 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
 
     /** Returns an InputStream to read the eldest element. Returns null if the queue is empty.  */
     @Throws(IOException::class)
-    fun peek(): InputStream? {
+    override fun peek(): InputStream? {
         requireNotClosed()
         return if (!isEmpty) QueueFileInputStream(firstElements.first, storage, modCount) else null
     }
@@ -215,6 +313,15 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
      */
     override fun iterator(): Iterator<InputStream> = ElementIterator()
 
+    /**
+     * Returns an iterator over elements in this QueueFile, starting at element [startIndex].
+     * Skipped elements are not read, and if the element index is enabled, at most
+     * [indexInterval] element headers are read to find the first element.
+     *
+     * The iterator disallows modifications to be made to the QueueFile during iteration.
+     */
+    override fun iterator(startIndex: Int): Iterator<InputStream> = ElementIterator().apply { skip(startIndex) }
+
     internal inner class ElementIterator : Iterator<InputStream> {
         /** Index of element to be returned by subsequent call to next.  */
         private var nextElementIndex: Int = 0
@@ -231,6 +338,9 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
         private var cacheIterator: Iterator<QueueFileElement>? = firstElements.iterator()
         private var previousCached: QueueFileElement? = QueueFileElement()
 
+        /** Whether elements read from file directly follow the cached first elements. */
+        private var extendsCache = true
+
         private fun checkConditions() {
             check(!storage.isClosed) { "storage is closed" }
             if (modCount.get() != expectedModCount) {
@@ -248,7 +358,37 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
             if (nextElementIndex >= header.count) {
                 throw NoSuchElementException()
             }
+            return QueueFileInputStream(nextElement(), storage, modCount)
+        }
 
+        /**
+         * Skip [n] elements without reading their data. This jumps ahead with the element index
+         * if possible.
+         */
+        fun skip(n: Int) {
+            require(n >= 0) { "Cannot skip negative ($n) number of elements." }
+            checkConditions()
+            val target = (nextElementIndex.toLong() + n).coerceAtMost(header.count.toLong()).toInt()
+            val index = index
+            if (index != null && target >= firstElements.size) {
+                val entry = index.floor(headSequence + target)
+                if (entry >= 0) {
+                    val entryIndex = (index.sequenceAt(entry) - headSequence).toInt()
+                    if (entryIndex > nextElementIndex && entryIndex >= firstElements.size) {
+                        cacheIterator = null
+                        previousCached = null
+                        extendsCache = false
+                        nextElementIndex = entryIndex
+                        nextElementPosition = index.positionAt(entry)
+                    }
+                }
+            }
+            while (nextElementIndex < target) {
+                nextElement()
+            }
+        }
+
+        private fun nextElement(): QueueFileElement {
             val current: QueueFileElement
             val currentIterator = cacheIterator
             if (currentIterator != null && currentIterator.hasNext()) {
@@ -264,17 +404,18 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
                 } catch (ex: IOException) {
                     throw IllegalStateException("Cannot read element", ex)
                 }
+                index?.add(headSequence + nextElementIndex, current.position)
 
-                firstElements += current
+                if (extendsCache) {
+                    firstElements += current
+                }
             }
-            val input = QueueFileInputStream(current, storage, modCount)
 
             // Update the pointer to the next element.
             nextElementPosition = storage.wrapPosition(current.nextPosition)
             nextElementIndex++
 
-            // Return the read element.
-            return input
+            return current
         }
 
         override fun toString(): String {
@@ -288,7 +429,7 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
      * @throws NoSuchElementException if more than the available elements are requested to be removed
      */
     @Throws(IOException::class)
-    fun remove(n: Int) {
+    override fun remove(n: Int) {
         requireNotClosed()
         require(n >= 0) { "Cannot remove negative ($n) number of elements." }
         if (n == 0) {
@@ -303,6 +444,8 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
                     "Cannot remove more elements (" + n + ") than present in queue (" + header.count + ").")
         }
 
+        val previousUsedBytes = usedBytes
+
         // Read the position and length of the new first element.
         var newFirst = QueueFileElement()
         val previous = QueueFileElement()
@@ -319,8 +462,19 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
         if (firstElements.isEmpty()) {
             // if the cache contained less than n elements, skip from file
             // read one additional element to become the first element of the cache.
+            val index = index
+            if (index != null) {
+                // jump to the closest indexed element
+                val entry = index.floor(headSequence + n)
+                if (entry >= 0 && index.sequenceAt(entry) - headSequence >= i) {
+                    i = (index.sequenceAt(entry) - headSequence).toInt()
+                    readElement(index.positionAt(entry), newFirst)
+                    i++
+                }
+            }
             while (i <= n) {
                 readElement(storage.wrapPosition(newFirst.nextPosition), newFirst)
+                index?.add(headSequence + i, newFirst.position)
                 i++
             }
             // the next element was read from file and will become the next first element
@@ -334,15 +488,18 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
         modCount.incrementAndGet()
         header.firstPosition = newFirst.position
         header.count -= n
-        truncateIfNeeded()
-        header.write()
+        index?.removeFirst(n)
+        hasUnsyncedRemoval = true
+        val didTruncate = truncateIfNeeded()
+        commitHeader(previousUsedBytes - usedBytes, force = didTruncate)
     }
 
     /**
      * Truncate file if a lot of space is empty and no copy operations are needed.
+     * @return whether the file was truncated.
      */
     @Throws(IOException::class)
-    private fun truncateIfNeeded() {
+    private fun truncateIfNeeded(): Boolean {
         if (
             header.lastPosition >= header.firstPosition
             && last.nextPosition <= maximumFileSize
@@ -364,17 +521,21 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
                 logger.debug("Truncating {} from {} to {}", this, header.length, newLength)
                 storage.resize(newLength)
                 header.length = newLength
+                metrics?.truncated()
+                return true
             }
         }
+        return false
     }
 
     /** Clears this queue. Truncates the file to the initial size.  */
     @Throws(IOException::class)
-    fun clear() {
+    override fun clear() {
         requireNotClosed()
 
         firstElements.clear()
         last.reset()
+        index?.clear(header.count)
         header.clear()
 
         if (header.length != storage.minimumLength) {
@@ -382,11 +543,50 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
             header.length = storage.minimumLength
         }
 
-        header.write()
+        commitHeader(0L, force = true)
 
         modCount.incrementAndGet()
     }
 
+    /**
+     * Synchronize any pending commits to disk. Data is synchronized before the header is
+     * written, so that the header never refers to data that is not on disk.
+     * @throws IOException if the storage cannot be written to.
+     */
+    @Throws(IOException::class)
+    override fun sync() {
+        requireNotClosed()
+        if (hasUnsyncedData) {
+            storage.flush()
+        }
+        header.write()
+        syncedFirstPosition = if (header.count > 0) header.firstPosition else 0L
+        isHeaderDirty = false
+        hasUnsyncedData = false
+        hasUnsyncedRemoval = false
+        unsyncedBytes = 0L
+        lastSyncTime = System.nanoTime()
+    }
+
+    /**
+     * Commit the in-memory header. It is synchronized immediately if [force] is set or if the
+     * [syncDelay] or [syncBytes] thresholds are exceeded, otherwise it is deferred to a later
+     * commit.
+     */
+    @Throws(IOException::class)
+    private fun commitHeader(bytesChanged: Long, force: Boolean = false) {
+        isHeaderDirty = true
+        unsyncedBytes += bytesChanged
+        if (
+            force
+            || syncDelay <= 0L
+            || (syncBytes > 0L && unsyncedBytes >= syncBytes)
+            || System.nanoTime() - lastSyncTime >= syncDelay * 1_000_000L
+        ) {
+            sync()
+        }
+    }
+
     @Throws(IOException::class)
     private fun requireNotClosed() {
         requireIO(!storage.isClosed) { "storage $header is closed" }
@@ -394,7 +594,36 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
 
     @Throws(IOException::class)
     override fun close() {
-        storage.close()
+        try {
+            if (!storage.isClosed) {
+                if (isHeaderDirty) {
+                    sync()
+                }
+                writeIndex()
+            }
+        } finally {
+            storage.close()
+        }
+    }
+
+    /** Store the element index, if any, so it can be used when the queue is opened again. */
+    private fun writeIndex() {
+        val index = index ?: return
+        val indexFile = indexFile ?: return
+        try {
+            index.write(indexFile, header)
+        } catch (ex: IOException) {
+            logger.warn("Failed to store index of {}", this, ex)
+            indexFile.delete()
+        }
+    }
+
+    /**
+     * Add the position of an element written by an output stream to the element index.
+     * @param streamIndex index of the element within the stream.
+     */
+    internal fun indexElement(streamIndex: Int, position: Long) {
+        index?.add(headSequence + header.count + streamIndex, position)
     }
 
     override fun toString(): String {
@@ -402,7 +631,7 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
     }
 
     @Throws(IOException::class)
-    internal fun commitOutputStream(newFirst: QueueFileElement, newLast: QueueFileElement, count: Int) {
+    internal fun commitOutputStream(newFirst: QueueFileElement, newLast: QueueFileElement, count: Int, bytesWritten: Long) {
         if (!newLast.isEmpty) {
             last.update(newLast)
             header.lastPosition = newLast.position
@@ -412,7 +641,8 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
             header.firstPosition = newFirst.position
         }
         header.count += count
-        header.write()
+        hasUnsyncedData = true
+        commitHeader(bytesWritten)
         modCount.incrementAndGet()
     }
 
@@ -429,18 +659,23 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
         storage.resize(size)
         header.length = size
 
-        compact(position, beginningOfFirstElement, oldLength)
+        val bytesMoved = compact(position, beginningOfFirstElement, oldLength)
+        metrics?.grown(bytesMoved)
 
-        header.write()
+        hasUnsyncedData = true
+        commitHeader(0L, force = true)
     }
 
     // Calculate the position of the tail end of the data in the ring buffer
     // If the buffer is split, we need to make it contiguous
-    private fun compact(position: Long, beginningOfFirstElement: Long, newBufferPosition: Long) {
+    // Returns the number of bytes moved
+    private fun compact(position: Long, beginningOfFirstElement: Long, newBufferPosition: Long): Long {
+        var bytesMoved = 0L
         if (position <= beginningOfFirstElement) {
             if (position > QUEUE_HEADER_LENGTH) {
-                val count = position - QUEUE_HEADER_LENGTH
-                storage.move(QUEUE_HEADER_LENGTH, newBufferPosition, count)
+                bytesMoved = position - QUEUE_HEADER_LENGTH
+                storage.move(QUEUE_HEADER_LENGTH, newBufferPosition, bytesMoved)
+                index?.move(QUEUE_HEADER_LENGTH, position, newBufferPosition - QUEUE_HEADER_LENGTH)
             }
             modCount.incrementAndGet()
 
@@ -451,18 +686,43 @@ constructor(private val storage: QueueStorage) : Closeable, Iterable<InputStream
                 last.position = header.lastPosition
             }
         }
+        return bytesMoved
     }
 
     companion object {
         private val logger = LoggerFactory.getLogger(QueueFile::class.java)
 
+        /** Largest size that a queue file may have. */
+        const val MAXIMUM_FILE_SIZE = Int.MAX_VALUE.toLong()
+
+        /** Extension of the file that the element index is stored in. */
+        const val INDEX_EXTENSION = ".idx"
+
+        /** File that the element index of a queue file is stored in. */
+        fun indexFile(file: File) = File(file.path + INDEX_EXTENSION)
+
         @Throws(IOException::class)
-        fun newDirect(file: File, maxSize: Long): QueueFile {
+        fun newDirect(file: File, maxSize: Long, indexInterval: Int = 0): QueueFile {
             return try {
                 QueueFile(
                     BufferedQueueStorage(
-                        DirectQueueFileStorage(file, DirectQueueFileStorage.MINIMUM_LENGTH, maxSize)
-                    )
+                        DirectQueueFileStorage(file, DirectQueueFileStorage.MINIMUM_LENGTH, maxSize.coerceAtMost(MAXIMUM_FILE_SIZE))
+                    ),
+                    indexFile(file),
+                    indexInterval,
+                )
+            } catch (ex: IllegalArgumentException) {
+                throw IOException("Cannot create queue", ex)
+            }
+        }
+
+        @Throws(IOException::class)
+        fun newMapped(file: File, maxSize: Long, indexInterval: Int = 0): QueueFile {
+            return try {
+                QueueFile(
+                    MappedQueueFileStorage(file, MappedQueueFileStorage.MINIMUM_LENGTH, maxSize.coerceAtMost(MAXIMUM_FILE_SIZE)),
+                    indexFile(file),
+                    indexInterval,
                 )
             } catch (ex: IllegalArgumentException) {
                 throw IOException("Cannot create queue", ex)
@@ -0,0 +1,215 @@
+package org.radarbase.util
+
+import org.slf4j.LoggerFactory
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+import java.util.zip.CheckedOutputStream
+
+/**
+ * Sparse index of element positions in a [QueueFile]. It stores the position of every
+ * [interval]th element, by sequence number. Sequence numbers count all elements ever added to
+ * the queue, so the first element in the queue has sequence number [headSequence].
+ *
+ * Entries are added when elements are written or read, so an index that was not persisted is
+ * rebuilt while the queue is being read. The index is stored in a separate file when the queue
+ * file is closed, together with the queue header that it is valid for. It is deleted again when
+ * it is loaded, so that an index is never used for a queue that was modified afterwards.
+ *
+ * **This class is not synchronized.**
+ *
+ * @param interval number of elements between index entries.
+ */
+internal class QueueFileIndex(val interval: Int) {
+    /** Sequence number of the first element in the queue. */
+    var headSequence = 0L
+        private set
+
+    private var sequences = LongArray(INITIAL_CAPACITY)
+    private var positions = LongArray(INITIAL_CAPACITY)
+
+    /** Number of entries. */
+    var size = 0
+        private set
+
+    init {
+        require(interval > 0) { "Index interval $interval must be positive" }
+    }
+
+    fun sequenceAt(entry: Int): Long = sequences[entry]
+
+    fun positionAt(entry: Int): Long = positions[entry]
+
+    /** Add the position of an element, if its sequence number falls on the interval. */
+    fun add(sequence: Long, position: Long) {
+        if (sequence % interval != 0L) return
+        if (size > 0 && sequences[size - 1] >= sequence) {
+            val existing = floor(sequence)
+            if (existing >= 0 && sequences[existing] == sequence) {
+                positions[existing] = position
+                return
+            }
+            insert(existing + 1, sequence, position)
+        } else {
+            insert(size, sequence, position)
+        }
+    }
+
+    private fun insert(entry: Int, sequence: Long, position: Long) {
+        if (size == sequences.size) {
+            sequences = sequences.copyOf(size * 2)
+            positions = positions.copyOf(size * 2)
+        }
+        if (entry < size) {
+            System.arraycopy(sequences, entry, sequences, entry + 1, size - entry)
+            System.arraycopy(positions, entry, positions, entry + 1, size - entry)
+        }
+        sequences[entry] = sequence
+        positions[entry] = position
+        size++
+    }
+
+    /**
+     * Find the entry with the largest sequence number not exceeding [sequence].
+     * @return entry index or -1 if all entries have a larger sequence number.
+     */
+    fun floor(sequence: Long): Int {
+        var low = 0
+        var high = size - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            if (sequences[mid] <= sequence) {
+                low = mid + 1
+            } else {
+                high = mid - 1
+            }
+        }
+        return high
+    }
+
+    /** The first [n] elements were removed from the queue. */
+    fun removeFirst(n: Int) {
+        headSequence += n
+        val count = floor(headSequence - 1) + 1
+        if (count <= 0) return
+        System.arraycopy(sequences, count, sequences, 0, size - count)
+        System.arraycopy(positions, count, positions, 0, size - count)
+        size -= count
+    }
+
+    /** Remove entries of elements from given sequence number onwards. */
+    fun removeFrom(sequence: Long) {
+        size = floor(sequence - 1) + 1
+    }
+
+    /** Move the positions of entries in range [from] until [until] by [offset] bytes. */
+    fun move(from: Long, until: Long, offset: Long) {
+        for (i in 0 until size) {
+            if (positions[i] in from until until) {
+                positions[i] += offset
+            }
+        }
+    }
+
+    /** All elements were removed from the queue. */
+    fun clear(count: Int) {
+        headSequence += count
+        size = 0
+    }
+
+    /**
+     * Store the index in a file.
+     * @param header queue header that the index is valid for.
+     */
+    @Throws(IOException::class)
+    fun write(file: File, header: QueueFileHeader) {
+        val crc = CRC32()
+        DataOutputStream(CheckedOutputStream(BufferedOutputStream(FileOutputStream(file)), crc)).use { out ->
+            out.writeInt(VERSION)
+            out.writeInt(interval)
+            out.writeHeader(header)
+            out.writeLong(headSequence)
+            out.writeInt(size)
+            for (i in 0 until size) {
+                out.writeLong(sequences[i])
+                out.writeLong(positions[i])
+            }
+            out.flush()
+            out.writeLong(crc.value)
+        }
+    }
+
+    override fun toString(): String = "QueueFileIndex<interval=$interval, size=$size>"
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(QueueFileIndex::class.java)
+
+        private const val VERSION = 1
+        private const val INITIAL_CAPACITY = 16
+
+        private fun DataOutputStream.writeHeader(header: QueueFileHeader) {
+            writeLong(header.length)
+            writeInt(header.count)
+            writeLong(header.firstPosition)
+            writeLong(header.lastPosition)
+        }
+
+        /**
+         * Load an index that was stored with [write] and delete its file.
+         * @return index or null if the file does not exist or is not valid for given header.
+         */
+        fun load(file: File, interval: Int, header: QueueFileHeader): QueueFileIndex? {
+            if (!file.exists()) return null
+            return try {
+                val crc = CRC32()
+                DataInputStream(CheckedInputStream(BufferedInputStream(FileInputStream(file)), crc)).use { input ->
+                    if (input.readInt() != VERSION || input.readInt() != interval) return null
+                    if (
+                        input.readLong() != header.length
+                        || input.readInt() != header.count
+                        || input.readLong() != header.firstPosition
+                        || input.readLong() != header.lastPosition
+                    ) {
+                        logger.debug("Index {} does not match queue header {}", file, header)
+                        return null
+                    }
+                    val index = QueueFileIndex(interval)
+                    index.headSequence = input.readLong()
+                    val size = input.readInt()
+                    if (index.headSequence < 0 || size < 0 || size > header.count) return null
+                    repeat(size) {
+                        val sequence = input.readLong()
+                        val position = input.readLong()
+                        if (
+                            sequence - index.headSequence !in 0 until header.count
+                            || position !in 0 until header.length
+                        ) {
+                            return null
+                        }
+                        index.add(sequence, position)
+                    }
+                    val expectedCrc = crc.value
+                    if (input.readLong() != expectedCrc) {
+                        logger.warn("Index {} is corrupted, ignoring it", file)
+                        return null
+                    }
+                    index
+                }
+            } catch (ex: IOException) {
+                logger.warn("Failed to read index {}, ignoring it", file, ex)
+                null
+            } finally {
+                if (!file.delete()) {
+                    logger.warn("Failed to delete index {}", file)
+                }
+            }
+        }
+    }
+}
@@ -14,6 +14,8 @@ class QueueFileInputStream(
     private val totalLength: Int = element.length
     private val expectedModCount: Int = modificationCount.get()
     private val singleByteArray = ByteArray(1)
+    /** Wrapper of the last array read into, reused while callers read into the same array. */
+    private var wrappedBytes: ByteBuffer? = null
     private var storagePosition: Long = storage.wrapPosition(element.dataPosition)
     private var bytesRead: Int = 0
 
@@ -43,7 +45,7 @@ class QueueFileInputStream(
         checkForCoModification()
 
         val countAvailable = count.coerceAtMost(elementAvailable)
-        val buffer = ByteBuffer.wrap(bytes, offset, countAvailable)
+        val buffer = wrap(bytes, offset, countAvailable)
         storagePosition = storage.read(storagePosition, buffer)
 
         val numRead = buffer.position() - offset
@@ -51,10 +53,36 @@ class QueueFileInputStream(
         return numRead
     }
 
+    /**
+     * The unread bytes of the element, as a read-only view of the storage. Reading from the view
+     * does not advance this stream. The view must not be used after the queue was modified.
+     * @return view of the bytes, or null if the storage does not hold them contiguously in
+     *         memory. Read from the stream in that case.
+     */
+    @Throws(IOException::class)
+    fun remainingBuffer(): ByteBuffer? {
+        if (elementAvailable == 0) return EMPTY_BUFFER
+        checkForCoModification()
+        return storage.slice(storagePosition, elementAvailable)
+    }
+
+    private fun wrap(bytes: ByteArray, offset: Int, count: Int): ByteBuffer {
+        val buffer = wrappedBytes
+            ?.takeIf { it.array() === bytes }
+            ?: ByteBuffer.wrap(bytes).also { wrappedBytes = it }
+        buffer.limit(offset + count)
+        buffer.position(offset)
+        return buffer
+    }
+
     @Throws(IOException::class)
     private fun checkForCoModification() {
         requireIO(modificationCount.get() == expectedModCount) { "Buffer modified while reading InputStream of $storage" }
     }
 
     override fun toString(): String = "QueueFileInputStream[length=$totalLength,bytesRead=$bytesRead]"
+
+    companion object {
+        private val EMPTY_BUFFER: ByteBuffer = ByteBuffer.allocate(0).asReadOnlyBuffer()
+    }
 }
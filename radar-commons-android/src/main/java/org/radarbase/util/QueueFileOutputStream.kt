@@ -21,7 +21,6 @@ import org.radarbase.util.IO.requireIO
 import org.radarbase.util.QueueFileElement.Companion.ELEMENT_HEADER_LENGTH
 import org.slf4j.LoggerFactory
 import java.io.IOException
-import java.io.OutputStream
 import java.nio.ByteBuffer
 
 /**
@@ -37,7 +36,7 @@ class QueueFileOutputStream internal constructor(
         private val header: QueueFileHeader,
         private val storage: QueueStorage,
         position: Long,
-) : OutputStream() {
+) : ElementOutputStream() {
     private var storagePosition: Long = storage.wrapPosition(position)
 
     private var isClosed: Boolean = false
@@ -113,7 +112,7 @@ class QueueFileOutputStream internal constructor(
      * @throws IOException if the QueueFileStorage cannot be written to
      */
     @Throws(IOException::class)
-    operator fun next() {
+    override operator fun next() {
         checkNotClosed()
         // No data was written in this element. Skipping.
         if (current.isEmpty) return
@@ -127,6 +126,7 @@ class QueueFileOutputStream internal constructor(
         current.length = 0
 
         writeHeader(newLast.position, newLast.length, newLast.crc, true)
+        queue.indexElement(elementsWritten, newLast.position)
 
         elementsWritten++
     }
@@ -155,8 +155,13 @@ class QueueFileOutputStream internal constructor(
 
         streamBytesUsed = newStreamBytesUsed
         val oldLength = header.length
-        // no resize needed
-        if (bytesNeeded <= oldLength) return
+        // no resize needed, and space of unsynchronized removals is not overwritten
+        if (bytesNeeded + queue.unsyncedRemovedBytes <= oldLength) return
+        if (queue.unsyncedRemovedBytes > 0L) {
+            // the header on disk refers to removed elements, synchronize the removal to reuse them
+            queue.sync()
+            if (bytesNeeded <= oldLength) return
+        }
 
         logger.debug("Extending {}", queue)
 
@@ -195,9 +200,10 @@ class QueueFileOutputStream internal constructor(
     override fun close() {
         try {
             next()
-            flush()
+            // the queue decides when the data is synchronized to disk
+            storage.flushBuffer()
             if (elementsWritten > 0) {
-                queue.commitOutputStream(newFirst, newLast, elementsWritten)
+                queue.commitOutputStream(newFirst, newLast, elementsWritten, streamBytesUsed)
             }
         } finally {
             isClosed = true
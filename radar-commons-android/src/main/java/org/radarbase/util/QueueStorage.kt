@@ -90,6 +90,17 @@ interface QueueStorage : Closeable, Flushable {
         return newPosition
     }
 
+    /**
+     * Read-only view of [count] bytes of the storage medium starting at [position], without
+     * copying them. This is only possible if the storage holds the bytes contiguously in memory.
+     * The view must not be used after the storage was modified.
+     * @return view of the bytes, or null if they cannot be accessed in place. Use [read] in
+     *         that case.
+     * @throws IOException if the storage cannot be accessed.
+     */
+    @Throws(IOException::class)
+    fun slice(position: Long, count: Int): ByteBuffer? = null
+
     /**
      * Move part of the storage to another location, overwriting any data on the previous location.
      *
@@ -99,6 +110,15 @@ interface QueueStorage : Closeable, Flushable {
     @Throws(IOException::class)
     fun move(srcPosition: Long, dstPosition: Long, count: Long)
 
+    /**
+     * Hand any data that is buffered in memory over to the storage medium, without waiting for
+     * it to be synchronized to disk. Use [flush] to also synchronize it. By default, this is the
+     * same as [flush].
+     * @throws IOException if the data cannot be written.
+     */
+    @Throws(IOException::class)
+    fun flushBuffer() = flush()
+
     /**
      * Resize the storage. If the size is made smaller, after the given size is discarded. If the
      * size is made larger, the new part is not yet used. To use a new part of the storage, write to
@@ -0,0 +1,881 @@
+package org.radarbase.util
+
+import org.radarbase.util.IO.checkOffsetAndCount
+import org.radarbase.util.IO.requireIO
+import org.slf4j.LoggerFactory
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+import java.util.zip.CheckedOutputStream
+
+/**
+ * A file-based FIFO queue that stores its elements in append-only segment files. New elements are
+ * appended to the last segment, and a new segment is started once the last segment reaches
+ * [segmentSize] bytes. Elements never span multiple segments. Segments of which all elements are
+ * removed are deleted as a whole. Unlike [QueueFile], the storage therefore never needs to be
+ * grown, copied or compacted, so the time to add elements does not depend on the queue size, and
+ * the queue may be larger than 2 GB.
+ *
+ * The queue state is stored in a small manifest in [file], listing the segments, the number of
+ * elements and committed length of each segment, and the position of the first element. Segment
+ * files are stored next to it, as `<file>.<sequence>.seg`. A modification is only committed once
+ * the manifest is replaced. Segment data is synchronized to disk before the manifest that refers
+ * to it, and the manifest is written to a temporary file before it replaces the previous one, so
+ * the queue can always be reopened at the last committed state after a crash. Data beyond the
+ * committed length of the last segment is discarded when the queue is opened. Removed segments
+ * are only deleted once the manifest that no longer refers to them is on disk.
+ *
+ * If [syncDelay] is set, the queue uses group commits as described in [QueueFile].
+ *
+ * **Note that this implementation is not synchronized.**
+ *
+ * <pre>
+ * Manifest:
+ * 4 bytes          Magic number
+ * 4 bytes          Version
+ * 8 bytes          Sequence number of the next segment
+ * 8 bytes          Position of the first element in the first segment
+ * 4 bytes          Number of removed elements in the first segment
+ * 4 bytes          Segment count `n`
+ * `n` * 20 bytes   Segments, each with an 8 byte sequence number, 4 byte element count and 8 byte length
+ * 8 bytes          CRC32 checksum
+ *
+ * Element:
+ * 4 bytes          Data length `n`
+ * 1 byte           Element header length checksum
+ * `n` bytes        Data
+ * </pre>
+ *
+ * @param file manifest file.
+ * @param maximumFileSize maximum number of bytes that the segments may use.
+ * @param segmentSize number of bytes after which a new segment is started.
+ */
+class SegmentedQueueFile @Throws(IOException::class)
+constructor(
+    private val file: File,
+    override var maximumFileSize: Long,
+    private val segmentSize: Long = DEFAULT_SEGMENT_SIZE,
+) : ElementQueue {
+    private val segments = ArrayDeque<Segment>()
+
+    /** Sequence number of the next segment to be created. */
+    private var nextSequence = 0L
+
+    /** Position of the first element in the first segment. */
+    private var headPosition = 0L
+
+    /** Number of elements of the first segment that were removed. */
+    private var headSkipped = 0
+
+    /** Sum of the committed lengths of all segments. */
+    private var totalLength = 0L
+
+    override var size: Int = 0
+        private set
+
+    /**
+     * The number of times this queue has been structurally modified. Used by iterators and
+     * input streams to guard against concurrent modification.
+     */
+    private var modCount = 0
+
+    private var isClosed = false
+
+    override var syncDelay: Long = 0L
+
+    override var syncBytes: Long = 0L
+
+    override var metrics: PipelineMetrics.StorageMetrics? = null
+
+    override var isHeaderDirty: Boolean = false
+        private set
+
+    /** Segments that data was written to since the last synchronization. */
+    private val unsyncedSegments = mutableSetOf<Segment>()
+
+    /** Removed segments, to be deleted after the next synchronization. */
+    private val removedSegments = mutableListOf<Segment>()
+
+    /** Number of bytes added or removed since the last synchronization. */
+    private var unsyncedBytes: Long = 0L
+
+    /** Time of the last synchronization, as given by [System.nanoTime]. */
+    private var lastSyncTime: Long = System.nanoTime()
+
+    private val elementHeaderBuffer = ByteBuffer.allocate(QueueFileElement.ELEMENT_HEADER_LENGTH)
+
+    init {
+        require(segmentSize > 0) { "Segment size $segmentSize must be positive" }
+        if (file.length() > 0L) {
+            readManifest()
+            openSegments()
+        } else {
+            writeManifest()
+        }
+        removeUnknownSegments()
+    }
+
+    override val usedBytes: Long
+        get() = totalLength - headPosition
+
+    override val fileSize: Long
+        get() = totalLength
+
+    @Throws(IOException::class)
+    private fun readManifest() {
+        try {
+            val crc = CRC32()
+            DataInputStream(CheckedInputStream(ByteArrayInputStream(file.readBytes()), crc)).use { input ->
+                requireIO(input.readInt() == MAGIC) { "File $file is not recognized as a segmented queue file." }
+                requireIO(input.readInt() == VERSION) { "Version of segmented queue file $file is not supported." }
+                nextSequence = input.readLong()
+                headPosition = input.readLong()
+                headSkipped = input.readInt()
+                val numSegments = input.readInt()
+                requireIO(numSegments >= 0) { "Invalid number of segments $numSegments in $file" }
+                repeat(numSegments) {
+                    val sequence = input.readLong()
+                    val count = input.readInt()
+                    val length = input.readLong()
+                    requireIO(sequence < nextSequence && count > 0 && length > 0) {
+                        "Invalid segment $sequence with $count elements and length $length in $file"
+                    }
+                    segments += Segment(sequence, segmentFile(file, sequence), count, length)
+                    size += count
+                    totalLength += length
+                }
+                val expectedCrc = crc.value
+                requireIO(input.readLong() == expectedCrc) { "Queue manifest $file is corrupted." }
+            }
+        } catch (ex: EOFException) {
+            throw IOException("Queue manifest $file is truncated", ex)
+        }
+        size -= headSkipped
+        val head = segments.peekFirst()
+        requireIO(
+            (head == null && headSkipped == 0 && headPosition == 0L)
+            || (head != null && headSkipped in 0 until head.count && headPosition in 0 until head.length)
+        ) { "Invalid first element position $headPosition in manifest $file" }
+    }
+
+    /** Check that all segments exist and discard uncommitted data of the last segment. */
+    @Throws(IOException::class)
+    private fun openSegments() {
+        segments.forEach { segment ->
+            requireIO(segment.file.length() >= segment.length) {
+                "Segment ${segment.file} is shorter than its committed length ${segment.length}"
+            }
+        }
+        segments.peekLast()?.let { last ->
+            if (last.file.length() > last.length) {
+                last.channel().truncate(last.length)
+            }
+        }
+    }
+
+    /** Delete segment files that were created but never committed. */
+    private fun removeUnknownSegments() {
+        val known = segments.mapTo(HashSet()) { it.file.name }
+        segmentFiles(file)
+            .filter { it.name !in known }
+            .forEach { orphan ->
+                logger.debug("Removing uncommitted segment {}", orphan)
+                if (!orphan.delete()) {
+                    logger.warn("Failed to delete uncommitted segment {}", orphan)
+                }
+            }
+    }
+
+    /** Replace the manifest with the current state. */
+    @Throws(IOException::class)
+    private fun writeManifest() {
+        val bytes = ByteArrayOutputStream(MANIFEST_HEADER_LENGTH + segments.size * SEGMENT_ENTRY_LENGTH + 8)
+        val crc = CRC32()
+        DataOutputStream(CheckedOutputStream(bytes, crc)).use { out ->
+            out.writeInt(MAGIC)
+            out.writeInt(VERSION)
+            out.writeLong(nextSequence)
+            out.writeLong(headPosition)
+            out.writeInt(headSkipped)
+            out.writeInt(segments.size)
+            segments.forEach { segment ->
+                out.writeLong(segment.sequence)
+                out.writeInt(segment.count)
+                out.writeLong(segment.length)
+            }
+            out.flush()
+            out.writeLong(crc.value)
+        }
+        val tmpFile = File(file.path + TMP_EXTENSION)
+        FileOutputStream(tmpFile).use { out ->
+            bytes.writeTo(out)
+            out.fd.sync()
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE)
+    }
+
+    /**
+     * Read the header of an element.
+     * @return element length
+     * @throws IOException if the header is incorrect and so the queue is corrupt.
+     */
+    @Throws(IOException::class)
+    private fun readElementLength(segment: Segment, position: Long): Int {
+        elementHeaderBuffer.clear()
+        segment.readFully(position, elementHeaderBuffer)
+        elementHeaderBuffer.flip()
+        val length = elementHeaderBuffer.int
+        val crc = elementHeaderBuffer.get()
+        if (length <= 0 || crc != QueueFileElement.crc(length)) {
+            logger.error("Failed to verify element at position {} of {}: crc {} does not match length {}. "
+                    + "Queue is corrupt.", position, segment.file, crc, length)
+            throw IOException("Element is not correct; queue file is corrupted")
+        }
+        return length
+    }
+
+    @Throws(IOException::class)
+    override fun elementOutputStream(): ElementOutputStream {
+        requireNotClosed()
+        return SegmentedOutputStream()
+    }
+
+    @Throws(IOException::class)
+    override fun peek(): InputStream? {
+        requireNotClosed()
+        val head = segments.peekFirst() ?: return null
+        val length = readElementLength(head, headPosition)
+        return SegmentInputStream(head, headPosition + QueueFileElement.ELEMENT_HEADER_LENGTH, length)
+    }
+
+    override fun iterator(): Iterator<InputStream> = iterator(0)
+
+    /**
+     * Returns an iterator over elements in this queue, starting at element [startIndex]. Skipped
+     * elements in segments before the segment of [startIndex] are not read.
+     *
+     * The iterator disallows modifications to be made to the queue during iteration.
+     */
+    override fun iterator(startIndex: Int): Iterator<InputStream> = ElementIterator(startIndex)
+
+    /** Position in the queue, to iterate over or skip elements. */
+    private inner class Cursor {
+        private val segmentIterator = segments.iterator()
+
+        var segment: Segment? = if (segmentIterator.hasNext()) segmentIterator.next() else null
+            private set
+
+        var position: Long = headPosition
+            private set
+
+        /** Number of elements remaining in the current segment. */
+        var remaining: Int = segment?.let { it.count - headSkipped } ?: 0
+            private set
+
+        /** Proceed to the next segment if the current one has no elements remaining. */
+        private fun nextSegmentIfNeeded() {
+            while (remaining == 0 && segmentIterator.hasNext()) {
+                val next = segmentIterator.next()
+                segment = next
+                position = 0L
+                remaining = next.count
+            }
+        }
+
+        /** Segment of the next element. */
+        fun nextSegment(): Segment {
+            nextSegmentIfNeeded()
+            return segment ?: throw NoSuchElementException()
+        }
+
+        /** Skip [n] elements, skipping whole segments without reading them. */
+        @Throws(IOException::class)
+        fun skip(n: Int) {
+            var toSkip = n
+            nextSegmentIfNeeded()
+            while (toSkip >= remaining && segmentIterator.hasNext()) {
+                toSkip -= remaining
+                remaining = 0
+                nextSegmentIfNeeded()
+            }
+            repeat(toSkip) { next() }
+            nextSegmentIfNeeded()
+        }
+
+        /**
+         * Proceed to the next element.
+         * @return length of the element that the cursor was at.
+         */
+        @Throws(IOException::class)
+        fun next(): Int {
+            nextSegmentIfNeeded()
+            val current = segment
+            if (current == null || remaining == 0) throw NoSuchElementException()
+            val length = readElementLength(current, position)
+            position += QueueFileElement.ELEMENT_HEADER_LENGTH + length
+            remaining--
+            return length
+        }
+    }
+
+    private inner class ElementIterator(startIndex: Int) : Iterator<InputStream> {
+        private val cursor = Cursor()
+
+        /** Index of element to be returned by subsequent call to next.  */
+        private var nextElementIndex = startIndex.coerceIn(0, size)
+
+        private val expectedModCount = modCount
+
+        init {
+            try {
+                cursor.skip(nextElementIndex)
+            } catch (ex: IOException) {
+                throw IllegalStateException("Cannot read element", ex)
+            }
+        }
+
+        private fun checkConditions() {
+            check(!isClosed) { "queue is closed" }
+            if (modCount != expectedModCount) {
+                throw ConcurrentModificationException()
+            }
+        }
+
+        override fun hasNext(): Boolean {
+            checkConditions()
+            return nextElementIndex < size
+        }
+
+        override fun next(): InputStream {
+            if (!hasNext()) throw NoSuchElementException()
+            try {
+                val segment = cursor.nextSegment()
+                val dataPosition = cursor.position + QueueFileElement.ELEMENT_HEADER_LENGTH
+                val length = cursor.next()
+                nextElementIndex++
+                return SegmentInputStream(segment, dataPosition, length)
+            } catch (ex: IOException) {
+                throw IllegalStateException("Cannot read element", ex)
+            }
+        }
+
+        override fun toString(): String = "SegmentedQueueFile.ElementIterator[index=$nextElementIndex]"
+    }
+
+    @Throws(IOException::class)
+    override fun remove(n: Int) {
+        requireNotClosed()
+        require(n >= 0) { "Cannot remove negative ($n) number of elements." }
+        if (n == 0) {
+            return
+        }
+        if (n == size) {
+            clear()
+            return
+        }
+        if (n > size) {
+            throw NoSuchElementException(
+                "Cannot remove more elements ($n) than present in queue ($size).")
+        }
+        val previousUsedBytes = usedBytes
+
+        val cursor = Cursor()
+        cursor.skip(n)
+        val newHead = checkNotNull(cursor.segment)
+        while (segments.first !== newHead) {
+            val removed = segments.removeFirst()
+            totalLength -= removed.length
+            removedSegments += removed
+        }
+        headPosition = cursor.position
+        headSkipped = newHead.count - cursor.remaining
+        size -= n
+        modCount++
+        commitManifest(previousUsedBytes - usedBytes)
+    }
+
+    @Throws(IOException::class)
+    override fun clear() {
+        requireNotClosed()
+        removedSegments += segments
+        segments.clear()
+        unsyncedSegments.clear()
+        headPosition = 0L
+        headSkipped = 0
+        size = 0
+        totalLength = 0L
+        commitManifest(0L, force = true)
+        modCount++
+    }
+
+    /**
+     * Synchronize any pending commits to disk. Segment data is synchronized before the manifest is
+     * written, and removed segments are deleted after.
+     * @throws IOException if the storage cannot be written to.
+     */
+    @Throws(IOException::class)
+    override fun sync() {
+        requireNotClosed()
+        unsyncedSegments.forEach { it.channel().force(false) }
+        unsyncedSegments.clear()
+        writeManifest()
+        removedSegments.forEach { segment ->
+            segment.close()
+            if (segment.file.delete()) {
+                metrics?.truncated()
+            } else {
+                logger.warn("Failed to delete removed segment {}", segment.file)
+            }
+        }
+        removedSegments.clear()
+        isHeaderDirty = false
+        unsyncedBytes = 0L
+        lastSyncTime = System.nanoTime()
+    }
+
+    /**
+     * Commit the in-memory state. It is synchronized immediately if [force] is set or if the
+     * [syncDelay] or [syncBytes] thresholds are exceeded, otherwise it is deferred to a later
+     * commit.
+     */
+    @Throws(IOException::class)
+    private fun commitManifest(bytesChanged: Long, force: Boolean = false) {
+        isHeaderDirty = true
+        unsyncedBytes += bytesChanged
+        if (
+            force
+            || syncDelay <= 0L
+            || (syncBytes > 0L && unsyncedBytes >= syncBytes)
+            || System.nanoTime() - lastSyncTime >= syncDelay * 1_000_000L
+        ) {
+            sync()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun requireNotClosed() {
+        requireIO(!isClosed) { "queue $file is closed" }
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        if (isClosed) return
+        try {
+            if (isHeaderDirty) {
+                sync()
+            }
+        } finally {
+            isClosed = true
+            segments.forEach { it.close() }
+            removedSegments.forEach { it.close() }
+        }
+    }
+
+    override fun toString(): String = "SegmentedQueueFile[file=$file, size=$size, segments=${segments.size}, length=$totalLength]"
+
+    /**
+     * Segment file.
+     * @param count number of committed elements, including removed elements.
+     * @param length committed length in bytes.
+     */
+    private class Segment(val sequence: Long, val file: File, var count: Int, var length: Long) {
+        private var channel: FileChannel? = null
+
+        @Throws(IOException::class)
+        fun channel(): FileChannel = channel
+            ?: FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                .also { channel = it }
+
+        /** Create a new empty segment file, replacing any uncommitted file with the same name. */
+        @Throws(IOException::class)
+        fun create() {
+            close()
+            channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+            )
+        }
+
+        @Throws(IOException::class)
+        fun readFully(position: Long, buffer: ByteBuffer) {
+            val channel = channel()
+            var readPosition = position
+            while (buffer.hasRemaining()) {
+                val numRead = channel.read(buffer, readPosition)
+                if (numRead == -1) throw EOFException("Cannot read from $file at position $readPosition")
+                readPosition += numRead
+            }
+        }
+
+        @Throws(IOException::class)
+        fun writeFully(position: Long, buffer: ByteBuffer) {
+            val channel = channel()
+            var writePosition = position
+            while (buffer.hasRemaining()) {
+                writePosition += channel.write(buffer, writePosition)
+            }
+        }
+
+        /** Close and delete an uncommitted segment. */
+        fun delete() {
+            close()
+            if (!file.delete()) {
+                logger.warn("Failed to delete uncommitted segment {}", file)
+            }
+        }
+
+        fun close() {
+            try {
+                channel?.close()
+            } catch (ex: IOException) {
+                logger.warn("Failed to close segment {}", file, ex)
+            }
+            channel = null
+        }
+
+        override fun toString(): String = "Segment[sequence=$sequence, count=$count, length=$length]"
+    }
+
+    private inner class SegmentInputStream(
+        private val segment: Segment,
+        private var position: Long,
+        private val totalLength: Int,
+    ) : InputStream() {
+        private val expectedModCount = modCount
+        private var bytesRead = 0
+        private val singleByteArray = ByteArray(1)
+
+        private val elementAvailable: Int
+            get() = totalLength - bytesRead
+
+        override fun available() = elementAvailable
+
+        override fun skip(byteCount: Long): Long {
+            val countAvailable = byteCount.coerceIn(0L, elementAvailable.toLong()).toInt()
+            bytesRead += countAvailable
+            position += countAvailable
+            return countAvailable.toLong()
+        }
+
+        @Throws(IOException::class)
+        override fun read(): Int {
+            if (read(singleByteArray, 0, 1) != 1) return -1
+            return singleByteArray[0].toInt() and 0xFF
+        }
+
+        @Throws(IOException::class)
+        override fun read(bytes: ByteArray, offset: Int, count: Int): Int {
+            bytes.checkOffsetAndCount(offset, count)
+            if (elementAvailable == 0) return -1
+            if (count == 0) return 0
+            requireIO(modCount == expectedModCount) { "Queue modified while reading InputStream of ${segment.file}" }
+
+            val countAvailable = count.coerceAtMost(elementAvailable)
+            segment.readFully(position, ByteBuffer.wrap(bytes, offset, countAvailable))
+            position += countAvailable
+            bytesRead += countAvailable
+            return countAvailable
+        }
+
+        override fun toString(): String = "SegmentInputStream[length=$totalLength,bytesRead=$bytesRead]"
+    }
+
+    /**
+     * Output stream that appends elements to the last segment, starting a new segment when it is
+     * full. Elements are only committed when the stream is closed.
+     */
+    private inner class SegmentedOutputStream : ElementOutputStream() {
+        private var isClosed = false
+
+        /** Segment being written to, or null if no segment was started yet. */
+        private var segment: Segment? = segments.peekLast()
+        private var segmentCount: Int = segment?.count ?: 0
+        private var segmentLength: Long = segment?.length ?: 0L
+        private var isNewSegment = false
+
+        /** Committed segment that this stream appends to, with its new count and length. */
+        private val previousLast: Segment? = segment
+        private var previousLastCount: Int = segmentCount
+        private var previousLastLength: Long = segmentLength
+
+        private val newSegments = mutableListOf<Segment>()
+        private var nextSequence = this@SegmentedQueueFile.nextSequence
+
+        /** Position of the current element in the segment. */
+        private var elementPosition = 0L
+        /** Length of the current element, or 0 if it was not started. */
+        private var elementLength = 0
+
+        private var elementsWritten = 0
+        private var streamBytesUsed = 0L
+
+        private val buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE)
+        /** Segment position of the start of [buffer]. */
+        private var bufferPosition = segmentLength
+
+        private val singleByteBuffer = ByteArray(1)
+
+        @Throws(IOException::class)
+        override fun write(byteValue: Int) {
+            singleByteBuffer[0] = (byteValue and 0xFF).toByte()
+            write(singleByteBuffer, 0, 1)
+        }
+
+        @Throws(IOException::class)
+        override fun write(bytes: ByteArray, offset: Int, count: Int) {
+            bytes.checkOffsetAndCount(offset, count)
+            if (count == 0) return
+            checkNotClosed()
+
+            if (elementLength == 0) {
+                ensureCapacity(QueueFileElement.ELEMENT_HEADER_LENGTH + count.toLong())
+                startElement()
+            } else {
+                ensureCapacity(count.toLong())
+            }
+            val segment = checkNotNull(segment)
+            if (count > buffer.remaining()) {
+                flushBuffer()
+            }
+            if (count > buffer.remaining()) {
+                segment.writeFully(segmentLength, ByteBuffer.wrap(bytes, offset, count))
+                bufferPosition = segmentLength + count
+            } else {
+                buffer.put(bytes, offset, count)
+            }
+            segmentLength += count
+            elementLength += count
+        }
+
+        /** Write a placeholder element header, starting a new segment if needed. */
+        @Throws(IOException::class)
+        private fun startElement() {
+            if (segment == null || segmentLength >= segmentSize) {
+                startSegment()
+            }
+            elementPosition = segmentLength
+            if (buffer.remaining() < QueueFileElement.ELEMENT_HEADER_LENGTH) {
+                flushBuffer()
+            }
+            buffer.putInt(0)
+            buffer.put(0)
+            segmentLength += QueueFileElement.ELEMENT_HEADER_LENGTH
+        }
+
+        @Throws(IOException::class)
+        private fun startSegment() {
+            finishSegment()
+            val newSegment = Segment(nextSequence, segmentFile(file, nextSequence), 0, 0L)
+            nextSequence++
+            newSegment.create()
+            newSegments += newSegment
+            metrics?.grown(0L)
+            segment = newSegment
+            isNewSegment = true
+            segmentCount = 0
+            segmentLength = 0L
+            bufferPosition = 0L
+        }
+
+        /** Store the count and length of the segment that is being written to. */
+        @Throws(IOException::class)
+        private fun finishSegment() {
+            val segment = segment ?: return
+            flushBuffer()
+            if (isNewSegment) {
+                segment.count = segmentCount
+                segment.length = segmentLength
+            } else {
+                previousLastCount = segmentCount
+                previousLastLength = segmentLength
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun flushBuffer() {
+            val segment = segment ?: return
+            buffer.flip()
+            segment.writeFully(bufferPosition, buffer)
+            bufferPosition += buffer.limit()
+            buffer.clear()
+        }
+
+        /**
+         * Check that the queue has space for [length] more bytes.
+         * @throws IllegalStateException if the queue is full.
+         */
+        private fun ensureCapacity(length: Long) {
+            val bytesNeeded = fileSize + streamBytesUsed + length
+            check(bytesNeeded <= maximumFileSize) {
+                discardElement()
+                "Data does not fit in queue"
+            }
+            streamBytesUsed += length
+        }
+
+        /** Discard the data of the current element. */
+        private fun discardElement() {
+            if (elementLength == 0) return
+            streamBytesUsed -= QueueFileElement.ELEMENT_HEADER_LENGTH + elementLength.toLong()
+            segmentLength = elementPosition
+            if (elementPosition >= bufferPosition) {
+                buffer.position((elementPosition - bufferPosition).toInt())
+            } else {
+                buffer.clear()
+                bufferPosition = elementPosition
+            }
+            elementLength = 0
+        }
+
+        @Throws(IOException::class)
+        private fun checkNotClosed() {
+            requireIO(!isClosed) { "Cannot write to queue $file, output stream is closed." }
+            requireNotClosed()
+        }
+
+        @Throws(IOException::class)
+        override fun next() {
+            checkNotClosed()
+            if (elementLength == 0) return
+            val crc = QueueFileElement.crc(elementLength)
+            if (elementPosition >= bufferPosition) {
+                val bufferOffset = (elementPosition - bufferPosition).toInt()
+                buffer.putInt(bufferOffset, elementLength)
+                buffer.put(bufferOffset + 4, crc)
+            } else {
+                val header = ByteBuffer.allocate(QueueFileElement.ELEMENT_HEADER_LENGTH)
+                header.putInt(elementLength)
+                header.put(crc)
+                header.flip()
+                checkNotNull(segment).writeFully(elementPosition, header)
+            }
+            segmentCount++
+            elementsWritten++
+            elementLength = 0
+        }
+
+        /**
+         * Closes the stream and commits it to the queue.
+         * @throws IOException if the output stream cannot be written to.
+         */
+        @Throws(IOException::class)
+        override fun close() {
+            if (isClosed) return
+            try {
+                next()
+                finishSegment()
+                if (elementsWritten > 0) {
+                    commit()
+                } else {
+                    newSegments.forEach { it.delete() }
+                }
+            } finally {
+                isClosed = true
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun commit() {
+            if (previousLast != null) {
+                previousLast.count = previousLastCount
+                previousLast.length = previousLastLength
+                unsyncedSegments += previousLast
+            }
+            newSegments.forEach { segment ->
+                if (segment.count > 0) {
+                    segments += segment
+                    unsyncedSegments += segment
+                } else {
+                    segment.delete()
+                }
+            }
+            this@SegmentedQueueFile.nextSequence = nextSequence
+            size += elementsWritten
+            totalLength += streamBytesUsed
+            modCount++
+            commitManifest(streamBytesUsed)
+        }
+
+        override fun toString(): String = "SegmentedOutputStream[elements=$elementsWritten,total=$streamBytesUsed]"
+    }
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(SegmentedQueueFile::class.java)
+
+        /** Default number of bytes after which a new segment is started. */
+        const val DEFAULT_SEGMENT_SIZE = 16L * 1024L * 1024L
+
+        /** Extension of segment files. */
+        const val SEGMENT_EXTENSION = ".seg"
+
+        private const val TMP_EXTENSION = ".tmp"
+        private const val MAGIC = 0x52515347
+        private const val VERSION = 1
+        private const val MANIFEST_HEADER_LENGTH = 32
+        private const val SEGMENT_ENTRY_LENGTH = 20
+        private const val WRITE_BUFFER_SIZE = 8192
+
+        private fun segmentFile(file: File, sequence: Long) = File(file.path + ".$sequence$SEGMENT_EXTENSION")
+
+        /** All segment files that belong to given manifest file. */
+        private fun segmentFiles(file: File): List<File> {
+            val prefix = file.name + "."
+            return file.absoluteFile.parentFile
+                ?.listFiles { _, name ->
+                    name.startsWith(prefix)
+                        && name.endsWith(SEGMENT_EXTENSION)
+                        && name.substring(prefix.length, name.length - SEGMENT_EXTENSION.length)
+                            .let { it.isNotEmpty() && it.all(Char::isDigit) }
+                }
+                ?.toList()
+                ?: emptyList()
+        }
+
+        /** Whether given file is the manifest of a segmented queue. */
+        fun isSegmented(file: File): Boolean {
+            if (file.length() < 4L) return false
+            return try {
+                DataInputStream(FileInputStream(file)).use { it.readInt() == MAGIC }
+            } catch (ex: IOException) {
+                false
+            }
+        }
+
+        /**
+         * Delete the segment files and temporary manifest of a segmented queue, if any. The
+         * manifest file itself is not deleted.
+         * @return whether all files were deleted.
+         */
+        fun deleteSegments(file: File): Boolean {
+            File(file.path + TMP_EXTENSION).delete()
+            return segmentFiles(file).fold(true) { result, segment -> segment.delete() && result }
+        }
+
+        @Throws(IOException::class)
+        fun newSegmented(file: File, maxSize: Long): SegmentedQueueFile {
+            return try {
+                SegmentedQueueFile(file, maxSize)
+            } catch (ex: IllegalArgumentException) {
+                throw IOException("Cannot create queue", ex)
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.radarbase.android.data
+
+import org.apache.avro.Schema
+import org.apache.avro.generic.GenericDatumReader
+import org.apache.avro.generic.GenericRecord
+import org.apache.avro.io.DecoderFactory
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class SampleBatchEncoderTest {
+    private val schema = Schema.Parser().parse("""
+        {"type": "record", "name": "Sample", "namespace": "test", "fields": [
+            {"name": "time", "type": "double"},
+            {"name": "timeReceived", "type": "double"},
+            {"name": "x", "type": "float"},
+            {"name": "y", "type": ["null", "double"], "default": null},
+            {"name": "z", "type": "int"},
+            {"name": "w", "type": "long"}
+        ]}
+    """.trimIndent())
+
+    @Test
+    fun testEncode() {
+        val encoder = SampleBatchEncoder(schema, 4)
+        val times = doubleArrayOf(1.0, 2.0, 3.0)
+        val batch = encoder.encode(
+            times,
+            4.0,
+            arrayOf(
+                floatArrayOf(0.5f, -1.5f, 2.25f),
+                floatArrayOf(1.0f, Float.NaN, -3.0f),
+                floatArrayOf(1f, -2f, 300f),
+                floatArrayOf(-100000f, 0f, 100000f),
+            ),
+            size = 2,
+        )
+        assertEquals(2, batch.size)
+        // two doubles, float, union index and double, two var ints
+        assertEquals(16 + 4 + 9 + 1 + 3, batch.valueLength(0))
+
+        val reader = GenericDatumReader<GenericRecord>(schema)
+        val records = (0 until batch.size).map { i ->
+            val decoder = DecoderFactory.get().binaryDecoder(batch.buffer, batch.valueOffset(i), batch.valueLength(i), null)
+            reader.read(null, decoder)
+        }
+
+        assertEquals(1.0, records[0]["time"])
+        assertEquals(4.0, records[0]["timeReceived"])
+        assertEquals(0.5f, records[0]["x"])
+        assertEquals(1.0, records[0]["y"])
+        assertEquals(1, records[0]["z"])
+        assertEquals(-100000L, records[0]["w"])
+
+        assertEquals(2.0, records[1]["time"])
+        assertEquals(-1.5f, records[1]["x"])
+        assertNull(records[1]["y"])
+        assertEquals(-2, records[1]["z"])
+        assertEquals(0L, records[1]["w"])
+    }
+
+    @Test
+    fun testReuseReleased() {
+        val encoder = SampleBatchEncoder(schema, 4)
+        val columns = arrayOf(floatArrayOf(1f), floatArrayOf(1f), floatArrayOf(1f), floatArrayOf(1f))
+        val first = encoder.encode(doubleArrayOf(1.0), 2.0, columns)
+        val second = encoder.encode(doubleArrayOf(1.0), 2.0, columns)
+        assertNotSame(first.buffer, second.buffer)
+        first.release()
+        val third = encoder.encode(doubleArrayOf(3.0), 2.0, columns)
+        assertSame(first.buffer, third.buffer)
+        assertEquals(second.valueLength(0), third.valueLength(0))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testNonFiniteRequired() {
+        SampleBatchEncoder(schema, 4).encode(
+            doubleArrayOf(1.0),
+            4.0,
+            arrayOf(floatArrayOf(Float.NaN), floatArrayOf(1f), floatArrayOf(1f), floatArrayOf(1f)),
+        )
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testWrongColumnCount() {
+        SampleBatchEncoder(schema, 3)
+    }
+}
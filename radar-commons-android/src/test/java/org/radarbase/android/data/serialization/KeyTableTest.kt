@@ -0,0 +1,78 @@
+package org.radarbase.android.data.serialization
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+
+class KeyTableTest {
+    @Rule
+    @JvmField
+    val tempDir = TemporaryFolder()
+
+    @Test
+    fun indexOf() {
+        val table = KeyTable(File(tempDir.root, "cache.keys"))
+        assertEquals(0, table.indexOf(byteArrayOf(1, 2, 3)))
+        assertEquals(1, table.indexOf(byteArrayOf(4, 5)))
+        assertEquals(0, table.indexOf(byteArrayOf(1, 2, 3)))
+        assertEquals(2, table.size)
+        assertArrayEquals(byteArrayOf(4, 5), table[1])
+    }
+
+    @Test
+    fun reload() {
+        val file = File(tempDir.root, "cache.keys")
+        val writer = KeyTable(file)
+        val reader = KeyTable(file)
+        assertEquals(0, writer.indexOf(byteArrayOf(1, 2, 3)))
+        assertArrayEquals(byteArrayOf(1, 2, 3), reader[0])
+        assertEquals(0, KeyTable(file).indexOf(byteArrayOf(1, 2, 3)))
+    }
+
+    @Test
+    fun incompleteEntry() {
+        val file = File(tempDir.root, "cache.keys")
+        KeyTable(file).indexOf(byteArrayOf(1, 2, 3))
+        RandomAccessFile(file, "rw").use {
+            it.seek(it.length())
+            it.writeInt(10)
+            it.write(byteArrayOf(1))
+        }
+        val table = KeyTable(file)
+        assertEquals(1, table.size)
+        assertEquals(1, table.indexOf(byteArrayOf(4, 5)))
+        assertEquals(2, KeyTable(file).size)
+    }
+
+    @Test
+    fun inMemory() {
+        val table = KeyTable(null)
+        assertEquals(0, table.indexOf(byteArrayOf(1, 2, 3)))
+        assertEquals(1, table.indexOf(byteArrayOf(4, 5)))
+        assertEquals(0, table.indexOf(byteArrayOf(1, 2, 3)))
+        assertArrayEquals(byteArrayOf(4, 5), table[1])
+    }
+
+    @Test
+    fun removedFile() {
+        val file = File(tempDir.root, "cache.keys")
+        val table = KeyTable(file)
+        table.indexOf(byteArrayOf(1, 2, 3))
+        table.indexOf(byteArrayOf(4, 5))
+        assertTrue(file.delete())
+        table.load()
+        assertEquals(0, table.indexOf(byteArrayOf(4, 5)))
+        assertEquals(1, KeyTable(file).size)
+    }
+
+    @Test(expected = IOException::class)
+    fun missingIndex() {
+        KeyTable(File(tempDir.root, "cache.keys"))[0]
+    }
+}
@@ -0,0 +1,169 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.GenericRecord
+import org.apache.avro.io.EncoderFactory
+import org.apache.avro.specific.SpecificDatumWriter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.android.data.ValueBatch
+import org.radarbase.android.data.serialization.TapeAvroRawReaderTest.Companion.sourceIds
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarbase.util.ObjectQueue
+import org.radarbase.util.QueueFile
+import org.radarcns.kafka.ObservationKey
+import java.io.ByteArrayOutputStream
+import java.io.File
+
+class KeyedTapeSerializationTest {
+    @Rule
+    @JvmField
+    val tempDir = TemporaryFolder()
+
+    private val topic = AvroTopic("test",
+        ObservationKey.getClassSchema(), ObservationKey.getClassSchema(),
+        ObservationKey::class.java, ObservationKey::class.java)
+    private val outputTopic = AvroTopic("test",
+        ObservationKey.getClassSchema(), ObservationKey.getClassSchema(),
+        Any::class.java, Any::class.java)
+
+    private val keyA = ObservationKey("p", "u", "a")
+    private val keyB = ObservationKey("p", "u", "b")
+    private val keyC = ObservationKey("p", "u", "c")
+
+    private fun openQueue(
+        factory: SerializationFactory,
+        file: File,
+    ): ObjectQueue<Record<ObservationKey, ObservationKey>, Record<Any, Any>> = factory.createQueue(
+        QueueFile.newMapped(file, 100_000L),
+        factory.createSerializer(topic, file),
+        factory.createDeserializer(outputTopic, file),
+        file,
+    )
+
+    private fun ObjectQueue<*, Record<Any, Any>>.readAll(): List<Pair<String, String>> =
+        peek(100, Long.MAX_VALUE).map { record ->
+            record!!
+            Pair(
+                (record.key as GenericRecord).get("sourceId").toString(),
+                (record.value as GenericRecord).get("sourceId").toString(),
+            )
+        }
+
+    private fun ObjectQueue<*, *>.readRaw(reader: RawRecordReader, offset: Int): RawRecordData {
+        reader.reset()
+        peekRaw(100, Long.MAX_VALUE, offset, reader::read)
+        return reader.result(outputTopic)!!
+    }
+
+    private val RawRecordData.sourceId: String
+        get() = (key as GenericRecord).get("sourceId").toString()
+
+    @Test
+    fun keyChangeMidBatch() {
+        assertKeyChangeMidBatch(KeyedTapeSerializationFactory(), File(tempDir.root, "test.ktape"))
+    }
+
+    @Test
+    fun deflateKeyChangeMidBatch() {
+        val factory = DeflateSerializationFactory(KeyedTapeSerializationFactory())
+        val file = File(tempDir.root, "test.ktape.deflate")
+        assertKeyChangeMidBatch(factory, file)
+        assertTrue(File(tempDir.root, "test" + KeyedTapeSerializationFactory.KEY_TABLE_EXTENSION).exists())
+        assertTrue(File(tempDir.root, "test" + DeflateSerializationFactory.OFFSET_EXTENSION).exists())
+    }
+
+    private fun assertKeyChangeMidBatch(factory: SerializationFactory, file: File) {
+        openQueue(factory, file).use { queue ->
+            queue.addAll(listOf(
+                Record(keyA, ObservationKey("test", "c", "d0")),
+                Record(keyA, ObservationKey("test", "c", "d1")),
+                Record(keyB, ObservationKey("test", "c", "d2")),
+                Record(keyA, ObservationKey("test", "c", "d3")),
+            ))
+
+            assertEquals(listOf("a" to "d0", "a" to "d1", "b" to "d2", "a" to "d3"), queue.readAll())
+
+            val reader = factory.createRawReader(topic, file)!!
+            val first = queue.readRaw(reader, 0)
+            assertEquals("a", first.sourceId)
+            assertEquals(listOf("d0", "d1"), first.sourceIds())
+            val second = queue.readRaw(reader, 2)
+            assertEquals("b", second.sourceId)
+            assertEquals(listOf("d2"), second.sourceIds())
+            val third = queue.readRaw(reader, 3)
+            assertEquals("a", third.sourceId)
+            assertEquals(listOf("d3"), third.sourceIds())
+        }
+    }
+
+    @Test
+    fun serializeRaw() {
+        val factory = KeyedTapeSerializationFactory()
+        val file = File(tempDir.root, "test.ktape")
+        val serializer = factory.createSerializer(topic, file) as RawRecordWriter<ObservationKey>
+        val batch = valueBatch("d0", "d1", "d2")
+
+        openQueue(factory, file).use { queue ->
+            queue.add(Record(keyB, ObservationKey("test", "c", "b0")))
+            queue.addAllSerialized(batch.size) { i, output ->
+                serializer.serializeRaw(keyA, batch.buffer, batch.valueOffset(i), batch.valueLength(i), output)
+            }
+
+            assertEquals(listOf("b" to "b0", "a" to "d0", "a" to "d1", "a" to "d2"), queue.readAll())
+
+            val raw = queue.readRaw(factory.createRawReader(topic, file), 1)
+            assertEquals("a", raw.sourceId)
+            assertEquals(listOf("d0", "d1", "d2"), raw.sourceIds())
+        }
+    }
+
+    @Test
+    fun reopen() {
+        val file = File(tempDir.root, "test.ktape")
+        openQueue(KeyedTapeSerializationFactory(), file).use { queue ->
+            queue.addAll(listOf(
+                Record(keyA, ObservationKey("test", "c", "d0")),
+                Record(keyB, ObservationKey("test", "c", "d1")),
+            ))
+        }
+        val keyFile = File(tempDir.root, "test" + KeyedTapeSerializationFactory.KEY_TABLE_EXTENSION)
+        assertEquals(2, KeyTable(keyFile).size)
+
+        // a new factory reads the existing key table
+        val factory = KeyedTapeSerializationFactory()
+        openQueue(factory, file).use { queue ->
+            assertEquals(listOf("a" to "d0", "b" to "d1"), queue.readAll())
+
+            queue.addAll(listOf(
+                Record(keyC, ObservationKey("test", "c", "d2")),
+                Record(keyA, ObservationKey("test", "c", "d3")),
+            ))
+            assertEquals(listOf("a" to "d0", "b" to "d1", "c" to "d2", "a" to "d3"), queue.readAll())
+
+            val raw = queue.readRaw(factory.createRawReader(topic, file), 3)
+            assertEquals("a", raw.sourceId)
+            assertEquals(listOf("d3"), raw.sourceIds())
+        }
+        // existing keys are not added again
+        assertEquals(3, KeyTable(keyFile).size)
+    }
+
+    /** Values encoded back to back, as produced by a sample batch encoder. */
+    private fun valueBatch(vararg valueSourceIds: String): ValueBatch {
+        val writer = SpecificDatumWriter<ObservationKey>(ObservationKey.getClassSchema())
+        val offsets = IntArray(valueSourceIds.size + 1)
+        val buffer = ByteArrayOutputStream()
+        val encoder = EncoderFactory.get().directBinaryEncoder(buffer, null)
+        valueSourceIds.forEachIndexed { i, valueSourceId ->
+            writer.write(ObservationKey("test", "c", valueSourceId), encoder)
+            encoder.flush()
+            offsets[i + 1] = buffer.size()
+        }
+        return ValueBatch(buffer.toByteArray(), offsets, valueSourceIds.size)
+    }
+}
@@ -0,0 +1,104 @@
+package org.radarbase.android.data.serialization
+
+import org.apache.avro.generic.GenericDatumReader
+import org.apache.avro.generic.GenericRecord
+import org.apache.avro.io.DecoderFactory
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.data.Record
+import org.radarbase.topic.AvroTopic
+import org.radarcns.kafka.ObservationKey
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class TapeAvroRawReaderTest {
+    private val topic = AvroTopic("test",
+        ObservationKey.getClassSchema(), ObservationKey.getClassSchema(),
+        ObservationKey::class.java, ObservationKey::class.java)
+    private val outputTopic = AvroTopic("test",
+        ObservationKey.getClassSchema(), ObservationKey.getClassSchema(),
+        Any::class.java, Any::class.java)
+    private val factory = TapeAvroSerializationFactory()
+
+    private fun serialize(vararg records: Record<ObservationKey, ObservationKey>): List<ByteArray> {
+        val serializer = factory.createSerializer(topic)
+        return records.map { record ->
+            ByteArrayOutputStream().use { output ->
+                serializer.serialize(record, output)
+                output.toByteArray()
+            }
+        }
+    }
+
+    @Test
+    fun readBatch() {
+        val keyA = ObservationKey("p", "u", "a")
+        val keyB = ObservationKey("p", "u", "b")
+        val serialized = serialize(
+            Record(keyA, ObservationKey("test", "c", "d0")),
+            Record(keyA, ObservationKey("test", "c", "d1")),
+            Record(keyA, ObservationKey("test", "c", "d2")),
+            Record(keyB, ObservationKey("test", "c", "d3")),
+        )
+
+        val reader = factory.createRawReader(topic)
+        reader.reset()
+        for (i in 0 until 3) {
+            assertTrue(reader.read(ByteArrayInputStream(serialized[i])))
+        }
+        // different key ends the batch
+        assertFalse(reader.read(ByteArrayInputStream(serialized[3])))
+
+        val result = reader.result(outputTopic)
+        assertNotNull(result)
+        result!!
+        assertEquals(3, result.size)
+        assertEquals("a", (result.key as GenericRecord).get("sourceId").toString())
+        assertEquals(listOf("d0", "d1", "d2"), result.sourceIds())
+
+        reader.reset()
+        assertTrue(reader.read(ByteArrayInputStream(serialized[3])))
+        val next = reader.result(outputTopic)!!
+        assertEquals(1, next.size)
+        assertEquals("b", (next.key as GenericRecord).get("sourceId").toString())
+        assertEquals(listOf("d3"), next.sourceIds())
+        // the first result keeps its values after the buffer is reused
+        assertEquals(listOf("d0", "d1", "d2"), result.sourceIds())
+    }
+
+    @Test
+    fun longerKey() {
+        val serialized = serialize(
+            Record(ObservationKey("p", "u", "a"), ObservationKey("test", "c", "d0")),
+            Record(ObservationKey("p", "u", "aa"), ObservationKey("test", "c", "d1")),
+        )
+        val reader = factory.createRawReader(topic)
+        reader.reset()
+        assertTrue(reader.read(ByteArrayInputStream(serialized[0])))
+        assertFalse(reader.read(ByteArrayInputStream(serialized[1])))
+        assertEquals(1, reader.result(outputTopic)!!.size)
+    }
+
+    @Test
+    fun emptyResult() {
+        val reader = factory.createRawReader(topic)
+        reader.reset()
+        assertNull(reader.result(outputTopic))
+    }
+
+    companion object {
+        /** Decode the values of [RawRecordData] and return their source IDs. */
+        internal fun RawRecordData.sourceIds(): List<String> {
+            val valueReader = GenericDatumReader<GenericRecord>(topic.valueSchema)
+            return (0 until size).map { i ->
+                val decoder = DecoderFactory.get().binaryDecoder(buffer, valueOffset(i), valueLength(i), null)
+                valueReader.read(null, decoder).get("sourceId").toString()
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.radarbase.android.kafka
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.radarbase.android.kafka.AdaptiveUploadLimits.Companion.INITIAL_SIZE_LIMIT
+import org.radarbase.android.kafka.AdaptiveUploadLimits.Companion.MAX_AMOUNT_FACTOR
+import org.radarbase.android.kafka.AdaptiveUploadLimits.Companion.MIN_SIZE_LIMIT
+import org.radarbase.android.kafka.AdaptiveUploadLimits.Companion.SIZE_LIMIT_STEP
+
+class AdaptiveUploadLimitsTest {
+    private val config = SubmitterConfiguration(amountLimit = 1000, sizeLimit = 5_000_000L)
+    private val limits = AdaptiveUploadLimits(targetDuration = 1000L)
+
+    private fun update(numRecords: Int, numBytes: Long, durationMillis: Long, isSuccessful: Boolean = true, isUnmetered: Boolean = true) {
+        val current = limits.limitsFor("a", isUnmetered, config)
+        limits.update("a", isUnmetered, config, current, numRecords, numBytes, durationMillis * 1_000_000L, isSuccessful)
+    }
+
+    @Test
+    fun testInitial() {
+        assertEquals(AdaptiveUploadLimits.UploadLimits(1000, INITIAL_SIZE_LIMIT), limits.limitsFor("a", true, config))
+    }
+
+    @Test
+    fun testAdditiveIncrease() {
+        update(1000, 500_000L, 100L)
+        assertEquals(AdaptiveUploadLimits.UploadLimits(1250, INITIAL_SIZE_LIMIT + SIZE_LIMIT_STEP), limits.limitsFor("a", true, config))
+
+        repeat(100) { update(limits.limitsFor("a", true, config).amountLimit, 0L, 100L) }
+        val result = limits.limitsFor("a", true, config)
+        assertEquals(1000 * MAX_AMOUNT_FACTOR, result.amountLimit)
+        assertEquals(config.sizeLimit, result.sizeLimit)
+    }
+
+    @Test
+    fun testNotFull() {
+        update(10, 1000L, 100L)
+        assertEquals(AdaptiveUploadLimits.UploadLimits(1000, INITIAL_SIZE_LIMIT), limits.limitsFor("a", true, config))
+    }
+
+    @Test
+    fun testMultiplicativeDecrease() {
+        update(1000, -1L, 100L, isSuccessful = false)
+        assertEquals(AdaptiveUploadLimits.UploadLimits(500, INITIAL_SIZE_LIMIT / 2), limits.limitsFor("a", true, config))
+
+        repeat(20) { update(1, -1L, 100L, isSuccessful = false) }
+        assertEquals(AdaptiveUploadLimits.UploadLimits(1, MIN_SIZE_LIMIT), limits.limitsFor("a", true, config))
+    }
+
+    @Test
+    fun testSlowRequestUsesThroughput() {
+        // 100 kB in 10 seconds allows 10 kB in the target second, which is below the minimum
+        update(1000, 100_000L, 10_000L)
+        assertEquals(MIN_SIZE_LIMIT, limits.limitsFor("a", true, config).sizeLimit)
+
+        val other = AdaptiveUploadLimits(targetDuration = 1000L)
+        val current = other.limitsFor("a", true, config)
+        other.update("a", true, config, current, 1000, 400_000L, 2_000_000_000L, true)
+        assertEquals(200_000L, other.limitsFor("a", true, config).sizeLimit)
+    }
+
+    @Test
+    fun testPerNetworkType() {
+        update(1000, -1L, 100L, isSuccessful = false, isUnmetered = false)
+        assertTrue(limits.limitsFor("a", false, config).amountLimit < config.amountLimit)
+        assertEquals(config.amountLimit, limits.limitsFor("a", true, config).amountLimit)
+        assertEquals(config.amountLimit, limits.limitsFor("b", false, config).amountLimit)
+    }
+
+    @Test
+    fun testConfigBounds() {
+        update(1000, 900_000L, 100L)
+        val smallConfig = config.copy(amountLimit = 100, sizeLimit = 100_000L)
+        assertEquals(AdaptiveUploadLimits.UploadLimits(400, 100_000L), limits.limitsFor("a", true, smallConfig))
+    }
+}
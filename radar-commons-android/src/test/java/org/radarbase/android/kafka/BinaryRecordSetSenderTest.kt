@@ -0,0 +1,228 @@
+package org.radarbase.android.kafka
+
+import okhttp3.Headers
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.apache.avro.Schema
+import org.apache.avro.generic.GenericData
+import org.apache.avro.generic.GenericDatumReader
+import org.apache.avro.generic.GenericRecord
+import org.apache.avro.io.DecoderFactory
+import org.apache.avro.io.EncoderFactory
+import org.apache.avro.specific.SpecificDatumWriter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.radarbase.android.data.RawRecordData
+import org.radarbase.config.ServerConfig
+import org.radarbase.producer.AuthenticationException
+import org.radarbase.producer.rest.RestClient
+import org.radarbase.producer.rest.SchemaMetadata
+import org.radarbase.producer.rest.SchemaRetriever
+import org.radarbase.topic.AvroTopic
+import org.radarcns.kafka.ObservationKey
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class BinaryRecordSetSenderTest {
+    private lateinit var server: MockWebServer
+    private lateinit var sender: BinaryRecordSetSender
+
+    private val schemaRetriever = object : SchemaRetriever(ServerConfig("http://localhost/"), 30, 7200L) {
+        override fun getOrSetSchemaMetadata(topic: String, ofValue: Boolean, schema: Schema, version: Int): SchemaMetadata {
+            return if (ofValue) SchemaMetadata(2, VALUE_VERSION, schema) else SchemaMetadata(1, KEY_VERSION, schema)
+        }
+    }
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+        val client = RestClient.global()
+            .server(ServerConfig(server.url("/").toUrl()))
+            .build()
+        sender = BinaryRecordSetSender(client, schemaRetriever, Headers.headersOf())
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun send() {
+        server.enqueue(MockResponse().setResponseCode(204))
+        assertTrue(sender.send(rawRecords("test", "a", "d0", "d1", "d2")))
+
+        val request = server.takeRequest()
+        assertEquals("/topics/test", request.path)
+        assertEquals("application/vnd.radarbase.avro.v1+binary", request.getHeader("Content-Type"))
+        val recordSet = GenericDatumReader<GenericRecord>(RECORD_SET_SCHEMA)
+            .read(null, DecoderFactory.get().binaryDecoder(request.body.readByteArray(), null))
+        assertRecordSet(recordSet, "a", "d0", "d1", "d2")
+    }
+
+    @Test
+    fun sendAll() {
+        server.enqueue(MockResponse().setResponseCode(204))
+        assertTrue(sender.sendAll(listOf(
+            rawRecords("test", "a", "d0", "d1"),
+            rawRecords("other", "b", "d2"),
+        )))
+
+        val request = server.takeRequest()
+        assertEquals("/topics", request.path)
+        val topicSets = GenericDatumReader<List<GenericRecord>>(TOPIC_RECORD_SETS_SCHEMA)
+            .read(null, DecoderFactory.get().binaryDecoder(request.body.readByteArray(), null))
+        assertEquals(2, topicSets.size)
+        assertEquals("test", topicSets[0].get("topic").toString())
+        assertRecordSet(topicSets[0].get("records") as GenericRecord, "a", "d0", "d1")
+        assertEquals("other", topicSets[1].get("topic").toString())
+        assertRecordSet(topicSets[1].get("records") as GenericRecord, "b", "d2")
+    }
+
+    @Test
+    fun unsupportedMediaType() {
+        server.enqueue(MockResponse().setResponseCode(415))
+        assertFalse(sender.send(rawRecords("test", "a", "d0")))
+        assertFalse(sender.isSupported)
+        assertFalse(sender.isAvailable)
+
+        // no further requests are made
+        assertFalse(sender.send(rawRecords("test", "a", "d0")))
+        assertFalse(sender.sendAll(listOf(rawRecords("test", "a", "d0"))))
+        assertEquals(1, server.requestCount)
+    }
+
+    @Test
+    fun rejected() {
+        for (code in listOf(400, 404, 413, 422)) {
+            server.enqueue(MockResponse().setResponseCode(code))
+            assertFalse(sender.send(rawRecords("test", "a", "d0")))
+            assertTrue(sender.isAvailable)
+        }
+    }
+
+    @Test
+    fun retried() {
+        for (code in listOf(429, 500, 503)) {
+            server.enqueue(MockResponse().setResponseCode(code))
+            try {
+                sender.send(rawRecords("test", "a", "d0"))
+                throw AssertionError("Expected IOException for HTTP $code")
+            } catch (ex: IOException) {
+                assertFalse(ex is AuthenticationException)
+            }
+            assertTrue(sender.isAvailable)
+        }
+    }
+
+    @Test(expected = AuthenticationException::class)
+    fun unauthorized() {
+        server.enqueue(MockResponse().setResponseCode(401))
+        sender.send(rawRecords("test", "a", "d0"))
+    }
+
+    @Test
+    fun multiTopicUnsupported() {
+        for (code in listOf(404, 405, 415)) {
+            sender.isMultiTopicEnabled = true
+            server.enqueue(MockResponse().setResponseCode(code))
+            assertFalse(sender.sendAll(listOf(rawRecords("test", "a", "d0"))))
+            assertFalse(sender.isMultiTopicEnabled)
+            // single topic record sets are still sent
+            assertTrue(sender.isAvailable)
+        }
+        assertFalse(sender.sendAll(listOf(rawRecords("test", "a", "d0"))))
+        assertEquals(3, server.requestCount)
+    }
+
+    @Test
+    fun multiTopicRejected() {
+        server.enqueue(MockResponse().setResponseCode(400))
+        assertFalse(sender.sendAll(listOf(rawRecords("test", "a", "d0"))))
+        assertTrue(sender.isMultiTopicEnabled)
+    }
+
+    @Test
+    fun keyWithoutSourceId() {
+        val topic = AvroTopic("test",
+            Schema.create(Schema.Type.STRING), ObservationKey.getClassSchema(),
+            Any::class.java, Any::class.java)
+        val records = RawRecordData(topic, "a", ByteArray(0), intArrayOf(0), 0)
+        assertFalse(sender.send(records))
+        assertEquals(0, server.requestCount)
+    }
+
+    private fun assertRecordSet(recordSet: GenericRecord, sourceId: String, vararg valueSourceIds: String) {
+        assertEquals(KEY_VERSION, recordSet.get("keySchemaVersion"))
+        assertEquals(VALUE_VERSION, recordSet.get("valueSchemaVersion"))
+        assertNull(recordSet.get("projectId"))
+        assertNull(recordSet.get("userId"))
+        assertEquals(sourceId, recordSet.get("sourceId").toString())
+
+        val valueReader = GenericDatumReader<GenericRecord>(ObservationKey.getClassSchema())
+        @Suppress("UNCHECKED_CAST")
+        val values = (recordSet.get("data") as List<ByteBuffer>).map { data ->
+            val bytes = ByteArray(data.remaining()).also { data.get(it) }
+            valueReader.read(null, DecoderFactory.get().binaryDecoder(bytes, null))
+                .get("sourceId").toString()
+        }
+        assertEquals(valueSourceIds.toList(), values)
+    }
+
+    companion object {
+        private const val KEY_VERSION = 3
+        private const val VALUE_VERSION = 4
+
+        private const val RECORD_SET_SCHEMA_JSON = """
+            {"type": "record", "name": "RecordSet", "namespace": "org.radarcns.kafka", "fields": [
+              {"name": "keySchemaVersion", "type": "int"},
+              {"name": "valueSchemaVersion", "type": "int"},
+              {"name": "projectId", "type": ["null", "string"], "default": null},
+              {"name": "userId", "type": ["null", "string"], "default": null},
+              {"name": "sourceId", "type": "string"},
+              {"name": "data", "type": {"type": "array", "items": "bytes"}}
+            ]}
+        """
+
+        private val RECORD_SET_SCHEMA: Schema = Schema.Parser().parse(RECORD_SET_SCHEMA_JSON)
+
+        private val TOPIC_RECORD_SETS_SCHEMA: Schema = Schema.Parser().parse("""
+            {"type": "array", "items": {"type": "record", "name": "TopicRecordSet", "namespace": "org.radarcns.kafka", "fields": [
+              {"name": "topic", "type": "string"},
+              {"name": "records", "type": $RECORD_SET_SCHEMA_JSON}
+            ]}}
+        """)
+
+        /**
+         * Create record data with an [ObservationKey] key and [ObservationKey] values, encoded
+         * back to back in a single buffer.
+         */
+        private fun rawRecords(topicName: String, sourceId: String, vararg valueSourceIds: String): RawRecordData {
+            val topic = AvroTopic(topicName,
+                ObservationKey.getClassSchema(), ObservationKey.getClassSchema(),
+                Any::class.java, Any::class.java)
+            val key = GenericData.Record(ObservationKey.getClassSchema()).apply {
+                put("projectId", "p")
+                put("userId", "u")
+                put("sourceId", sourceId)
+            }
+            val writer = SpecificDatumWriter<ObservationKey>(ObservationKey.getClassSchema())
+            val offsets = IntArray(valueSourceIds.size + 1)
+            val buffer = ByteArrayOutputStream()
+            val encoder = EncoderFactory.get().directBinaryEncoder(buffer, null)
+            valueSourceIds.forEachIndexed { i, valueSourceId ->
+                writer.write(ObservationKey("test", "c", valueSourceId), encoder)
+                encoder.flush()
+                offsets[i + 1] = buffer.size()
+            }
+            return RawRecordData(topic, key, buffer.toByteArray(), offsets, valueSourceIds.size)
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.radarbase.android.util
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+internal class ThreadHandlerBackendTest {
+    private lateinit var handler: SafeHandler
+
+    @Before
+    fun setUp() {
+        handler = SafeHandler("test", 0, ::ThreadHandlerBackend).apply { start() }
+    }
+
+    @After
+    fun tearDown() {
+        handler.stop()
+    }
+
+    @Test
+    fun runsInOrder() {
+        val results = CopyOnWriteArrayList<Int>()
+        repeat(1000) { i -> handler.execute { results += i } }
+        handler.await { }
+        assertEquals((0 until 1000).toList(), results)
+    }
+
+    @Test
+    fun compute() {
+        assertEquals(42, handler.compute { 42 })
+        assertNull(handler.compute { null })
+        assertTrue(handler.compute { handler.compute { true } })
+        val ex = assertThrows(ExecutionException::class.java) {
+            handler.compute { throw IllegalArgumentException("test") }
+        }
+        assertTrue(ex.cause is IllegalArgumentException)
+        // the handler still runs after a failure
+        handler.execute { throw IllegalStateException("test") }
+        assertEquals(1, handler.compute { 1 })
+    }
+
+    @Test
+    fun delay() {
+        val results = CopyOnWriteArrayList<Int>()
+        val latch = CountDownLatch(2)
+        handler.delay(100L) {
+            results += 2
+            latch.countDown()
+        }
+        handler.delay(10L) {
+            results += 1
+            latch.countDown()
+        }
+        handler.delay(20L) { results += 3 }?.cancel()
+        handler.execute { results += 0 }
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        Thread.sleep(50L)
+        assertEquals(listOf(0, 1, 2), results)
+    }
+
+    @Test
+    fun cancelWithoutDelay() {
+        val results = CopyOnWriteArrayList<Int>()
+        val latch = CountDownLatch(1)
+        handler.execute { latch.await() }
+        handler.delay(0L) { results += 1 }!!.cancel()
+        handler.delay(0L) { results += 2 }
+        latch.countDown()
+        handler.await { }
+        assertEquals(listOf(2), results)
+    }
+
+    @Test
+    fun runNow() {
+        val results = CopyOnWriteArrayList<Int>()
+        handler.delay(60_000L) { results += 1 }!!.awaitNow()
+        assertEquals(listOf(1), results)
+    }
+
+    @Test
+    fun stop() {
+        val results = CopyOnWriteArrayList<Int>()
+        val latch = CountDownLatch(1)
+        handler.execute { results += 1 }
+        handler.delay(60_000L) { results += 3 }
+        handler.stop(finalization = {
+            results += 2
+            latch.countDown()
+        })
+        assertFalse(handler.isStarted)
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        assertNull(handler.submit { results += 4 })
+        assertThrows(ExecutionException::class.java) { handler.compute { 5 } }
+        assertEquals(listOf(1, 2), results)
+    }
+
+    @Test
+    fun noTasksAfterStop() {
+        val isFinalized = AtomicBoolean(false)
+        val lateTasks = AtomicInteger(0)
+        val latch = CountDownLatch(1)
+        val poster = Thread {
+            while (handler.isStarted) {
+                handler.execute {
+                    if (isFinalized.get()) lateTasks.incrementAndGet()
+                }
+            }
+            latch.countDown()
+        }.apply { start() }
+        Thread.sleep(10L)
+        handler.stop(finalization = { isFinalized.set(true) })
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        poster.join()
+        assertEquals(0, lateTasks.get())
+    }
+
+    @Test
+    fun javaPriority() {
+        assertEquals(Thread.NORM_PRIORITY, ThreadHandlerBackend.javaPriority(0))
+        assertEquals(Thread.MAX_PRIORITY, ThreadHandlerBackend.javaPriority(-20))
+        assertEquals(Thread.MIN_PRIORITY, ThreadHandlerBackend.javaPriority(19))
+        assertTrue(ThreadHandlerBackend.javaPriority(10) < Thread.NORM_PRIORITY)
+    }
+}
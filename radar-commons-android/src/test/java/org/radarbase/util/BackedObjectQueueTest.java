@@ -67,6 +67,17 @@ public class BackedObjectQueueTest {
         });
     }
 
+    @Test
+    public void testMappedBinaryObject() throws IOException {
+        testBinaryObject(f -> {
+            try {
+                return QueueFile.Companion.newMapped(f, 450000000);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+    }
+
     private void testBinaryObject(Function<File, QueueFile> queueFileSupplier) throws IOException {
         File file = folder.newFile();
         Random random = new Random();
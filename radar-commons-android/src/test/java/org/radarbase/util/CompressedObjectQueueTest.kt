@@ -0,0 +1,142 @@
+package org.radarbase.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.InputStream
+import java.io.OutputStream
+
+class CompressedObjectQueueTest {
+    @Rule
+    @JvmField
+    val tempDir = TemporaryFolder()
+
+    private val serializer = object : BackedObjectQueue.Serializer<String> {
+        override fun canSerialize(value: String) = true
+        override fun serialize(value: String, output: OutputStream) = output.write(value.toByteArray())
+    }
+
+    private val reused = mutableListOf<String?>()
+
+    private val deserializer = object : BackedObjectQueue.Deserializer<String> {
+        override fun deserialize(input: InputStream) = String(input.readBytes())
+
+        override fun deserialize(input: InputStream, reuse: String?): String {
+            reused += reuse
+            return deserialize(input)
+        }
+    }
+
+    private fun newQueue(file: File) = CompressedObjectQueue(
+        QueueFile.newDirect(file, 10_000_000L),
+        serializer,
+        deserializer,
+        File(file.path + ".offset"),
+    )
+
+    @Test
+    fun addAndPeek() {
+        newQueue(tempDir.newFile().also { it.delete() }).use { queue ->
+            assertNull(queue.peek())
+            queue += listOf("a", "b", "c")
+            queue += "d"
+            assertEquals(4, queue.size)
+            assertEquals("a", queue.peek())
+            assertEquals(listOf("a", "b", "c", "d"), queue.peek(10, 100L))
+            assertEquals(listOf("a", "b"), queue.peek(2, 100L))
+            assertEquals(listOf("a", "b"), queue.peek(10, 2L))
+        }
+    }
+
+    @Test
+    fun removePartialBlock() {
+        val file = tempDir.newFile().also { it.delete() }
+        newQueue(file).use { queue ->
+            queue += listOf("a", "b", "c")
+            queue += listOf("d", "e")
+            queue -= 2
+            assertEquals(3, queue.size)
+            assertEquals(listOf("c", "d", "e"), queue.peek(10, 100L))
+            queue -= 2
+            assertEquals(listOf("e"), queue.peek(10, 100L))
+        }
+        newQueue(file).use { queue ->
+            assertEquals(1, queue.size)
+            assertEquals("e", queue.peek())
+            queue -= 1
+            assertEquals(0, queue.size)
+        }
+    }
+
+    @Test
+    fun peekWithOffset() {
+        newQueue(tempDir.newFile().also { it.delete() }).use { queue ->
+            queue += listOf("a", "b", "c")
+            queue += listOf("d", "e")
+            queue -= 1
+            assertEquals(listOf("c", "d", "e"), queue.peek(10, 100L, 1))
+            assertEquals(listOf("d"), queue.peek(1, 100L, 2))
+            assertEquals(listOf("e"), queue.peek(10, 100L, 3))
+            assertEquals(emptyList<String>(), queue.peek(10, 100L, 4))
+            val raw = mutableListOf<String>()
+            assertEquals(2, queue.peekRaw(10, 100L, 2) { raw += String(it.readBytes()); true })
+            assertEquals(listOf("d", "e"), raw)
+        }
+    }
+
+    @Test
+    fun peekReuse() {
+        newQueue(tempDir.newFile().also { it.delete() }).use { queue ->
+            queue += listOf("a", "b", "c")
+            val batch = mutableListOf<String?>()
+            assertSame(batch, queue.peek(10, 100L, 0, batch))
+            assertEquals(listOf("a", "b", "c"), batch)
+            assertEquals(listOf(null, null, null), reused)
+
+            reused.clear()
+            queue -= 1
+            queue.peek(10, 100L, 0, batch)
+            assertEquals(listOf("b", "c"), batch)
+            assertEquals(listOf("a", "b"), reused)
+        }
+    }
+
+    @Test
+    fun staleOffset() {
+        val file = tempDir.newFile().also { it.delete() }
+        newQueue(file).use { queue ->
+            queue += listOf("a", "b", "c")
+            queue -= 3
+            queue += listOf("d", "e")
+        }
+        newQueue(file).use { queue ->
+            assertEquals(listOf("d", "e"), queue.peek(10, 100L))
+        }
+    }
+
+    @Test(expected = NoSuchElementException::class)
+    fun removeTooMany() {
+        newQueue(tempDir.newFile().also { it.delete() }).use { queue ->
+            queue += listOf("a", "b")
+            queue -= 3
+        }
+    }
+
+    @Test
+    fun compresses() {
+        val file = tempDir.newFile().also { it.delete() }
+        newQueue(file).use { queue ->
+            queue += List(1000) { "record number $it" }
+            assertEquals(1000, queue.size)
+            assertEquals("record number 999", queue.peek(1000, 100_000L).last())
+        }
+        QueueFile.newDirect(file, 10_000_000L).use { queueFile ->
+            assertEquals(1, queueFile.size)
+            assert(queueFile.usedBytes < 1000 * "record number 000".length / 2)
+        }
+    }
+}
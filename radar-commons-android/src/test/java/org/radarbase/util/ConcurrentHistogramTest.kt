@@ -0,0 +1,75 @@
+package org.radarbase.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.radarbase.util.ConcurrentHistogram.Companion.MAX_VALUE
+import org.radarbase.util.ConcurrentHistogram.Companion.SUB_BUCKET_HALF_COUNT
+import kotlin.concurrent.thread
+
+class ConcurrentHistogramTest {
+    @Test
+    fun testEmpty() {
+        val snapshot = ConcurrentHistogram().snapshot()
+        assertEquals(0L, snapshot.count)
+        assertEquals(0L, snapshot.percentile(99.0))
+        assertEquals(0.0, snapshot.mean, 0.0)
+    }
+
+    @Test
+    fun testBuckets() {
+        var previous = -1
+        var value = 0L
+        while (value <= MAX_VALUE) {
+            val index = ConcurrentHistogram.indexOf(value)
+            assertTrue("Index of $value is not increasing", index >= previous)
+            assertTrue(ConcurrentHistogram.lowestEquivalentValue(index) <= value)
+            assertTrue(ConcurrentHistogram.highestEquivalentValue(index) >= value)
+            previous = index
+            value = value * 9 / 8 + 1
+        }
+        assertEquals(ConcurrentHistogram.lowestEquivalentValue(previous + 1), ConcurrentHistogram.highestEquivalentValue(previous) + 1)
+    }
+
+    @Test
+    fun testPercentiles() {
+        val histogram = ConcurrentHistogram()
+        for (i in 1L..1000L) {
+            histogram.record(i * 1000L)
+        }
+        val snapshot = histogram.snapshot()
+        assertEquals(1000L, snapshot.count)
+        assertEquals(500_500_000L, snapshot.sum)
+        assertEquals(1_000_000L, snapshot.max)
+        assertEquals(1_000_000L, snapshot.percentile(100.0))
+        assertEquals(1000.0, snapshot.percentile(0.0).toDouble(), 1000.0 / SUB_BUCKET_HALF_COUNT)
+        assertEquals(500_000.0, snapshot.percentile(50.0).toDouble(), 500_000.0 / SUB_BUCKET_HALF_COUNT)
+        assertEquals(990_000.0, snapshot.percentile(99.0).toDouble(), 990_000.0 / SUB_BUCKET_HALF_COUNT)
+    }
+
+    @Test
+    fun testBounds() {
+        val histogram = ConcurrentHistogram()
+        histogram.record(-5L)
+        histogram.record(Long.MAX_VALUE)
+        val snapshot = histogram.snapshot()
+        assertEquals(2L, snapshot.count)
+        assertEquals(0L, snapshot.percentile(50.0))
+        assertEquals(MAX_VALUE, snapshot.percentile(100.0))
+    }
+
+    @Test
+    fun testConcurrent() {
+        val histogram = ConcurrentHistogram()
+        val threads = (1..4).map {
+            thread {
+                repeat(10_000) { histogram.record(it.toLong()) }
+            }
+        }
+        threads.forEach { it.join() }
+        val snapshot = histogram.snapshot()
+        assertEquals(40_000L, snapshot.count)
+        assertEquals(4 * 49_995_000L, snapshot.sum)
+        assertEquals(9_999L, snapshot.max)
+    }
+}
@@ -0,0 +1,118 @@
+package org.radarbase.util
+
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.radarbase.util.QueueFileHeader.Companion.QUEUE_HEADER_LENGTH
+import java.nio.ByteBuffer
+import java.util.concurrent.ThreadLocalRandom
+
+class MappedQueueFileStorageTest {
+    @Rule
+    @JvmField
+    val tempDir = TemporaryFolder()
+
+    @Test
+    fun testRead() {
+        val tmpFile = tempDir.newFile()
+        assertTrue(tmpFile.delete())
+        val mappedQueue = MappedQueueFileStorage(tmpFile, 4096, 4096)
+        val expected = ByteArray(10).apply {
+            ThreadLocalRandom.current().nextBytes(this)
+        }
+        val actual = ByteArray(10)
+        assertEquals(QUEUE_HEADER_LENGTH + 10L, mappedQueue.writeFully(QUEUE_HEADER_LENGTH, ByteBuffer.wrap(expected)))
+        assertEquals(QUEUE_HEADER_LENGTH + 10L, mappedQueue.readFully(QUEUE_HEADER_LENGTH, ByteBuffer.wrap(actual)))
+        assertArrayEquals(expected, actual)
+    }
+
+    @Test
+    fun testWrap() {
+        val tmpFile = tempDir.newFile()
+        assertTrue(tmpFile.delete())
+        val mappedQueue = MappedQueueFileStorage(tmpFile, 4096, 4096)
+        val expected = ByteArray(10).apply {
+            ThreadLocalRandom.current().nextBytes(this)
+        }
+        val actual = ByteArray(10)
+        assertEquals(4L + QUEUE_HEADER_LENGTH, mappedQueue.writeFully(4090, ByteBuffer.wrap(expected)))
+        assertEquals(4L + QUEUE_HEADER_LENGTH, mappedQueue.readFully(4090, ByteBuffer.wrap(actual)))
+        assertArrayEquals(expected, actual)
+    }
+
+    @Test
+    fun testRegionBoundary() {
+        val tmpFile = tempDir.newFile()
+        assertTrue(tmpFile.delete())
+        val mappedQueue = MappedQueueFileStorage(tmpFile, 8192, 8192, regionSize = 4096)
+        val expected = ByteArray(10).apply {
+            ThreadLocalRandom.current().nextBytes(this)
+        }
+        val actual = ByteArray(10)
+        assertEquals(4100L, mappedQueue.writeFully(4090, ByteBuffer.wrap(expected)))
+        assertEquals(4100L, mappedQueue.readFully(4090, ByteBuffer.wrap(actual)))
+        assertArrayEquals(expected, actual)
+    }
+
+    @Test
+    fun testSlice() {
+        val tmpFile = tempDir.newFile()
+        assertTrue(tmpFile.delete())
+        val mappedQueue = MappedQueueFileStorage(tmpFile, 8192, 8192, regionSize = 4096)
+        val expected = ByteArray(10).apply {
+            ThreadLocalRandom.current().nextBytes(this)
+        }
+        mappedQueue.writeFully(QUEUE_HEADER_LENGTH, ByteBuffer.wrap(expected))
+        val slice = requireNotNull(mappedQueue.slice(QUEUE_HEADER_LENGTH, 10))
+        assertTrue(slice.isReadOnly)
+        assertEquals(10, slice.remaining())
+        val actual = ByteArray(10)
+        slice.get(actual)
+        assertArrayEquals(expected, actual)
+
+        // spans two regions
+        mappedQueue.writeFully(4090, ByteBuffer.wrap(expected))
+        assertNull(mappedQueue.slice(4090, 10))
+        assertNotNull(mappedQueue.slice(4086, 10))
+        // wraps around the end of the storage
+        assertNull(mappedQueue.slice(8190, 10))
+    }
+
+    @Test
+    fun testResize() {
+        val tmpFile = tempDir.newFile()
+        assertTrue(tmpFile.delete())
+        val mappedQueue = MappedQueueFileStorage(tmpFile, 4096, 8192)
+        val expected = ByteArray(10).apply {
+            ThreadLocalRandom.current().nextBytes(this)
+        }
+        val actual = ByteArray(10)
+        assertEquals(4L + QUEUE_HEADER_LENGTH, mappedQueue.writeFully(4090, ByteBuffer.wrap(expected)))
+        assertEquals(4L + QUEUE_HEADER_LENGTH, mappedQueue.readFully(4090, ByteBuffer.wrap(actual)))
+        assertArrayEquals(expected, actual)
+
+        mappedQueue.resize(2 * 4096)
+        mappedQueue.move(QUEUE_HEADER_LENGTH, 4096L, 4L)
+        assertEquals(4100L, mappedQueue.readFully(4090L, ByteBuffer.wrap(actual)))
+        assertArrayEquals(expected, actual)
+    }
+
+    @Test
+    fun testReopen() {
+        val tmpFile = tempDir.newFile()
+        assertTrue(tmpFile.delete())
+        val expected = ByteArray(10).apply {
+            ThreadLocalRandom.current().nextBytes(this)
+        }
+        MappedQueueFileStorage(tmpFile, 4096, 4096).use {
+            it.writeFully(QUEUE_HEADER_LENGTH, ByteBuffer.wrap(expected))
+        }
+        val actual = ByteArray(10)
+        MappedQueueFileStorage(tmpFile, 4096, 4096).use {
+            assertTrue(it.isPreExisting)
+            it.readFully(QUEUE_HEADER_LENGTH, ByteBuffer.wrap(actual))
+        }
+        assertArrayEquals(expected, actual)
+    }
+}
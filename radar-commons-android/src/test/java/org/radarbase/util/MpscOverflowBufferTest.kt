@@ -0,0 +1,56 @@
+package org.radarbase.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class MpscOverflowBufferTest {
+    @Test
+    fun overflow() {
+        val buffer = MpscOverflowBuffer<Int>(4)
+        for (i in 0 until 6) {
+            buffer.add(i)
+        }
+        assertTrue(buffer.isOverflowing)
+        assertEquals(4, buffer.size)
+
+        val result = mutableListOf<Int>()
+        assertEquals(6, buffer.drain { result += it })
+        assertEquals((0 until 6).toList(), result)
+        assertFalse(buffer.isOverflowing)
+        assertEquals(0, buffer.size)
+
+        // the ring buffer is used again after the overflow is drained
+        buffer.add(6)
+        assertFalse(buffer.isOverflowing)
+        assertEquals(1, buffer.size)
+    }
+
+    @Test
+    fun concurrentProducers() {
+        val buffer = MpscOverflowBuffer<Int>(16)
+        val numProducers = 4
+        val numElements = 10_000
+        val producers = List(numProducers) { p ->
+            thread {
+                for (i in 0 until numElements) {
+                    buffer.add(p * numElements + i)
+                }
+            }
+        }
+        val lastSeen = IntArray(numProducers) { -1 }
+        var count = 0
+        while (count < numProducers * numElements) {
+            count += buffer.drain { value ->
+                val p = value / numElements
+                assertTrue(value % numElements > lastSeen[p])
+                lastSeen[p] = value % numElements
+            }
+        }
+        producers.forEach { it.join() }
+        assertEquals(numProducers * numElements, count)
+        assertEquals(0, buffer.size)
+    }
+}
@@ -0,0 +1,56 @@
+package org.radarbase.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class MpscRingBufferTest {
+    @Test
+    fun offerAndPoll() {
+        val buffer = MpscRingBuffer<Int>(3)
+        assertEquals(4, buffer.capacity)
+        assertNull(buffer.poll())
+        for (i in 0 until 4) {
+            assertTrue(buffer.offer(i))
+        }
+        assertFalse(buffer.offer(4))
+        assertEquals(4, buffer.size)
+        assertEquals(0, buffer.poll())
+        assertTrue(buffer.offer(4))
+        val result = mutableListOf<Int>()
+        assertEquals(4, buffer.drain { result += it })
+        assertEquals(listOf(1, 2, 3, 4), result)
+        assertEquals(0, buffer.size)
+    }
+
+    @Test
+    fun concurrentProducers() {
+        val buffer = MpscRingBuffer<Int>(64)
+        val numProducers = 4
+        val numElements = 10_000
+        val producers = List(numProducers) { p ->
+            thread {
+                for (i in 0 until numElements) {
+                    while (!buffer.offer(p * numElements + i)) {
+                        Thread.yield()
+                    }
+                }
+            }
+        }
+        val lastSeen = IntArray(numProducers) { -1 }
+        var count = 0
+        while (count < numProducers * numElements) {
+            count += buffer.drain { value ->
+                val p = value / numElements
+                assertTrue(value % numElements > lastSeen[p])
+                lastSeen[p] = value % numElements
+            }
+        }
+        producers.forEach { it.join() }
+        assertEquals(numProducers * numElements, count)
+        assertNull(buffer.poll())
+    }
+}
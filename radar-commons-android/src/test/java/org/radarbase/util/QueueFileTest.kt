@@ -27,6 +27,7 @@ import org.radarbase.util.QueueFileElement.Companion.ELEMENT_HEADER_LENGTH
 import org.radarbase.util.QueueFileHeader.Companion.QUEUE_HEADER_LENGTH
 import org.slf4j.LoggerFactory
 import java.io.IOException
+import java.nio.ByteBuffer
 import java.util.*
 import java.util.concurrent.ThreadLocalRandom
 import kotlin.math.ln
@@ -245,6 +246,67 @@ class QueueFileTest {
         assertTrue(queue.isEmpty)
     }
 
+    @Test
+    @Throws(Exception::class)
+    fun groupCommit() {
+        val file = folder.newFile()
+        assertTrue(file.delete())
+        QueueFile.newDirect(file, MAX_SIZE).use { queue ->
+            queue.syncDelay = 60_000L
+            queue.elementOutputStream().use { out ->
+                out.write(1)
+                out.next()
+                out.write(2)
+            }
+            assertEquals(2, queue.size)
+            assertTrue(queue.isHeaderDirty)
+            // the header on disk still refers to the last synchronized state
+            QueueFile.newDirect(file, MAX_SIZE).use { assertEquals(0, it.size) }
+
+            queue.sync()
+            assertFalse(queue.isHeaderDirty)
+            QueueFile.newDirect(file, MAX_SIZE).use { assertEquals(2, it.size) }
+
+            queue.remove(1)
+            assertTrue(queue.isHeaderDirty)
+            // writing after a removal is committed together with the removal
+            queue.elementOutputStream().use { out -> out.write(3) }
+            assertTrue(queue.isHeaderDirty)
+            QueueFile.newDirect(file, MAX_SIZE).use { queue2 ->
+                assertEquals(2, queue2.size)
+                queue2.peek()!!.use { assertEquals(1, it.read()) }
+            }
+        }
+        QueueFile.newDirect(file, MAX_SIZE).use { queue ->
+            assertEquals(2, queue.size)
+            queue.peek()!!.use { assertEquals(2, it.read()) }
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    fun groupCommitReusesRemovedSpace() {
+        val file = folder.newFile()
+        assertTrue(file.delete())
+        val buffer = ByteArray(((MINIMUM_LENGTH - QUEUE_HEADER_LENGTH) / 2 - ELEMENT_HEADER_LENGTH).toInt())
+        QueueFile.newDirect(file, MINIMUM_LENGTH).use { queue ->
+            queue.syncDelay = 60_000L
+            queue.elementOutputStream().use { out ->
+                out.write(buffer)
+                out.next()
+                out.write(buffer)
+            }
+            queue.sync()
+            queue.remove(1)
+            assertTrue(queue.isHeaderDirty)
+            // the element only fits in the removed space, so the removal is synchronized first
+            queue.elementOutputStream().use { out -> out.write(buffer) }
+            assertEquals(2, queue.size)
+            QueueFile.newDirect(file, MINIMUM_LENGTH).use { assertEquals(1, it.size) }
+        }
+        QueueFile.newDirect(file, MINIMUM_LENGTH).use { assertEquals(2, it.size) }
+    }
+
     @Throws(IOException::class)
     private fun writeAssertFileSize(
         expectedSize: Long,
@@ -305,6 +367,88 @@ class QueueFileTest {
         assertEquals(MINIMUM_LENGTH * 2, queue.fileSize)
     }
 
+    @Test
+    fun indexedSkipAndRemove() {
+        val file = folder.newFile()
+        assertTrue(file.delete())
+        val expected = ArrayDeque<Int>()
+        var nextValue = 0
+        var queue = QueueFile.newDirect(file, MAX_SIZE, indexInterval = 8)
+        val random = Random(1L)
+
+        fun assertContents() {
+            assertEquals(expected.size, queue.size)
+            if (expected.isEmpty()) return
+            repeat(5) {
+                val offset = random.nextInt(expected.size)
+                queue.iterator(offset).next().use { input ->
+                    assertEquals(expected.elementAt(offset), input.readNBytes(4).toInt())
+                }
+            }
+        }
+
+        try {
+            repeat(200) { iteration ->
+                // write multiple elements, causing the ring buffer to wrap and grow
+                queue.elementOutputStream().use { out ->
+                    repeat(random.nextInt(40) + 1) {
+                        out.write((nextValue).toBytes())
+                        out.write(ByteArray(random.nextInt(200)))
+                        out.next()
+                        expected += nextValue++
+                    }
+                }
+                assertContents()
+                val numRemove = random.nextInt(expected.size + 1).coerceAtMost(expected.size - 1)
+                queue.remove(numRemove)
+                repeat(numRemove) { expected.removeFirst() }
+                assertContents()
+                if (iteration % 20 == 0) {
+                    queue.close()
+                    assertTrue(QueueFile.indexFile(file).exists())
+                    queue = QueueFile.newDirect(file, MAX_SIZE, indexInterval = 8)
+                    assertFalse(QueueFile.indexFile(file).exists())
+                    assertContents()
+                }
+            }
+            assertEquals(expected.size, queue.iterator(1).asSequence().count() + 1)
+            assertFalse(queue.iterator(expected.size).hasNext())
+        } finally {
+            queue.close()
+        }
+    }
+
+    @Test
+    fun indexNotUsedAfterModification() {
+        val file = folder.newFile()
+        assertTrue(file.delete())
+        QueueFile.newDirect(file, MAX_SIZE, indexInterval = 2).use { queue ->
+            queue.elementOutputStream().use { out ->
+                repeat(10) {
+                    out.write(it.toBytes())
+                    out.next()
+                }
+            }
+        }
+        // modify without index
+        QueueFile.newDirect(file, MAX_SIZE).use { queue ->
+            queue.remove(3)
+            queue.elementOutputStream().use { out ->
+                out.write(10.toBytes())
+            }
+        }
+        assertFalse(QueueFile.indexFile(file).exists())
+        QueueFile.newDirect(file, MAX_SIZE, indexInterval = 2).use { queue ->
+            queue.iterator(5).next().use { assertEquals(8, it.readNBytes(4).toInt()) }
+            queue.remove(7)
+            queue.peek()!!.use { assertEquals(10, it.readNBytes(4).toInt()) }
+        }
+    }
+
+    private fun Int.toBytes() = ByteBuffer.allocate(4).putInt(this).array()
+
+    private fun ByteArray.toInt() = ByteBuffer.wrap(this).int
+
     private enum class Operation {
         REOPEN, WRITE, READ, CLEAR, REMOVE
     }
@@ -0,0 +1,156 @@
+package org.radarbase.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.radarbase.util.QueueFileElement.Companion.ELEMENT_HEADER_LENGTH
+import java.io.File
+import java.io.InputStream
+import java.io.RandomAccessFile
+
+class SegmentedQueueFileTest {
+    @Rule
+    @JvmField
+    var folder = TemporaryFolder()
+
+    @Test
+    fun writeAndReadAcrossSegments() {
+        val file = newFile()
+        SegmentedQueueFile(file, MAX_SIZE, SEGMENT_SIZE).use { queue ->
+            assertTrue(queue.isEmpty)
+            assertNull(queue.peek())
+            queue.write(0 until 100)
+            assertEquals(100, queue.size)
+            assertEquals(100L * (ELEMENT_HEADER_LENGTH + ELEMENT_SIZE), queue.usedBytes)
+            assertTrue(segmentFiles(file).size > 1)
+            assertEquals((0 until 100).toList(), queue.map { it.readElement() })
+            assertEquals(0, queue.peek()?.readElement())
+            assertEquals((95 until 100).toList(), queue.iterator(95).asSequence().map { it.readElement() }.toList())
+            assertFalse(queue.iterator(100).hasNext())
+        }
+    }
+
+    @Test
+    fun removeDeletesSegments() {
+        val file = newFile()
+        SegmentedQueueFile(file, MAX_SIZE, SEGMENT_SIZE).use { queue ->
+            queue.write(0 until 100)
+            val numSegments = segmentFiles(file).size
+            queue.remove(3)
+            assertEquals(numSegments, segmentFiles(file).size)
+            assertEquals(3, queue.peek()?.readElement())
+            queue.remove(60)
+            assertTrue(segmentFiles(file).size < numSegments)
+            assertEquals(37, queue.size)
+            assertEquals(63, queue.peek()?.readElement())
+            assertEquals((63 until 100).toList(), queue.map { it.readElement() })
+            assertThrows(NoSuchElementException::class.java) { queue.remove(38) }
+            queue.clear()
+            assertTrue(queue.isEmpty)
+            assertTrue(segmentFiles(file).isEmpty())
+            queue.write(100 until 102)
+            assertEquals(listOf(100, 101), queue.map { it.readElement() })
+        }
+    }
+
+    @Test
+    fun largeElements() {
+        SegmentedQueueFile(newFile(), MAX_SIZE, SEGMENT_SIZE).use { queue ->
+            val elements = (1..5).map { i -> ByteArray(i * 10_000) { (i + it).toByte() } }
+            queue.elementOutputStream().use { out ->
+                elements.forEach { element ->
+                    // write in chunks, partly through the write buffer
+                    out.write(element, 0, 10)
+                    out.write(element, 10, element.size - 10)
+                    out.next()
+                }
+            }
+            assertEquals(elements.map { it.toList() }, queue.map { it.use { input -> input.readBytes().toList() } })
+        }
+    }
+
+    @Test
+    fun reopen() {
+        val file = newFile()
+        SegmentedQueueFile(file, MAX_SIZE, SEGMENT_SIZE).use { queue ->
+            queue.write(0 until 50)
+            queue.remove(20)
+        }
+        assertTrue(SegmentedQueueFile.isSegmented(file))
+        // uncommitted data is discarded on reopening
+        val last = segmentFiles(file).maxByOrNull { it.name.split('.').let { parts -> parts[parts.size - 2].toLong() } }!!
+        val committedLength = last.length()
+        RandomAccessFile(last, "rw").use { it.setLength(committedLength + 100) }
+        File(file.path + ".999.seg").writeBytes(ByteArray(10))
+
+        SegmentedQueueFile(file, MAX_SIZE, SEGMENT_SIZE).use { queue ->
+            assertEquals(30, queue.size)
+            assertEquals(committedLength, last.length())
+            assertFalse(File(file.path + ".999.seg").exists())
+            queue.write(50 until 60)
+            assertEquals((20 until 60).toList(), queue.map { it.readElement() })
+        }
+    }
+
+    @Test
+    fun groupCommit() {
+        val file = newFile()
+        SegmentedQueueFile(file, MAX_SIZE, SEGMENT_SIZE).use { queue ->
+            queue.syncDelay = 60_000L
+            queue.write(0 until 10)
+            assertTrue(queue.isHeaderDirty)
+            // the manifest on disk does not yet contain the new elements
+            SegmentedQueueFile(file, MAX_SIZE, SEGMENT_SIZE).use { assertEquals(0, it.size) }
+        }
+    }
+
+    @Test
+    fun doesNotFit() {
+        SegmentedQueueFile(newFile(), 10L * (ELEMENT_HEADER_LENGTH + ELEMENT_SIZE), SEGMENT_SIZE).use { queue ->
+            queue.elementOutputStream().use { out ->
+                repeat(10) {
+                    out.write(ByteArray(ELEMENT_SIZE))
+                    out.next()
+                }
+                assertThrows(IllegalStateException::class.java) { out.write(ByteArray(ELEMENT_SIZE)) }
+            }
+            assertEquals(10, queue.size)
+        }
+    }
+
+    private fun newFile(): File = folder.newFile().also { assertTrue(it.delete()) }
+
+    private fun segmentFiles(file: File): List<File> = file.parentFile!!
+        .listFiles { _, name -> name.startsWith(file.name + ".") && name.endsWith(SegmentedQueueFile.SEGMENT_EXTENSION) }!!
+        .toList()
+
+    private fun ElementQueue.write(values: IntRange) {
+        elementOutputStream().use { out ->
+            values.forEach { value ->
+                out.write(value.toElement())
+                out.next()
+            }
+        }
+    }
+
+    companion object {
+        private const val MAX_SIZE = 10_000_000L
+        private const val SEGMENT_SIZE = 1000L
+        private const val ELEMENT_SIZE = 100
+
+        private fun Int.toElement() = ByteArray(ELEMENT_SIZE) { (this + it).toByte() }
+
+        private fun InputStream.readElement(): Int {
+            val bytes = use { it.readBytes() }
+            val value = bytes[0].toInt() and 0xFF
+            assertArrayEquals(value.toElement(), bytes)
+            return value
+        }
+    }
+}